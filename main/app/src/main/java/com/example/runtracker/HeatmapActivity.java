@@ -0,0 +1,124 @@
+package com.example.runtracker;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.example.runtracker.heatmap.HeatmapAggregator;
+import com.example.runtracker.heatmap.HeatmapRenderer;
+import com.example.runtracker.heatmap.TileCache;
+import com.example.runtracker.history.SessionStore;
+import com.example.runtracker.service.TrackingService;
+import com.example.runtracker.view.HeatmapView;
+
+import java.io.File;
+
+/**
+ * HeatmapActivity shows the heatmap of every recorded route, fitted to the area run in.
+ * <p>
+ * The heatmap comes from the {@link SessionStore}, which reads it from its file or
+ * recomputes it the first time, and marks the sessions ended since. The drawn tiles are
+ * kept for the life of the process in a {@link TileCache} capped to an eighth of the
+ * heap, so opening the heatmap again only draws the tiles the new sessions changed.
+ * </p>
+ */
+public class HeatmapActivity extends AppCompatActivity {
+    /** File name of the saved heatmap, in the files directory. */
+    static final String HEATMAP_FILE = "heatmap.bin";
+
+    /** Part of the heap the drawn tiles may take, as a divisor. */
+    private static final int TILE_CACHE_HEAP_DIVISOR = 8;
+
+    /** Drawn tiles of the heatmap, or null until first shown; only used on the main thread. */
+    private static TileCache<Bitmap> tiles;
+
+    /** The map. */
+    private HeatmapView heatmapView;
+
+    /** Text shown while loading, or when there is nothing to show. */
+    private TextView messageTextView;
+
+    /** Flag indicating whether the activity was destroyed, so a late heatmap is dropped. */
+    private boolean destroyed;
+
+    /**
+     * Creates the map and loads the heatmap.
+     *
+     * @param savedInstanceState the saved state of the activity.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setTitle("Heatmap");
+        heatmapView = new HeatmapView(this);
+        messageTextView = new TextView(this);
+        messageTextView.setText("Drawing the heatmap…");
+        messageTextView.setPadding(32, 32, 32, 32);
+        ViewGroup content = findViewById(android.R.id.content);
+        content.addView(heatmapView);
+        content.addView(messageTextView);
+        SessionStore.get(this).loadHeatmap(new File(getFilesDir(), TrackingService.TRACKS_DIRECTORY),
+                new File(getFilesDir(), HEATMAP_FILE), this::showHeatmap);
+    }
+
+    @Override
+    protected void onDestroy() {
+        destroyed = true;
+        super.onDestroy();
+    }
+
+    /**
+     * Drops the changed tiles and shows the heatmap.
+     *
+     * @param heatmap      the heatmap.
+     * @param changedTiles keys of the tiles changed since it was last shown.
+     */
+    private void showHeatmap(HeatmapAggregator heatmap, long[] changedTiles) {
+        TileCache<Bitmap> cache = tileCache(heatmap);
+        cache.invalidate(changedTiles);
+        if (destroyed) {
+            return;
+        }
+        double[] bounds = new double[4];
+        if (!heatmap.bounds(bounds)) {
+            messageTextView.setText("No routes yet");
+            return;
+        }
+        messageTextView.setVisibility(View.GONE);
+        heatmapView.setTiles(cache, bounds);
+    }
+
+    /**
+     * Returns the drawn tiles of the heatmap, creating the cache on first use.
+     *
+     * @param heatmap the heatmap of the process.
+     * @return the cache.
+     */
+    private static TileCache<Bitmap> tileCache(HeatmapAggregator heatmap) {
+        if (tiles == null) {
+            HeatmapRenderer renderer = new HeatmapRenderer();
+            int[] pixels = new int[HeatmapRenderer.TILE_PIXELS * HeatmapRenderer.TILE_PIXELS];
+            tiles = new TileCache<>(Runtime.getRuntime().maxMemory() / TILE_CACHE_HEAP_DIVISOR,
+                    new TileCache.Loader<Bitmap>() {
+                        @Override
+                        public Bitmap load(long key) {
+                            if (!renderer.render(heatmap, key, pixels)) {
+                                return null;
+                            }
+                            return Bitmap.createBitmap(pixels, HeatmapRenderer.TILE_PIXELS,
+                                    HeatmapRenderer.TILE_PIXELS, Bitmap.Config.ARGB_8888);
+                        }
+
+                        @Override
+                        public long sizeBytes(Bitmap tile) {
+                            return tile.getByteCount();
+                        }
+                    });
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.runtracker;
+
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.example.runtracker.display.MetricsTextFormatter;
+import com.example.runtracker.history.BestEffortFinder;
+import com.example.runtracker.history.SessionStore;
+import com.example.runtracker.history.SessionSummary;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.service.TrackingService;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * HistoryActivity lists the recorded sessions, newest first.
+ * <p>
+ * The sessions come from the {@link SessionStore}, a page at a time: the first page when
+ * the screen opens, and the next one when the list is scrolled near its end, so opening
+ * the history costs the same after ten sessions or ten thousand. Each row shows the date
+ * of a session with its distance, duration and best mile or kilometer, in the unit passed
+ * with {@link #EXTRA_USE_MPH}.
+ * </p>
+ * <p>
+ * Above the list, the personal bests over 1 km, 5 km and 10 km are shown once the
+ * store has scanned the sessions recorded since it last did, with a button opening the
+ * {@link HeatmapActivity heatmap} of every route. A long press on a session saves its
+ * route as a segment, timed in the sessions to come.
+ * </p>
+ */
+public class HistoryActivity extends AppCompatActivity {
+    /** Boolean intent extra: true to show miles, false for kilometers. */
+    public static final String EXTRA_USE_MPH = "com.example.runtracker.extra.USE_MPH";
+
+    /** File name of the saved personal bests, in the files directory. */
+    static final String BEST_EFFORTS_FILE = "best-efforts.bin";
+
+    /** Number of sessions loaded per page. */
+    static final int PAGE_SIZE = 50;
+
+    /** Number of rows left below the visible ones when the next page is loaded. */
+    private static final int PREFETCH_ROWS = 10;
+
+    /** The loaded sessions, newest first. */
+    private final List<SessionSummary> sessions = new ArrayList<>();
+
+    /** Formatter of the totals of each row. */
+    private final MetricsTextFormatter formatter = new MetricsTextFormatter();
+
+    /** Adapter of the list. */
+    private final SessionAdapter adapter = new SessionAdapter();
+
+    /** Header showing the personal bests. */
+    private TextView bestsTextView;
+
+    /** Store of the history. */
+    private SessionStore store;
+
+    /** Flag indicating whether distances are shown in miles. */
+    private boolean useMph;
+
+    /** True while a page is being loaded. */
+    private boolean loading;
+
+    /** True once a page came back short, so there is nothing more to load. */
+    private boolean loadedAll;
+
+    /** Flag indicating whether the activity was destroyed, so late pages are dropped. */
+    private boolean destroyed;
+
+    /**
+     * Creates the list, loads the first page and the personal bests.
+     *
+     * @param savedInstanceState the saved state of the activity.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setTitle("History");
+        useMph = getIntent().getBooleanExtra(EXTRA_USE_MPH, true);
+        store = SessionStore.get(this);
+
+        ListView list = new ListView(this);
+        TextView empty = new TextView(this);
+        empty.setText("No sessions yet");
+        empty.setPadding(32, 32, 32, 32);
+        empty.setVisibility(View.GONE);
+        ViewGroup content = findViewById(android.R.id.content);
+        content.addView(list);
+        content.addView(empty);
+        bestsTextView = new TextView(this);
+        bestsTextView.setText("Finding personal bests…");
+        bestsTextView.setPadding(32, 24, 32, 24);
+        list.addHeaderView(bestsTextView, null, false);
+        Button heatmapButton = new Button(this);
+        heatmapButton.setText("Show heatmap");
+        heatmapButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(HistoryActivity.this, HeatmapActivity.class));
+            }
+        });
+        list.addHeaderView(heatmapButton, null, false);
+        list.setEmptyView(empty);
+        list.setAdapter(adapter);
+        list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                askSegmentName((SessionSummary) parent.getItemAtPosition(position));
+                return true;
+            }
+        });
+        list.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount + PREFETCH_ROWS >= totalItemCount) {
+                    loadNextPage();
+                }
+            }
+        });
+        loadNextPage();
+        store.loadBestEfforts(new File(getFilesDir(), TrackingService.TRACKS_DIRECTORY),
+                new File(getFilesDir(), BEST_EFFORTS_FILE), this::showBestEfforts);
+    }
+
+    @Override
+    protected void onDestroy() {
+        destroyed = true;
+        super.onDestroy();
+    }
+
+    /**
+     * Loads the page after the last loaded session, unless one is loading or all are
+     * loaded.
+     */
+    void loadNextPage() {
+        if (loading || loadedAll) {
+            return;
+        }
+        loading = true;
+        SessionSummary last = sessions.isEmpty() ? null : sessions.get(sessions.size() - 1);
+        store.loadPage(last, PAGE_SIZE, this::onPageLoaded);
+    }
+
+    /** @return the number of loaded sessions. */
+    int loadedCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Adds a loaded page to the list.
+     *
+     * @param page the sessions of the page, newest first.
+     */
+    private void onPageLoaded(List<SessionSummary> page) {
+        if (destroyed) {
+            return;
+        }
+        loading = false;
+        loadedAll = page.size() < PAGE_SIZE;
+        sessions.addAll(page);
+        adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Asks for the name of a segment along the route of a session, and saves it.
+     *
+     * @param session the session.
+     */
+    private void askSegmentName(SessionSummary session) {
+        if (session.trackFileName == null) {
+            Toast.makeText(this, "This session has no track", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EditText nameText = new EditText(this);
+        nameText.setSingleLine();
+        nameText.setText("Route of " + DateFormat.getMediumDateFormat(this).format(new Date(session.startEpochMillis)));
+        new AlertDialog.Builder(this)
+                .setTitle("Save route as segment")
+                .setView(nameText)
+                .setNegativeButton("Cancel", null)
+                .setPositiveButton("Save", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File tracks = new File(getFilesDir(), TrackingService.TRACKS_DIRECTORY);
+                        store.saveSegment(new File(tracks, session.trackFileName),
+                                nameText.getText().toString().trim(), HistoryActivity.this::onSegmentSaved);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Tells whether a segment was saved.
+     *
+     * @param segment the saved segment, or null.
+     */
+    private void onSegmentSaved(Segment segment) {
+        if (destroyed) {
+            return;
+        }
+        Toast.makeText(this, segment != null ? "Saved segment " + segment.name
+                : "Cannot read the route of this session", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Shows the personal bests in the header, one distance per line.
+     *
+     * @param finder the finder holding the bests.
+     */
+    private void showBestEfforts(BestEffortFinder finder) {
+        if (destroyed) {
+            return;
+        }
+        StringBuilder text = new StringBuilder("Personal bests");
+        for (int t = 0; t < finder.targetCount(); t++) {
+            text.append('\n').append(formatter.formatEffort(finder.targetMeters(t), finder.bestNanos(t)));
+        }
+        bestsTextView.setText(text);
+    }
+
+    /**
+     * Adapter showing a session per row, on two lines.
+     */
+    private final class SessionAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return sessions.size();
+        }
+
+        @Override
+        public SessionSummary getItem(int position) {
+            return sessions.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return sessions.get(position).id;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View row = convertView != null ? convertView : LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            SessionSummary session = getItem(position);
+            Date start = new Date(session.startEpochMillis);
+            ((TextView) row.findViewById(android.R.id.text1)).setText(
+                    DateFormat.getMediumDateFormat(HistoryActivity.this).format(start) + " "
+                            + DateFormat.getTimeFormat(HistoryActivity.this).format(start));
+            ((TextView) row.findViewById(android.R.id.text2)).setText(formatter.formatSession(
+                    session.distanceMeters, session.durationNanos,
+                    useMph ? session.bestMileNanos : session.bestKilometerNanos, useMph).toString());
+            return row;
+        }
+    }
+}
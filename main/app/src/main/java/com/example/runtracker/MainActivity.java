@@ -6,16 +6,24 @@ package com.example.runtracker;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.InputType;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.SeekBar;
@@ -26,33 +34,67 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.example.runtracker.checkpoint.LastFix;
+import com.example.runtracker.clock.SessionClock;
+import com.example.runtracker.display.FixTextFormatter;
+import com.example.runtracker.display.LogSink;
+import com.example.runtracker.display.MetricsTextFormatter;
+import com.example.runtracker.display.SpeedBands;
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.perf.PerfMonitor;
+import com.example.runtracker.perf.PerfReport;
+import com.example.runtracker.perf.StartupTrace;
+import com.example.runtracker.pipeline.FixSnapshot;
+import com.example.runtracker.service.TrackingService;
+import com.example.runtracker.view.RouteView;
+
+import java.io.File;
+import java.io.IOException;
+
 /**
  * MainActivity is the main entry point of the Run Tracker application.
  * <p>
- * This activity handles location tracking by checking for location permissions,
- * requesting location updates from the GPS provider, and displaying the current
- * latitude, longitude, and speed on the screen using string concatenation.
+ * This activity checks for location permissions, starts the {@link TrackingService} that
+ * tracks the run in the foreground, and displays the current latitude, longitude, and
+ * speed on the screen using reusable text buffers. Location updates come from the GPS
+ * provider, or from the batched fused location provider when selected with its switch,
+ * and keep being recorded by the service while the screen is off or the app is in the
+ * background. While visible, the activity is bound to the service and is handed the
+ * newest processed fix at most once per frame; when it comes back it shows the latest
+ * fix at once. Each session is saved to a binary track file in the app's private storage.
  * It also includes a timer functionality that displays elapsed time since the start
- * of the application or the last reset, along with buttons to reset the timer,
- * toggle the speed unit between miles per hour (mph) and meters per second (m/s),
- * and pause/resume both the timer and location updates. The size of the text that
- * displays speed can also be changed using a seek bar.
+ * of the session or the last reset, updated on the whole seconds of the service's
+ * {@link SessionClock} and only while it runs, along with buttons to end a lap, reset
+ * the timer, toggle the speed unit between miles per hour (mph) and meters per second
+ * (m/s), and pause/resume both the timer and location updates. The timer also pauses on
+ * its own while the user is stopped, and GPS updates slow down. The current lap and the
+ * pace of the last one are shown below the metrics; a lap ends every mile or kilometer,
+ * or with the lap button. The size of the text that displays speed can also be changed
+ * using a seek bar. A {@link RouteView} at the bottom draws the route as it is recorded.
+ * Ended sessions are kept in a history, listed by the {@link HistoryActivity}.
+ * </p>
+ * <p>
+ * In Dev Mode a performance overlay shows the p50 and p99 of the latencies from the fix
+ * timestamp to the rendered frame, of the timer drift and of the allocations per batch,
+ * refreshed with the timer. Tapping it dumps the full histograms to a file.
+ * </p>
+ * <p>
+ * The first frame is drawn before anything else: {@code onCreate} only sets the content
+ * and finds the views. The permission check, the start of the tracking service and of the
+ * GPS, the secondary controls and the last known position come after that frame, and the
+ * help dialog is only built when first asked for. Until the first fix, the last known
+ * position, saved by the service or known to the system, is shown dimmed with its age.
+ * Each phase of the start is recorded in a {@link StartupTrace}, measured from the start
+ * of the process on a cold start, and written to the debug log of the service in Dev
+ * Mode at the first fix, or when Dev Mode is turned on.
  * </p>
  */
 public class MainActivity extends AppCompatActivity {
-    /** Conversion factor to convert speed from meters per second to miles per hour.
-     * 1 meter per second is approximately equal to 2.23694 miles per hour.
-     */
-    private static final double MPS_TO_MPH = 2.23694;
-
     /** Default progress on seek bar (maximum value is 100) */
     private static final int DEFAULT_SEEKBAR_PROGRESS = 40;
 
-    /** Manager for accessing system location services. */
-    private LocationManager locationManager;
-
-    /** Listener for receiving location updates. */
-    private LocationListener locationListener;
+    /** The bound tracking service, or null while not bound. */
+    private TrackingService service;
 
     /** TextView for displaying the current location details. */
     private TextView locationTextView;
@@ -60,9 +102,21 @@ public class MainActivity extends AppCompatActivity {
     /** TextView for displaying the current speed. */
     private TextView speedTextView;
 
+    /** TextView for displaying the session distance, pace and moving time. */
+    private TextView metricsTextView;
+
+    /** TextView for displaying the current and the last lap. */
+    private TextView lapTextView;
+
+    /** View drawing the route of the session. */
+    private RouteView routeView;
+
     /** TextView for displaying the elapsed timer value. */
     private TextView timerTextView;
 
+    /** Button for ending the current lap. */
+    private Button lapButton;
+
     /** Button for resetting the timer. */
     private Button resetButton;
 
@@ -75,178 +129,348 @@ public class MainActivity extends AppCompatActivity {
     /** Button for display help information. */
     private Button helpButton;
 
+    /** Button for opening the history of the sessions. */
+    private Button historyButton;
+
+    /** Switch for development mode. */
+    private SwitchCompat devModeSwitch;
+
+    /** Switch for the batched fused location provider. */
+    private SwitchCompat fusedLocationSwitch;
+
+    /** Switch for sharing the recorded fixes live. */
+    private SwitchCompat liveShareSwitch;
+
+    /** Endpoint last entered for live sharing, offered again the next time. */
+    private String lastLiveShareEndpoint = "https://";
+
+    /** TextView of the performance overlay, shown in Dev Mode. */
+    private TextView perfOverlayTextView;
+
+    /** Phase reached on entering {@code onCreate}. */
+    static final String PHASE_CREATE = "create";
+
+    /** Phase reached once the content is set and the views are found. */
+    static final String PHASE_CONTENT = "content";
+
+    /** Phase reached once the first frame is drawn. */
+    static final String PHASE_FIRST_FRAME = "first-frame";
+
+    /** Phase reached once the secondary controls are set up. */
+    static final String PHASE_SECONDARY_SETUP = "secondary-setup";
+
+    /** Phase reached once the last known position is shown, or found missing. */
+    static final String PHASE_LAST_FIX = "last-fix";
+
+    /** Phase reached once the permission is checked and the tracking service started. */
+    static final String PHASE_TRACKING = "tracking";
+
+    /** Phase reached once the first fix is shown. */
+    static final String PHASE_FIRST_FIX = "first-fix";
+
+    /** Opacity of the location text while it shows the last known position. */
+    private static final float STALE_ALPHA = 0.5f;
+
+    /** Whether a start of this process was traced already; later starts are warm. */
+    private static boolean coldStartTraced;
+
+    /** Phases of the start of this activity. */
+    private StartupTrace startupTrace;
+
+    /** Flag indicating whether the activity is between onStart and onStop. */
+    private boolean isStarted = false;
+
+    /** Flag indicating whether the location text shows the last known position. */
+    private boolean showingStaleFix = false;
+
+    /** Flag indicating whether a fix was shown since the activity was created. */
+    private boolean shownFirstFix = false;
+
+    /** Help dialog, built on the first click of the help button. */
+    private AlertDialog helpDialog;
+
     /** Request code for location permission. */
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1;
 
     /** Handler for scheduling timer updates. */
     private final Handler handler = new Handler();
 
-    /** Start time in milliseconds for the timer. */
-    private long startTime;
+    /** Flag indicating whether the location permission is granted. */
+    private boolean hasLocationPermission = false;
 
-    /** Flag indicating whether the timer is currently running. */
-    private boolean isTimerRunning = false;
+    /** Flag indicating whether the activity is bound to the tracking service. */
+    private boolean isBound = false;
 
-    /** Flag indicating whether the app is in development mode. */
-    private boolean isDevMode = false;
+    /** Auto-pause state of the last shown fix, used to announce changes. */
+    private boolean shownAutoPaused = false;
 
-    /**
-     * Flag indicating whether the speed is displayed in miles per hour.
-     * If false, the speed will be displayed in meters per second.
-     */
-    private boolean useMph = true;
+    /** SeekBar to adjust the font size of the speed display. */
+    private SeekBar fontSizeSeekBar;
 
-    /** Flag indicating whether the app is currently paused. */
-    private boolean isPaused = false;
+    /** Reusable text buffers for the location and speed text of each fix. */
+    private final FixTextFormatter fixTextFormatter = new FixTextFormatter();
 
-    /** The elapsed time when the app was paused. */
-    private long pausedTime = 0;
+    /** Reusable text buffer for the distance, pace and moving time text. */
+    private final MetricsTextFormatter metricsTextFormatter = new MetricsTextFormatter();
 
-    /** SeekBar to adjust the font size of the speed display. */
-    private SeekBar fontSizeSeekBar;
+    /** Color resources for each speed band, indexed by {@link SpeedBands}. */
+    private static final int[] SPEED_COLOR_RES_IDS = {
+            android.R.color.holo_green_dark,
+            android.R.color.holo_orange_dark,
+            android.R.color.holo_red_dark
+    };
+
+    /** Resolved colors for each speed band, looked up once in onCreate. */
+    private final int[] speedColors = new int[SpeedBands.COUNT];
+
+    /** Speed band currently applied to the speed TextView, or -1 if none yet. */
+    private int shownSpeedBand = -1;
+
+    /** Latency histograms of the service, or {@link PerfMonitor#DISABLED} while not bound. */
+    private PerfMonitor perfMonitor = PerfMonitor.DISABLED;
+
+    /** Report of {@link #perfMonitor} for the overlay, or null while not bound. */
+    private PerfReport perfReport;
+
+    /** Elapsed realtime at which the next timer update is due, in nanoseconds, or 0. */
+    private long timerDueNanos;
+
+    /** Reusable text buffer for the timer text. */
+    private final TextBuffer timerText = new TextBuffer(32);
 
     /**
-     * Runnable that updates the timer TextView every second with the elapsed time.
+     * Runnable that updates the timer TextView with the elapsed time kept by the service,
+     * and the performance overlay while it is shown. It runs again when the session clock
+     * reaches its next whole second, and not at all while the clock stands still, except
+     * every second for the overlay. The lateness of each scheduled update is recorded as
+     * the timer drift.
      */
     private final Runnable updateTimeRunnable = new Runnable() {
-        @SuppressLint("SetTextI18n")
         @Override
         public void run() {
-            long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
-            timerTextView.setText("Elapsed Time: " + elapsedTime + " sec");
-            handler.postDelayed(this, 1000);
+            if (timerDueNanos != 0) {
+                perfMonitor.recordTimerTick(timerDueNanos);
+                timerDueNanos = 0;
+            }
+            if (service == null) {
+                return;
+            }
+            SessionClock clock = service.sessionClock();
+            timerText.clear().append("Elapsed Time: ")
+                    .append(clock.elapsedNanos() / SessionClock.TICK_NANOS).append(" sec");
+            timerTextView.setText(timerText.chars(), 0, timerText.length());
+
+            long delayNanos = clock.nanosUntilNextTick();
+            if (perfOverlayTextView.getVisibility() == View.VISIBLE) {
+                TextBuffer perfText = perfReport.formatSummary();
+                perfOverlayTextView.setText(perfText.chars(), 0, perfText.length());
+                if (delayNanos < 0) {
+                    delayNanos = SessionClock.TICK_NANOS;
+                }
+            }
+            if (delayNanos >= 0) {
+                timerDueNanos = SystemClock.elapsedRealtimeNanos() + delayNanos;
+                // Round up so the update never comes before the second has turned.
+                handler.postDelayed(this, (delayNanos + 999_999) / 1_000_000);
+            }
+        }
+    };
+
+    /** Updates the timer right away and reschedules it when the session clock changes. */
+    private final SessionClock.Listener clockListener = new SessionClock.Listener() {
+        @Override
+        public void onClockChanged(SessionClock clock) {
+            stopTimerUpdates();
+            updateTimeRunnable.run();
+        }
+    };
+
+    /**
+     * Connection to the tracking service. Once bound, the controls are synced with the
+     * service and the newest fix is shown right away.
+     */
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @SuppressLint("SetTextI18n")
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((TrackingService.LocalBinder) binder).getService();
+            perfMonitor = service.perfMonitor();
+            perfReport = new PerfReport(perfMonitor);
+            perfOverlayTextView.setVisibility(service.isDevMode() ? View.VISIBLE : View.GONE);
+            shownAutoPaused = service.isAutoPaused();
+            devModeSwitch.setChecked(service.isDevMode());
+            fusedLocationSwitch.setChecked(service.useFusedLocation());
+            liveShareSwitch.setChecked(service.liveShareEndpoint() != null);
+            unitToggleButton.setText(service.useMph() ? "Switch to m/s" : "Switch to mph");
+            pauseButton.setText(service.isPaused() ? "Resume" : "Pause");
+            service.attach(MainActivity.this::renderSnapshot);
+            service.sessionClock().setListener(clockListener);
+            stopTimerUpdates();
+            updateTimeRunnable.run();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+            perfMonitor = PerfMonitor.DISABLED;
+            perfReport = null;
+            stopTimerUpdates();
         }
     };
 
     /**
      * Called when the activity is first created.
      * <p>
-     * Initializes the user interface, sets up the location listener, timer, reset button,
-     * unit toggle button, and pause/resume button. Checks for location permission and starts receiving
-     * location updates if granted.
+     * Initializes the user interface and sets up the lap button, reset button, unit
+     * toggle button, and pause/resume button. Everything else waits for the first frame,
+     * in {@link #onFirstFrame()}.
      * </p>
      *
      * @param savedInstanceState the saved state of the activity.
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // A cold start is measured from the start of the process, so that the time before
+        // the activity is created counts as well.
+        long startNanos = coldStartTraced ? SystemClock.elapsedRealtimeNanos()
+                : Process.getStartElapsedRealtime() * 1_000_000L;
+        coldStartTraced = true;
+        startupTrace = new StartupTrace(SystemClock::elapsedRealtimeNanos, startNanos);
+        startupTrace.mark(PHASE_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
         locationTextView = findViewById(R.id.locationTextView);
         speedTextView = findViewById(R.id.speedTextView);
+        metricsTextView = findViewById(R.id.metricsTextView);
         fontSizeSeekBar = findViewById(R.id.fontSizeSeekBar);
         timerTextView = findViewById(R.id.timerTextView);
+        lapTextView = findViewById(R.id.lapTextView);
+        routeView = findViewById(R.id.routeView);
+        lapButton = findViewById(R.id.lapButton);
         resetButton = findViewById(R.id.resetButton);
         unitToggleButton = findViewById(R.id.unitToggleButton);
         pauseButton = findViewById(R.id.pauseButton);
         helpButton = findViewById(R.id.helpButton);
-
-        locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-
-        // Start the timer.
-        startTimer();
+        historyButton = findViewById(R.id.historyButton);
+        devModeSwitch = findViewById(R.id.devModeSwitch);
+        fusedLocationSwitch = findViewById(R.id.fusedLocationSwitch);
+        liveShareSwitch = findViewById(R.id.liveShareSwitch);
+        perfOverlayTextView = findViewById(R.id.perfOverlayTextView);
+
+        // Resolve the speed colors once instead of on every fix.
+        for (int band = 0; band < SpeedBands.COUNT; band++) {
+            speedColors[band] = ContextCompat.getColor(this, SPEED_COLOR_RES_IDS[band]);
+        }
 
         // Set up buttons using modular methods.
+        setupLapButton();
         setupResetButton();
         setupUnitToggleButton();
         setupPauseButton();
-        setupHelpButton();
-
-        setupDevSwitch();
-
-        // Create a LocationListener to receive location updates.
-        locationListener = new LocationListener() {
-            /**
-             * Called when the location has changed.
-             * <p>
-             * Retrieves the current latitude, longitude, and speed, logs these values,
-             * and updates the UI using concatenated strings. The speed is displayed in the unit selected
-             * by the user (mph or m/s).
-             * </p>
-             *
-             * @param location the updated location.
-             */
-            @SuppressLint({"SetTextI18n", "DefaultLocale"})
-            @Override
-            public void onLocationChanged(@NonNull Location location) {
-                double latitude, longitude, speed;
-                String speedUnit;
-
-                if (isDevMode) {
-                    // Fake location set to BU Beach
-                    latitude = 42.3505;
-                    longitude = -71.1076;
-                    speed = useMph ? (4.4704 * MPS_TO_MPH) : 4.4704;
-                } else {
-                    // Use real location data
-                    latitude = location.getLatitude();
-                    longitude = location.getLongitude();
-                    speed = useMph ? (location.getSpeed() * MPS_TO_MPH) : location.getSpeed();
-                }
-
-                speedUnit = useMph ? "mph" : "m/s";
+        startupTrace.mark(PHASE_CONTENT);
 
-                // Log location details for debugging.
-                System.out.println("Latitude: " + latitude);
-                System.out.println("Longitude: " + longitude);
-                System.out.println("Speed: " + speed);
-                System.out.println("Speed Unit: " + speedUnit);
+        // Actions posted before the window is attached run right after its first traversal,
+        // which draws the first frame.
+        getWindow().getDecorView().post(this::onFirstFrame);
+    }
 
-                // Update the TextView using concatenation.
-                locationTextView.setText(
-                        "Latitude: " + String.format("%.8f", latitude) + "°" +
-                        "\nLongitude: " + String.format("%.8f", longitude) + "°");
+    /**
+     * Runs the setup left out of {@link #onCreate} once the first frame is drawn: sets up
+     * the secondary controls, shows the last known position, checks for location
+     * permission and starts the tracking service if granted, which starts the GPS.
+     */
+    private void onFirstFrame() {
+        startupTrace.mark(PHASE_FIRST_FRAME);
+        setupHelpButton();
+        setupHistoryButton();
+        setupDevSwitch();
+        setupFusedLocationSwitch();
+        setupLiveShareSwitch();
+        setupPerfOverlay();
+        setupFontSizeSeekBar();
+        startupTrace.mark(PHASE_SECONDARY_SETUP);
 
-                // Update the speed TextView.
-                speedTextView.setText("Speed: " + String.format("%.3f", speed) + " " + speedUnit);
+        boolean granted = ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+        showLastKnownFix(granted);
+        startupTrace.mark(PHASE_LAST_FIX);
 
-                // Set the text color based on the speed.
-                int colorResId = getSpeedColor(speed, useMph);
-                speedTextView.setTextColor(ContextCompat.getColor(MainActivity.this, colorResId));
+        // Check if the location permission is granted.
+        if (!granted) {
+            // Request location permission if it is not granted, and on Android 13 and up
+            // the permission to show the tracking notification.
+            String[] permissions = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                    ? new String[]{Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.POST_NOTIFICATIONS}
+                    : new String[]{Manifest.permission.ACCESS_FINE_LOCATION};
+            ActivityCompat.requestPermissions(this, permissions, LOCATION_PERMISSION_REQUEST_CODE);
+        } else {
+            // Permission granted; tracking starts now unless the activity was stopped
+            // meanwhile, then in onStart.
+            hasLocationPermission = true;
+            if (isStarted) {
+                startTracking();
             }
+        }
+        startupTrace.mark(PHASE_TRACKING);
+    }
 
-            /**
-             * Called when the provider status changes.
-             *
-             * @param provider the name of the location provider.
-             * @param status   the new status of the provider.
-             * @param extras   additional provider-specific information.
-             */
-            @Override
-            public void onStatusChanged(String provider, int status, Bundle extras) { }
-
-            /**
-             * Called when the location provider is enabled.
-             *
-             * @param provider the name of the enabled location provider.
-             */
-            @Override
-            public void onProviderEnabled(@NonNull String provider) { }
-
-            /**
-             * Called when the location provider is disabled.
-             *
-             * @param provider the name of the disabled location provider.
-             */
-            @Override
-            public void onProviderDisabled(@NonNull String provider) { }
-        };
+    /**
+     * Shows the newest of the last fix saved by the service and the last GPS location
+     * known to the system, dimmed and with its age, until the first fix replaces it.
+     *
+     * @param granted true if the location permission is granted, which the last location
+     *                known to the system needs.
+     */
+    private void showLastKnownFix(boolean granted) {
+        if (shownFirstFix) {
+            return;
+        }
+        LastFix fix = null;
+        try {
+            fix = LastFix.read(new File(getFilesDir(), TrackingService.LAST_FIX_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (granted) {
+            LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+            try {
+                Location known = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+                if (known != null && (fix == null || known.getTime() > fix.epochMillis)) {
+                    fix = new LastFix(known.getLatitude(), known.getLongitude(), known.getAccuracy(),
+                            known.getTime());
+                }
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+        if (fix == null) {
+            return;
+        }
+        TextBuffer locationText = fixTextFormatter.formatStaleLocation(fix.latitude, fix.longitude,
+                System.currentTimeMillis() - fix.epochMillis);
+        locationTextView.setText(locationText.chars(), 0, locationText.length());
+        locationTextView.setAlpha(STALE_ALPHA);
+        showingStaleFix = true;
+    }
 
-        // Check if the location permission is granted.
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
-                != PackageManager.PERMISSION_GRANTED) {
-            // Request location permission if it is not granted.
-            ActivityCompat.requestPermissions(this,
-                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
-                    LOCATION_PERMISSION_REQUEST_CODE);
-        } else {
-            // Permission granted; start receiving location updates.
-            startLocationUpdates();
+    /**
+     * Writes the phases of the start to the debug log of the service, which only logs in
+     * Dev Mode; otherwise nothing is formatted.
+     */
+    private void logStartupTrace() {
+        LogSink sink = service != null ? service.logSink() : LogSink.DISABLED;
+        if (sink.isEnabled()) {
+            TextBuffer text = startupTrace.format();
+            sink.write(text.chars(), 0, text.length());
         }
+    }
 
-        setupFontSizeSeekBar();
+    /** @return the phases of the start of this activity. */
+    StartupTrace startupTrace() {
+        return startupTrace;
     }
+
     /**
      * Sets up the SeekBar to adjust the font size of the TextView.
      * Initializes the SeekBar progress and updates the TextView size based on user interaction.
@@ -299,30 +523,130 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Sets up the Dev Mode toggle switch.
      * This method finds the switch from the layout and sets an OnCheckedChangeListener
-     * that toggles the value of the isDevMode boolean and displays a Toast message
-     * to indicate the current state of Dev Mode.
+     * that turns Dev Mode on the service on or off. While Dev Mode is on, the service
+     * replays a synthetic run with GPS noise in place of the real location, routes
+     * per-fix debug logging to standard output and shows the performance overlay. The
+     * listener also displays a Toast message to indicate the current state of Dev Mode.
      */
     private void setupDevSwitch() {
-        // Find the switch by ID
-        SwitchCompat devModeSwitch = findViewById(R.id.devModeSwitch);
-
         // Set a listener for when the switch is toggled
         devModeSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            // Toggle the boolean value based on the switch state
-            isDevMode = isChecked;
+            // Ignore the switch being synced with the service on binding
+            if (service == null || service.isDevMode() == isChecked) {
+                return;
+            }
+            service.setDevMode(isChecked);
+            perfOverlayTextView.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            logStartupTrace();
 
             // Display a Toast message indicating the current mode
-            String mode = isDevMode ? "Dev Mode Enabled" : "Dev Mode Disabled";
+            String mode = isChecked ? "Dev Mode Enabled" : "Dev Mode Disabled";
             Toast.makeText(MainActivity.this, mode, Toast.LENGTH_SHORT).show();
         });
     }
 
+    /**
+     * Sets up the batched location toggle switch.
+     * <p>
+     * When checked, fixes come from the fused location provider, which may hold them
+     * back and deliver them in batches to save wakeups; otherwise they come from the
+     * GPS provider. Running updates switch to the new provider right away.
+     * </p>
+     */
+    private void setupFusedLocationSwitch() {
+        fusedLocationSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (service == null || service.useFusedLocation() == isChecked) {
+                return;
+            }
+            service.setUseFusedLocation(isChecked);
+            String provider = isChecked ? "Batched fused location" : "GPS location";
+            Toast.makeText(MainActivity.this, provider, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    /**
+     * Sets up the live share switch.
+     * <p>
+     * When checked, a dialog asks for the endpoint the recorded fixes are posted to, and
+     * sharing starts once it is confirmed; cancelling unchecks the switch. When unchecked,
+     * sharing stops.
+     * </p>
+     */
+    private void setupLiveShareSwitch() {
+        liveShareSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (service == null || (service.liveShareEndpoint() != null) == isChecked) {
+                return;
+            }
+            if (!isChecked) {
+                service.stopLiveShare();
+                Toast.makeText(MainActivity.this, "Live share stopped", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            EditText endpointEditText = new EditText(MainActivity.this);
+            endpointEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI);
+            endpointEditText.setText(lastLiveShareEndpoint);
+            new AlertDialog.Builder(MainActivity.this)
+                    .setTitle("Live share endpoint")
+                    .setView(endpointEditText)
+                    .setPositiveButton("Share", (dialog, which) -> {
+                        lastLiveShareEndpoint = endpointEditText.getText().toString().trim();
+                        try {
+                            if (service != null) {
+                                service.startLiveShare(lastLiveShareEndpoint);
+                                Toast.makeText(MainActivity.this, "Sharing live", Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            Toast.makeText(MainActivity.this, "Cannot share with " + lastLiveShareEndpoint,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                        liveShareSwitch.setChecked(false);
+                    })
+                    .setNegativeButton("Cancel", (dialog, which) -> liveShareSwitch.setChecked(false))
+                    .setOnCancelListener(dialog -> liveShareSwitch.setChecked(false))
+                    .show();
+        });
+    }
+
+    /**
+     * Sets up the performance overlay: a tap writes the full histograms to a file in the
+     * app's external files, and a Toast shows where.
+     */
+    private void setupPerfOverlay() {
+        perfOverlayTextView.setOnClickListener(v -> {
+            if (service == null) {
+                return;
+            }
+            try {
+                File file = service.dumpPerf();
+                Toast.makeText(MainActivity.this, "Saved " + file.getName(), Toast.LENGTH_SHORT).show();
+            } catch (IOException e) {
+                e.printStackTrace();
+                Toast.makeText(MainActivity.this, "Cannot save the report", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Sets up the lap button: a click ends the current lap, which the next fix shows.
+     */
+    private void setupLapButton() {
+        lapButton.setOnClickListener(v -> {
+            if (service == null || !service.isTracking() || service.isPaused()) {
+                return;
+            }
+            service.lap();
+            Toast.makeText(MainActivity.this, "Lap", Toast.LENGTH_SHORT).show();
+        });
+    }
+
     /**
      * Sets up the reset button with an OnClickListener.
      * <p>
      * When clicked, the button resets the timer to zero, updates the timer display,
      * resets the SeekBar to its default progress, restores the font size of the speed display,
-     * and shows a Toast message indicating the reset action.
+     * clears the recorded session track, and shows a Toast message indicating the reset action.
      * </p>
      */
     private void setupResetButton() {
@@ -330,22 +654,20 @@ public class MainActivity extends AppCompatActivity {
             @SuppressLint("SetTextI18n")
             @Override
             public void onClick(View v) {
+                if (service == null) {
+                    return;
+                }
                 // Stop any pending timer updates
-                handler.removeCallbacks(updateTimeRunnable);
-
-                // Reset start time to the current time
-                startTime = System.currentTimeMillis();
-
-                // Update the timer TextView to show 0 seconds elapsed
-                timerTextView.setText("Elapsed Time: 0 sec");
-
-                // Clear the paused state so that it resumes correctly from 0
-                isPaused = false;
+                stopTimerUpdates();
+
+                // Start a new session track and track file, with the timer and paused
+                // states cleared so that it resumes correctly from 0; the clock listener
+                // updates the timer TextView right away and restarts the timer updates
+                service.reset();
+                routeView.setRoute(null);
+                shownAutoPaused = false;
                 pauseButton.setText("Pause");
 
-                // Restart the timer updates
-                handler.post(updateTimeRunnable);
-
                 // Reset SeekBar progress and font size
                 fontSizeSeekBar.setProgress(DEFAULT_SEEKBAR_PROGRESS);
                 speedTextView.setTextSize(DEFAULT_SEEKBAR_PROGRESS);
@@ -368,7 +690,11 @@ public class MainActivity extends AppCompatActivity {
         unitToggleButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                useMph = !useMph;
+                if (service == null) {
+                    return;
+                }
+                boolean useMph = !service.useMph();
+                service.setUseMph(useMph);
                 unitToggleButton.setText(useMph ? "Switch to m/s" : "Switch to mph");
                 Toast.makeText(MainActivity.this, "Speed unit changed", Toast.LENGTH_SHORT).show();
             }
@@ -388,22 +714,18 @@ public class MainActivity extends AppCompatActivity {
             @SuppressLint("SetTextI18n")
             @Override
             public void onClick(View v) {
-                if (!isPaused) {
+                if (service == null) {
+                    return;
+                }
+                if (!service.isPaused()) {
                     // Pause timer and location updates.
-                    pausedTime = System.currentTimeMillis() - startTime;
-                    handler.removeCallbacks(updateTimeRunnable);
-                    if (locationManager != null) {
-                        locationManager.removeUpdates(locationListener);
-                    }
-                    isPaused = true;
+                    service.pause();
+                    shownAutoPaused = false;
                     pauseButton.setText("Resume");
                     Toast.makeText(MainActivity.this, "Timer paused", Toast.LENGTH_SHORT).show();
                 } else {
                     // Resume timer and location updates.
-                    startTime = System.currentTimeMillis() - pausedTime;
-                    handler.post(updateTimeRunnable);
-                    startLocationUpdates();
-                    isPaused = false;
+                    service.resume();
                     pauseButton.setText("Pause");
                     Toast.makeText(MainActivity.this, "Timer resumed", Toast.LENGTH_SHORT).show();
                 }
@@ -414,20 +736,27 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Sets up the help button with an OnClickListener.
      * <p>
-     * When clicked, the button shows a Toast message with help information.
+     * When clicked, the button shows a dialog with help information, built on the first
+     * click and shown again on the next ones.
      * </p>
      */
     private void setupHelpButton() {
         helpButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                if (helpDialog != null) {
+                    helpDialog.show();
+                    return;
+                }
                 AlertDialog.Builder builder = new AlertDialog.Builder(MainActivity.this);
                 builder.setTitle("Run Tracker Help")
                         .setMessage("Welcome to Run Tracker!\n\n"
                                 + "• This app tracks your location, speed, and elapsed time during your run.\n"
+                                + "• End a lap with the lap button; laps also end every mile or kilometer.\n"
                                 + "• Use the reset button to start the timer over.\n"
                                 + "• Toggle between mph and m/s with the unit button.\n"
-                                + "• Pause or resume tracking with the pause button.\n\n"
+                                + "• Pause or resume tracking with the pause button.\n"
+                                + "• See your past sessions with the history button.\n\n"
                                 + "Enjoy your run and stay safe!")
                         // Optionally, you can set an icon if available (e.g., builder.setIcon(R.drawable.ic_help))
                         .setPositiveButton("OK", new DialogInterface.OnClickListener() {
@@ -436,56 +765,110 @@ public class MainActivity extends AppCompatActivity {
                                 dialog.dismiss();
                             }
                         });
-                builder.show();
+                helpDialog = builder.show();
             }
         });
     }
 
     /**
-     * Returns the appropriate color resource based on the speed and unit used.
-     *
-     * @param speed  the current speed.
-     * @param useMph true if the speed is in mph; false if the speed is in m/s.
-     * @return the color resource id corresponding to the speed range.
+     * Sets up the history button, which opens the {@link HistoryActivity} in the speed
+     * unit of the service.
      */
-    private int getSpeedColor(double speed, boolean useMph) {
-        if (useMph) {
-            if (speed < 33) {
-                return android.R.color.holo_green_dark;
-            } else if (speed < 66) {
-                return android.R.color.holo_orange_dark;
-            } else {
-                return android.R.color.holo_red_dark;
-            }
-        } else {
-            if (speed < 14.7523) {
-                return android.R.color.holo_green_dark;
-            } else if (speed < 29.5046) {
-                return android.R.color.holo_orange_dark;
-            } else {
-                return android.R.color.holo_red_dark;
+    private void setupHistoryButton() {
+        historyButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(MainActivity.this, HistoryActivity.class);
+                intent.putExtra(HistoryActivity.EXTRA_USE_MPH, service == null || service.useMph());
+                startActivity(intent);
             }
-        }
+        });
     }
 
     /**
-     * Starts the timer by recording the start time and scheduling timer updates.
+     * Shows a processed fix. Called on the main thread at most once per frame with the
+     * newest snapshot from the location pipeline.
      * <p>
-     * Ensures that the timer is not already running before starting.
+     * The text is built in reusable buffers and the speed color comes from a cache,
+     * so rendering a fix does not allocate.
      * </p>
+     *
+     * @param snapshot the processed fix to display.
      */
-    private void startTimer() {
-        if (!isTimerRunning) {
-            startTime = System.currentTimeMillis();
-            handler.post(updateTimeRunnable);
-            isTimerRunning = true;
+    private void renderSnapshot(FixSnapshot snapshot) {
+        if (!shownFirstFix) {
+            shownFirstFix = true;
+            startupTrace.mark(PHASE_FIRST_FIX);
+            logStartupTrace();
+        }
+        if (showingStaleFix) {
+            showingStaleFix = false;
+            locationTextView.setAlpha(1f);
         }
+
+        // Update the location TextView.
+        TextBuffer locationText = fixTextFormatter.formatLocation(snapshot.latitude, snapshot.longitude);
+        locationTextView.setText(locationText.chars(), 0, locationText.length());
+
+        // Update the speed TextView.
+        TextBuffer speedText = fixTextFormatter.formatSpeed(snapshot.displaySpeed, snapshot.speedUnit());
+        speedTextView.setText(speedText.chars(), 0, speedText.length());
+
+        // Set the text color based on the speed, only when the band changes.
+        if (snapshot.speedBand != shownSpeedBand) {
+            shownSpeedBand = snapshot.speedBand;
+            speedTextView.setTextColor(getSpeedColor(snapshot.speedBand));
+        }
+
+        // Announce when the service pauses or resumes the timer as the user stops or starts moving.
+        if (snapshot.autoPaused != shownAutoPaused && service != null && !service.isPaused()) {
+            shownAutoPaused = snapshot.autoPaused;
+            Toast.makeText(this, snapshot.autoPaused ? "Auto-paused" : "Auto-resumed",
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        // Update the distance, pace and moving time TextView.
+        TextBuffer metricsText = metricsTextFormatter.formatMetrics(snapshot.distanceMeters,
+                snapshot.rollingPaceSecondsPerMeter, snapshot.averagePaceSecondsPerMeter,
+                snapshot.movingNanos, snapshot.useMph);
+        metricsTextView.setText(metricsText.chars(), 0, metricsText.length());
+
+        // Update the lap TextView.
+        TextBuffer lapText = metricsTextFormatter.formatLap(snapshot.lapCount, snapshot.lapDistanceMeters,
+                snapshot.lapNanos, snapshot.lastLapDistanceMeters, snapshot.lastLapNanos, snapshot.useMph);
+        lapTextView.setText(lapText.chars(), 0, lapText.length());
+
+        // Draw the new part of the route.
+        if (service != null) {
+            routeView.setRoute(service.route());
+        }
+
+        // The text is drawn in this frame, after the callbacks.
+        perfMonitor.recordRendered(snapshot.elapsedRealtimeNanos, snapshot.processedRealtimeNanos);
+    }
+
+    /**
+     * Cancels the pending timer update, so that the next one is not counted as late.
+     */
+    private void stopTimerUpdates() {
+        handler.removeCallbacks(updateTimeRunnable);
+        timerDueNanos = 0;
+    }
+
+    /**
+     * Returns the cached color for a speed band.
+     *
+     * @param band the speed band, as returned by {@link SpeedBands#band(double, boolean)}.
+     * @return the resolved color corresponding to the speed range.
+     */
+    private int getSpeedColor(int band) {
+        return speedColors[band];
     }
 
     /**
      * Callback for the result from requesting permissions.
      * <p>
-     * If the location permission is granted, location updates are started.
+     * If the location permission is granted, the tracking service is started.
      * Otherwise, the UI is updated to indicate that permission was denied.
      * </p>
      *
@@ -499,56 +882,69 @@ public class MainActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == LOCATION_PERMISSION_REQUEST_CODE) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                startLocationUpdates();
+                hasLocationPermission = true;
+                startTracking();
             } else {
+                showingStaleFix = false;
+                locationTextView.setAlpha(1f);
                 locationTextView.setText("Location permission denied.");
             }
         }
     }
 
     /**
-     * Starts receiving location updates from the GPS provider.
+     * Starts the tracking service in the foreground and binds to it.
      * <p>
-     * Requests updates every 1 second or every 1 meter of movement.
+     * The service keeps receiving location updates after the activity leaves the screen.
+     * Starting it again while it is tracking keeps the current session.
      * </p>
      */
-    private void startLocationUpdates() {
-        try {
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 1000, 1, locationListener);
-        } catch (SecurityException e) {
-            e.printStackTrace();
+    private void startTracking() {
+        Intent intent = new Intent(this, TrackingService.class).setAction(TrackingService.ACTION_START);
+        ContextCompat.startForegroundService(this, intent);
+        if (!isBound) {
+            isBound = bindService(new Intent(this, TrackingService.class), serviceConnection,
+                    Context.BIND_AUTO_CREATE);
         }
     }
 
     /**
-     * Called when the activity is paused.
+     * Called when the activity becomes visible.
      * <p>
-     * Removes location updates and stops timer updates to conserve battery.
+     * Binds to the tracking service if location permission is granted; the newest fix is
+     * shown as soon as the service is connected. On the start after onCreate the permission
+     * is only checked after the first frame, which then starts the service.
      * </p>
      */
     @Override
-    protected void onPause() {
-        super.onPause();
-        if (locationManager != null) {
-            locationManager.removeUpdates(locationListener);
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+        if (hasLocationPermission) {
+            startTracking();
         }
-        handler.removeCallbacks(updateTimeRunnable);
-        Toast.makeText(this, "App is leaving the foreground", Toast.LENGTH_SHORT).show();
     }
 
     /**
-     * Called when the activity is resumed.
+     * Called when the activity is no longer visible.
      * <p>
-     * Restarts the timer and location updates if the app isn't in a paused state.
+     * Detaches from the tracking service, which keeps tracking and writes the recorded
+     * fixes to the track file, and stops the timer display updates.
      * </p>
      */
     @Override
-    protected void onResume() {
-        super.onResume();
-        if (!isPaused) {
-            handler.post(updateTimeRunnable);
-            startLocationUpdates();
+    protected void onStop() {
+        isStarted = false;
+        stopTimerUpdates();
+        if (service != null) {
+            service.sessionClock().setListener(null);
+            service.detach();
+            service = null;
+        }
+        if (isBound) {
+            unbindService(serviceConnection);
+            isBound = false;
         }
-        Toast.makeText(this, "App is back in the foreground", Toast.LENGTH_SHORT).show();
+        super.onStop();
     }
 }
@@ -0,0 +1,260 @@
+package com.example.runtracker.history;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.runtracker.segment.Segment;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SessionDatabase stores the history of sessions in SQLite.
+ * <p>
+ * One row per session holds its metadata and the aggregates computed while it was
+ * recorded, so listing the history never reads a track file. The database runs in
+ * write-ahead logging mode: a batch of inserts is one transaction with one sync, and
+ * history pages are read while a batch is written. Pages are loaded by key, after the
+ * last row of the previous page in the order of the start time index, so every page
+ * costs the same however far down the history it is.
+ * </p>
+ * <p>
+ * The database also keeps the user's {@link Segment segments}, with their polyline as a
+ * blob of latitude and longitude pairs.
+ * </p>
+ * <p>
+ * The methods run database work on the calling thread; the {@link SessionStore} runs
+ * them on its background thread.
+ * </p>
+ */
+public final class SessionDatabase extends SQLiteOpenHelper {
+    /** File name of the database. */
+    public static final String DATABASE_NAME = "sessions.db";
+
+    /** Version of the schema. */
+    private static final int VERSION = 2;
+
+    /** Table of the sessions. */
+    static final String TABLE = "sessions";
+
+    /** Table of the segments, added in version 2. */
+    static final String SEGMENTS_TABLE = "segments";
+
+    /** Columns read for a page, in the order of {@link #readSummary}. */
+    private static final String[] COLUMNS = {
+            "_id", "start_epoch_millis", "track_file", "distance_meters", "duration_nanos",
+            "moving_nanos", "fix_count", "lap_count", "best_kilometer_nanos", "best_mile_nanos",
+            "elevation_gain_meters"
+    };
+
+    /** Newest-first order of the history, served by the start time index. */
+    private static final String ORDER = "start_epoch_millis DESC, _id DESC";
+
+    /**
+     * Creates the helper; the database is opened on first use.
+     *
+     * @param context the context, whose application context is kept.
+     * @param name    the file name of the database, or null for an in-memory database.
+     */
+    public SessionDatabase(Context context, String name) {
+        super(context.getApplicationContext(), name, null, VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "start_epoch_millis INTEGER NOT NULL, "
+                + "track_file TEXT, "
+                + "distance_meters REAL NOT NULL, "
+                + "duration_nanos INTEGER NOT NULL, "
+                + "moving_nanos INTEGER NOT NULL, "
+                + "fix_count INTEGER NOT NULL, "
+                + "lap_count INTEGER NOT NULL, "
+                + "best_kilometer_nanos INTEGER, "
+                + "best_mile_nanos INTEGER, "
+                + "elevation_gain_meters REAL)");
+        db.execSQL("CREATE INDEX sessions_start ON " + TABLE + " (start_epoch_millis, _id)");
+        createSegmentsTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createSegmentsTable(db);
+        }
+    }
+
+    /**
+     * @param db the database to create the segments table in.
+     */
+    private static void createSegmentsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SEGMENTS_TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "points BLOB NOT NULL)");
+    }
+
+    /**
+     * Inserts sessions in one transaction.
+     *
+     * @param summaries the sessions, not stored yet.
+     * @return the row ids of the sessions, in the same order.
+     */
+    public long[] insert(List<SessionSummary> summaries) {
+        long[] ids = new long[summaries.size()];
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE + " ("
+                + "start_epoch_millis, track_file, distance_meters, duration_nanos, moving_nanos, "
+                + "fix_count, lap_count, best_kilometer_nanos, best_mile_nanos, elevation_gain_meters"
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                SessionSummary summary = summaries.get(i);
+                insert.clearBindings();
+                insert.bindLong(1, summary.startEpochMillis);
+                if (summary.trackFileName != null) {
+                    insert.bindString(2, summary.trackFileName);
+                }
+                insert.bindDouble(3, summary.distanceMeters);
+                insert.bindLong(4, summary.durationNanos);
+                insert.bindLong(5, summary.movingNanos);
+                insert.bindLong(6, summary.fixCount);
+                insert.bindLong(7, summary.lapCount);
+                if (summary.bestKilometerNanos != SessionSummary.NO_SPLIT) {
+                    insert.bindLong(8, summary.bestKilometerNanos);
+                }
+                if (summary.bestMileNanos != SessionSummary.NO_SPLIT) {
+                    insert.bindLong(9, summary.bestMileNanos);
+                }
+                if (!Double.isNaN(summary.elevationGainMeters)) {
+                    insert.bindDouble(10, summary.elevationGainMeters);
+                }
+                ids[i] = insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Loads a page of the history, newest first.
+     *
+     * @param after the last session of the previous page, or null for the first page.
+     * @param limit the largest number of sessions to load.
+     * @return the sessions of the page; fewer than {@code limit} at the end.
+     */
+    public List<SessionSummary> loadPage(SessionSummary after, int limit) {
+        String selection = null;
+        String[] args = null;
+        if (after != null) {
+            // The leading bound lets SQLite seek in the index instead of skipping rows.
+            String start = Long.toString(after.startEpochMillis);
+            selection = "start_epoch_millis <= ? AND (start_epoch_millis < ? OR _id < ?)";
+            args = new String[]{start, start, Long.toString(after.id)};
+        }
+        List<SessionSummary> page = new ArrayList<>(limit);
+        try (Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, selection, args,
+                null, null, ORDER, Integer.toString(limit))) {
+            while (cursor.moveToNext()) {
+                page.add(readSummary(cursor));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Loads the track file names of all stored sessions that have one, oldest first.
+     *
+     * @return the file names.
+     */
+    public List<String> loadTrackFileNames() {
+        List<String> names = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[]{"track_file"},
+                "track_file IS NOT NULL", null, null, null, "start_epoch_millis, _id")) {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Stores a new segment.
+     *
+     * @param segment the segment, with at least two points; its id is ignored.
+     * @return the row id of the segment.
+     */
+    public long insertSegment(Segment segment) {
+        ByteBuffer points = ByteBuffer.allocate(segment.size() * 2 * Double.BYTES);
+        for (int i = 0; i < segment.size(); i++) {
+            points.putDouble(segment.latitude(i)).putDouble(segment.longitude(i));
+        }
+        SQLiteStatement insert = getWritableDatabase().compileStatement(
+                "INSERT INTO " + SEGMENTS_TABLE + " (name, points) VALUES (?, ?)");
+        try {
+            insert.bindString(1, segment.name);
+            insert.bindBlob(2, points.array());
+            return insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Loads every stored segment.
+     *
+     * @return the segments, oldest first.
+     */
+    public List<Segment> loadSegments() {
+        List<Segment> segments = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(SEGMENTS_TABLE,
+                new String[]{"_id", "name", "points"}, null, null, null, null, "_id")) {
+            while (cursor.moveToNext()) {
+                ByteBuffer points = ByteBuffer.wrap(cursor.getBlob(2));
+                int count = points.remaining() / (2 * Double.BYTES);
+                double[] latitudes = new double[count];
+                double[] longitudes = new double[count];
+                for (int i = 0; i < count; i++) {
+                    latitudes[i] = points.getDouble();
+                    longitudes[i] = points.getDouble();
+                }
+                segments.add(new Segment(cursor.getLong(0), cursor.getString(1), latitudes, longitudes));
+            }
+        }
+        return segments;
+    }
+
+    /** @return the number of stored sessions. */
+    public long count() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE);
+    }
+
+    /**
+     * Reads the session at the current row of a cursor over {@link #COLUMNS}.
+     *
+     * @param cursor the cursor.
+     * @return the session.
+     */
+    private static SessionSummary readSummary(Cursor cursor) {
+        return new SessionSummary.Builder()
+                .id(cursor.getLong(0))
+                .session(cursor.getLong(1), cursor.isNull(2) ? null : cursor.getString(2))
+                .totals(cursor.getDouble(3), cursor.getLong(4), cursor.getLong(5), cursor.getInt(6))
+                .splits(cursor.getInt(7),
+                        cursor.isNull(8) ? SessionSummary.NO_SPLIT : cursor.getLong(8),
+                        cursor.isNull(9) ? SessionSummary.NO_SPLIT : cursor.getLong(9))
+                .elevationGain(cursor.isNull(10) ? Double.NaN : cursor.getDouble(10))
+                .build();
+    }
+}
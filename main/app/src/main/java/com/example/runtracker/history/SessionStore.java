@@ -0,0 +1,395 @@
+package com.example.runtracker.history;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.example.runtracker.heatmap.HeatmapAggregator;
+import com.example.runtracker.replay.TrackFileTrace;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackSimplifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * SessionStore is the history of sessions of the app, kept in a {@link SessionDatabase}.
+ * <p>
+ * All database work runs on a background thread, never on the UI or pipeline threads.
+ * Ended sessions are queued and written a moment later as one batch, in one transaction,
+ * so sessions ended together cost one sync. Pages of the history are loaded on the same
+ * thread after the queued sessions are written, and handed to the main thread.
+ * </p>
+ * <p>
+ * The store also keeps the {@link BestEffortFinder} of the personal bests, saved in a
+ * file of its own with the sessions it scanned. It is read the first time it is asked
+ * for; each load then scans the track files of the sessions stored since the finder
+ * was last saved, in parallel, merges them into the bests and saves it again, so a track
+ * file is scanned once, not on every start of the app.
+ * </p>
+ * <p>
+ * The heatmap of every route is kept by a {@link HeatmapAggregator}, saved in a file of
+ * its own. It is loaded, or recomputed over the whole history when there is no file, the
+ * first time it is asked for; from then on each batch of ended sessions is marked on it
+ * as it is written, and the tiles it changed are collected for the next load, so a cache
+ * of drawn tiles only draws those again.
+ * </p>
+ * <p>
+ * The user's {@link Segment segments} are kept in the same database. A session is saved
+ * as a segment along its simplified track, so the matching follows a few points per
+ * hundred meters rather than every fix.
+ * </p>
+ * <p>
+ * There is one store per process, shared by the tracking service, which writes, and the
+ * history screen, which reads.
+ * </p>
+ */
+public final class SessionStore implements SessionSink {
+    /** Delay of a batch after the first session queued in it, in milliseconds. */
+    static final long BATCH_DELAY_MILLIS = 1000;
+
+    /** The store of the process, or null until first used. */
+    private static SessionStore instance;
+
+    /**
+     * Receiver of a page of the history.
+     */
+    public interface PageCallback {
+        /**
+         * Called on the main thread with a loaded page.
+         *
+         * @param page the sessions of the page, newest first; fewer than asked at the end.
+         */
+        void onPageLoaded(List<SessionSummary> page);
+    }
+
+    /**
+     * Receiver of the personal bests.
+     */
+    public interface BestEffortsCallback {
+        /**
+         * Called on the main thread once the bests include every stored session.
+         *
+         * @param finder the finder holding the bests.
+         */
+        void onBestEffortsLoaded(BestEffortFinder finder);
+    }
+
+    /**
+     * Receiver of the heatmap.
+     */
+    public interface HeatmapCallback {
+        /**
+         * Called on the main thread once the heatmap includes every stored session.
+         *
+         * @param heatmap      the heatmap.
+         * @param changedTiles keys of the tiles changed since the heatmap was last loaded,
+         *                     or since it was read from its file.
+         */
+        void onHeatmapLoaded(HeatmapAggregator heatmap, long[] changedTiles);
+    }
+
+    /**
+     * Receiver of the stored segments.
+     */
+    public interface SegmentsCallback {
+        /**
+         * Called on the main thread with the segments.
+         *
+         * @param segments the stored segments, oldest first.
+         */
+        void onSegmentsLoaded(List<Segment> segments);
+    }
+
+    /**
+     * Receiver of a segment just saved.
+     */
+    public interface SegmentCallback {
+        /**
+         * Called on the main thread once the segment is saved or could not be.
+         *
+         * @param segment the saved segment, or null if the track could not be read or is
+         *                too short.
+         */
+        void onSegmentSaved(Segment segment);
+    }
+
+    /** The database, only used on the worker thread. */
+    private final SessionDatabase database;
+
+    /** Handler of the thread running the database work. */
+    private final Handler worker;
+
+    /** Handler of the main thread, receiving the pages. */
+    private final Handler main;
+
+    /** Personal bests over the scanned sessions, or null until loaded; only used on the worker thread. */
+    private BestEffortFinder bestEfforts;
+
+    /** Heatmap of the stored sessions, or null until loaded; only used on the worker thread. */
+    private HeatmapAggregator heatmap;
+
+    /** Directory of the track files of the heatmap; only used on the worker thread. */
+    private File heatmapTracksDirectory;
+
+    /** File the heatmap is saved in; only used on the worker thread. */
+    private File heatmapFile;
+
+    /** Keys of the tiles changed since the heatmap was last loaded; only used on the worker thread. */
+    private final List<long[]> changedTiles = new ArrayList<>();
+
+    /** Sessions waiting for the next batch; guarded by itself. */
+    private final List<SessionSummary> pending = new ArrayList<>();
+
+    /** True while a batch is scheduled; guarded by {@link #pending}. */
+    private boolean batchScheduled;
+
+    /** Writes the queued sessions. */
+    private final Runnable writeBatch = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    /**
+     * @param database     the database.
+     * @param workerLooper the looper of the thread running the database work.
+     * @param mainLooper   the looper the pages are handed to.
+     */
+    SessionStore(SessionDatabase database, Looper workerLooper, Looper mainLooper) {
+        this.database = database;
+        worker = new Handler(workerLooper);
+        main = new Handler(mainLooper);
+    }
+
+    /**
+     * Returns the store of the process, opening it on first use.
+     *
+     * @param context any context of the app.
+     * @return the store.
+     */
+    public static synchronized SessionStore get(Context context) {
+        if (instance == null) {
+            HandlerThread thread = new HandlerThread("session-history");
+            thread.start();
+            instance = new SessionStore(new SessionDatabase(context, SessionDatabase.DATABASE_NAME),
+                    thread.getLooper(), Looper.getMainLooper());
+        }
+        return instance;
+    }
+
+    /**
+     * Queues an ended session for the next batch. Safe to call on any thread.
+     *
+     * @param summary the summary of the session.
+     */
+    @Override
+    public void onSessionEnded(SessionSummary summary) {
+        synchronized (pending) {
+            pending.add(summary);
+            if (!batchScheduled) {
+                batchScheduled = true;
+                worker.postDelayed(writeBatch, BATCH_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued sessions now instead of after the batch delay.
+     */
+    public void flush() {
+        worker.removeCallbacks(writeBatch);
+        worker.post(writeBatch);
+    }
+
+    /**
+     * Loads a page of the history, newest first, including every session queued so far.
+     *
+     * @param after    the last session of the previous page, or null for the first page.
+     * @param limit    the largest number of sessions to load.
+     * @param callback the receiver of the page, called on the main thread.
+     */
+    public void loadPage(SessionSummary after, int limit, PageCallback callback) {
+        worker.post(() -> {
+            writePending();
+            List<SessionSummary> page = database.loadPage(after, limit);
+            main.post(() -> callback.onPageLoaded(page));
+        });
+    }
+
+    /**
+     * Brings the personal bests up to date with the stored sessions. The first time, the
+     * bests are read from their file, or found over every track file if there is none;
+     * then only the sessions not scanned yet are read, and the file is saved again if
+     * there were any.
+     *
+     * @param tracksDirectory the directory of the track files.
+     * @param file            the file the bests are saved in.
+     * @param callback        the receiver of the bests, called on the main thread.
+     */
+    public void loadBestEfforts(File tracksDirectory, File file, BestEffortsCallback callback) {
+        worker.post(() -> {
+            writePending();
+            if (bestEfforts == null) {
+                try {
+                    bestEfforts = BestEffortFinder.read(file, ForkJoinPool.commonPool());
+                } catch (IOException e) {
+                    // No bests yet, or unreadable ones: scan the whole history.
+                    bestEfforts = new BestEffortFinder();
+                }
+            }
+            List<BestEffortFinder.ProfileSource> sessions = new ArrayList<>();
+            for (String name : database.loadTrackFileNames()) {
+                sessions.add(SessionProfile.trackFile(new File(tracksDirectory, name)));
+            }
+            if (bestEfforts.add(sessions) > 0) {
+                try {
+                    bestEfforts.write(file);
+                } catch (IOException e) {
+                    // Kept in memory; the file is written again with the next session.
+                    e.printStackTrace();
+                }
+            }
+            BestEffortFinder loaded = bestEfforts;
+            main.post(() -> callback.onBestEffortsLoaded(loaded));
+        });
+    }
+
+    /**
+     * Brings the heatmap up to date with the stored sessions. The first time, the heatmap
+     * is read from its file, or recomputed over every track file if there is none; then
+     * only the sessions not marked yet are read.
+     *
+     * @param tracksDirectory the directory of the track files.
+     * @param file            the file the heatmap is saved in.
+     * @param callback        the receiver of the heatmap, called on the main thread.
+     */
+    public void loadHeatmap(File tracksDirectory, File file, HeatmapCallback callback) {
+        worker.post(() -> {
+            writePending();
+            if (heatmap == null) {
+                heatmapTracksDirectory = tracksDirectory;
+                heatmapFile = file;
+                try {
+                    heatmap = HeatmapAggregator.read(file, ForkJoinPool.commonPool());
+                } catch (IOException e) {
+                    // No heatmap yet, or an unreadable one: recompute it.
+                    heatmap = new HeatmapAggregator();
+                }
+            }
+            List<String> names = database.loadTrackFileNames();
+            updateHeatmap(names);
+            int count = 0;
+            for (long[] tiles : changedTiles) {
+                count += tiles.length;
+            }
+            long[] changed = new long[count];
+            count = 0;
+            for (long[] tiles : changedTiles) {
+                System.arraycopy(tiles, 0, changed, count, tiles.length);
+                count += tiles.length;
+            }
+            changedTiles.clear();
+            HeatmapAggregator loaded = heatmap;
+            main.post(() -> callback.onHeatmapLoaded(loaded, changed));
+        });
+    }
+
+    /**
+     * Loads the stored segments.
+     *
+     * @param callback the receiver of the segments, called on the main thread.
+     */
+    public void loadSegments(SegmentsCallback callback) {
+        worker.post(() -> {
+            List<Segment> segments = database.loadSegments();
+            main.post(() -> callback.onSegmentsLoaded(segments));
+        });
+    }
+
+    /**
+     * Saves the route of a recorded session as a new segment.
+     *
+     * @param trackFile the track file of the session.
+     * @param name      the name of the segment.
+     * @param callback  the receiver of the segment, called on the main thread.
+     */
+    public void saveSegment(File trackFile, String name, SegmentCallback callback) {
+        worker.post(() -> {
+            Segment segment = null;
+            TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_TOLERANCE_METERS);
+            FixSample sample = new FixSample();
+            try (TrackFileTrace trace = new TrackFileTrace(trackFile)) {
+                while (trace.next(sample)) {
+                    simplifier.append(sample.latitude, sample.longitude, sample.speedMps,
+                            sample.accuracy, sample.elapsedRealtimeNanos);
+                }
+                simplifier.flush();
+                if (simplifier.simplified().size() >= 2) {
+                    long id = database.insertSegment(Segment.of(0, name, simplifier.simplified()));
+                    segment = Segment.of(id, name, simplifier.simplified());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            Segment saved = segment;
+            main.post(() -> callback.onSegmentSaved(saved));
+        });
+    }
+
+    /**
+     * Writes the queued sessions in one transaction. Runs on the worker thread.
+     */
+    private void writePending() {
+        List<SessionSummary> batch;
+        synchronized (pending) {
+            batchScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        worker.removeCallbacks(writeBatch);
+        database.insert(batch);
+        if (heatmap != null) {
+            List<String> names = new ArrayList<>();
+            for (SessionSummary summary : batch) {
+                if (summary.trackFileName != null) {
+                    names.add(summary.trackFileName);
+                }
+            }
+            updateHeatmap(names);
+        }
+    }
+
+    /**
+     * Marks the sessions not in the heatmap yet on it, saves it if they changed it and
+     * collects the changed tiles. Runs on the worker thread once the heatmap is loaded.
+     *
+     * @param trackFileNames the track files of the sessions.
+     */
+    private void updateHeatmap(List<String> trackFileNames) {
+        List<HeatmapAggregator.TrackSource> sessions = new ArrayList<>();
+        for (String name : trackFileNames) {
+            sessions.add(HeatmapAggregator.trackFile(new File(heatmapTracksDirectory, name)));
+        }
+        long[] changed = heatmap.add(sessions);
+        if (changed.length == 0) {
+            return;
+        }
+        changedTiles.add(changed);
+        try {
+            heatmap.write(heatmapFile);
+        } catch (IOException e) {
+            // Kept in memory; the file is written again with the next session.
+            e.printStackTrace();
+        }
+    }
+}
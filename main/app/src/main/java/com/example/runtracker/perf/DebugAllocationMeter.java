@@ -0,0 +1,31 @@
+package com.example.runtracker.perf;
+
+import android.os.Debug;
+
+/**
+ * DebugAllocationMeter reads the per-thread allocation counters of the Android runtime.
+ * <p>
+ * The runtime only counts while {@link #start()} is in effect, and counting slows down
+ * every allocation of the process, so the meter is started for Dev Mode only.
+ * </p>
+ */
+public final class DebugAllocationMeter implements AllocationMeter {
+    /** Starts the allocation counting of the runtime. */
+    @SuppressWarnings("deprecation")
+    public void start() {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+    }
+
+    /** Stops the allocation counting of the runtime. */
+    @SuppressWarnings("deprecation")
+    public void stop() {
+        Debug.stopAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public long allocatedBytes() {
+        return Debug.getThreadAllocSize();
+    }
+}
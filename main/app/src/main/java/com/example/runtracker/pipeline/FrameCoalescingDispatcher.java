@@ -0,0 +1,155 @@
+package com.example.runtracker.pipeline;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * FrameCoalescingDispatcher hands snapshots from the pipeline thread to the UI thread.
+ * <p>
+ * The pipeline thread is the single producer and the main thread the single consumer of
+ * a lock-free {@link SpscRing}. The first publish after a frame asks the
+ * {@link Choreographer} for the next frame; that frame drains the ring and renders only
+ * the newest snapshot, so a burst of fixes results in a single UI update. Publishing
+ * never blocks, takes no lock and allocates nothing.
+ * </p>
+ * <p>
+ * A renderer can be attached and detached at any time, e.g. when an activity binds to the
+ * tracking service. The newest snapshot is also kept on its own, so a renderer that
+ * attaches shows it immediately, and the newest fix is still shown if the ring filled up.
+ * </p>
+ */
+public final class FrameCoalescingDispatcher implements Choreographer.FrameCallback {
+    /** Number of snapshots the ring holds between two frames. */
+    static final int RING_CAPACITY = 64;
+
+    /** Snapshots published since the last frame, oldest first. */
+    private final SpscRing<FixSnapshot> ring = new SpscRing<>(RING_CAPACITY);
+
+    /** Newest published snapshot, or null before the first one. */
+    private volatile FixSnapshot latest;
+
+    /** True if a snapshot did not fit in the ring since the last frame. */
+    private volatile boolean overflowed;
+
+    /** True while a frame callback is requested and has not run yet. */
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+
+    /** Handler of the main thread, used to reach the Choreographer from any thread. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Choreographer of the main thread. */
+    private final Choreographer choreographer;
+
+    /** Target that shows the snapshots, or null while detached. */
+    private volatile SnapshotRenderer renderer;
+
+    /** Requests the next frame; posted to the main thread by {@link #publish}. */
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            choreographer.postFrameCallback(FrameCoalescingDispatcher.this);
+        }
+    };
+
+    /**
+     * Creates a dispatcher with no renderer attached. Must be called on the main thread.
+     */
+    public FrameCoalescingDispatcher() {
+        this(null);
+    }
+
+    /**
+     * Creates a dispatcher. Must be called on the main thread.
+     *
+     * @param renderer the target that shows the snapshots, or null to attach one later.
+     */
+    public FrameCoalescingDispatcher(SnapshotRenderer renderer) {
+        this.choreographer = Choreographer.getInstance();
+        this.renderer = renderer;
+    }
+
+    /**
+     * Publishes a snapshot to be shown on the next frame. Must always be called from the
+     * same producer thread.
+     *
+     * @param snapshot the newest processed fix.
+     */
+    public void publish(FixSnapshot snapshot) {
+        latest = snapshot;
+        if (!ring.offer(snapshot)) {
+            // Only happens while detached or if frames stall; the frame falls back to latest.
+            overflowed = true;
+        }
+        if (renderer != null && frameScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleFrame);
+        }
+    }
+
+    /**
+     * Attaches a renderer and shows the newest snapshot on it right away. Must be called
+     * on the main thread.
+     *
+     * @param renderer the target that shows the snapshots.
+     */
+    public void attach(SnapshotRenderer renderer) {
+        this.renderer = renderer;
+        ring.clear();
+        overflowed = false;
+        FixSnapshot snapshot = latest;
+        if (snapshot != null) {
+            renderer.render(snapshot);
+        }
+    }
+
+    /**
+     * Detaches the renderer; snapshots are still kept until one attaches again. Must be
+     * called on the main thread.
+     */
+    public void detach() {
+        renderer = null;
+        mainHandler.removeCallbacks(scheduleFrame);
+        choreographer.removeFrameCallback(this);
+        frameScheduled.set(false);
+    }
+
+    /** @return the newest published snapshot, or null before the first one. */
+    public FixSnapshot latest() {
+        return latest;
+    }
+
+    /**
+     * Called by the Choreographer at the start of a frame; renders the newest snapshot.
+     *
+     * @param frameTimeNanos the frame time provided by the Choreographer.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Clear the flag first so a snapshot published while rendering schedules a new frame.
+        frameScheduled.set(false);
+        FixSnapshot newest = null;
+        for (FixSnapshot snapshot = ring.poll(); snapshot != null; snapshot = ring.poll()) {
+            newest = snapshot;
+        }
+        if (overflowed) {
+            overflowed = false;
+            newest = latest;
+        }
+        SnapshotRenderer target = renderer;
+        if (newest != null && target != null) {
+            target.render(newest);
+        }
+    }
+
+    /**
+     * Drops any pending snapshot and frame request. Must be called on the main thread.
+     */
+    public void cancel() {
+        detach();
+        ring.clear();
+        latest = null;
+        overflowed = false;
+    }
+}
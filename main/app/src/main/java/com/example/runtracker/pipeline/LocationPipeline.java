@@ -0,0 +1,420 @@
+package com.example.runtracker.pipeline;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.runtracker.checkpoint.CheckpointFile;
+import com.example.runtracker.checkpoint.LastFix;
+import com.example.runtracker.checkpoint.SessionCheckpoint;
+import com.example.runtracker.history.SessionSink;
+import com.example.runtracker.provider.LocationProvider;
+import com.example.runtracker.provider.LocationSink;
+import com.example.runtracker.sampling.SamplingScheduler;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.share.LiveShareSink;
+import com.example.runtracker.track.TrackWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * LocationPipeline receives location fixes on a dedicated background thread.
+ * <p>
+ * Fixes are delivered by a {@link LocationProvider} on the looper of a
+ * {@link HandlerThread}, run through the {@link FixProcessor} there and handed to an
+ * output on the same thread, normally the {@link FrameCoalescingDispatcher} that passes
+ * them on to the UI. No per-fix work runs on the main thread. Providers that batch
+ * fixes have the whole batch processed at once with a single snapshot published.
+ * </p>
+ * <p>
+ * Updates start at 1 Hz. Whenever the processor's {@link SamplingScheduler} changes mode,
+ * the provider is restarted with the interval and distance of the new mode, so slow or
+ * stopped users cost fewer fixes. The fix path only reads the volatile registered mode
+ * and, on a change, posts the restart to the pipeline looper once with a
+ * compare-and-set; the restart, which takes the registration lock and calls into the
+ * provider, runs as a message of its own after the batch.
+ * </p>
+ * <p>
+ * Checkpoints of the session are written to a {@link CheckpointFile} on the pipeline
+ * thread, between fixes, so the state of the processor is consistent; a session is
+ * {@link #restore restored} from one the same way. With each checkpoint, the newest fix is
+ * also saved as the {@link LastFix}, shown by the next start of the app until its first
+ * fix.
+ * </p>
+ * <p>
+ * The recorded fixes can be {@link #setLiveShare shared live}; the sink is told on the
+ * pipeline thread when a session starts or is restored, before its first fix.
+ * </p>
+ */
+public final class LocationPipeline {
+    /** Thread that receives and processes the fixes. */
+    private final HandlerThread thread = new HandlerThread("location-pipeline");
+
+    /** Handler of the pipeline thread. */
+    private final Handler handler;
+
+    /** Processing stages run for every fix. */
+    private final FixProcessor processor = new FixProcessor();
+
+    /** Receiver of the processed snapshots; called on the pipeline thread. */
+    private final SnapshotRenderer output;
+
+    /** Receiver of the provider batches; runs on the pipeline thread. */
+    private final LocationSink sink;
+
+    /** Guards the provider registration against concurrent start, stop and re-register. */
+    private final Object updatesLock = new Object();
+
+    /** Provider delivering fixes, or null while stopped. */
+    private LocationProvider activeProvider;
+
+    /** Sampling mode of the current registration; written under {@link #updatesLock}. */
+    private volatile int registeredMode;
+
+    /** True while a restart with a new sampling mode is posted and has not run yet. */
+    private final AtomicBoolean samplingModePending = new AtomicBoolean();
+
+    /** Restarts the provider in the current sampling mode; posted from the fix path. */
+    private final Runnable applySamplingModeRunnable = this::applySamplingMode;
+
+    /** Wall clock time at which the recorded session started; only used on the pipeline thread. */
+    private long sessionStartEpochMillis;
+
+    /** Name of the track file of the session, or null; only used on the pipeline thread. */
+    private String sessionFileName;
+
+    /** Destination of the checkpoints, or null; only used on the pipeline thread. */
+    private CheckpointFile checkpointFile;
+
+    /** Reused payload of the checkpoints; only used on the pipeline thread. */
+    private final ByteBuffer checkpointPayload = ByteBuffer.allocate(
+            SessionCheckpoint.BYTES + FixProcessor.STATE_BYTES);
+
+    /** Destination of the newest fix, or null; only used on the pipeline thread. */
+    private File lastFixFile;
+
+    /** Newest published snapshot, or null; only used on the pipeline thread. */
+    private FixSnapshot lastSnapshot;
+
+    /** Snapshot last saved to {@link #lastFixFile}, or null; only used on the pipeline thread. */
+    private FixSnapshot savedSnapshot;
+
+    /**
+     * Creates the pipeline and starts its thread.
+     *
+     * @param output the receiver of the processed snapshots, called on the pipeline thread,
+     *               e.g. {@link FrameCoalescingDispatcher#publish}.
+     */
+    public LocationPipeline(SnapshotRenderer output) {
+        this.output = output;
+        sink = new FixBatchSink(processor, this::publish);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /** @return the processing stages, for changing their settings. */
+    public FixProcessor processor() {
+        return processor;
+    }
+
+    /** @return the looper of the pipeline thread, on which providers must deliver fixes. */
+    public Looper looper() {
+        return thread.getLooper();
+    }
+
+    /**
+     * Starts a provider at 1 Hz, stopping the previous provider if it is a different one.
+     *
+     * @param provider the provider, delivering on {@link #looper()}.
+     * @throws SecurityException if the location permission is not granted.
+     */
+    public void startUpdates(LocationProvider provider) {
+        synchronized (updatesLock) {
+            if (activeProvider != null && activeProvider != provider) {
+                activeProvider.stop();
+            }
+            activeProvider = null;
+            provider.start(SamplingScheduler.intervalMillis(SamplingScheduler.MODE_ACTIVE),
+                    SamplingScheduler.minDistanceMeters(SamplingScheduler.MODE_ACTIVE), sink);
+            activeProvider = provider;
+            registeredMode = SamplingScheduler.MODE_ACTIVE;
+        }
+    }
+
+    /**
+     * Stops location updates.
+     */
+    public void stopUpdates() {
+        synchronized (updatesLock) {
+            if (activeProvider != null) {
+                activeProvider.stop();
+                activeProvider = null;
+            }
+        }
+    }
+
+    /**
+     * Publishes the snapshot of a batch and, if the sampling mode changed, posts a restart
+     * of the provider unless one is already pending. Runs on the pipeline thread and takes
+     * no lock.
+     *
+     * @param snapshot the snapshot of the last accepted fix of the batch.
+     */
+    private void publish(FixSnapshot snapshot) {
+        lastSnapshot = snapshot;
+        output.render(snapshot);
+        if (snapshot.samplingMode != registeredMode && samplingModePending.compareAndSet(false, true)) {
+            handler.post(applySamplingModeRunnable);
+        }
+    }
+
+    /**
+     * Restarts the provider with the interval and distance of the current sampling mode,
+     * unless updates were stopped in the meantime. Runs on the pipeline thread, between
+     * batches.
+     */
+    private void applySamplingMode() {
+        samplingModePending.set(false);
+        int mode = processor.sampling().mode();
+        synchronized (updatesLock) {
+            if (activeProvider == null || mode == registeredMode) {
+                return;
+            }
+            try {
+                activeProvider.start(SamplingScheduler.intervalMillis(mode),
+                        SamplingScheduler.minDistanceMeters(mode), sink);
+                registeredMode = mode;
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Starts a new session. The track is cleared on the pipeline thread, after any fix
+     * that is already being processed.
+     */
+    public void reset() {
+        handler.post(processor::reset);
+    }
+
+    /**
+     * Ends the current lap by hand and shows it right away if the session has fixes.
+     */
+    public void lap() {
+        handler.post(() -> {
+            processor.lap();
+            if (processor.track().size() > 0) {
+                publish(processor.snapshot());
+            }
+        });
+    }
+
+    /**
+     * Ends the current metrics segment, e.g. on pause, so the gap until the next fix
+     * is not counted as distance or time.
+     */
+    public void breakSegment() {
+        handler.post(processor::breakSegment);
+    }
+
+    /**
+     * Starts saving the session to a new track file. The file, and its directory if
+     * missing, are created on the pipeline thread; if that fails the session is only kept
+     * in memory.
+     *
+     * @param file the track file to create.
+     */
+    public void startRecording(File file) {
+        long startEpochMillis = System.currentTimeMillis();
+        long startElapsedNanos = SystemClock.elapsedRealtimeNanos();
+        handler.post(() -> {
+            sessionStartEpochMillis = startEpochMillis;
+            processor.liveShare().startSession(startEpochMillis,
+                    startEpochMillis * 1_000_000L - startElapsedNanos);
+            try {
+                File directory = file.getParentFile();
+                if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("cannot create " + directory);
+                }
+                processor.startRecording(TrackWriter.create(file, startEpochMillis, startElapsedNanos));
+                sessionFileName = file.getName();
+            } catch (IOException e) {
+                e.printStackTrace();
+                processor.stopRecording();
+                sessionFileName = null;
+            }
+        });
+    }
+
+    /**
+     * Replaces the segments timed in the sessions, from the next fix on.
+     *
+     * @param segments the segments.
+     */
+    public void setSegments(List<Segment> segments) {
+        handler.post(() -> processor.segments().setSegments(segments));
+    }
+
+    /**
+     * Hands the summary of the recorded session to a sink, after the fixes already queued
+     * are processed, unless the session has no fixes. Call before the next
+     * {@link #reset()} to summarize the session that ends.
+     *
+     * @param sink the receiver of the summary, called on the pipeline thread.
+     */
+    public void endSession(SessionSink sink) {
+        handler.post(() -> {
+            if (processor.fixCount() > 0) {
+                sink.onSessionEnded(processor.summary(sessionStartEpochMillis, sessionFileName));
+            }
+        });
+    }
+
+    /**
+     * Sets the file the checkpoints are written to.
+     *
+     * @param file the checkpoint file, then only used on the pipeline thread; or null to
+     *             write no checkpoints.
+     */
+    public void setCheckpointFile(CheckpointFile file) {
+        handler.post(() -> checkpointFile = file);
+    }
+
+    /**
+     * Sets the file the newest fix is saved to with each checkpoint and on quitting.
+     *
+     * @param file the last fix file, or null to save none.
+     */
+    public void setLastFixFile(File file) {
+        handler.post(() -> lastFixFile = file);
+    }
+
+    /**
+     * Writes a checkpoint of the session after the fixes already queued: the given state
+     * with the start and the track file of the session, followed by the state of the
+     * processor while tracking.
+     *
+     * @param state the state of the session outside the pipeline, then owned by the
+     *              pipeline.
+     */
+    public void checkpoint(SessionCheckpoint state) {
+        handler.post(() -> {
+            if (checkpointFile == null) {
+                return;
+            }
+            state.startEpochMillis = sessionStartEpochMillis;
+            state.trackFileName = sessionFileName;
+            checkpointPayload.clear();
+            state.write(checkpointPayload);
+            if (state.tracking) {
+                processor.writeState(checkpointPayload);
+            }
+            checkpointPayload.flip();
+            checkpointFile.write(checkpointPayload);
+            saveLastFix();
+        });
+    }
+
+    /**
+     * Restores a session from a checkpoint, reading the track file written since and going
+     * on recording to it. If the track file cannot be read, the session goes on in memory.
+     *
+     * @param state          the state of the session outside the pipeline.
+     * @param processorState the state of the processor that followed it, then owned by the
+     *                       pipeline.
+     * @param trackFile      the track file of the session, or null if it was not saved.
+     */
+    public void restore(SessionCheckpoint state, ByteBuffer processorState, File trackFile) {
+        handler.post(() -> {
+            sessionStartEpochMillis = state.startEpochMillis;
+            sessionFileName = state.trackFileName;
+            processor.liveShare().startSession(sessionStartEpochMillis, epochOffsetNanos());
+            try {
+                processor.restore(processorState, trackFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                processor.stopRecording();
+            }
+        });
+    }
+
+    /**
+     * Shares the fixes recorded from now on, as part of the current session.
+     *
+     * @param sink the receiver of the fixes, called on the pipeline thread; or
+     *             {@link LiveShareSink#DISABLED} to stop sharing.
+     */
+    public void setLiveShare(LiveShareSink sink) {
+        handler.post(() -> {
+            sink.startSession(sessionStartEpochMillis, epochOffsetNanos());
+            processor.setLiveShare(sink);
+        });
+    }
+
+    /**
+     * @return the wall clock time minus the elapsed realtime, in nanoseconds.
+     */
+    private static long epochOffsetNanos() {
+        return System.currentTimeMillis() * 1_000_000L - SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Saves the newest fix to the last fix file, unless it was already. Runs on the
+     * pipeline thread.
+     */
+    private void saveLastFix() {
+        FixSnapshot snapshot = lastSnapshot;
+        if (lastFixFile == null || snapshot == null || snapshot == savedSnapshot) {
+            return;
+        }
+        long ageMillis = (SystemClock.elapsedRealtimeNanos() - snapshot.elapsedRealtimeNanos) / 1_000_000L;
+        try {
+            new LastFix(snapshot.latitude, snapshot.longitude, snapshot.accuracy,
+                    System.currentTimeMillis() - ageMillis).write(lastFixFile);
+            savedSnapshot = snapshot;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the buffered fixes of the track file to storage, e.g. when the app leaves
+     * the foreground.
+     */
+    public void flushRecording() {
+        handler.post(processor::flushRecording);
+    }
+
+    /**
+     * Closes the track file after the fixes already queued are written.
+     */
+    public void stopRecording() {
+        handler.post(processor::stopRecording);
+    }
+
+    /**
+     * Closes the track file and the checkpoint file, saves the newest fix, and stops the
+     * pipeline thread once the queued work is done.
+     */
+    public void quit() {
+        stopRecording();
+        handler.post(() -> {
+            saveLastFix();
+            if (checkpointFile != null) {
+                try {
+                    checkpointFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                checkpointFile = null;
+            }
+        });
+        thread.quitSafely();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.runtracker.provider;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
+
+import java.util.List;
+
+/**
+ * FusedLocationProvider delivers fixes from the Google Play services
+ * {@link FusedLocationProviderClient}, batched.
+ * <p>
+ * The request sets {@code setMaxUpdateDelayMillis}, so the system may hold fixes back and
+ * deliver several of them in one {@link LocationResult}. The app then wakes up once per
+ * batch instead of once per fix, and the whole batch is handed to the sink before
+ * {@link LocationSink#onBatchEnd()}.
+ * </p>
+ */
+public final class FusedLocationProvider implements LocationProvider {
+    /** Default longest time fixes may be held back for batching, in milliseconds. */
+    public static final long DEFAULT_MAX_UPDATE_DELAY_MILLIS = 15_000;
+
+    /** The fused location client. */
+    private final FusedLocationProviderClient client;
+
+    /** Looper the fixes are delivered on. */
+    private final Looper looper;
+
+    /** Longest time fixes may be held back for batching, in milliseconds. */
+    private final long maxUpdateDelayMillis;
+
+    /** Receiver of the fixes; only changed while registering. */
+    private volatile LocationSink sink;
+
+    /** Callback registered with the fused location client. */
+    private final LocationCallback locationCallback = new LocationCallback() {
+        /**
+         * Forwards every fix of the result, oldest first, then ends the batch.
+         *
+         * @param result the batch of fixes.
+         */
+        @Override
+        public void onLocationResult(@NonNull LocationResult result) {
+            LocationSink target = sink;
+            List<Location> locations = result.getLocations();
+            for (int i = 0, n = locations.size(); i < n; i++) {
+                Location location = locations.get(i);
+                target.onFix(location.getLatitude(), location.getLongitude(), location.getSpeed(),
+                        location.getAccuracy(), location.getElapsedRealtimeNanos());
+            }
+            target.onBatchEnd();
+        }
+    };
+
+    /**
+     * @param context              a context, used to get the fused location client.
+     * @param looper               the looper the fixes are delivered on.
+     * @param maxUpdateDelayMillis longest time fixes may be held back for batching, in milliseconds.
+     */
+    public FusedLocationProvider(Context context, Looper looper, long maxUpdateDelayMillis) {
+        this.client = LocationServices.getFusedLocationProviderClient(context);
+        this.looper = looper;
+        this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+    }
+
+    @Override
+    public void start(long intervalMillis, float minDistanceMeters, LocationSink sink) {
+        this.sink = sink;
+        LocationRequest request = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, intervalMillis)
+                .setMinUpdateDistanceMeters(minDistanceMeters)
+                .setMaxUpdateDelayMillis(Math.max(intervalMillis, maxUpdateDelayMillis))
+                .build();
+        client.requestLocationUpdates(request, locationCallback, looper);
+    }
+
+    @Override
+    public void stop() {
+        client.removeLocationUpdates(locationCallback);
+    }
+}
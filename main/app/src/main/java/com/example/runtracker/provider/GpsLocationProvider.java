@@ -0,0 +1,72 @@
+package com.example.runtracker.provider;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * GpsLocationProvider delivers fixes from the platform {@link LocationManager#GPS_PROVIDER}.
+ * <p>
+ * Every fix is delivered as a batch of one on the given looper.
+ * </p>
+ */
+public final class GpsLocationProvider implements LocationProvider {
+    /** The system location manager. */
+    private final LocationManager locationManager;
+
+    /** Looper the fixes are delivered on. */
+    private final Looper looper;
+
+    /** Receiver of the fixes; only changed while registering. */
+    private volatile LocationSink sink;
+
+    /** Listener registered with the LocationManager. */
+    private final LocationListener locationListener = new LocationListener() {
+        /**
+         * Forwards the fix as a batch of one.
+         *
+         * @param location the updated location.
+         */
+        @Override
+        public void onLocationChanged(@NonNull Location location) {
+            LocationSink target = sink;
+            target.onFix(location.getLatitude(), location.getLongitude(), location.getSpeed(),
+                    location.getAccuracy(), location.getElapsedRealtimeNanos());
+            target.onBatchEnd();
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) { }
+
+        @Override
+        public void onProviderEnabled(@NonNull String provider) { }
+
+        @Override
+        public void onProviderDisabled(@NonNull String provider) { }
+    };
+
+    /**
+     * @param locationManager the system location manager.
+     * @param looper          the looper the fixes are delivered on.
+     */
+    public GpsLocationProvider(LocationManager locationManager, Looper looper) {
+        this.locationManager = locationManager;
+        this.looper = looper;
+    }
+
+    @Override
+    public void start(long intervalMillis, float minDistanceMeters, LocationSink sink) {
+        this.sink = sink;
+        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, intervalMillis,
+                minDistanceMeters, locationListener, looper);
+    }
+
+    @Override
+    public void stop() {
+        locationManager.removeUpdates(locationListener);
+    }
+}
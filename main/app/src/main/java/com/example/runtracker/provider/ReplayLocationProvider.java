@@ -0,0 +1,128 @@
+package com.example.runtracker.provider;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.runtracker.replay.ReplayEngine;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * ReplayLocationProvider delivers the fixes of a recorded or synthetic trace in place of
+ * a real receiver, paced by the elapsed realtime clock.
+ * <p>
+ * A {@link ReplayEngine} does the replay; this provider only drives it from a
+ * {@link Handler} on the given looper, waking up when the next fix is due at the engine's
+ * speed factor. Fixes that fell due since the last wakeup are delivered as one batch, so
+ * a fast replay behaves like the batched fused provider. The trace starts with the first
+ * {@link #start} and the fixes are stamped from that moment on. {@link #stop()} pauses the
+ * trace, which continues where it stopped on the next start. The requested interval is
+ * honoured the way a receiver would, by skipping fixes; the distance is ignored.
+ * </p>
+ */
+public final class ReplayLocationProvider implements LocationProvider, Closeable {
+    /** The replay of the trace; only used on the looper thread. */
+    private final ReplayEngine engine;
+
+    /** Handler of the looper the fixes are delivered on. */
+    private final Handler handler;
+
+    /** Receiver of the fixes. */
+    private volatile LocationSink sink;
+
+    /** Requested time between fixes, in nanoseconds. */
+    private volatile long intervalNanos;
+
+    /** True between {@link #start} and {@link #stop()}. */
+    private volatile boolean running;
+
+    /** True if the replay clock must be moved past a stop before the next delivery. */
+    private volatile boolean resumePending;
+
+    /** Elapsed realtime at which the replay offset 0 was due, in nanoseconds. */
+    private long realStartNanos;
+
+    /** Replay offset delivered up to, in nanoseconds of trace time. */
+    private long progressOffsetNanos;
+
+    /** Delivers the fixes that are due and schedules the next wakeup. */
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            deliverDueFixes();
+        }
+    };
+
+    /**
+     * @param engine the replay to deliver; not started yet.
+     * @param looper the looper the fixes are delivered on.
+     */
+    public ReplayLocationProvider(ReplayEngine engine, Looper looper) {
+        this.engine = engine;
+        this.handler = new Handler(looper);
+    }
+
+    @Override
+    public void start(long intervalMillis, float minDistanceMeters, LocationSink sink) {
+        this.sink = sink;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        if (!running) {
+            resumePending = true;
+            running = true;
+        }
+        handler.post(tick);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(tick);
+    }
+
+    /**
+     * Stops the replay and closes the trace.
+     *
+     * @throws IOException if closing the trace fails.
+     */
+    @Override
+    public void close() throws IOException {
+        stop();
+        engine.close();
+    }
+
+    /**
+     * Delivers the fixes due by now and schedules the next wakeup. Runs on the looper.
+     */
+    private void deliverDueFixes() {
+        // Start may post a wakeup while one is already scheduled.
+        handler.removeCallbacks(tick);
+        if (!running) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        try {
+            if (!engine.isStarted()) {
+                engine.start(now);
+                realStartNanos = now;
+            } else if (resumePending) {
+                // Skip the time spent stopped.
+                realStartNanos = now - engine.toRealNanos(progressOffsetNanos);
+            }
+            resumePending = false;
+            engine.setMinIntervalNanos(intervalNanos);
+            progressOffsetNanos = engine.toOffsetNanos(now - realStartNanos);
+            engine.deliverUntil(progressOffsetNanos, sink);
+        } catch (IOException e) {
+            e.printStackTrace();
+            running = false;
+            return;
+        }
+        long next = engine.nextOffsetNanos();
+        if (next >= 0 && running) {
+            long delayNanos = engine.toRealNanos(next) - (SystemClock.elapsedRealtimeNanos() - realStartNanos);
+            handler.postDelayed(tick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+        }
+    }
+}
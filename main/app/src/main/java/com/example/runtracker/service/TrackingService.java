@@ -0,0 +1,804 @@
+package com.example.runtracker.service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.location.LocationManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.Toast;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+
+import com.example.runtracker.MainActivity;
+import com.example.runtracker.checkpoint.CheckpointFile;
+import com.example.runtracker.checkpoint.SessionCheckpoint;
+import com.example.runtracker.clock.SessionClock;
+import com.example.runtracker.display.LogSink;
+import com.example.runtracker.display.MetricsTextFormatter;
+import com.example.runtracker.history.SessionStore;
+import com.example.runtracker.perf.DebugAllocationMeter;
+import com.example.runtracker.perf.PerfMonitor;
+import com.example.runtracker.perf.PerfReport;
+import com.example.runtracker.pipeline.FixSnapshot;
+import com.example.runtracker.pipeline.FrameCoalescingDispatcher;
+import com.example.runtracker.pipeline.LocationPipeline;
+import com.example.runtracker.pipeline.SnapshotRenderer;
+import com.example.runtracker.provider.FusedLocationProvider;
+import com.example.runtracker.provider.GpsLocationProvider;
+import com.example.runtracker.provider.LocationProvider;
+import com.example.runtracker.provider.ReplayLocationProvider;
+import com.example.runtracker.replay.NoisyTrace;
+import com.example.runtracker.replay.ReplayEngine;
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.share.LiveShareSink;
+import com.example.runtracker.share.LiveShareUploader;
+import com.example.runtracker.track.LiveRoute;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * TrackingService records a run in the foreground, whether or not any screen is showing it.
+ * <p>
+ * The service owns the location provider, the {@link LocationPipeline} and the track file,
+ * and keeps the session timer, a {@link SessionClock}. It runs as a location foreground
+ * service with an ongoing notification, so tracking goes on while the screen is off or
+ * the app is in the background. The notification opens the app and has an action to
+ * stop tracking.
+ * </p>
+ * <p>
+ * Processed snapshots are published from the pipeline thread into a
+ * {@link FrameCoalescingDispatcher}, a lock-free single-producer/single-consumer hand-off.
+ * A bound activity {@link #attach attaches} a renderer to it and is shown the newest
+ * snapshot right away; while nothing is attached, snapshots are kept but not drawn.
+ * Auto-pause changes reach the timer on the main thread through preallocated runnables,
+ * so the fix path takes no lock and allocates nothing.
+ * </p>
+ * <p>
+ * The service also owns the {@link PerfMonitor} of the hot path, which is always
+ * recording; in Dev Mode it counts the allocations of each batch as well, and a report
+ * can be {@link #dumpPerf() dumped} to a file.
+ * </p>
+ * <p>
+ * When a session ends, by stopping or by a reset, its summary is handed from the pipeline
+ * thread to the {@link SessionStore}, which writes the history in the background. The
+ * user's segments are loaded from the store when a session starts and timed by the
+ * pipeline; each completed segment effort is announced with a toast.
+ * </p>
+ * <p>
+ * Every few seconds, and whenever the session starts, pauses, resumes or ends, the
+ * session is checkpointed to a {@link CheckpointFile}: the timer and settings here, and
+ * the state of the processor on the pipeline thread. The service is sticky, so if the
+ * system kills the process while tracking it is started again, and a service created
+ * while the last checkpoint is still tracking goes on with that session, reading only the
+ * fixes recorded since the checkpoint. If the device restarted meanwhile, the fix times
+ * cannot go on, so the restored session is stored in the history instead. The newest fix
+ * is saved with each checkpoint to {@link #LAST_FIX_FILE}, where the next start of the
+ * app finds it.
+ * </p>
+ * <p>
+ * The recorded fixes can be shared live with a {@link LiveShareUploader}, which posts
+ * them in batches to an endpoint set by the user. The uploader is created the first time
+ * sharing is turned on and lives until the service is destroyed, so turning sharing off
+ * only stops new fixes while the batches already queued are still posted. The endpoint
+ * is not checkpointed: after the process was killed, sharing is off until turned on
+ * again, and the batches left in {@link #SHARE_DIRECTORY} are posted then.
+ * </p>
+ * <p>
+ * Apart from {@link #onSnapshot}, all methods run on the main thread.
+ * </p>
+ */
+public class TrackingService extends Service {
+    /** Intent action that starts tracking and moves the service to the foreground. */
+    public static final String ACTION_START = "com.example.runtracker.action.START_TRACKING";
+
+    /** Intent action that stops tracking and the service, sent by the notification. */
+    public static final String ACTION_STOP = "com.example.runtracker.action.STOP_TRACKING";
+
+    /** Id of the notification channel for the tracking notification. */
+    static final String CHANNEL_ID = "tracking";
+
+    /** Id of the ongoing tracking notification. */
+    static final int NOTIFICATION_ID = 1;
+
+    /** Seed of the GPS noise added to the Dev Mode trace. */
+    private static final long DEV_NOISE_SEED = 42;
+
+    /** Standard deviation of the GPS noise added to the Dev Mode trace, in meters. */
+    private static final double DEV_NOISE_METERS = 3;
+
+    /** Probability per fix that the Dev Mode trace starts a signal dropout. */
+    private static final double DEV_DROPOUT_PROBABILITY = 0.01;
+
+    /** Longest signal dropout of the Dev Mode trace, in fixes. */
+    private static final int DEV_MAX_DROPOUT_FIXES = 5;
+
+    /** Directory in the app's private storage that holds the session track files. */
+    public static final String TRACKS_DIRECTORY = "tracks";
+
+    /** File name extension of the session track files. */
+    public static final String TRACK_FILE_EXTENSION = ".rtrk";
+
+    /** Directory of the performance dumps, in the app's external files if available. */
+    public static final String PERF_DIRECTORY = "perf";
+
+    /** File name of the session checkpoint, in the files directory. */
+    static final String CHECKPOINT_FILE = "session.ckpt";
+
+    /** File name of the newest fix, shown at the next start of the app, in the files directory. */
+    public static final String LAST_FIX_FILE = "last-fix.bin";
+
+    /** Time between two checkpoints while tracking, in milliseconds. */
+    static final long CHECKPOINT_INTERVAL_MILLIS = 5_000;
+
+    /** Directory of the live-share batches not posted yet, in the files directory. */
+    static final String SHARE_DIRECTORY = "share";
+
+    /** Largest size of the live-share batches kept on disk while offline, in bytes. */
+    static final long SHARE_QUEUE_BYTES = 1 << 20;
+
+    /** Binder handed to activities bound to the service. */
+    private final IBinder binder = new LocalBinder();
+
+    /** Handler of the main thread. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Hand-off of processed snapshots from the pipeline thread to the bound UI. */
+    private FrameCoalescingDispatcher dispatcher;
+
+    /** Latency and allocation histograms of the hot path. */
+    private final PerfMonitor perfMonitor = new PerfMonitor(SystemClock::elapsedRealtimeNanos);
+
+    /** Allocation counting, started while in development mode. */
+    private final DebugAllocationMeter allocationMeter = new DebugAllocationMeter();
+
+    /** History of the sessions, receiving the summary of each ended session. */
+    private SessionStore sessionStore;
+
+    /** Background pipeline that receives, processes and records location updates. */
+    private LocationPipeline pipeline;
+
+    /** Location provider backed by the platform GPS provider. */
+    private LocationProvider gpsProvider;
+
+    /** Location provider backed by the batched fused location provider, created on first use. */
+    private LocationProvider fusedProvider;
+
+    /** Provider replaying a synthetic run in Dev Mode, created on first use. */
+    private ReplayLocationProvider devProvider;
+
+    /** Provider used instead of the selected one, e.g. in tests, or null. */
+    private LocationProvider providerOverride;
+
+    /** Session timer; owns the tracking, paused and auto-paused states. */
+    private final SessionClock sessionClock = new SessionClock(SystemClock::elapsedRealtimeNanos);
+
+    /** Formatter of the segment effort toasts; only used on the main thread. */
+    private final MetricsTextFormatter effortFormatter = new MetricsTextFormatter();
+
+    /** Auto-pause state of the last snapshot; only used on the pipeline thread. */
+    private boolean lastSnapshotAutoPaused;
+
+    /** Flag indicating whether the speed is displayed in miles per hour. */
+    private boolean useMph = true;
+
+    /** Flag indicating whether the app is in development mode. */
+    private boolean devMode;
+
+    /** Flag indicating whether fixes come from the batched fused location provider. */
+    private boolean useFusedLocation;
+
+    /** Uploader of the fixes shared live, or null until sharing is first turned on. */
+    private LiveShareUploader liveShare;
+
+    /** Flag indicating whether the recorded fixes are shared live. */
+    private boolean liveShareEnabled;
+
+    /** Stops the timer when the pipeline reports that the user stopped moving. */
+    private final Runnable autoPauseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sessionClock.setAutoPaused(true);
+        }
+    };
+
+    /** Restarts the timer when the pipeline reports that the user moves again. */
+    private final Runnable autoResumeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sessionClock.setAutoPaused(false);
+        }
+    };
+
+    /** Checkpoints the session, every {@link #CHECKPOINT_INTERVAL_MILLIS} while tracking. */
+    private final Runnable checkpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint();
+            mainHandler.postDelayed(this, CHECKPOINT_INTERVAL_MILLIS);
+        }
+    };
+
+    /**
+     * Binder that gives activities in this process direct access to the service.
+     */
+    public final class LocalBinder extends Binder {
+        /** @return the tracking service. */
+        public TrackingService getService() {
+            return TrackingService.this;
+        }
+    }
+
+    /**
+     * Creates the snapshot hand-off, the location pipeline and the GPS provider, and goes
+     * on with the session of the last checkpoint if it was still tracking.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        dispatcher = new FrameCoalescingDispatcher();
+        sessionStore = SessionStore.get(this);
+        pipeline = new LocationPipeline(this::onSnapshot);
+        pipeline.processor().setPerfMonitor(perfMonitor);
+        pipeline.processor().segments().setSink(this::onSegmentEffort);
+        LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        gpsProvider = new GpsLocationProvider(locationManager, pipeline.looper());
+        pipeline.setLastFixFile(new File(getFilesDir(), LAST_FIX_FILE));
+        restoreSession();
+    }
+
+    /**
+     * Starts or stops tracking as asked by the intent.
+     *
+     * @param intent  the intent with {@link #ACTION_START} or {@link #ACTION_STOP}.
+     * @param flags   additional data about the start request.
+     * @param startId a unique id of this start request.
+     * @return {@link #START_STICKY}, so the service is started again with a null intent
+     *         if the process is killed, and goes on with the session from its checkpoint.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            // Started again after the process was killed: the session, if any, is restored.
+            if (!isTracking()) {
+                stopSelf();
+            }
+        } else if (ACTION_STOP.equals(intent.getAction())) {
+            stopTracking();
+        } else {
+            startTracking();
+        }
+        return START_STICKY;
+    }
+
+    /**
+     * @param intent the intent used to bind.
+     * @return the {@link LocalBinder}.
+     */
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * Stores a session still being tracked, closes the track file and stops the pipeline
+     * thread.
+     */
+    @Override
+    public void onDestroy() {
+        mainHandler.removeCallbacks(autoPauseRunnable);
+        mainHandler.removeCallbacks(autoResumeRunnable);
+        mainHandler.removeCallbacks(checkpointRunnable);
+        pipeline.stopUpdates();
+        if (sessionClock.isStarted()) {
+            // The process may not live until the next batch.
+            pipeline.endSession(summary -> {
+                sessionStore.onSessionEnded(summary);
+                sessionStore.flush();
+            });
+            sessionClock.stop();
+            checkpoint();
+        }
+        pipeline.quit();
+        if (liveShare != null) {
+            liveShare.close();
+        }
+        dispatcher.cancel();
+        if (devMode) {
+            allocationMeter.stop();
+        }
+        if (devProvider != null) {
+            try {
+                devProvider.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Starts a session in the foreground: shows the notification, creates the track file,
+     * loads the segments, starts the timer and location updates. Does nothing if already
+     * tracking.
+     */
+    public void startTracking() {
+        if (sessionClock.isStarted()) {
+            return;
+        }
+        startForegroundWithNotification();
+        pipeline.reset();
+        pipeline.startRecording(newTrackFile());
+        sessionStore.loadSegments(pipeline::setSegments);
+        sessionClock.start();
+        startLocationUpdates();
+        startCheckpoints();
+    }
+
+    /**
+     * Ends the session: stops location updates, stores the session in the history, closes
+     * the track file, removes the notification and stops the service once no activity is
+     * bound.
+     */
+    public void stopTracking() {
+        if (sessionClock.isStarted()) {
+            sessionClock.stop();
+            pipeline.stopUpdates();
+            pipeline.endSession(sessionStore);
+            pipeline.stopRecording();
+            mainHandler.removeCallbacks(checkpointRunnable);
+            checkpoint();
+        }
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    /**
+     * Pauses the timer and location updates, ending an auto-pause.
+     */
+    public void pause() {
+        if (!sessionClock.isStarted() || sessionClock.isPaused()) {
+            return;
+        }
+        sessionClock.pause();
+        pipeline.stopUpdates();
+        pipeline.breakSegment();
+        checkpoint();
+    }
+
+    /**
+     * Resumes the timer and location updates after {@link #pause()}.
+     */
+    public void resume() {
+        if (!sessionClock.isPaused()) {
+            return;
+        }
+        sessionClock.resume();
+        startLocationUpdates();
+        checkpoint();
+    }
+
+    /**
+     * Stores the current session in the history and starts a new one with a new track
+     * file, restarting the timer from zero.
+     */
+    public void reset() {
+        if (!sessionClock.isStarted()) {
+            return;
+        }
+        pipeline.endSession(sessionStore);
+        pipeline.reset();
+        pipeline.startRecording(newTrackFile());
+        boolean wasPaused = sessionClock.isPaused();
+        sessionClock.start();
+        if (wasPaused) {
+            startLocationUpdates();
+        }
+        checkpoint();
+    }
+
+    /**
+     * Switches the speed unit.
+     *
+     * @param useMph true for miles per hour, false for meters per second.
+     */
+    public void setUseMph(boolean useMph) {
+        this.useMph = useMph;
+        pipeline.processor().setUseMph(useMph);
+    }
+
+    /**
+     * Turns development mode, its per-fix debug logging and the allocation counting on
+     * or off. In development mode the fixes come from a replay of a synthetic run with GPS
+     * noise and dropouts instead of the selected provider.
+     *
+     * @param devMode true to enable development mode.
+     */
+    public void setDevMode(boolean devMode) {
+        if (devMode == this.devMode) {
+            return;
+        }
+        this.devMode = devMode;
+        pipeline.processor().setLogSink(devMode ? LogSink.STDOUT : LogSink.DISABLED);
+        if (devMode) {
+            allocationMeter.start();
+            perfMonitor.setAllocationMeter(allocationMeter);
+        } else {
+            perfMonitor.setAllocationMeter(null);
+            allocationMeter.stop();
+        }
+        if (isTracking() && !isPaused()) {
+            // Do not count the jump between the real and the replayed position.
+            pipeline.breakSegment();
+            startLocationUpdates();
+        }
+    }
+
+    /**
+     * Chooses between the GPS provider and the batched fused location provider. Running
+     * updates switch to the new provider right away.
+     *
+     * @param useFusedLocation true for the fused location provider.
+     */
+    public void setUseFusedLocation(boolean useFusedLocation) {
+        this.useFusedLocation = useFusedLocation;
+        if (isTracking() && !isPaused()) {
+            startLocationUpdates();
+        }
+    }
+
+    /**
+     * Shares the recorded fixes live with an endpoint. The batches already queued are
+     * posted to it as well.
+     *
+     * @param endpoint the URL the batches are posted to.
+     * @throws IOException if the URL is malformed; sharing is left as it was.
+     */
+    public void startLiveShare(String endpoint) throws IOException {
+        URL url = new URL(endpoint);
+        if (liveShare == null) {
+            // The queue directory is read on the upload thread, not here.
+            liveShare = new LiveShareUploader(url, new File(getFilesDir(), SHARE_DIRECTORY), SHARE_QUEUE_BYTES,
+                    SystemClock::elapsedRealtimeNanos, LiveShareUploader.BATCH_INTERVAL_MILLIS);
+            liveShare.start();
+        } else {
+            liveShare.setEndpoint(url);
+        }
+        liveShareEnabled = true;
+        pipeline.setLiveShare(liveShare);
+    }
+
+    /**
+     * Stops sharing the recorded fixes. The batches already queued are still posted.
+     */
+    public void stopLiveShare() {
+        liveShareEnabled = false;
+        pipeline.setLiveShare(LiveShareSink.DISABLED);
+    }
+
+    /** @return the endpoint the fixes are shared with, or null if they are not shared. */
+    public String liveShareEndpoint() {
+        return liveShareEnabled ? liveShare.endpoint().toString() : null;
+    }
+
+    /**
+     * Uses the given provider instead of the one chosen with
+     * {@link #setUseFusedLocation(boolean)}. Running updates switch right away.
+     *
+     * @param provider the provider, delivering on the pipeline looper, or null to go back
+     *                 to the chosen provider.
+     */
+    public void useProvider(LocationProvider provider) {
+        providerOverride = provider;
+        if (isTracking() && !isPaused()) {
+            startLocationUpdates();
+        }
+    }
+
+    /**
+     * Attaches the renderer of a bound activity and shows the newest snapshot on it right
+     * away.
+     *
+     * @param renderer the target that shows the snapshots on the main thread.
+     */
+    public void attach(SnapshotRenderer renderer) {
+        dispatcher.attach(renderer);
+    }
+
+    /**
+     * Detaches the renderer when the activity is no longer visible, and writes the
+     * recorded fixes to the track file.
+     */
+    public void detach() {
+        dispatcher.detach();
+        pipeline.flushRecording();
+    }
+
+    /** @return the route of the current session, to draw on the UI thread. */
+    public LiveRoute route() {
+        return pipeline.processor().route();
+    }
+
+    /** @return the latency and allocation histograms of the hot path. */
+    public PerfMonitor perfMonitor() {
+        return perfMonitor;
+    }
+
+    /**
+     * Writes the full report of the {@link PerfMonitor} to a new file in
+     * {@link #PERF_DIRECTORY}, where it can be pulled from the device.
+     *
+     * @return the file written.
+     * @throws IOException if the file cannot be written.
+     */
+    public File dumpPerf() throws IOException {
+        File base = getExternalFilesDir(null);
+        File directory = new File(base != null ? base : getFilesDir(), PERF_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = new File(directory, "perf-" + System.currentTimeMillis() + ".txt");
+        try (Writer out = new FileWriter(file)) {
+            new PerfReport(perfMonitor).writeDump(out);
+        }
+        return file;
+    }
+
+    /**
+     * Ends the current lap by hand. The laps are kept with the processed fixes and shown
+     * with the next snapshot.
+     */
+    public void lap() {
+        if (isTracking() && !isPaused()) {
+            pipeline.lap();
+        }
+    }
+
+    /** @return the session timer, e.g. to schedule the display of its seconds. */
+    public SessionClock sessionClock() {
+        return sessionClock;
+    }
+
+    /** @return the time tracked in the current session in milliseconds, excluding pauses. */
+    public long elapsedMillis() {
+        return sessionClock.elapsedNanos() / 1_000_000L;
+    }
+
+    /** @return true while a session is being tracked. */
+    public boolean isTracking() {
+        return sessionClock.isStarted();
+    }
+
+    /** @return true while the user has paused tracking. */
+    public boolean isPaused() {
+        return sessionClock.isPaused();
+    }
+
+    /** @return true while the timer is paused because the user is stopped. */
+    public boolean isAutoPaused() {
+        return sessionClock.isAutoPaused();
+    }
+
+    /** @return true if the speed is displayed in miles per hour. */
+    public boolean useMph() {
+        return useMph;
+    }
+
+    /** @return true if development mode is enabled. */
+    public boolean isDevMode() {
+        return devMode;
+    }
+
+    /** @return the sink of the debug logging, which only logs in development mode. */
+    public LogSink logSink() {
+        return pipeline.processor().logSink();
+    }
+
+    /** @return true if fixes come from the batched fused location provider. */
+    public boolean useFusedLocation() {
+        return useFusedLocation;
+    }
+
+    /**
+     * Receives every snapshot on the pipeline thread, hands it to the UI and passes
+     * auto-pause changes to the timer on the main thread.
+     *
+     * @param snapshot the snapshot of the last accepted fix of a batch.
+     */
+    private void onSnapshot(FixSnapshot snapshot) {
+        dispatcher.publish(snapshot);
+        if (snapshot.autoPaused != lastSnapshotAutoPaused) {
+            lastSnapshotAutoPaused = snapshot.autoPaused;
+            mainHandler.post(snapshot.autoPaused ? autoPauseRunnable : autoResumeRunnable);
+        }
+    }
+
+    /**
+     * Announces a completed segment effort. Called on the pipeline thread.
+     *
+     * @param segment    the segment.
+     * @param startNanos timestamp of the start of the effort, in nanoseconds.
+     * @param endNanos   timestamp of the end of the effort, in nanoseconds.
+     */
+    private void onSegmentEffort(Segment segment, long startNanos, long endNanos) {
+        mainHandler.post(() -> Toast.makeText(this,
+                effortFormatter.formatSegmentEffort(segment.name, endNanos - startNanos).toString(),
+                Toast.LENGTH_LONG).show());
+    }
+
+    /**
+     * Opens the checkpoint file and, if its last checkpoint is still tracking, goes on
+     * with that session: the settings, the timer and the processor are restored, and
+     * tracking resumes in the foreground unless the session was paused. The time the
+     * process was dead counts if the timer was running, as the user went on running. If
+     * the device restarted since the checkpoint, the session is stored in the history
+     * instead.
+     */
+    private void restoreSession() {
+        CheckpointFile file;
+        try {
+            file = CheckpointFile.open(new File(getFilesDir(), CHECKPOINT_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES);
+        SessionCheckpoint state = file.read(payload) ? SessionCheckpoint.read(payload) : null;
+        pipeline.setCheckpointFile(file);
+        if (state == null || !state.tracking) {
+            return;
+        }
+        setUseMph(state.useMph);
+        setUseFusedLocation(state.useFusedLocation);
+        setDevMode(state.devMode);
+        File trackFile = state.trackFileName == null ? null
+                : new File(new File(getFilesDir(), TRACKS_DIRECTORY), state.trackFileName);
+        pipeline.restore(state, payload, trackFile);
+        long deadNanos = SystemClock.elapsedRealtimeNanos() - state.realtimeNanos;
+        if (deadNanos < 0) {
+            // The device restarted: the elapsed realtime of the fixes started over.
+            pipeline.endSession(sessionStore);
+            pipeline.stopRecording();
+            checkpoint();
+            return;
+        }
+        startForegroundWithNotification();
+        sessionStore.loadSegments(pipeline::setSegments);
+        sessionClock.restore(state.clockElapsedNanos + (state.running ? deadNanos : 0), state.paused);
+        if (!state.paused) {
+            startLocationUpdates();
+        }
+        startCheckpoints();
+    }
+
+    /**
+     * Checkpoints the session now and every {@link #CHECKPOINT_INTERVAL_MILLIS} while
+     * tracking.
+     */
+    private void startCheckpoints() {
+        mainHandler.removeCallbacks(checkpointRunnable);
+        checkpointRunnable.run();
+    }
+
+    /**
+     * Writes a checkpoint of the timer and the settings, with the state of the processor
+     * on the pipeline thread.
+     */
+    private void checkpoint() {
+        SessionCheckpoint state = new SessionCheckpoint();
+        state.tracking = sessionClock.isStarted();
+        state.paused = sessionClock.isPaused();
+        state.running = sessionClock.isRunning();
+        state.useMph = useMph;
+        state.devMode = devMode;
+        state.useFusedLocation = useFusedLocation;
+        state.clockElapsedNanos = sessionClock.elapsedNanos();
+        state.realtimeNanos = SystemClock.elapsedRealtimeNanos();
+        pipeline.checkpoint(state);
+    }
+
+    /**
+     * Starts receiving location updates from the selected provider on the pipeline thread.
+     */
+    private void startLocationUpdates() {
+        try {
+            pipeline.startUpdates(selectedProvider());
+        } catch (SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the location provider to use.
+     *
+     * @return the override if set, else the replay in Dev Mode, else the fused provider if
+     *         selected, else the GPS provider.
+     */
+    private LocationProvider selectedProvider() {
+        if (providerOverride != null) {
+            return providerOverride;
+        }
+        if (devMode) {
+            if (devProvider == null) {
+                ReplayEngine replay = new ReplayEngine(new NoisyTrace(SyntheticTrace.devRun(),
+                        DEV_NOISE_SEED, DEV_NOISE_METERS, DEV_DROPOUT_PROBABILITY, DEV_MAX_DROPOUT_FIXES), 1);
+                replay.setLoop(true);
+                devProvider = new ReplayLocationProvider(replay, pipeline.looper());
+            }
+            return devProvider;
+        }
+        if (!useFusedLocation) {
+            return gpsProvider;
+        }
+        if (fusedProvider == null) {
+            fusedProvider = new FusedLocationProvider(this, pipeline.looper(),
+                    FusedLocationProvider.DEFAULT_MAX_UPDATE_DELAY_MILLIS);
+        }
+        return fusedProvider;
+    }
+
+    /**
+     * Moves the service to the foreground with the ongoing tracking notification.
+     */
+    private void startForegroundWithNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Run tracking",
+                    NotificationManager.IMPORTANCE_LOW);
+            getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+        int type = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION : 0;
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, buildNotification(), type);
+    }
+
+    /**
+     * Builds the tracking notification, which opens the app and can stop tracking.
+     *
+     * @return the notification.
+     */
+    private Notification buildNotification() {
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, TrackingService.class).setAction(ACTION_STOP),
+                PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_menu_mylocation)
+                .setContentTitle("Run Tracker")
+                .setContentText("Tracking your run")
+                .setCategory(NotificationCompat.CATEGORY_WORKOUT)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentIntent(open)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, "Stop", stop)
+                .build();
+    }
+
+    /**
+     * Returns a new track file for a session, named after the current time.
+     *
+     * @return the track file in the tracks directory of the app's private storage, which
+     * the pipeline creates with the file.
+     */
+    private File newTrackFile() {
+        File directory = new File(getFilesDir(), TRACKS_DIRECTORY);
+        return new File(directory, "session-" + System.currentTimeMillis() + TRACK_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.runtracker.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.example.runtracker.heatmap.HeatmapCounts;
+import com.example.runtracker.heatmap.HeatmapRenderer;
+import com.example.runtracker.heatmap.TileCache;
+
+/**
+ * HeatmapView draws the heatmap of every route, panned by dragging and zoomed by
+ * pinching.
+ * <p>
+ * The view shows the map at a continuous zoom level, and draws the tiles of the nearest
+ * zoom level counted by {@link HeatmapCounts}, scaled to fit; past the highest level the
+ * tiles of the highest one are enlarged. The tiles come from a {@link TileCache}, so a
+ * frame only draws the tiles it has not drawn before; the view itself keeps no bitmap.
+ * </p>
+ */
+public final class HeatmapView extends View {
+    /** Lowest zoom level the view can be zoomed out to. */
+    static final double MIN_VIEW_ZOOM = HeatmapCounts.MIN_ZOOM - 0.5;
+
+    /** Highest zoom level the view can be zoomed in to. */
+    static final double MAX_VIEW_ZOOM = HeatmapCounts.MAX_ZOOM + 2;
+
+    /** Paint of the tiles, filtered when scaled. */
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Reused destination of a tile. */
+    private final RectF tileRect = new RectF();
+
+    /** Recognizes the pinches. */
+    private final ScaleGestureDetector scaleDetector;
+
+    /** Empty margin around the fitted area, in pixels. */
+    private final float padding;
+
+    /** Drawn tiles, or null to draw nothing. */
+    private TileCache<Bitmap> tiles;
+
+    /** West, north, east and south edges of the area to fit when laid out, or null. */
+    private double[] fitBounds;
+
+    /** Center of the view, projected as by {@link HeatmapCounts#worldX}. */
+    private double centerX;
+
+    /** Center of the view, projected as by {@link HeatmapCounts#worldY}. */
+    private double centerY;
+
+    /** Zoom level of the view: the map is 256 * 2<sup>zoom</sup> pixels wide. */
+    private double zoom = HeatmapCounts.MIN_ZOOM;
+
+    /** Position of the pointer dragging the map, in pixels. */
+    private float dragX, dragY;
+
+    /**
+     * @param context the context of the view.
+     */
+    public HeatmapView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param context the context of the view.
+     * @param attrs   the attributes from the layout, or null.
+     */
+    public HeatmapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        padding = 16 * context.getResources().getDisplayMetrics().density;
+        setBackgroundColor(Color.rgb(0x21, 0x21, 0x21));
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sets the tiles to draw, fitting the view to an area of the map.
+     *
+     * @param tiles  the drawn tiles of the heatmap.
+     * @param bounds the west, north, east and south edges of the area, projected as by
+     *               {@link HeatmapCounts#worldX} and {@link HeatmapCounts#worldY}.
+     */
+    public void setTiles(TileCache<Bitmap> tiles, double[] bounds) {
+        this.tiles = tiles;
+        fitBounds = bounds.clone();
+        fit();
+        invalidate();
+    }
+
+    /** @return the zoom level of the view. */
+    double zoom() {
+        return zoom;
+    }
+
+    /**
+     * @param viewZoom the zoom level of the view.
+     * @return the zoom level of the tiles drawn at it.
+     */
+    static int tileZoom(double viewZoom) {
+        return (int) Math.max(HeatmapCounts.MIN_ZOOM, Math.min(HeatmapCounts.MAX_ZOOM, Math.round(viewZoom)));
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        fit();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                dragX = event.getX();
+                dragY = event.getY();
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (event.getPointerCount() == 1 && !scaleDetector.isInProgress()) {
+                    double worldPixels = worldPixels();
+                    centerX -= (event.getX() - dragX) / worldPixels;
+                    centerY -= (event.getY() - dragY) / worldPixels;
+                    invalidate();
+                }
+                dragX = event.getX();
+                dragY = event.getY();
+                return true;
+            case MotionEvent.ACTION_POINTER_UP:
+                // Go on dragging with the pointer left down.
+                int left = event.getActionIndex() == 0 ? 1 : 0;
+                dragX = event.getX(left);
+                dragY = event.getY(left);
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        TileCache<Bitmap> tiles = this.tiles;
+        if (tiles == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        int tileZoom = tileZoom(zoom);
+        int tileCount = 1 << tileZoom;
+        double tilePixels = worldPixels() / tileCount;
+        double left = centerX * tileCount - getWidth() / 2.0 / tilePixels;
+        double top = centerY * tileCount - getHeight() / 2.0 / tilePixels;
+        int firstX = Math.max(0, (int) Math.floor(left));
+        int firstY = Math.max(0, (int) Math.floor(top));
+        int lastX = Math.min(tileCount - 1, (int) Math.floor(left + getWidth() / tilePixels));
+        int lastY = Math.min(tileCount - 1, (int) Math.floor(top + getHeight() / tilePixels));
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                Bitmap tile = tiles.get(HeatmapCounts.tileKey(tileZoom, x, y));
+                if (tile != null) {
+                    tileRect.set((float) ((x - left) * tilePixels), (float) ((y - top) * tilePixels),
+                            (float) ((x + 1 - left) * tilePixels), (float) ((y + 1 - top) * tilePixels));
+                    canvas.drawBitmap(tile, null, tileRect, tilePaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fits the view to the area set with the tiles, once it is laid out.
+     */
+    private void fit() {
+        if (fitBounds == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        centerX = (fitBounds[0] + fitBounds[2]) / 2;
+        centerY = (fitBounds[1] + fitBounds[3]) / 2;
+        double width = Math.max(1e-12, fitBounds[2] - fitBounds[0]);
+        double height = Math.max(1e-12, fitBounds[3] - fitBounds[1]);
+        double worldPixels = Math.min((getWidth() - 2 * padding) / width, (getHeight() - 2 * padding) / height);
+        zoom = clampZoom(Math.log(worldPixels / HeatmapRenderer.TILE_PIXELS) / Math.log(2));
+    }
+
+    /**
+     * Zooms around a point of the view, which keeps its place on the map.
+     *
+     * @param factor the scale factor.
+     * @param focusX the point, in pixels.
+     * @param focusY the point, in pixels.
+     */
+    private void zoomBy(float factor, float focusX, float focusY) {
+        double before = worldPixels();
+        double focusWorldX = centerX + (focusX - getWidth() / 2.0) / before;
+        double focusWorldY = centerY + (focusY - getHeight() / 2.0) / before;
+        zoom = clampZoom(zoom + Math.log(factor) / Math.log(2));
+        double after = worldPixels();
+        centerX = focusWorldX - (focusX - getWidth() / 2.0) / after;
+        centerY = focusWorldY - (focusY - getHeight() / 2.0) / after;
+        invalidate();
+    }
+
+    /** @return the width of the whole map at the zoom level of the view, in pixels. */
+    private double worldPixels() {
+        return HeatmapRenderer.TILE_PIXELS * Math.pow(2, zoom);
+    }
+
+    /**
+     * @param zoom a zoom level.
+     * @return the zoom level, within what the view can show.
+     */
+    private static double clampZoom(double zoom) {
+        return Math.max(MIN_VIEW_ZOOM, Math.min(MAX_VIEW_ZOOM, zoom));
+    }
+}
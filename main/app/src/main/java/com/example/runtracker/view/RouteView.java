@@ -0,0 +1,332 @@
+package com.example.runtracker.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.LiveRoute;
+
+/**
+ * RouteView draws the route of the session while it is recorded.
+ * <p>
+ * The positions come from a {@link LiveRoute}, read straight from its primitive columns
+ * on the UI thread. They are projected on a flat map around the first fix, in meters,
+ * and fitted to the view; when the route leaves the fitted area, the view zooms out to
+ * half again the size of the route, so it refits only now and then.
+ * </p>
+ * <p>
+ * The drawn route is kept in a bitmap. Each frame only the segments to the new positions
+ * are added to it, through one reused {@link Path}, so a frame costs the same for a short
+ * run and for a track of 50,000 fixes. The bitmap is redrawn from the start only when
+ * the projection or the level of detail changes, or for a new session. Once the view is
+ * zoomed out so far that the simplified route is within a pixel of the full one, the
+ * simplified route is drawn instead, followed by the newest fixes at full resolution
+ * that the simplifier has not decided on yet.
+ * </p>
+ */
+public final class RouteView extends View {
+    /** Largest error of the simplified route that may be drawn, in pixels. */
+    static final double MAX_LOD_ERROR_PIXELS = 1.0;
+
+    /** Smallest width and height of the fitted area, in meters. */
+    static final double MIN_EXTENT_METERS = 200;
+
+    /** Size of the fitted area relative to the route when it is refitted. */
+    static final double REFIT_FACTOR = 1.5;
+
+    /** Paint of the route line. */
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /** Paint of the current position. */
+    private final Paint positionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /** Reused path of the segments drawn in a frame. */
+    private final Path path = new Path();
+
+    /** Radius of the current position, in pixels. */
+    private final float positionRadius;
+
+    /** Empty margin around the fitted area, in pixels. */
+    private final float padding;
+
+    /** Route to draw, or null. */
+    private LiveRoute route;
+
+    /** Route drawn in the cache, or null. */
+    private LiveRoute drawnRoute;
+
+    /** The drawn route. */
+    private Bitmap cache;
+
+    /** Canvas drawing into {@link #cache}. */
+    private Canvas cacheCanvas;
+
+    /** True if the cache holds the simplified route. */
+    private boolean drawnSimplified;
+
+    /** Number of positions drawn in the cache. */
+    private int drawnCount;
+
+    /** Number of positions of the full route included in the bounds. */
+    private int boundsCount;
+
+    /** Latitude of the projection origin, in degrees. */
+    private double originLatitude;
+
+    /** Longitude of the projection origin, in degrees. */
+    private double originLongitude;
+
+    /** Meters per degree of longitude at the origin. */
+    private double metersPerDegreeLongitude;
+
+    /** Bounds of the route, in meters east and north of the origin. */
+    private double minX, maxX, minY, maxY;
+
+    /** Pixels per meter of the fitted area. */
+    private double scale;
+
+    /** Center of the fitted area, in meters east and north of the origin. */
+    private double centerX, centerY;
+
+    /** Half width and half height of the fitted area, in meters. */
+    private double halfWidth, halfHeight;
+
+    /**
+     * @param context the context of the view.
+     */
+    public RouteView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param context the context of the view.
+     * @param attrs   the attributes from the layout, or null.
+     */
+    public RouteView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        linePaint.setColor(Color.rgb(0x1E, 0x88, 0xE5));
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(3 * density);
+        linePaint.setStrokeCap(Paint.Cap.ROUND);
+        linePaint.setStrokeJoin(Paint.Join.ROUND);
+        positionPaint.setColor(Color.rgb(0xE5, 0x39, 0x35));
+        positionRadius = 5 * density;
+        padding = 8 * density;
+    }
+
+    /**
+     * Sets the route to draw and redraws the view. A different route, e.g. of a new
+     * session, is drawn from the start; the same one only gets its new positions.
+     *
+     * @param route the route, or null to draw nothing.
+     */
+    public void setRoute(LiveRoute route) {
+        this.route = route;
+        invalidate();
+    }
+
+    /**
+     * Chooses the level of detail: the simplified route is drawn once its error is within
+     * {@link #MAX_LOD_ERROR_PIXELS} on screen.
+     *
+     * @param toleranceMeters largest distance of the simplified route from the full one.
+     * @param pixelsPerMeter  scale of the drawing.
+     * @return true to draw the simplified route, false for the full one.
+     */
+    static boolean useSimplified(double toleranceMeters, double pixelsPerMeter) {
+        return toleranceMeters * pixelsPerMeter <= MAX_LOD_ERROR_PIXELS;
+    }
+
+    /** @return true if the simplified route was drawn last. */
+    boolean drawsSimplified() {
+        return drawnSimplified;
+    }
+
+    /** @return the number of positions drawn in the cached bitmap. */
+    int drawnCount() {
+        return drawnCount;
+    }
+
+    /** @return the pixels per meter of the drawing. */
+    double scale() {
+        return scale;
+    }
+
+    /**
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @return the horizontal position on the view, in pixels.
+     */
+    float screenX(double latitude, double longitude) {
+        double x = (longitude - originLongitude) * metersPerDegreeLongitude;
+        return (float) (getWidth() / 2.0 + (x - centerX) * scale);
+    }
+
+    /**
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @return the vertical position on the view, in pixels; north is up.
+     */
+    float screenY(double latitude, double longitude) {
+        double y = (latitude - originLatitude) * RunMetrics.METERS_PER_DEGREE;
+        return (float) (getHeight() / 2.0 - (y - centerY) * scale);
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        if (cache != null) {
+            cache.recycle();
+            cache = null;
+            cacheCanvas = null;
+        }
+        if (drawnRoute != null && boundsCount > 0) {
+            fit();
+        }
+        drawnCount = 0;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        LiveRoute route = this.route;
+        int size = route != null ? route.size() : 0;
+        if (size == 0 || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        if (route != drawnRoute) {
+            startRoute(route);
+        }
+        if (extendBounds(route, size)) {
+            fit();
+            drawnCount = 0;
+        }
+        boolean simplified = useSimplified(route.toleranceMeters(), scale);
+        if (simplified != drawnSimplified) {
+            drawnSimplified = simplified;
+            drawnCount = 0;
+        }
+        updateCache(route, simplified, size);
+        canvas.drawBitmap(cache, 0, 0, null);
+
+        int last = size - 1;
+        if (simplified && drawnCount > 0) {
+            // The newest fixes still wait in the simplifier's window.
+            int start = route.simplifiedSourceIndex(drawnCount - 1);
+            if (start < last) {
+                path.rewind();
+                path.moveTo(screenX(route.latitude(start), route.longitude(start)),
+                        screenY(route.latitude(start), route.longitude(start)));
+                for (int i = start + 1; i <= last; i++) {
+                    path.lineTo(screenX(route.latitude(i), route.longitude(i)),
+                            screenY(route.latitude(i), route.longitude(i)));
+                }
+                canvas.drawPath(path, linePaint);
+            }
+        }
+        canvas.drawCircle(screenX(route.latitude(last), route.longitude(last)),
+                screenY(route.latitude(last), route.longitude(last)), positionRadius, positionPaint);
+    }
+
+    /**
+     * Starts drawing a new route, projected around its first position.
+     *
+     * @param route the route, with at least one position.
+     */
+    private void startRoute(LiveRoute route) {
+        drawnRoute = route;
+        drawnCount = 0;
+        boundsCount = 0;
+        originLatitude = route.latitude(0);
+        originLongitude = route.longitude(0);
+        metersPerDegreeLongitude = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+        minX = maxX = minY = maxY = 0;
+        halfWidth = halfHeight = 0;
+    }
+
+    /**
+     * Adds the new positions to the bounds of the route.
+     *
+     * @param route the drawn route.
+     * @param size  the number of positions to include.
+     * @return true if the route left the fitted area, which must be refitted.
+     */
+    private boolean extendBounds(LiveRoute route, int size) {
+        for (int i = boundsCount; i < size; i++) {
+            double x = (route.longitude(i) - originLongitude) * metersPerDegreeLongitude;
+            double y = (route.latitude(i) - originLatitude) * RunMetrics.METERS_PER_DEGREE;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        boundsCount = size;
+        return halfWidth == 0 || minX < centerX - halfWidth || maxX > centerX + halfWidth
+                || minY < centerY - halfHeight || maxY > centerY + halfHeight;
+    }
+
+    /**
+     * Fits the view to the bounds of the route, with room to grow.
+     */
+    private void fit() {
+        centerX = (minX + maxX) / 2;
+        centerY = (minY + maxY) / 2;
+        double width = Math.max(MIN_EXTENT_METERS, (maxX - minX) * REFIT_FACTOR);
+        double height = Math.max(MIN_EXTENT_METERS, (maxY - minY) * REFIT_FACTOR);
+        double pixelsWide = Math.max(1, getWidth() - 2 * padding);
+        double pixelsHigh = Math.max(1, getHeight() - 2 * padding);
+        scale = Math.min(pixelsWide / width, pixelsHigh / height);
+        // The fitted area covers the whole view at that scale.
+        halfWidth = getWidth() / scale / 2;
+        halfHeight = getHeight() / scale / 2;
+    }
+
+    /**
+     * Adds the segments to the new positions to the cached bitmap, after clearing it if
+     * it must be redrawn from the start.
+     *
+     * @param route      the drawn route.
+     * @param simplified true to draw the simplified route.
+     * @param size       the number of positions of the full route.
+     */
+    private void updateCache(LiveRoute route, boolean simplified, int size) {
+        if (cache == null) {
+            cache = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            cacheCanvas = new Canvas(cache);
+            drawnCount = 0;
+        }
+        if (drawnCount == 0) {
+            cache.eraseColor(Color.TRANSPARENT);
+        }
+        int count = simplified ? route.simplifiedSize() : size;
+        if (count <= drawnCount) {
+            return;
+        }
+        path.rewind();
+        int first = Math.max(0, drawnCount - 1);
+        if (simplified) {
+            path.moveTo(screenX(route.simplifiedLatitude(first), route.simplifiedLongitude(first)),
+                    screenY(route.simplifiedLatitude(first), route.simplifiedLongitude(first)));
+            for (int i = first + 1; i < count; i++) {
+                path.lineTo(screenX(route.simplifiedLatitude(i), route.simplifiedLongitude(i)),
+                        screenY(route.simplifiedLatitude(i), route.simplifiedLongitude(i)));
+            }
+        } else {
+            path.moveTo(screenX(route.latitude(first), route.longitude(first)),
+                    screenY(route.latitude(first), route.longitude(first)));
+            for (int i = first + 1; i < count; i++) {
+                path.lineTo(screenX(route.latitude(i), route.longitude(i)),
+                        screenY(route.latitude(i), route.longitude(i)));
+            }
+        }
+        cacheCanvas.drawPath(path, linePaint);
+        drawnCount = count;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.runtracker;
+
+import android.Manifest;
+import android.app.Application;
+import android.app.Dialog;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Looper;
+import android.widget.TextView;
+
+import com.example.runtracker.checkpoint.LastFix;
+import com.example.runtracker.perf.StartupTrace;
+import com.example.runtracker.service.TrackingService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowDialog;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for the start of {@link MainActivity}: the order of its phases and
+ * the last known position shown until the first fix. The activity binds to a service
+ * that receives no fixes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainActivityStartupTest {
+    private static final long MINUTE_MILLIS = 60_000;
+
+    private Application application;
+
+    private ActivityController<MainActivity> controller;
+
+    private ServiceController<TrackingService> serviceController;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.ACCESS_FINE_LOCATION,
+                Manifest.permission.POST_NOTIFICATIONS);
+        serviceController = Robolectric.buildService(TrackingService.class).create();
+        shadowOf(application).setComponentNameAndServiceForBindService(
+                new ComponentName(application, TrackingService.class),
+                serviceController.get().onBind(new Intent(application, TrackingService.class)));
+    }
+
+    @After
+    public void tearDown() {
+        if (controller != null) {
+            controller.pause().stop().destroy();
+        }
+        serviceController.destroy();
+    }
+
+    @Test
+    public void start_drawsTheFirstFrameBeforeTheSecondarySetupAndTracking() {
+        controller = Robolectric.buildActivity(MainActivity.class).create().start();
+        StartupTrace trace = controller.get().startupTrace();
+        assertEquals(2, trace.phaseCount());
+        assertEquals(MainActivity.PHASE_CREATE, trace.phase(0));
+        assertEquals(MainActivity.PHASE_CONTENT, trace.phase(1));
+        // The service, and with it the GPS, waits for the first frame.
+        assertNull(shadowOf(application).getNextStartedService());
+
+        controller.resume().visible();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+        String[] order = {
+                MainActivity.PHASE_CREATE, MainActivity.PHASE_CONTENT, MainActivity.PHASE_FIRST_FRAME,
+                MainActivity.PHASE_SECONDARY_SETUP, MainActivity.PHASE_LAST_FIX, MainActivity.PHASE_TRACKING
+        };
+        assertEquals(order.length, trace.phaseCount());
+        for (int i = 0; i < order.length; i++) {
+            assertEquals(order[i], trace.phase(i));
+            assertTrue(trace.durationNanos(i) >= 0);
+        }
+        assertEquals(TrackingService.class.getName(),
+                shadowOf(application).getNextStartedService().getComponent().getClassName());
+    }
+
+    @Test
+    public void start_showsTheSavedLastFixAsStale() throws IOException {
+        new LastFix(42.3505, -71.1076, 4.5f, System.currentTimeMillis() - 5 * MINUTE_MILLIS)
+                .write(new File(application.getFilesDir(), TrackingService.LAST_FIX_FILE));
+
+        TextView location = launch().findViewById(R.id.locationTextView);
+        assertEquals("Latitude: 42.35050000°\nLongitude: -71.10760000°\nLast known 5 min ago, waiting for GPS",
+                location.getText().toString());
+        assertTrue(location.getAlpha() < 1f);
+    }
+
+    @Test
+    public void start_prefersTheNewerLocationKnownToTheSystem() throws IOException {
+        new LastFix(42.3505, -71.1076, 4.5f, System.currentTimeMillis() - 60 * MINUTE_MILLIS)
+                .write(new File(application.getFilesDir(), TrackingService.LAST_FIX_FILE));
+        Location known = new Location(LocationManager.GPS_PROVIDER);
+        known.setLatitude(42.3601);
+        known.setLongitude(-71.0589);
+        known.setTime(System.currentTimeMillis() - 2 * MINUTE_MILLIS);
+        LocationManager locationManager = (LocationManager) application.getSystemService(Context.LOCATION_SERVICE);
+        shadowOf(locationManager).setLastKnownLocation(LocationManager.GPS_PROVIDER, known);
+
+        TextView location = launch().findViewById(R.id.locationTextView);
+        assertTrue(location.getText().toString(), location.getText().toString().startsWith("Latitude: 42.36010000°"));
+        assertTrue(location.getText().toString(), location.getText().toString().contains("Last known 2 min ago"));
+    }
+
+    @Test
+    public void helpButton_buildsTheDialogOnceOnTheFirstClick() {
+        MainActivity activity = launch();
+        assertNull(ShadowDialog.getLatestDialog());
+
+        activity.findViewById(R.id.helpButton).performClick();
+        Dialog first = ShadowDialog.getLatestDialog();
+        assertTrue(first.isShowing());
+        first.dismiss();
+        activity.findViewById(R.id.helpButton).performClick();
+        assertSame(first, ShadowDialog.getLatestDialog());
+        assertTrue(first.isShowing());
+    }
+
+    /**
+     * Starts the activity and runs the main looper past its first frame.
+     *
+     * @return the activity.
+     */
+    private MainActivity launch() {
+        controller = Robolectric.buildActivity(MainActivity.class).setup();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+        return controller.get();
+    }
+}
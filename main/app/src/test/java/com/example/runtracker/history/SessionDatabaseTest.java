@@ -0,0 +1,176 @@
+package com.example.runtracker.history;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.runtracker.segment.Segment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Robolectric tests for {@link SessionDatabase} on the native SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SessionDatabaseTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private SessionDatabase database;
+
+    @Before
+    public void setUp() {
+        database = new SessionDatabase(RuntimeEnvironment.getApplication(), "sessions-test.db");
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void insert_roundTripsEveryColumn() {
+        SessionSummary stored = new SessionSummary.Builder()
+                .session(START, "session-1.rtrk")
+                .totals(5012.5, 1_800_000_000_000L, 1_700_000_000_000L, 1800)
+                .splits(5, 330_000_000_000L, 540_000_000_000L)
+                .elevationGain(42)
+                .build();
+        long id = database.insert(List.of(stored))[0];
+
+        SessionSummary loaded = database.loadPage(null, 10).get(0);
+        assertEquals(id, loaded.id);
+        assertEquals(START, loaded.startEpochMillis);
+        assertEquals("session-1.rtrk", loaded.trackFileName);
+        assertEquals(5012.5, loaded.distanceMeters, 0.0);
+        assertEquals(1_800_000_000_000L, loaded.durationNanos);
+        assertEquals(1_700_000_000_000L, loaded.movingNanos);
+        assertEquals(1800, loaded.fixCount);
+        assertEquals(5, loaded.lapCount);
+        assertEquals(330_000_000_000L, loaded.bestKilometerNanos);
+        assertEquals(540_000_000_000L, loaded.bestMileNanos);
+        assertEquals(42, loaded.elevationGainMeters, 0.0);
+    }
+
+    @Test
+    public void insert_keepsMissingValuesMissing() {
+        database.insert(List.of(new SessionSummary.Builder().session(START, null).build()));
+
+        SessionSummary loaded = database.loadPage(null, 10).get(0);
+        assertNull(loaded.trackFileName);
+        assertEquals(SessionSummary.NO_SPLIT, loaded.bestKilometerNanos);
+        assertEquals(SessionSummary.NO_SPLIT, loaded.bestMileNanos);
+        assertTrue(Double.isNaN(loaded.elevationGainMeters));
+    }
+
+    @Test
+    public void insert_writesABatchQuickly() {
+        List<SessionSummary> sessions = sessions(5000);
+        long start = System.nanoTime();
+        database.insert(sessions);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(5000, database.count());
+        // One transaction: a sync per session would take far longer.
+        assertTrue("took " + millis + " ms", millis < 2000);
+    }
+
+    @Test
+    public void loadPage_pagesNewestFirstWithoutGapsOrDuplicates() {
+        database.insert(sessions(5000));
+
+        Set<Long> seen = new HashSet<>();
+        SessionSummary last = null;
+        long slowestMillis = 0;
+        while (true) {
+            long start = System.nanoTime();
+            List<SessionSummary> page = database.loadPage(last, 50);
+            slowestMillis = Math.max(slowestMillis, (System.nanoTime() - start) / 1_000_000);
+            for (SessionSummary session : page) {
+                assertTrue(seen.add(session.id));
+                if (last != null) {
+                    assertTrue(session.startEpochMillis < last.startEpochMillis
+                            || session.startEpochMillis == last.startEpochMillis && session.id < last.id);
+                }
+                last = session;
+            }
+            if (page.size() < 50) {
+                break;
+            }
+        }
+        assertEquals(5000, seen.size());
+        assertTrue("slowest page took " + slowestMillis + " ms", slowestMillis < 100);
+    }
+
+    @Test
+    public void loadPage_seeksInTheStartIndex() {
+        String plan = queryPlan("SELECT * FROM " + SessionDatabase.TABLE
+                + " WHERE start_epoch_millis <= 1 AND (start_epoch_millis < 1 OR _id < 1)"
+                + " ORDER BY start_epoch_millis DESC, _id DESC LIMIT 50");
+        assertTrue(plan, plan.contains("INDEX sessions_start"));
+        assertTrue(plan, plan.contains("start_epoch_millis<"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void insertSegment_roundTripsThePolyline() {
+        long id = database.insertSegment(new Segment(0, "hill", new double[]{42.35, 42.36, 42.37},
+                new double[]{-71.1, -71.11, -71.1}));
+
+        List<Segment> segments = database.loadSegments();
+        assertEquals(1, segments.size());
+        Segment segment = segments.get(0);
+        assertEquals(id, segment.id);
+        assertEquals("hill", segment.name);
+        assertEquals(3, segment.size());
+        assertEquals(42.36, segment.latitude(1), 0.0);
+        assertEquals(-71.11, segment.longitude(1), 0.0);
+    }
+
+    @Test
+    public void database_usesWriteAheadLogging() {
+        try (Cursor cursor = database.getWritableDatabase().rawQuery("PRAGMA journal_mode", null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        }
+    }
+
+    /**
+     * Returns sessions a day apart, with every tenth starting at the same time as the one
+     * before, so that paging must break ties by id.
+     */
+    private static List<SessionSummary> sessions(int count) {
+        List<SessionSummary> sessions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = START + (i - i % 10 / 9) * 86_400_000L;
+            sessions.add(new SessionSummary.Builder()
+                    .session(start, "session-" + i + ".rtrk")
+                    .totals(5000 + i, 1_800_000_000_000L, 1_700_000_000_000L, 1800)
+                    .splits(5, 330_000_000_000L, SessionSummary.NO_SPLIT)
+                    .build());
+        }
+        return sessions;
+    }
+
+    private String queryPlan(String sql) {
+        SQLiteDatabase db = database.getReadableDatabase();
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
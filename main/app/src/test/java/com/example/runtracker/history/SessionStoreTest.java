@@ -0,0 +1,198 @@
+package com.example.runtracker.history;
+
+import android.os.Looper;
+
+import com.example.runtracker.heatmap.HeatmapAggregator;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.track.TrackWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for the batching and paging of {@link SessionStore}, with the
+ * database work on the main looper.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SessionStoreTest {
+    private SessionDatabase database;
+
+    private SessionStore store;
+
+    @Before
+    public void setUp() {
+        database = new SessionDatabase(RuntimeEnvironment.getApplication(), null);
+        store = new SessionStore(database, Looper.getMainLooper(), Looper.getMainLooper());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void onSessionEnded_writesSessionsInOneBatch() {
+        store.onSessionEnded(session(1));
+        store.onSessionEnded(session(2));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(SessionStore.BATCH_DELAY_MILLIS - 1));
+        assertEquals(0, database.count());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1));
+        assertEquals(2, database.count());
+    }
+
+    @Test
+    public void flush_writesRightAway() {
+        store.onSessionEnded(session(1));
+        store.flush();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, database.count());
+    }
+
+    @Test
+    public void loadPage_includesQueuedSessions() {
+        store.onSessionEnded(session(1));
+        store.onSessionEnded(session(2));
+        List<SessionSummary> loaded = new ArrayList<>();
+        store.loadPage(null, 10, loaded::addAll);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(2, loaded.size());
+        assertEquals(2, loaded.get(0).startEpochMillis);
+
+        List<SessionSummary> next = new ArrayList<>();
+        store.loadPage(loaded.get(0), 10, next::addAll);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, next.size());
+        assertEquals(1, next.get(0).startEpochMillis);
+    }
+
+    @Test
+    public void loadBestEfforts_scansTheStoredSessionsOnce() throws IOException {
+        File tracks = RuntimeEnvironment.getApplication().getFilesDir();
+        File file = new File(tracks, "best-efforts.bin");
+        // 1.2 km at 4 m/s, and 1.2 km at 3 m/s.
+        writeTrack(new File(tracks, "fast.rtrk"), 4);
+        writeTrack(new File(tracks, "slow.rtrk"), 3);
+        store.onSessionEnded(new SessionSummary.Builder().session(1, "fast.rtrk").build());
+        store.onSessionEnded(new SessionSummary.Builder().session(2, "slow.rtrk").build());
+
+        List<BestEffortFinder> loaded = new ArrayList<>();
+        store.loadBestEfforts(tracks, file, loaded::add);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        BestEffortFinder finder = loaded.get(0);
+        assertEquals(2, finder.scannedCount());
+        assertEquals("fast.rtrk", finder.bestSessionKey(0));
+        assertEquals(250, finder.bestNanos(0) / 1e9, 0.5);
+        assertEquals(BestEffortFinder.NO_EFFORT, finder.bestNanos(1));
+
+        // A store of the next start of the app reads the bests instead of the track files.
+        assertTrue(new File(tracks, "fast.rtrk").delete());
+        assertTrue(new File(tracks, "slow.rtrk").delete());
+        SessionStore restarted = new SessionStore(database, Looper.getMainLooper(), Looper.getMainLooper());
+        restarted.loadBestEfforts(tracks, file, loaded::add);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, loaded.get(1).scannedCount());
+        assertEquals("fast.rtrk", loaded.get(1).bestSessionKey(0));
+        assertEquals(finder.bestNanos(0), loaded.get(1).bestNanos(0));
+    }
+
+    @Test
+    public void loadHeatmap_marksOnlyTheNewSessions() throws IOException {
+        File tracks = RuntimeEnvironment.getApplication().getFilesDir();
+        File file = new File(tracks, "heatmap.bin");
+        writeTrack(new File(tracks, "first.rtrk"), 3);
+        store.onSessionEnded(new SessionSummary.Builder().session(1, "first.rtrk").build());
+        List<HeatmapAggregator> loaded = new ArrayList<>();
+        List<long[]> changed = new ArrayList<>();
+        SessionStore.HeatmapCallback callback = (heatmap, changedTiles) -> {
+            loaded.add(heatmap);
+            changed.add(changedTiles);
+        };
+        store.loadHeatmap(tracks, file, callback);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        HeatmapAggregator heatmap = loaded.get(0);
+        assertEquals(1, heatmap.sessionCount());
+        assertEquals(heatmap.tileCount(), changed.get(0).length);
+        assertTrue(file.isFile());
+
+        // Marked as it is written, and only its tiles are reported; the same route
+        // changes the same tiles.
+        writeTrack(new File(tracks, "second.rtrk"), 3);
+        store.onSessionEnded(new SessionSummary.Builder().session(2, "second.rtrk").build());
+        store.flush();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, heatmap.sessionCount());
+        store.loadHeatmap(tracks, file, callback);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertSame(heatmap, loaded.get(1));
+        assertEquals(heatmap.tileCount(), changed.get(1).length);
+
+        store.loadHeatmap(tracks, file, callback);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, changed.get(2).length);
+        assertEquals(2, HeatmapAggregator.read(file, ForkJoinPool.commonPool()).sessionCount());
+    }
+
+    @Test
+    public void saveSegment_storesTheSimplifiedRoute() throws IOException {
+        File track = new File(RuntimeEnvironment.getApplication().getFilesDir(), "route.rtrk");
+        writeTrack(track, 3);
+        List<Segment> saved = new ArrayList<>();
+        store.saveSegment(track, "north", saved::add);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // The simplified route of a straight run keeps few of its 300 fixes.
+        Segment segment = saved.get(0);
+        assertEquals("north", segment.name);
+        assertTrue(segment.size() < 10);
+        assertEquals(897, segment.lengthMeters(), 1);
+
+        List<Segment> loaded = new ArrayList<>();
+        store.loadSegments(loaded::addAll);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, loaded.size());
+        assertEquals(segment.id, loaded.get(0).id);
+    }
+
+    @Test
+    public void saveSegment_reportsAnUnreadableTrack() {
+        List<Segment> saved = new ArrayList<>();
+        store.saveSegment(new File("missing.rtrk"), "none", saved::add);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, saved.size());
+        assertNull(saved.get(0));
+    }
+
+    /**
+     * Writes a track of 300 fixes due north, a second apart.
+     */
+    private static void writeTrack(File file, double speedMps) throws IOException {
+        try (TrackWriter writer = TrackWriter.create(file, 0, 0)) {
+            for (int i = 0; i < 300; i++) {
+                writer.append(42.35 + i * speedMps / 111_195, -71.1, (float) speedMps, 4f,
+                        i * 1_000_000_000L);
+            }
+        }
+    }
+
+    private static SessionSummary session(long startEpochMillis) {
+        return new SessionSummary.Builder().session(startEpochMillis, null).build();
+    }
+}
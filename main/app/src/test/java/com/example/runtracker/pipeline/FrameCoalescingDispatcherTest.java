@@ -0,0 +1,150 @@
+package com.example.runtracker.pipeline;
+
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for {@link FrameCoalescingDispatcher}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrameCoalescingDispatcherTest {
+    private final List<FixSnapshot> rendered = new ArrayList<>();
+
+    private final List<Boolean> renderedOnMainThread = new ArrayList<>();
+
+    private final SnapshotRenderer renderer = snapshot -> {
+        rendered.add(snapshot);
+        renderedOnMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+    };
+
+    @Test
+    public void publish_burstIsRenderedOnceWithLatestSnapshot() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        FixSnapshot last = null;
+        for (int i = 0; i < 5; i++) {
+            last = snapshot(i);
+            dispatcher.publish(last);
+        }
+        assertTrue(rendered.isEmpty());
+
+        runFrames();
+
+        assertEquals(1, rendered.size());
+        assertSame(last, rendered.get(0));
+    }
+
+    @Test
+    public void publish_afterFrameSchedulesAnotherFrame() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        dispatcher.publish(snapshot(1));
+        runFrames();
+        FixSnapshot second = snapshot(2);
+        dispatcher.publish(second);
+        runFrames();
+
+        assertEquals(2, rendered.size());
+        assertSame(second, rendered.get(1));
+    }
+
+    @Test
+    public void frameWithoutNewSnapshot_rendersNothing() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        dispatcher.publish(snapshot(1));
+        runFrames();
+        runFrames();
+
+        assertEquals(1, rendered.size());
+    }
+
+    @Test
+    public void publish_fromPipelineThreadIsRenderedOnMainThread() throws InterruptedException {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        FixSnapshot[] last = new FixSnapshot[1];
+        Thread pipeline = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                last[0] = snapshot(i);
+                dispatcher.publish(last[0]);
+            }
+        });
+        pipeline.start();
+        pipeline.join();
+
+        runFrames();
+
+        assertEquals(1, rendered.size());
+        assertSame(last[0], rendered.get(0));
+        assertTrue(renderedOnMainThread.get(0));
+    }
+
+    @Test
+    public void cancel_dropsPendingSnapshot() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        dispatcher.publish(snapshot(1));
+        dispatcher.cancel();
+        runFrames();
+
+        assertTrue(rendered.isEmpty());
+    }
+
+    @Test
+    public void publishWhileDetached_isShownAtOnceOnAttach() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher();
+        FixSnapshot last = null;
+        for (int i = 0; i < FrameCoalescingDispatcher.RING_CAPACITY * 2; i++) {
+            last = snapshot(i);
+            dispatcher.publish(last);
+        }
+        runFrames();
+        assertSame(last, dispatcher.latest());
+
+        dispatcher.attach(renderer);
+        assertEquals(1, rendered.size());
+        assertSame(last, rendered.get(0));
+
+        runFrames();
+        assertEquals(1, rendered.size());
+    }
+
+    @Test
+    public void detach_stopsRenderingUntilAttachedAgain() {
+        FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(renderer);
+        dispatcher.publish(snapshot(1));
+        dispatcher.detach();
+        runFrames();
+        assertTrue(rendered.isEmpty());
+
+        FixSnapshot second = snapshot(2);
+        dispatcher.publish(second);
+        dispatcher.attach(renderer);
+        FixSnapshot third = snapshot(3);
+        dispatcher.publish(third);
+        runFrames();
+
+        assertEquals(2, rendered.size());
+        assertSame(second, rendered.get(0));
+        assertSame(third, rendered.get(1));
+    }
+
+    /** Lets the main looper run long enough for the next frames to be drawn. */
+    private static void runFrames() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+    }
+
+    private static FixSnapshot snapshot(int index) {
+        return new FixSnapshot.Builder()
+                .position(42 + index * 1e-5, -71, 5f)
+                .elapsedRealtimeNanos(index * 1_000_000_000L)
+                .trackSize(index + 1)
+                .build();
+    }
+}
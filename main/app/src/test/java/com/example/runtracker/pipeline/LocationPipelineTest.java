@@ -0,0 +1,133 @@
+package com.example.runtracker.pipeline;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.runtracker.checkpoint.LastFix;
+import com.example.runtracker.provider.FakeLocationProvider;
+import com.example.runtracker.sampling.SamplingScheduler;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for {@link LocationPipeline} with a {@link FakeLocationProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationPipelineTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final List<FixSnapshot> rendered = new ArrayList<>();
+
+    private final FrameCoalescingDispatcher dispatcher = new FrameCoalescingDispatcher(rendered::add);
+
+    private final LocationPipeline pipeline = new LocationPipeline(dispatcher::publish);
+
+    @After
+    public void tearDown() {
+        pipeline.quit();
+        dispatcher.cancel();
+    }
+
+    @Test
+    public void batch_isRenderedOnMainThreadAsOneSnapshot() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        pipeline.startUpdates(provider);
+        assertTrue(provider.isStarted());
+        assertEquals(1000, provider.intervalMillis());
+
+        provider.deliverBatch(15, 42.35, 3f, 5f, SECOND);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+
+        assertEquals(1, rendered.size());
+        assertEquals(15, rendered.get(0).trackSize);
+    }
+
+    @Test
+    public void samplingModeChange_restartsProviderWithLongerInterval() throws InterruptedException {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        pipeline.startUpdates(provider);
+
+        // The restart is posted to the pipeline thread, not run on the fix path: while that
+        // thread is held, the delivery returns without restarting.
+        CountDownLatch held = new CountDownLatch(1);
+        new Handler(pipeline.looper()).post(() -> {
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        provider.deliverBatch(30, 42.35, 0f, 5f, SECOND);
+        assertEquals(1, provider.startCount());
+        held.countDown();
+        awaitPipeline();
+
+        assertEquals(SamplingScheduler.MODE_STATIONARY, pipeline.processor().sampling().mode());
+        assertEquals(2, provider.startCount());
+        assertEquals(SamplingScheduler.intervalMillis(SamplingScheduler.MODE_STATIONARY), provider.intervalMillis());
+
+        provider.deliverBatch(1, 42.3501, 3f, 5f, 40 * SECOND);
+        awaitPipeline();
+        assertEquals(3, provider.startCount());
+        assertEquals(1000, provider.intervalMillis());
+    }
+
+    @Test
+    public void stopUpdates_stopsTheProviderAndSwitchingProvidersStopsTheOldOne() {
+        FakeLocationProvider gps = new FakeLocationProvider();
+        FakeLocationProvider fused = new FakeLocationProvider();
+        pipeline.startUpdates(gps);
+        pipeline.startUpdates(fused);
+        assertFalse(gps.isStarted());
+        assertTrue(fused.isStarted());
+
+        pipeline.stopUpdates();
+        assertFalse(fused.isStarted());
+    }
+
+    @Test
+    public void quit_savesTheNewestFix() throws Exception {
+        File file = new File(RuntimeEnvironment.getApplication().getFilesDir(), "last-fix.bin");
+        pipeline.setLastFixFile(file);
+        FakeLocationProvider provider = new FakeLocationProvider();
+        pipeline.startUpdates(provider);
+        provider.deliverBatch(5, 42.35, 3f, 4.5f, SystemClock.elapsedRealtimeNanos() - 4 * SECOND);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        pipeline.quit();
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        LastFix fix = LastFix.read(file);
+        FixSnapshot last = rendered.get(rendered.size() - 1);
+        assertEquals(last.latitude, fix.latitude, 0);
+        assertEquals(last.longitude, fix.longitude, 0);
+        assertEquals(last.accuracy, fix.accuracy, 0);
+        assertEquals(System.currentTimeMillis(), fix.epochMillis, 1000);
+    }
+
+    /**
+     * Waits until the pipeline thread has run the work posted so far.
+     */
+    private void awaitPipeline() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        new Handler(pipeline.looper()).post(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.runtracker.provider;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.runtracker.replay.ReplayEngine;
+import com.example.runtracker.replay.SyntheticTrace;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for {@link ReplayLocationProvider}, paced by the main looper clock.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReplayLocationProviderTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final RecordingSink sink = new RecordingSink();
+
+    @Test
+    public void realTime_deliversOneFixPerSecondStampedFromTheStart() {
+        ReplayLocationProvider provider = provider(1);
+        long start = SystemClock.elapsedRealtimeNanos();
+        provider.start(1000, 0, sink);
+        idle(Duration.ofMillis(10_500));
+
+        assertEquals(11, sink.fixes.size());
+        assertEquals(11, sink.batchCount);
+        for (int i = 0; i < 11; i++) {
+            assertEquals(start + i * SECOND, sink.fixes.elapsedRealtimeNanos(i));
+        }
+    }
+
+    @Test
+    public void fastReplay_batchesTheFixesDueBetweenWakeups() {
+        ReplayLocationProvider provider = provider(1000);
+        provider.start(1000, 0, sink);
+        idle(Duration.ofSeconds(1));
+
+        assertEquals(1001, sink.fixes.size());
+        assertTrue(sink.batchCount <= 1001);
+        assertEquals(1000 * SECOND, sink.fixes.elapsedRealtimeNanos(1000) - sink.fixes.elapsedRealtimeNanos(0));
+    }
+
+    @Test
+    public void stop_pausesTheTraceAndRestartChangesTheInterval() {
+        ReplayLocationProvider provider = provider(1);
+        provider.start(1000, 0, sink);
+        idle(Duration.ofMillis(4_500));
+        assertEquals(5, sink.fixes.size());
+
+        provider.stop();
+        idle(Duration.ofSeconds(60));
+        assertEquals(5, sink.fixes.size());
+
+        // Continues after the last delivered fix, every third second of the trace.
+        provider.start(3000, 0, sink);
+        idle(Duration.ofMillis(9_500));
+        assertEquals(8, sink.fixes.size());
+        assertEquals(3 * SECOND, sink.fixes.elapsedRealtimeNanos(6) - sink.fixes.elapsedRealtimeNanos(5));
+    }
+
+    private static ReplayLocationProvider provider(double speedFactor) {
+        SyntheticTrace trace = new SyntheticTrace.Builder().start(42.35, -71.1).segment(0, 3f, 3600).build();
+        return new ReplayLocationProvider(new ReplayEngine(trace, speedFactor), Looper.getMainLooper());
+    }
+
+    private static void idle(Duration duration) {
+        shadowOf(Looper.getMainLooper()).idleFor(duration);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.runtracker.service;
+
+import android.Manifest;
+import android.app.Application;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.runtracker.checkpoint.CheckpointFile;
+import com.example.runtracker.checkpoint.SessionCheckpoint;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.pipeline.FixProcessor;
+import com.example.runtracker.pipeline.FixSnapshot;
+import com.example.runtracker.provider.FakeLocationProvider;
+import com.example.runtracker.track.TrackWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for {@link TrackingService} started again after the process was
+ * killed, from a checkpoint written as the service writes it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TrackingServiceRestoreTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6_371_008.8;
+
+    private Application application;
+
+    private ServiceController<TrackingService> controller;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.ACCESS_FINE_LOCATION,
+                Manifest.permission.POST_NOTIFICATIONS);
+    }
+
+    @After
+    public void tearDown() {
+        if (controller != null) {
+            controller.destroy();
+        }
+    }
+
+    @Test
+    public void create_goesOnWithTheCheckpointedSession() throws Exception {
+        long now = SystemClock.elapsedRealtimeNanos();
+        FixProcessor killed = writeCheckpoint(true, now - 10 * SECOND);
+
+        controller = Robolectric.buildService(TrackingService.class).create();
+        TrackingService service = controller.get();
+        assertTrue(service.isTracking());
+        assertFalse(service.isPaused());
+        assertFalse(service.useMph());
+        assertEquals(TrackingService.NOTIFICATION_ID, shadowOf(service).getLastForegroundNotificationId());
+        // The ten seconds the process was dead count, as the user ran on.
+        assertEquals(70_000, service.elapsedMillis());
+
+        // The fixes recorded after the checkpoint are read again from the track file.
+        awaitRouteSize(service, 30);
+        FakeLocationProvider provider = new FakeLocationProvider();
+        service.useProvider(provider);
+        List<FixSnapshot> rendered = new ArrayList<>();
+        service.attach(rendered::add);
+        provider.deliverBatch(1, 42.35 + 130 * 3 / METERS_PER_DEGREE, 3f, 5f, 130 * SECOND);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        FixSnapshot snapshot = rendered.get(rendered.size() - 1);
+        assertEquals(killed.metrics().distanceMeters() + 3, snapshot.distanceMeters, 0.01);
+    }
+
+    @Test
+    public void create_leavesAnEndedSessionEnded() throws Exception {
+        writeCheckpoint(false, SystemClock.elapsedRealtimeNanos());
+
+        controller = Robolectric.buildService(TrackingService.class).create();
+        assertFalse(controller.get().isTracking());
+    }
+
+    @Test
+    public void create_afterADeviceRestartEndsTheSession() throws Exception {
+        writeCheckpoint(true, SystemClock.elapsedRealtimeNanos() + 3600 * SECOND);
+
+        controller = Robolectric.buildService(TrackingService.class).create();
+        assertFalse(controller.get().isTracking());
+    }
+
+    /**
+     * Records 130 fixes of a session, 3 m apart each second, checkpointing it as the
+     * service does after 100 of them.
+     *
+     * @param tracking      true if the session is still tracked.
+     * @param realtimeNanos elapsed realtime of the checkpoint.
+     * @return the processor of the session.
+     */
+    private FixProcessor writeCheckpoint(boolean tracking, long realtimeNanos) throws IOException {
+        File tracks = new File(application.getFilesDir(), TrackingService.TRACKS_DIRECTORY);
+        assertTrue(tracks.isDirectory() || tracks.mkdirs());
+        File track = new File(tracks, "session-1.rtrk");
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.startRecording(TrackWriter.create(track, 1_700_000_000_000L, 0));
+        ByteBuffer payload = ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES);
+        for (int i = 0; i < 130; i++) {
+            processor.process(42.35 + i * 3 / METERS_PER_DEGREE, -71.1, 3f, 5f, i * SECOND);
+            if (i == 99) {
+                SessionCheckpoint state = new SessionCheckpoint();
+                state.tracking = tracking;
+                state.running = true;
+                state.clockElapsedNanos = 60 * SECOND;
+                state.realtimeNanos = realtimeNanos;
+                state.startEpochMillis = 1_700_000_000_000L;
+                state.trackFileName = track.getName();
+                state.write(payload);
+                processor.writeState(payload);
+            }
+        }
+        processor.stopRecording();
+        payload.flip();
+        try (CheckpointFile checkpoint = CheckpointFile.open(
+                new File(application.getFilesDir(), TrackingService.CHECKPOINT_FILE))) {
+            checkpoint.write(payload);
+        }
+        return processor;
+    }
+
+    /**
+     * Waits for the pipeline thread to restore the session.
+     *
+     * @param service the service.
+     * @param size    the size of the route once restored.
+     */
+    private static void awaitRouteSize(TrackingService service, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (service.route().size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, service.route().size());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.runtracker.service;
+
+import android.Manifest;
+import android.app.Application;
+import android.app.Notification;
+import android.content.Intent;
+import android.os.Looper;
+
+import com.example.runtracker.pipeline.FixSnapshot;
+import com.example.runtracker.provider.FakeLocationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Robolectric tests for {@link TrackingService} with a {@link FakeLocationProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TrackingServiceTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final List<FixSnapshot> rendered = new ArrayList<>();
+
+    private final FakeLocationProvider provider = new FakeLocationProvider();
+
+    private ServiceController<TrackingService> controller;
+
+    private TrackingService service;
+
+    @Before
+    public void setUp() {
+        Application application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.ACCESS_FINE_LOCATION,
+                Manifest.permission.POST_NOTIFICATIONS);
+        Intent start = new Intent(application, TrackingService.class).setAction(TrackingService.ACTION_START);
+        controller = Robolectric.buildService(TrackingService.class, start).create();
+        service = controller.get();
+        service.useProvider(provider);
+        controller.startCommand(0, 1);
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void start_runsInForegroundWithStopAction() {
+        assertTrue(service.isTracking());
+        assertTrue(provider.isStarted());
+        assertEquals(TrackingService.NOTIFICATION_ID, shadowOf(service).getLastForegroundNotificationId());
+        Notification notification = shadowOf(service).getLastForegroundNotification();
+        assertNotNull(notification);
+        assertEquals("Stop", notification.actions[0].title.toString());
+    }
+
+    @Test
+    public void batch_isRenderedOnAttachedViewerOnce() {
+        service.attach(rendered::add);
+        provider.deliverBatch(15, 42.35, 3f, 5f, SECOND);
+        runFrames();
+
+        assertEquals(1, rendered.size());
+        assertEquals(15, rendered.get(0).trackSize);
+    }
+
+    @Test
+    public void attach_showsNewestSnapshotRightAway() {
+        provider.deliverBatch(5, 42.35, 3f, 5f, SECOND);
+        runFrames();
+        assertTrue(rendered.isEmpty());
+
+        service.attach(rendered::add);
+        assertEquals(1, rendered.size());
+        assertEquals(5, rendered.get(0).trackSize);
+
+        service.detach();
+        provider.deliverBatch(1, 42.3501, 3f, 5f, 6 * SECOND);
+        runFrames();
+        assertEquals(1, rendered.size());
+
+        service.attach(rendered::add);
+        assertEquals(2, rendered.size());
+        assertEquals(6, rendered.get(1).trackSize);
+    }
+
+    @Test
+    public void autoPause_freezesTimerUntilMovingAgain() {
+        runFrames(Duration.ofSeconds(5));
+        provider.deliverBatch(30, 42.35, 0f, 5f, SECOND);
+        runFrames();
+        assertTrue(service.isAutoPaused());
+
+        long frozen = service.elapsedMillis();
+        runFrames(Duration.ofSeconds(10));
+        assertEquals(frozen, service.elapsedMillis());
+
+        provider.deliverBatch(1, 42.3501, 3f, 5f, 40 * SECOND);
+        runFrames(Duration.ofSeconds(2));
+        assertFalse(service.isAutoPaused());
+        assertTrue(service.elapsedMillis() > frozen);
+    }
+
+    @Test
+    public void pause_stopsUpdatesAndTimer() {
+        runFrames(Duration.ofSeconds(3));
+        service.pause();
+        assertFalse(provider.isStarted());
+        long paused = service.elapsedMillis();
+        runFrames(Duration.ofSeconds(3));
+        assertEquals(paused, service.elapsedMillis());
+
+        service.resume();
+        assertTrue(provider.isStarted());
+        runFrames(Duration.ofSeconds(1));
+        assertTrue(service.elapsedMillis() > paused);
+    }
+
+    @Test
+    public void fixes_areMeasuredAndDumped() throws IOException {
+        provider.deliverBatch(15, 42.35, 3f, 5f, SECOND);
+        runFrames();
+        assertEquals(15, service.perfMonitor().fixToProcess.count());
+
+        File dump = service.dumpPerf();
+        assertEquals(TrackingService.PERF_DIRECTORY, dump.getParentFile().getName());
+        try (BufferedReader in = new BufferedReader(new FileReader(dump))) {
+            assertEquals("fix->process (ms)", in.readLine());
+            assertEquals("  count 15", in.readLine());
+        }
+    }
+
+    @Test
+    public void stopAction_endsTrackingAndStopsService() {
+        Intent stop = new Intent(service, TrackingService.class).setAction(TrackingService.ACTION_STOP);
+        service.onStartCommand(stop, 0, 2);
+
+        assertFalse(service.isTracking());
+        assertFalse(provider.isStarted());
+        assertTrue(shadowOf(service).isStoppedBySelf());
+    }
+
+    /** Lets the main looper run long enough for the next frames to be drawn. */
+    private static void runFrames() {
+        runFrames(Duration.ofMillis(100));
+    }
+
+    private static void runFrames(Duration duration) {
+        shadowOf(Looper.getMainLooper()).idleFor(duration);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.runtracker.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.example.runtracker.heatmap.HeatmapCounts;
+import com.example.runtracker.heatmap.TileCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Robolectric tests for the fitting and the tiles drawn by {@link HeatmapView}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HeatmapViewTest {
+    private static final int SIZE_PX = 1000;
+
+    /** First column and row of the fitted area, in highest-zoom tiles. */
+    private static final int FIRST_TILE = 19_824;
+
+    private HeatmapView view;
+
+    /** Keys of the tiles drawn by the loader. */
+    private final List<Long> loaded = new ArrayList<>();
+
+    private TileCache<Bitmap> tiles;
+
+    @Before
+    public void setUp() {
+        view = new HeatmapView(RuntimeEnvironment.getApplication());
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE_PX, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE_PX, SIZE_PX);
+        tiles = new TileCache<>(64L << 20, new TileCache.Loader<Bitmap>() {
+            @Override
+            public Bitmap load(long key) {
+                loaded.add(key);
+                return Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
+            }
+
+            @Override
+            public long sizeBytes(Bitmap tile) {
+                return tile.getByteCount();
+            }
+        });
+    }
+
+    @Test
+    public void tileZoom_usesTheNearestCountedLevel() {
+        assertEquals(HeatmapCounts.MIN_ZOOM, HeatmapView.tileZoom(HeatmapView.MIN_VIEW_ZOOM));
+        assertEquals(13, HeatmapView.tileZoom(12.6));
+        assertEquals(HeatmapCounts.MAX_ZOOM, HeatmapView.tileZoom(HeatmapView.MAX_VIEW_ZOOM));
+    }
+
+    @Test
+    public void setTiles_fitsTheArea() {
+        // 16 tiles of the highest zoom, about 10 km at this latitude.
+        view.setTiles(tiles, bounds(16));
+        float padding = 16 * view.getResources().getDisplayMetrics().density;
+        double expected = HeatmapCounts.MAX_ZOOM + Math.log((SIZE_PX - 2 * padding) / (16 * 256.0)) / Math.log(2);
+        assertEquals(expected, view.zoom(), 1e-9);
+    }
+
+    @Test
+    public void draw_onlyDrawsTheVisibleTilesOnce() {
+        view.setTiles(tiles, bounds(16));
+        view.draw(new Canvas(Bitmap.createBitmap(SIZE_PX, SIZE_PX, Bitmap.Config.ARGB_8888)));
+
+        // Four tiles of level 14 span the area, with parts of those around it.
+        assertFalse(loaded.isEmpty());
+        assertTrue(loaded.size() <= 36);
+        for (long key : loaded) {
+            assertEquals(14, HeatmapCounts.zoom(key));
+            assertTrue(Math.abs(HeatmapCounts.tileX(key) - (FIRST_TILE / 4 + 2)) <= 3);
+            assertTrue(Math.abs(HeatmapCounts.tileY(key) - (FIRST_TILE / 4 + 2)) <= 3);
+        }
+        int drawn = loaded.size();
+        view.draw(new Canvas(Bitmap.createBitmap(SIZE_PX, SIZE_PX, Bitmap.Config.ARGB_8888)));
+        assertEquals(drawn, loaded.size());
+    }
+
+    /**
+     * @return the bounds of a square of highest-zoom tiles.
+     */
+    private static double[] bounds(int tileCount) {
+        double tiles = 1 << HeatmapCounts.MAX_ZOOM;
+        return new double[]{FIRST_TILE / tiles, FIRST_TILE / tiles,
+                (FIRST_TILE + tileCount) / tiles, (FIRST_TILE + tileCount) / tiles};
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.runtracker.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.LiveRoute;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.*;
+
+/**
+ * Robolectric tests for the projection and the level of detail of {@link RouteView}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RouteViewTest {
+    private static final int SIZE_PX = 1000;
+
+    private static final double LATITUDE = 42.35;
+
+    private static final double LONGITUDE = -71.1;
+
+    private static final double TOLERANCE = 4;
+
+    private RouteView view;
+
+    private float padding;
+
+    @Before
+    public void setUp() {
+        view = new RouteView(RuntimeEnvironment.getApplication());
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE_PX, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE_PX, SIZE_PX);
+        padding = 8 * view.getResources().getDisplayMetrics().density;
+    }
+
+    @Test
+    public void projection_centersTheFirstFixWithNorthUp() {
+        LiveRoute route = new LiveRoute(TOLERANCE);
+        route.append(LATITUDE, LONGITUDE);
+        draw(route);
+
+        assertEquals(SIZE_PX / 2f, view.screenX(LATITUDE, LONGITUDE), 1e-3);
+        assertEquals(SIZE_PX / 2f, view.screenY(LATITUDE, LONGITUDE), 1e-3);
+        // A lone fix is shown with the smallest fitted area around it.
+        double scale = (SIZE_PX - 2 * padding) / RouteView.MIN_EXTENT_METERS;
+        assertEquals(scale, view.scale(), 1e-9);
+
+        double north = LATITUDE + 10 / RunMetrics.METERS_PER_DEGREE;
+        double east = LONGITUDE + 10 / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        assertEquals(SIZE_PX / 2f - 10 * scale, view.screenY(north, LONGITUDE), 1e-3);
+        assertEquals(SIZE_PX / 2f, view.screenX(north, LONGITUDE), 1e-3);
+        assertEquals(SIZE_PX / 2f + 10 * scale, view.screenX(LATITUDE, east), 1e-3);
+    }
+
+    @Test
+    public void projection_fitsTheRouteWithRoomToGrow() {
+        LiveRoute route = eastwardRoute(1000);
+        draw(route);
+
+        double scale = (SIZE_PX - 2 * padding) / (1000 * RouteView.REFIT_FACTOR);
+        assertEquals(scale, view.scale(), 1e-9);
+        int last = route.size() - 1;
+        float firstX = view.screenX(route.latitude(0), route.longitude(0));
+        float lastX = view.screenX(route.latitude(last), route.longitude(last));
+        assertEquals(SIZE_PX / 2f, (firstX + lastX) / 2, 1e-2);
+        assertEquals(1000 * scale, lastX - firstX, 1e-2);
+    }
+
+    @Test
+    public void draw_addsNewPositionsWithoutRefitting() {
+        LiveRoute route = eastwardRoute(1000);
+        draw(route);
+        double scale = view.scale();
+
+        // Back west, inside the fitted area.
+        for (int i = 1; i <= 20; i++) {
+            route.append(LATITUDE, route.longitude(100 - i));
+        }
+        draw(route);
+
+        assertEquals(scale, view.scale(), 0.0);
+        assertEquals(route.size(), view.drawnCount());
+    }
+
+    @Test
+    public void draw_zoomsOutWhenTheRouteLeavesTheFittedArea() {
+        LiveRoute route = eastwardRoute(1000);
+        draw(route);
+        double scale = view.scale();
+
+        double step = 10 / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        for (int i = 1; i <= 100; i++) {
+            route.append(LATITUDE, route.longitude(100) + i * step);
+        }
+        draw(route);
+
+        assertTrue(view.scale() < scale);
+        int last = route.size() - 1;
+        assertTrue(view.screenX(route.latitude(last), route.longitude(last)) < SIZE_PX - padding);
+    }
+
+    @Test
+    public void useSimplified_onceTheErrorIsWithinAPixel() {
+        assertTrue(RouteView.useSimplified(4, 0.25));
+        assertTrue(RouteView.useSimplified(4, 0.1));
+        assertFalse(RouteView.useSimplified(4, 0.3));
+        assertFalse(RouteView.useSimplified(4, 5));
+    }
+
+    @Test
+    public void lod_drawsEveryFixWhenZoomedIn() {
+        LiveRoute route = eastwardRoute(1000);
+        draw(route);
+
+        assertFalse(view.drawsSimplified());
+        assertEquals(route.size(), view.drawnCount());
+    }
+
+    @Test
+    public void lod_drawsTheSimplifiedRouteWhenZoomedOut() {
+        LiveRoute route = eastwardRoute(20_000);
+        draw(route);
+
+        assertTrue(view.scale() * TOLERANCE <= RouteView.MAX_LOD_ERROR_PIXELS);
+        assertTrue(view.drawsSimplified());
+        assertEquals(route.simplifiedSize(), view.drawnCount());
+    }
+
+    @Test
+    public void newRoute_isProjectedAroundItsFirstFix() {
+        draw(eastwardRoute(1000));
+        LiveRoute route = new LiveRoute(TOLERANCE);
+        route.append(LATITUDE + 0.1, LONGITUDE + 0.1);
+        draw(route);
+
+        assertEquals(SIZE_PX / 2f, view.screenX(LATITUDE + 0.1, LONGITUDE + 0.1), 1e-3);
+        assertEquals(1, view.drawnCount());
+        assertFalse(view.drawsSimplified());
+    }
+
+    private void draw(LiveRoute route) {
+        view.setRoute(route);
+        view.draw(new Canvas(Bitmap.createBitmap(SIZE_PX, SIZE_PX, Bitmap.Config.ARGB_8888)));
+    }
+
+    /**
+     * Builds a route heading east with a fix every 10 m, and every tenth fix and the last
+     * one in the simplified route.
+     */
+    private static LiveRoute eastwardRoute(int meters) {
+        LiveRoute route = new LiveRoute(TOLERANCE);
+        double step = 10 / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        int last = meters / 10;
+        for (int i = 0; i <= last; i++) {
+            route.append(LATITUDE, LONGITUDE + i * step);
+            if (i % 10 == 0 || i == last) {
+                route.appendSimplified(LATITUDE, LONGITUDE + i * step, i);
+            }
+        }
+        return route;
+    }
+}
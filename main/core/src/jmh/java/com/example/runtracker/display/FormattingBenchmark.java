@@ -0,0 +1,56 @@
+package com.example.runtracker.display;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the text built for every displayed fix. The inputs are fields, so the
+ * JIT cannot fold the formatting into constants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormattingBenchmark {
+    private final FixTextFormatter fixFormatter = new FixTextFormatter();
+
+    private final MetricsTextFormatter metricsFormatter = new MetricsTextFormatter();
+
+    /** Values of a fix and of a session, about five kilometers into a run. */
+    private double latitude = 42.35052713;
+
+    private double longitude = -71.10764291;
+
+    private double speed = 7.26384;
+
+    private double distanceMeters = 5012.7;
+
+    private double paceSecPerM = 0.3021;
+
+    private long movingNanos = 1_586_000_000_000L;
+
+    @Benchmark
+    public TextBuffer location() {
+        return fixFormatter.formatLocation(latitude, longitude);
+    }
+
+    @Benchmark
+    public TextBuffer speed() {
+        return fixFormatter.formatSpeed(speed, "mph");
+    }
+
+    @Benchmark
+    public TextBuffer logLine() {
+        return fixFormatter.formatLog(latitude, longitude, speed, "mph");
+    }
+
+    @Benchmark
+    public TextBuffer metrics() {
+        return metricsFormatter.formatMetrics(distanceMeters, paceSecPerM, paceSecPerM, movingNanos, true);
+    }
+}
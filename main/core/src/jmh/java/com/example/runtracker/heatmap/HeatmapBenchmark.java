@@ -0,0 +1,103 @@
+package com.example.runtracker.heatmap;
+
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.replay.TraceSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the heatmap: a full recompute over 1,000 sessions with a growing number
+ * of fork-join workers, and the incremental update of a heatmap of 1,000 sessions with
+ * one more.
+ * <p>
+ * The sessions are synthetic runs of about 50 minutes from a few starts across a city,
+ * generated while they are read, so the benchmark measures the marking and the merges
+ * rather than reading track files.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeatmapBenchmark {
+    /** Number of sessions of the history. */
+    private static final int SESSIONS = 1000;
+
+    /** Number of workers of the pool. */
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    /** The sessions of the history. */
+    private final List<HeatmapAggregator.TrackSource> sessions = new ArrayList<>(SESSIONS);
+
+    private ForkJoinPool pool;
+
+    /** Heatmap of the history, updated with one more session per call. */
+    private HeatmapAggregator history;
+
+    /** Number of sessions added to {@link #history} by the benchmark. */
+    private int added;
+
+    @Setup
+    public void buildSessions() {
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(run("session-" + i, i));
+        }
+        pool = new ForkJoinPool(workers);
+        history = new HeatmapAggregator(pool);
+        history.add(sessions);
+    }
+
+    @TearDown
+    public void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int recomputeAll() {
+        HeatmapAggregator heatmap = new HeatmapAggregator(pool);
+        heatmap.add(sessions);
+        return heatmap.tileCount();
+    }
+
+    @Benchmark
+    public long[] addOneSession() {
+        int i = added++;
+        return history.add(List.of(run("new-" + i, i)));
+    }
+
+    /**
+     * @return a run of session {@code i}, from one of 20 starts along a heading of its own.
+     */
+    private static HeatmapAggregator.TrackSource run(String key, int i) {
+        return new HeatmapAggregator.TrackSource() {
+            @Override
+            public String key() {
+                return key;
+            }
+
+            @Override
+            public TraceSource open() {
+                float speed = 2.5f + (i % 20) * 0.1f;
+                return new SyntheticTrace.Builder()
+                        .start(42.33 + (i % 5) * 0.01, -71.12 + (i / 5 % 4) * 0.015)
+                        .segment(i % 360, speed, 1200)
+                        .segment((i + 90) % 360, speed + 0.5f, 600)
+                        .segment((i + 180) % 360, speed, 1200)
+                        .build();
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.runtracker.history;
+
+import com.example.runtracker.replay.NoisyTrace;
+import com.example.runtracker.replay.SyntheticTrace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of a full scan of the personal bests over 1,000 sessions with a growing
+ * number of fork-join workers, to show how the scan scales with the cores.
+ * <p>
+ * Each session is a noisy synthetic run of about 50 minutes at a pace of its own, built
+ * in memory once, so the benchmark measures the two-pointer scans and the merges rather
+ * than reading track files.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BestEffortBenchmark {
+    /** Number of sessions scanned. */
+    private static final int SESSIONS = 1000;
+
+    /** Number of workers of the pool. */
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    /** The sessions to scan. */
+    private final List<SessionProfile> sessions = new ArrayList<>(SESSIONS);
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void buildSessions() throws IOException {
+        for (int i = 0; i < SESSIONS; i++) {
+            float speed = 2.5f + (i % 20) * 0.1f;
+            SyntheticTrace run = new SyntheticTrace.Builder().start(42.35, -71.1)
+                    .segment(i % 360, speed, 1200)
+                    .segment((i + 90) % 360, speed + 0.5f, 600)
+                    .segment((i + 180) % 360, speed, 1200)
+                    .build();
+            try (NoisyTrace trace = new NoisyTrace(run, i, 3, 0.01, 5)) {
+                sessions.add(SessionProfile.read("session-" + i, trace));
+            }
+        }
+        pool = new ForkJoinPool(workers);
+    }
+
+    @TearDown
+    public void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long scanAll() {
+        BestEffortFinder finder = new BestEffortFinder(pool, 1000, 5000, 10_000);
+        finder.add(sessions);
+        return finder.bestNanos(0);
+    }
+}
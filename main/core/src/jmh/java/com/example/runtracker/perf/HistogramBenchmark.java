@@ -0,0 +1,29 @@
+package com.example.runtracker.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the cost of recording a latency, which the hot path pays on every fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark {
+    private final Histogram histogram = new Histogram();
+
+    /** Latency to record next, varied so that different buckets are hit. */
+    private long latencyNanos = 1_000_000L;
+
+    @Benchmark
+    public void record() {
+        latencyNanos = (latencyNanos * 1_103_515_245L + 12_345L) & 0xfffffffL;
+        histogram.record(latencyNanos);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.replay.NoisyTrace;
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-fix work of {@link FixProcessor}: filtering, sampling, metrics
+ * and recording, with and without building the snapshot.
+ * <p>
+ * The fixes are the Dev Mode run with GPS noise, replayed from memory. When the run ends,
+ * the processor starts a new session, which costs one reset every few hundred fixes.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FixProcessorBenchmark {
+    /** The fixes to process. */
+    private final TrackBuffer fixes = new TrackBuffer();
+
+    /** The processor under test. */
+    private final FixProcessor processor = new FixProcessor();
+
+    /** Index of the next fix. */
+    private int next;
+
+    @Setup
+    public void loadTrace() throws IOException {
+        FixSample sample = new FixSample();
+        try (NoisyTrace trace = new NoisyTrace(SyntheticTrace.devRun(), 42, 3, 0.01, 5)) {
+            while (trace.next(sample)) {
+                fixes.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                        sample.elapsedRealtimeNanos);
+            }
+        }
+    }
+
+    @Benchmark
+    public FixSnapshot process() {
+        int i = nextIndex();
+        return processor.process(fixes.latitude(i), fixes.longitude(i), fixes.speed(i),
+                fixes.accuracy(i), fixes.elapsedRealtimeNanos(i));
+    }
+
+    @Benchmark
+    public boolean accept() {
+        int i = nextIndex();
+        return processor.accept(fixes.latitude(i), fixes.longitude(i), fixes.speed(i),
+                fixes.accuracy(i), fixes.elapsedRealtimeNanos(i));
+    }
+
+    /** @return the index of the fix to process, starting a new session after the last. */
+    private int nextIndex() {
+        if (next == fixes.size()) {
+            next = 0;
+            processor.reset();
+        }
+        return next++;
+    }
+}
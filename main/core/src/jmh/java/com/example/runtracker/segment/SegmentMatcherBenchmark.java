@@ -0,0 +1,98 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of matching a fix against a growing number of segments, to show that the
+ * cost per fix stays flat.
+ * <p>
+ * The segments are 500 m long. Ten start on the Dev Mode run, so every count has
+ * attempts running; the others start at random around it, one per square kilometer like
+ * the segments of a region, so the area grows with the count. The fixes are the Dev Mode
+ * run, replayed from memory over and over.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SegmentMatcherBenchmark {
+    /** Number of segments starting on the run. */
+    private static final int SEGMENTS_ON_RUN = 10;
+
+    /** Number of segments matched. */
+    @Param({"10", "100", "1000", "10000"})
+    public int segmentCount;
+
+    /** The fixes to match. */
+    private final TrackBuffer fixes = new TrackBuffer();
+
+    /** The matcher under test. */
+    private final SegmentMatcher matcher = new SegmentMatcher();
+
+    /** Index of the next fix. */
+    private int next;
+
+    /** Time offset of the current replay of the run, in nanoseconds. */
+    private long offsetNanos;
+
+    @Setup
+    public void buildSegments() {
+        FixSample sample = new FixSample();
+        SyntheticTrace run = SyntheticTrace.devRun();
+        while (run.next(sample)) {
+            fixes.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+        }
+        Random random = new Random(42);
+        double latitude = fixes.latitude(0);
+        double longitude = fixes.longitude(0);
+        double metersPerDegreeLongitude = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        double side = Math.sqrt(segmentCount) * 1000;
+        List<Segment> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            double startLatitude;
+            double startLongitude;
+            if (i < SEGMENTS_ON_RUN) {
+                int fix = random.nextInt(fixes.size());
+                startLatitude = fixes.latitude(fix);
+                startLongitude = fixes.longitude(fix);
+            } else {
+                startLatitude = latitude + (random.nextDouble() - 0.5) * side / RunMetrics.METERS_PER_DEGREE;
+                startLongitude = longitude + (random.nextDouble() - 0.5) * side / metersPerDegreeLongitude;
+            }
+            double heading = random.nextDouble() * 2 * Math.PI;
+            segments.add(new Segment(i, "segment " + i,
+                    new double[]{startLatitude, startLatitude + Math.cos(heading) * 500 / RunMetrics.METERS_PER_DEGREE},
+                    new double[]{startLongitude, startLongitude + Math.sin(heading) * 500 / metersPerDegreeLongitude}));
+        }
+        matcher.setSegments(segments);
+    }
+
+    @Benchmark
+    public int accept() {
+        int i = next;
+        next = i + 1 == fixes.size() ? 0 : i + 1;
+        if (next == 0) {
+            offsetNanos += fixes.elapsedRealtimeNanos(i) + 1_000_000_000L;
+        }
+        matcher.accept(fixes.latitude(i), fixes.longitude(i), offsetNanos + fixes.elapsedRealtimeNanos(i));
+        return matcher.activeCount();
+    }
+}
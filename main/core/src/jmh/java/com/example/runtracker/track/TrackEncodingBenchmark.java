@@ -0,0 +1,81 @@
+package com.example.runtracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the binary track encoding: appending a fix to a {@link TrackWriter},
+ * including its share of the block writes, and the varint coding on its own.
+ * <p>
+ * The track file is a temporary file; blocks go to the page cache, so the write cost is
+ * that of the system call rather than of the storage.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackEncodingBenchmark {
+    /** Time between fixes, in nanoseconds. */
+    private static final long INTERVAL_NANOS = 1_000_000_000L;
+
+    /** Buffer the varints are written to, rewound when full. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    private File file;
+
+    private TrackWriter writer;
+
+    /** Timestamp of the next fix, in nanoseconds. */
+    private long timeNanos;
+
+    /** Latitude of the next fix, in degrees. */
+    private double latitude = 42.3505;
+
+    /** Typical deltas between two fixes in fixed-point units, as the writer encodes them. */
+    private long latitudeDelta = 33;
+
+    private long longitudeDelta = -41;
+
+    private long timeDelta = 10;
+
+    @Setup
+    public void openTrack() throws IOException {
+        file = File.createTempFile("bench", ".track");
+        writer = TrackWriter.create(file, 1_700_000_000_000L, 0);
+    }
+
+    @TearDown
+    public void closeTrack() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void appendFix() throws IOException {
+        timeNanos += INTERVAL_NANOS;
+        latitude += 0.00003;
+        writer.append(latitude, -71.1076, 3.4f, 4.5f, timeNanos);
+    }
+
+    @Benchmark
+    public ByteBuffer varintDelta() {
+        if (buffer.remaining() < 3 * Varint.MAX_LONG_BYTES) {
+            buffer.clear();
+        }
+        Varint.writeSigned(buffer, latitudeDelta);
+        Varint.writeSigned(buffer, longitudeDelta);
+        Varint.writeSigned(buffer, timeDelta);
+        return buffer;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.runtracker.checkpoint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * CheckpointFile keeps the latest copy of a small state record in a memory-mapped file,
+ * written often and read back after the process is killed.
+ * <p>
+ * The file holds two slots of {@link #SLOT_BYTES}. Each checkpoint gets the next sequence
+ * number and is written into the slot that does not hold the newest one, as a header with
+ * the sequence, the payload length and a CRC of both with the payload, followed by the
+ * payload. Reading takes the valid slot with the highest sequence. A write cut short by a
+ * crash leaves a slot that fails its CRC, and the other slot still holds the previous
+ * checkpoint, so a torn write never loses more than the checkpoint being written.
+ * </p>
+ * <p>
+ * Writes go to the mapped pages and cost no system call: the pages belong to the kernel,
+ * so they reach the file even if the process dies right after. Only a power loss before
+ * the kernel writes them back can lose the newest checkpoint.
+ * </p>
+ * <p>
+ * A checkpoint file is not thread-safe; it is used by one thread at a time.
+ * </p>
+ */
+public final class CheckpointFile implements Closeable {
+    /** Size of one slot, a page of the file. */
+    public static final int SLOT_BYTES = 4096;
+
+    /** Bytes of the slot header: magic, version, reserved, sequence, length and CRC. */
+    static final int HEADER_BYTES = 24;
+
+    /** Largest payload of a checkpoint, in bytes. */
+    public static final int MAX_PAYLOAD_BYTES = SLOT_BYTES - HEADER_BYTES;
+
+    /** Magic number at the start of a written slot: "RTCK". */
+    static final int MAGIC = 0x5254434B;
+
+    /** Version of the slot layout. */
+    static final short VERSION = 1;
+
+    /** Offset of the sequence number in a slot. */
+    private static final int SEQUENCE_OFFSET = 8;
+
+    /** Offset of the payload length in a slot. */
+    private static final int LENGTH_OFFSET = 16;
+
+    /** Offset of the CRC in a slot. */
+    private static final int CRC_OFFSET = 20;
+
+    /** The open file. */
+    private final RandomAccessFile file;
+
+    /** Both slots of the file, mapped. */
+    private final MappedByteBuffer map;
+
+    /** Slot being built or checked, before it is copied to or from the map. */
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES);
+
+    /** Checksum of the slots. */
+    private final CRC32 crc = new CRC32();
+
+    /** Sequence number of the newest valid slot, or 0 if there is none. */
+    private long sequence;
+
+    /** Index of the newest valid slot, or -1 if there is none. */
+    private int newest = -1;
+
+    /**
+     * Opens a checkpoint file, creating it if needed, and finds its newest checkpoint.
+     *
+     * @param file the file.
+     * @return the checkpoint file.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    public static CheckpointFile open(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            return new CheckpointFile(access);
+        } catch (IOException e) {
+            access.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file the open file, grown to two slots if shorter.
+     * @throws IOException if the file cannot be grown or mapped.
+     */
+    private CheckpointFile(RandomAccessFile file) throws IOException {
+        this.file = file;
+        if (file.length() < 2L * SLOT_BYTES) {
+            file.setLength(2L * SLOT_BYTES);
+        }
+        map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_BYTES);
+        for (int index = 0; index < 2; index++) {
+            if (checkSlot(index) && (newest < 0 || slot.getLong(SEQUENCE_OFFSET) > sequence)) {
+                newest = index;
+                sequence = slot.getLong(SEQUENCE_OFFSET);
+            }
+        }
+    }
+
+    /**
+     * Reads the newest checkpoint.
+     *
+     * @param payload receives the payload from its position, and is flipped to be read;
+     *                left as it was if there is no checkpoint.
+     * @return false if no checkpoint was ever written, or none survived.
+     */
+    public boolean read(ByteBuffer payload) {
+        if (newest < 0 || !checkSlot(newest)) {
+            return false;
+        }
+        payload.put(slot.array(), HEADER_BYTES, slot.getInt(LENGTH_OFFSET)).flip();
+        return true;
+    }
+
+    /**
+     * Writes a checkpoint over the older of the two slots.
+     *
+     * @param payload the payload, from its position to its limit; the position is left
+     *                unchanged.
+     * @throws IllegalArgumentException if the payload is longer than
+     *                                  {@link #MAX_PAYLOAD_BYTES}.
+     */
+    public void write(ByteBuffer payload) {
+        writeSlot(payload, sequence + 1, SLOT_BYTES);
+    }
+
+    /**
+     * Writes a checkpoint, stopping after some bytes as if the process died mid-write.
+     *
+     * @param payload    the payload, from its position to its limit.
+     * @param sequence   the sequence number of the checkpoint.
+     * @param limitBytes number of bytes of the slot copied to the file.
+     */
+    void writeSlot(ByteBuffer payload, long sequence, int limitBytes) {
+        int length = payload.remaining();
+        if (length > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("checkpoint of " + length + " bytes");
+        }
+        slot.clear();
+        slot.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(sequence).putInt(length).putInt(0);
+        slot.put(payload.duplicate());
+        slot.putInt(CRC_OFFSET, checksum(length));
+        int index = (int) (sequence & 1);
+        int end = Math.min(HEADER_BYTES + length, limitBytes);
+        ByteBuffer target = map.duplicate();
+        target.position(index * SLOT_BYTES);
+        target.put(slot.array(), 0, end);
+        if (end == HEADER_BYTES + length) {
+            this.sequence = sequence;
+            newest = index;
+        }
+    }
+
+    /**
+     * Closes the file. The mapping stays valid until it is garbage collected.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Copies a slot from the map and checks it.
+     *
+     * @param index the slot, 0 or 1.
+     * @return true if the slot holds a whole checkpoint, left in {@link #slot}.
+     */
+    private boolean checkSlot(int index) {
+        ByteBuffer source = map.duplicate();
+        source.position(index * SLOT_BYTES);
+        source.get(slot.array(), 0, HEADER_BYTES);
+        int length = slot.getInt(LENGTH_OFFSET);
+        if (slot.getInt(0) != MAGIC || slot.getShort(4) != VERSION
+                || length < 0 || length > MAX_PAYLOAD_BYTES) {
+            return false;
+        }
+        source.get(slot.array(), HEADER_BYTES, length);
+        return checksum(length) == slot.getInt(CRC_OFFSET);
+    }
+
+    /**
+     * @param length the payload length.
+     * @return the CRC of the sequence, length and payload of {@link #slot}.
+     */
+    private int checksum(int length) {
+        crc.reset();
+        crc.update(slot.array(), SEQUENCE_OFFSET, CRC_OFFSET - SEQUENCE_OFFSET);
+        crc.update(slot.array(), HEADER_BYTES, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.runtracker.checkpoint;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * LastFix is the position of the last recorded fix, saved to a small file of its own so
+ * that the next start of the app can show it at once, marked as stale, while the GPS
+ * warms up for a first fix.
+ * <p>
+ * Unlike the {@link CheckpointFile}, it outlives the session: it is kept after the
+ * session ends and read without knowing anything of the processing stages.
+ * </p>
+ */
+public final class LastFix {
+    /** Identifies a last fix file, "RTLF". */
+    private static final int MAGIC = 0x52544C46;
+
+    /** Latitude in degrees. */
+    public final double latitude;
+
+    /** Longitude in degrees. */
+    public final double longitude;
+
+    /** Accuracy radius in meters. */
+    public final float accuracy;
+
+    /** Wall clock time of the fix, in epoch milliseconds. */
+    public final long epochMillis;
+
+    /**
+     * @param latitude    latitude in degrees.
+     * @param longitude   longitude in degrees.
+     * @param accuracy    accuracy radius in meters.
+     * @param epochMillis wall clock time of the fix, in epoch milliseconds.
+     */
+    public LastFix(double latitude, double longitude, float accuracy, long epochMillis) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.epochMillis = epochMillis;
+    }
+
+    /**
+     * Saves the fix. The file is replaced at once, so a crash while saving leaves the
+     * previous one.
+     *
+     * @param file the destination.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+            out.writeInt(MAGIC);
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+            out.writeFloat(accuracy);
+            out.writeLong(epochMillis);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * Reads a fix saved by {@link #write(File)}.
+     *
+     * @param file the saved fix.
+     * @return the fix, or null if there is none, e.g. on the first start of the app.
+     * @throws IOException if the file cannot be read or holds no fix.
+     */
+    public static LastFix read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a last fix file");
+            }
+            return new LastFix(in.readDouble(), in.readDouble(), in.readFloat(), in.readLong());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.runtracker.checkpoint;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SessionCheckpoint is a mutable holder for the state of a tracking session that lives
+ * outside the fix processing: the timer, the settings and the session track file.
+ * <p>
+ * It is written to a {@link CheckpointFile} in a fixed layout of {@link #BYTES}, ahead of
+ * the state of the processing stages, and read back first when the process restarts to
+ * tell whether a session was being tracked.
+ * </p>
+ */
+public final class SessionCheckpoint {
+    /** Longest name of the track file, in ASCII bytes. */
+    public static final int MAX_FILE_NAME_BYTES = 64;
+
+    /** Size of a checkpoint in its fixed layout. */
+    public static final int BYTES = 1 + 8 + 8 + 8 + 1 + MAX_FILE_NAME_BYTES;
+
+    /** Flag bit of {@link #tracking}. */
+    private static final int TRACKING = 1;
+
+    /** Flag bit of {@link #paused}. */
+    private static final int PAUSED = 1 << 1;
+
+    /** Flag bit of {@link #running}. */
+    private static final int RUNNING = 1 << 2;
+
+    /** Flag bit of {@link #useMph}. */
+    private static final int USE_MPH = 1 << 3;
+
+    /** Flag bit of {@link #devMode}. */
+    private static final int DEV_MODE = 1 << 4;
+
+    /** Flag bit of {@link #useFusedLocation}. */
+    private static final int USE_FUSED_LOCATION = 1 << 5;
+
+    /** True while a session is tracked; false once it ended. */
+    public boolean tracking;
+
+    /** True while the user has paused the session. */
+    public boolean paused;
+
+    /** True while the session timer counts, i.e. neither paused nor auto-paused. */
+    public boolean running;
+
+    /** True if the speed is displayed in miles per hour. */
+    public boolean useMph;
+
+    /** True in development mode. */
+    public boolean devMode;
+
+    /** True if fixes come from the batched fused location provider. */
+    public boolean useFusedLocation;
+
+    /** Reading of the session timer, in nanoseconds. */
+    public long clockElapsedNanos;
+
+    /** Elapsed realtime at which the checkpoint was taken, in nanoseconds. */
+    public long realtimeNanos;
+
+    /** Wall clock time at which the session started, in epoch milliseconds. */
+    public long startEpochMillis;
+
+    /** Name of the session track file, or null if the session is not saved. */
+    public String trackFileName;
+
+    /**
+     * Writes the checkpoint in its fixed layout.
+     *
+     * @param out the destination, with at least {@link #BYTES} remaining.
+     * @throws IllegalArgumentException if the track file name is longer than
+     *                                  {@link #MAX_FILE_NAME_BYTES}.
+     */
+    public void write(ByteBuffer out) {
+        byte[] name = trackFileName != null ? trackFileName.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        if (name.length > MAX_FILE_NAME_BYTES) {
+            throw new IllegalArgumentException("track file name too long: " + trackFileName);
+        }
+        int flags = (tracking ? TRACKING : 0) | (paused ? PAUSED : 0) | (running ? RUNNING : 0)
+                | (useMph ? USE_MPH : 0) | (devMode ? DEV_MODE : 0)
+                | (useFusedLocation ? USE_FUSED_LOCATION : 0);
+        out.put((byte) flags)
+                .putLong(clockElapsedNanos)
+                .putLong(realtimeNanos)
+                .putLong(startEpochMillis)
+                .put((byte) (trackFileName != null ? name.length : -1))
+                .put(name);
+        out.position(out.position() + MAX_FILE_NAME_BYTES - name.length);
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write}.
+     *
+     * @param in the source, positioned at the checkpoint; left after it.
+     * @return the checkpoint.
+     */
+    public static SessionCheckpoint read(ByteBuffer in) {
+        SessionCheckpoint checkpoint = new SessionCheckpoint();
+        int flags = in.get();
+        checkpoint.tracking = (flags & TRACKING) != 0;
+        checkpoint.paused = (flags & PAUSED) != 0;
+        checkpoint.running = (flags & RUNNING) != 0;
+        checkpoint.useMph = (flags & USE_MPH) != 0;
+        checkpoint.devMode = (flags & DEV_MODE) != 0;
+        checkpoint.useFusedLocation = (flags & USE_FUSED_LOCATION) != 0;
+        checkpoint.clockElapsedNanos = in.getLong();
+        checkpoint.realtimeNanos = in.getLong();
+        checkpoint.startEpochMillis = in.getLong();
+        int nameLength = in.get();
+        int nameStart = in.position();
+        if (nameLength >= 0) {
+            checkpoint.trackFileName = new String(in.array(), in.arrayOffset() + nameStart,
+                    Math.min(nameLength, MAX_FILE_NAME_BYTES), StandardCharsets.US_ASCII);
+        }
+        in.position(nameStart + MAX_FILE_NAME_BYTES);
+        return checkpoint;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.runtracker.clock;
+
+/**
+ * NanoClock is a monotonic time source in nanoseconds.
+ * <p>
+ * On the device it is {@code SystemClock.elapsedRealtimeNanos()}, the clock location
+ * fixes are stamped with, which keeps counting in deep sleep and never jumps when the
+ * wall clock is set. Tests substitute a fake clock they advance by hand.
+ * </p>
+ */
+public interface NanoClock {
+    /** @return the current time in nanoseconds; only differences are meaningful. */
+    long nanoTime();
+}
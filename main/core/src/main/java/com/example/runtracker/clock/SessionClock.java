@@ -0,0 +1,205 @@
+package com.example.runtracker.clock;
+
+/**
+ * SessionClock measures the duration of a session, excluding the time it was paused by
+ * the user or auto-paused while the user was stopped.
+ * <p>
+ * It counts on a monotonic {@link NanoClock}, the elapsed realtime on the device, so it
+ * neither jumps when the wall clock is synced nor stops in deep sleep. It owns the
+ * started, paused and auto-paused states: the clock counts only while started and
+ * neither paused nor auto-paused, and a pause by the user ends an auto-pause. A display
+ * asks {@link #nanosUntilNextTick()} when to update next; the ticks fall on the whole
+ * seconds of the session, so the shown seconds never lag behind and no tick is wasted
+ * while the clock stands still. A {@link Listener} hears of every change of state, e.g.
+ * to reschedule its ticks.
+ * </p>
+ * <p>
+ * The clock is not thread-safe; it is used on the main thread.
+ * </p>
+ */
+public final class SessionClock {
+    /** Nanoseconds per tick of the display. */
+    public static final long TICK_NANOS = 1_000_000_000L;
+
+    /**
+     * Listener of the changes of state of a {@link SessionClock}.
+     */
+    public interface Listener {
+        /**
+         * Called after the clock was started, stopped, paused or resumed.
+         *
+         * @param clock the clock.
+         */
+        void onClockChanged(SessionClock clock);
+    }
+
+    /** Source of the time. */
+    private final NanoClock clock;
+
+    /** Listener of the changes of state, or null. */
+    private Listener listener;
+
+    /** True between {@link #start()} and {@link #stop()}. */
+    private boolean started;
+
+    /** True while paused by the user. */
+    private boolean paused;
+
+    /** True while auto-paused because the user is stopped. */
+    private boolean autoPaused;
+
+    /** True while counting. */
+    private boolean running;
+
+    /** Time of {@link #clock} at which the running clock would have read zero. */
+    private long zeroNanos;
+
+    /** Value of the clock while it is not running, in nanoseconds. */
+    private long stoppedNanos;
+
+    /**
+     * @param clock the source of the time.
+     */
+    public SessionClock(NanoClock clock) {
+        this.clock = clock;
+    }
+
+    /** @param listener the listener of the changes of state, or null. */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a session from zero, ending any pause.
+     */
+    public void start() {
+        started = true;
+        paused = false;
+        autoPaused = false;
+        running = false;
+        stoppedNanos = 0;
+        update();
+    }
+
+    /**
+     * Goes on with a session restored from a checkpoint, e.g. after the process was
+     * killed. The clock is started with the restored duration, paused or counting from it.
+     *
+     * @param elapsedNanos the duration of the session so far, in nanoseconds.
+     * @param paused       true if the user had paused the session.
+     */
+    public void restore(long elapsedNanos, boolean paused) {
+        started = true;
+        this.paused = paused;
+        autoPaused = false;
+        running = false;
+        stoppedNanos = elapsedNanos;
+        update();
+    }
+
+    /**
+     * Ends the session, keeping its duration.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        paused = false;
+        autoPaused = false;
+        update();
+    }
+
+    /**
+     * Pauses the session for the user, ending an auto-pause.
+     */
+    public void pause() {
+        if (!started || paused) {
+            return;
+        }
+        paused = true;
+        autoPaused = false;
+        update();
+    }
+
+    /**
+     * Resumes the session after {@link #pause()}.
+     */
+    public void resume() {
+        if (!started || !paused) {
+            return;
+        }
+        paused = false;
+        update();
+    }
+
+    /**
+     * Starts or ends an auto-pause. An auto-pause only starts while the session runs.
+     *
+     * @param autoPaused true when the user stopped moving, false when moving again.
+     */
+    public void setAutoPaused(boolean autoPaused) {
+        if (autoPaused == this.autoPaused || (autoPaused && (!started || paused))) {
+            return;
+        }
+        this.autoPaused = autoPaused;
+        update();
+    }
+
+    /** @return true between {@link #start()} and {@link #stop()}. */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /** @return true while paused by the user. */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /** @return true while auto-paused because the user is stopped. */
+    public boolean isAutoPaused() {
+        return autoPaused;
+    }
+
+    /** @return true while the clock counts. */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** @return the duration of the session, excluding pauses, in nanoseconds. */
+    public long elapsedNanos() {
+        return running ? clock.nanoTime() - zeroNanos : stoppedNanos;
+    }
+
+    /**
+     * Returns the time until the duration reaches its next whole second, when a display
+     * of the seconds must be updated.
+     *
+     * @return the delay in nanoseconds, at least 1; or -1 while the clock stands still.
+     */
+    public long nanosUntilNextTick() {
+        if (!running) {
+            return -1;
+        }
+        return TICK_NANOS - elapsedNanos() % TICK_NANOS;
+    }
+
+    /**
+     * Starts or stops counting to match the states, and notifies the listener.
+     */
+    private void update() {
+        boolean run = started && !paused && !autoPaused;
+        if (run != running) {
+            long now = clock.nanoTime();
+            if (run) {
+                zeroNanos = now - stoppedNanos;
+            } else {
+                stoppedNanos = now - zeroNanos;
+            }
+            running = run;
+        }
+        if (listener != null) {
+            listener.onClockChanged(this);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.runtracker.display;
+
+/**
+ * FixTextFormatter builds the location, speed and debug log text for a fix.
+ * <p>
+ * Each kind of text has its own {@link TextBuffer} that is rebuilt in place for every fix,
+ * so formatting a fix allocates nothing once the buffers have reached their working size.
+ * The returned buffers stay valid until the next call of the same method.
+ * </p>
+ */
+public final class FixTextFormatter {
+    /** Number of decimals shown for latitude and longitude. */
+    public static final int COORDINATE_DECIMALS = 8;
+
+    /** Number of decimals shown for speed. */
+    public static final int SPEED_DECIMALS = 3;
+
+    /** Buffer holding the latitude/longitude text. */
+    private final TextBuffer location = new TextBuffer(64);
+
+    /** Buffer holding the text of a last known location. */
+    private final TextBuffer staleLocation = new TextBuffer(96);
+
+    /** Buffer holding the speed text. */
+    private final TextBuffer speed = new TextBuffer(32);
+
+    /** Buffer holding the debug log line. */
+    private final TextBuffer log = new TextBuffer(96);
+
+    /**
+     * Formats the latitude/longitude text, e.g. {@code "Latitude: 42.35050000°"}.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatLocation(double latitude, double longitude) {
+        return location.clear()
+                .append("Latitude: ").append(latitude, COORDINATE_DECIMALS).append('°')
+                .append("\nLongitude: ").append(longitude, COORDINATE_DECIMALS).append('°');
+    }
+
+    /**
+     * Formats the latitude/longitude text of a last known location, shown until the first
+     * fix, followed by its age, e.g. {@code "Last known 5 min ago, waiting for GPS"}.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param ageMillis time since the location was taken, in milliseconds.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatStaleLocation(double latitude, double longitude, long ageMillis) {
+        staleLocation.clear()
+                .append("Latitude: ").append(latitude, COORDINATE_DECIMALS).append('°')
+                .append("\nLongitude: ").append(longitude, COORDINATE_DECIMALS).append('°')
+                .append("\nLast known ");
+        long seconds = Math.max(ageMillis, 0) / 1000;
+        if (seconds < 60) {
+            staleLocation.append(seconds).append(" s");
+        } else if (seconds < 60 * 60) {
+            staleLocation.append(seconds / 60).append(" min");
+        } else if (seconds < 48 * 60 * 60) {
+            staleLocation.append(seconds / (60 * 60)).append(" h");
+        } else {
+            staleLocation.append(seconds / (24 * 60 * 60)).append(" d");
+        }
+        return staleLocation.append(" ago, waiting for GPS");
+    }
+
+    /**
+     * Formats the speed text, e.g. {@code "Speed: 9.999 mph"}.
+     *
+     * @param value the speed, already converted to the display unit.
+     * @param unit  the display unit label.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatSpeed(double value, String unit) {
+        return speed.clear()
+                .append("Speed: ").append(value, SPEED_DECIMALS).append(' ').append(unit);
+    }
+
+    /**
+     * Formats the debug log line for a fix.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param value     the speed, already converted to the display unit.
+     * @param unit      the display unit label.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatLog(double latitude, double longitude, double value, String unit) {
+        return log.clear()
+                .append("Latitude: ").append(latitude, COORDINATE_DECIMALS)
+                .append("\nLongitude: ").append(longitude, COORDINATE_DECIMALS)
+                .append("\nSpeed: ").append(value, SPEED_DECIMALS)
+                .append("\nSpeed Unit: ").append(unit);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.runtracker.display;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * FixedDecimal writes numbers with a fixed number of decimals straight into a char array.
+ * <p>
+ * It produces the same text as {@code String.format("%.Nf", value)}, but without creating
+ * a {@code Formatter}, parsing a pattern or allocating an intermediate {@code String}.
+ * Like {@code String.format}, it rounds half-up from the shortest decimal that reads back
+ * as the double, the digits of {@link Double#toString(double)}, so 1.005 at two decimals
+ * is "1.01" even though the double is slightly below 1.005. The scaled double decides
+ * the rounding, except within a few ulps of a tie, where the value is compared with the
+ * double nearest to the tie instead: if it is that double, the shortest decimal is the
+ * tie itself, which rounds up. Only values too large for the scaled double to tell the
+ * digits apart go through {@link BigDecimal} and allocate.
+ * </p>
+ */
+public final class FixedDecimal {
+    /** Largest supported number of decimals. */
+    public static final int MAX_DECIMALS = 9;
+
+    /** Powers of ten from 10^0 to 10^MAX_DECIMALS. */
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L,
+            1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    /** Values at or above this magnitude fall back to {@link Double#toString(double)}. */
+    private static final double MAX_FAST_MAGNITUDE = 1e9;
+
+    /**
+     * Scaled values below this magnitude, 2^49, have an ulp of at most 1/16, so no other
+     * decimal of one more digit than shown is as close to the value as a tie that reads
+     * back as it.
+     */
+    private static final double MAX_SCALED = 0x1p49;
+
+    /** Distance to a tie, in ulps of the scaled value, within which the tie is checked exactly. */
+    private static final int TIE_ULPS = 4;
+
+    private FixedDecimal() { }
+
+    /**
+     * Returns the number of chars {@link #format} may write for a value.
+     *
+     * @param value    the value that will be formatted.
+     * @param decimals the number of decimals.
+     * @return an upper bound on the formatted length.
+     */
+    public static int maxLength(double value, int decimals) {
+        // Sign, integer digits, point and decimals; "Infinity" and "NaN" also fit.
+        int integerDigits = Math.abs(value) < MAX_FAST_MAGNITUDE ? 10 : 309;
+        return 1 + integerDigits + 1 + decimals;
+    }
+
+    /**
+     * Formats {@code value} with {@code decimals} digits after the decimal point.
+     *
+     * @param value    the value to format.
+     * @param decimals the number of decimals, from 0 to {@link #MAX_DECIMALS}.
+     * @param dst      the destination array; must have {@link #maxLength(double, int)} free chars.
+     * @param pos      the index in {@code dst} to start writing at.
+     * @return the index just after the last written char.
+     */
+    public static int format(double value, int decimals, char[] dst, int pos) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("decimals must be between 0 and " + MAX_DECIMALS);
+        }
+        if (Double.isNaN(value)) {
+            return appendAscii("NaN", dst, pos);
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            return appendAscii("Infinity", dst, pos);
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = value * scale;
+        long truncated = (long) scaled;
+        if (value >= MAX_FAST_MAGNITUDE || scaled >= MAX_SCALED) {
+            // Rare path, outside anything the app shows: accept the allocation.
+            return appendAscii(BigDecimal.valueOf(value)
+                    .setScale(decimals, RoundingMode.HALF_UP).toPlainString(), dst, pos);
+        }
+        long units;
+        if (Math.abs(scaled - truncated - 0.5) <= TIE_ULPS * Math.ulp(scaled)) {
+            // The quotient of two exact integers is the double nearest to the tie; the
+            // value reads back from the tie if it is that double, and is otherwise on the
+            // same side of the tie as of that double.
+            double tie = (2 * truncated + 1) / (2.0 * scale);
+            units = value >= tie ? truncated + 1 : truncated;
+        } else {
+            units = scaled - truncated > 0.5 ? truncated + 1 : truncated;
+        }
+        long integerPart = units / scale;
+        long fraction = units - integerPart * scale;
+
+        pos = formatLong(integerPart, dst, pos);
+        if (decimals > 0) {
+            dst[pos++] = '.';
+            for (int i = decimals - 1; i >= 0; i--) {
+                dst[pos + i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += decimals;
+        }
+        return pos;
+    }
+
+    /**
+     * Writes a non-negative or negative integer in decimal.
+     *
+     * @param value the value to write.
+     * @param dst   the destination array; must have 20 free chars.
+     * @param pos   the index in {@code dst} to start writing at.
+     * @return the index just after the last written char.
+     */
+    public static int formatLong(long value, char[] dst, int pos) {
+        if (value == Long.MIN_VALUE) {
+            return appendAscii("-9223372036854775808", dst, pos);
+        }
+        if (value < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            dst[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * Copies a string into the destination array.
+     *
+     * @param text the text to copy.
+     * @param dst  the destination array.
+     * @param pos  the index in {@code dst} to start writing at.
+     * @return the index just after the last written char.
+     */
+    private static int appendAscii(String text, char[] dst, int pos) {
+        text.getChars(0, text.length(), dst, pos);
+        return pos + text.length();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.runtracker.display;
+
+/**
+ * LogSink receives debug log lines built in reusable buffers.
+ * <p>
+ * The per-fix path checks {@link #isEnabled()} before formatting anything, so with the
+ * {@link #DISABLED} sink debug logging costs a single comparison.
+ * </p>
+ */
+public interface LogSink {
+    /** Sink that drops every line; the default outside of dev mode. */
+    LogSink DISABLED = new LogSink() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void write(char[] text, int offset, int length) { }
+    };
+
+    /** Sink that prints every line to standard output. */
+    LogSink STDOUT = new LogSink() {
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void write(char[] text, int offset, int length) {
+            System.out.println(String.valueOf(text, offset, length));
+        }
+    };
+
+    /** @return true if lines written to this sink go anywhere. */
+    boolean isEnabled();
+
+    /**
+     * Writes one log line.
+     *
+     * @param text   the characters of the line.
+     * @param offset the index of the first char.
+     * @param length the number of chars.
+     */
+    void write(char[] text, int offset, int length);
+}
@@ -0,0 +1,183 @@
+package com.example.runtracker.display;
+
+/**
+ * MetricsTextFormatter builds the distance, pace and moving time text of a session.
+ * <p>
+ * Distances are shown in miles when speeds are shown in mph and in kilometers otherwise;
+ * pace follows the same unit. Like {@link FixTextFormatter}, the text is rebuilt in a
+ * reusable {@link TextBuffer} and formatting allocates nothing.
+ * </p>
+ */
+public final class MetricsTextFormatter {
+    /** Meters in one mile. */
+    public static final double METERS_PER_MILE = 1609.344;
+
+    /** Meters in one kilometer. */
+    public static final double METERS_PER_KILOMETER = 1000;
+
+    /** Paces slower than this, in seconds per unit, are shown as unknown. */
+    private static final double MAX_PACE_SECONDS = 100 * 60;
+
+    /** Buffer holding the metrics text. */
+    private final TextBuffer metrics = new TextBuffer(96);
+
+    /** Buffer holding the lap text. */
+    private final TextBuffer lap = new TextBuffer(48);
+
+    /** Buffer holding the text of a stored session. */
+    private final TextBuffer session = new TextBuffer(64);
+
+    /** Buffer holding the text of a best effort or a segment effort. */
+    private final TextBuffer effort = new TextBuffer(32);
+
+    /**
+     * Formats the metrics text, e.g.
+     * {@code "Distance: 3.11 mi\nPace: 8:03 /mi (avg 8:30)\nMoving Time: 0:26:26"}.
+     *
+     * @param distanceMeters        total distance, in meters.
+     * @param rollingPaceSecPerM    recent pace, in seconds per meter, or NaN if unknown.
+     * @param averagePaceSecPerM    average pace, in seconds per meter, or NaN if unknown.
+     * @param movingNanos           moving time, in nanoseconds.
+     * @param useMiles              true for miles, false for kilometers.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatMetrics(double distanceMeters, double rollingPaceSecPerM,
+                                    double averagePaceSecPerM, long movingNanos, boolean useMiles) {
+        double unitMeters = useMiles ? METERS_PER_MILE : METERS_PER_KILOMETER;
+        String unit = useMiles ? "mi" : "km";
+        metrics.clear()
+                .append("Distance: ").append(distanceMeters / unitMeters, 2).append(' ').append(unit)
+                .append("\nPace: ");
+        appendPace(metrics, rollingPaceSecPerM * unitMeters);
+        metrics.append(" /").append(unit).append(" (avg ");
+        appendPace(metrics, averagePaceSecPerM * unitMeters);
+        metrics.append(")\nMoving Time: ");
+        appendDuration(metrics, movingNanos / 1_000_000_000L);
+        return metrics;
+    }
+
+    /**
+     * Formats the lap text, e.g. {@code "Lap 4: 0.42 mi in 0:03:21 (last 8:03 /mi)"}, with
+     * the pace of the last ended lap once there is one.
+     *
+     * @param lapCount              number of laps ended.
+     * @param lapDistanceMeters     distance of the current lap, in meters.
+     * @param lapNanos              duration of the current lap, in nanoseconds.
+     * @param lastLapDistanceMeters distance of the last ended lap, in meters.
+     * @param lastLapNanos          duration of the last ended lap, in nanoseconds.
+     * @param useMiles              true for miles, false for kilometers.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatLap(int lapCount, double lapDistanceMeters, long lapNanos,
+                                double lastLapDistanceMeters, long lastLapNanos, boolean useMiles) {
+        double unitMeters = useMiles ? METERS_PER_MILE : METERS_PER_KILOMETER;
+        String unit = useMiles ? "mi" : "km";
+        lap.clear()
+                .append("Lap ").append(lapCount + 1).append(": ")
+                .append(lapDistanceMeters / unitMeters, 2).append(' ').append(unit).append(" in ");
+        appendDuration(lap, lapNanos / 1_000_000_000L);
+        if (lapCount > 0) {
+            lap.append(" (last ");
+            appendPace(lap, lastLapNanos / 1e9 / lastLapDistanceMeters * unitMeters);
+            lap.append(" /").append(unit).append(')');
+        }
+        return lap;
+    }
+
+    /**
+     * Formats the totals of a stored session, e.g.
+     * {@code "3.11 mi in 0:26:26, best mile 8:03"}, with the best split once the session
+     * covered a whole unit.
+     *
+     * @param distanceMeters total distance, in meters.
+     * @param durationNanos  duration of the session, in nanoseconds.
+     * @param bestSplitNanos fastest whole mile or kilometer, in nanoseconds, or negative if
+     *                       none.
+     * @param useMiles       true for miles, false for kilometers.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatSession(double distanceMeters, long durationNanos, long bestSplitNanos,
+                                    boolean useMiles) {
+        double unitMeters = useMiles ? METERS_PER_MILE : METERS_PER_KILOMETER;
+        session.clear()
+                .append(distanceMeters / unitMeters, 2).append(' ').append(useMiles ? "mi" : "km")
+                .append(" in ");
+        appendDuration(session, durationNanos / 1_000_000_000L);
+        if (bestSplitNanos >= 0) {
+            session.append(useMiles ? ", best mile " : ", best km ");
+            appendPace(session, bestSplitNanos / 1e9);
+        }
+        return session;
+    }
+
+    /**
+     * Formats a best effort, e.g. {@code "5 km in 0:22:10"}, or {@code "10 km: --"} if
+     * no session covered the distance yet.
+     *
+     * @param targetMeters the distance of the effort, in meters.
+     * @param nanos        the time of the effort, in nanoseconds, or negative if none.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatEffort(double targetMeters, long nanos) {
+        double kilometers = targetMeters / METERS_PER_KILOMETER;
+        effort.clear().append(kilometers, kilometers == Math.rint(kilometers) ? 0 : 2).append(" km");
+        if (nanos < 0) {
+            return effort.append(": --");
+        }
+        effort.append(" in ");
+        appendDuration(effort, nanos / 1_000_000_000L);
+        return effort;
+    }
+
+    /**
+     * Formats the effort on a segment, e.g. {@code "River loop in 0:12:41"}.
+     *
+     * @param name  the name of the segment.
+     * @param nanos the time of the effort, in nanoseconds.
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatSegmentEffort(String name, long nanos) {
+        effort.clear().append(name).append(" in ");
+        appendDuration(effort, nanos / 1_000_000_000L);
+        return effort;
+    }
+
+    /**
+     * Appends a pace as minutes and seconds, or "--:--" if unknown or too slow.
+     *
+     * @param text           the buffer to append to.
+     * @param secondsPerUnit the pace, in seconds per distance unit.
+     */
+    private static void appendPace(TextBuffer text, double secondsPerUnit) {
+        if (!(secondsPerUnit >= 0 && secondsPerUnit < MAX_PACE_SECONDS)) {
+            text.append("--:--");
+            return;
+        }
+        long seconds = Math.round(secondsPerUnit);
+        text.append(seconds / 60).append(':');
+        appendTwoDigits(text, seconds % 60);
+    }
+
+    /**
+     * Appends a duration as hours, minutes and seconds.
+     *
+     * @param text         the buffer to append to.
+     * @param totalSeconds the duration, in seconds.
+     */
+    private static void appendDuration(TextBuffer text, long totalSeconds) {
+        text.append(totalSeconds / 3600).append(':');
+        appendTwoDigits(text, totalSeconds / 60 % 60);
+        text.append(':');
+        appendTwoDigits(text, totalSeconds % 60);
+    }
+
+    /**
+     * Appends a value from 0 to 99 with a leading zero.
+     *
+     * @param text  the buffer to append to.
+     * @param value the value to append.
+     */
+    private static void appendTwoDigits(TextBuffer text, long value) {
+        text.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.runtracker.display;
+
+/**
+ * SpeedBands maps a displayed speed to one of three color bands.
+ * <p>
+ * The thresholds are the ones MainActivity has always used: below 33 mph (14.7523 m/s)
+ * is green, below 66 mph (29.5046 m/s) is orange, anything faster is red. Callers resolve
+ * the band to a color once and cache it, so the per-fix path only compares numbers.
+ * </p>
+ * <p>
+ * {@link #band(double, boolean, int)} adds hysteresis around the thresholds, so a speed
+ * hovering right at a threshold does not make the color flicker.
+ * </p>
+ */
+public final class SpeedBands {
+    /** Band for slow speeds, shown in green. */
+    public static final int SLOW = 0;
+
+    /** Band for medium speeds, shown in orange. */
+    public static final int MEDIUM = 1;
+
+    /** Band for fast speeds, shown in red. */
+    public static final int FAST = 2;
+
+    /** Number of bands. */
+    public static final int COUNT = 3;
+
+    /** Fraction of a threshold the speed must move past it before the band changes. */
+    public static final double HYSTERESIS_FRACTION = 0.03;
+
+    private SpeedBands() { }
+
+    /**
+     * Returns the band for a speed expressed in the given unit.
+     *
+     * @param speed  the current speed.
+     * @param useMph true if the speed is in mph; false if the speed is in m/s.
+     * @return {@link #SLOW}, {@link #MEDIUM} or {@link #FAST}.
+     */
+    public static int band(double speed, boolean useMph) {
+        if (useMph) {
+            if (speed < 33) {
+                return SLOW;
+            } else if (speed < 66) {
+                return MEDIUM;
+            } else {
+                return FAST;
+            }
+        } else {
+            if (speed < 14.7523) {
+                return SLOW;
+            } else if (speed < 29.5046) {
+                return MEDIUM;
+            } else {
+                return FAST;
+            }
+        }
+    }
+
+    /**
+     * Returns the band for a speed, staying in the current band until the speed moves
+     * clearly past a threshold.
+     *
+     * @param speed       the current speed.
+     * @param useMph      true if the speed is in mph; false if the speed is in m/s.
+     * @param currentBand the band shown so far, or -1 if none.
+     * @return {@link #SLOW}, {@link #MEDIUM} or {@link #FAST}.
+     */
+    public static int band(double speed, boolean useMph, int currentBand) {
+        int band = band(speed, useMph);
+        if (currentBand < 0 || band == currentBand) {
+            return band;
+        }
+        // Moving up needs the speed to be above the threshold plus the margin, and the
+        // other way round when moving down.
+        if (band > currentBand) {
+            return Math.max(currentBand, band(speed * (1 - HYSTERESIS_FRACTION), useMph));
+        }
+        return Math.min(currentBand, band(speed * (1 + HYSTERESIS_FRACTION), useMph));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.runtracker.display;
+
+import java.util.Arrays;
+
+/**
+ * TextBuffer is a reusable char buffer for building display text without allocating.
+ * <p>
+ * The content is handed to {@code TextView.setText(char[], int, int)}, which copies it
+ * into the view, so one buffer can be rebuilt for every location fix.
+ * </p>
+ */
+public final class TextBuffer {
+    /** Backing characters. */
+    private char[] chars;
+
+    /** Number of characters in use. */
+    private int length;
+
+    /**
+     * Creates a buffer with the given initial capacity.
+     *
+     * @param capacity the initial number of chars.
+     */
+    public TextBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    /**
+     * Empties the buffer, keeping its storage.
+     *
+     * @return this buffer.
+     */
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Appends a string.
+     *
+     * @param text the text to append.
+     * @return this buffer.
+     */
+    public TextBuffer append(String text) {
+        int n = text.length();
+        ensureFree(n);
+        text.getChars(0, n, chars, length);
+        length += n;
+        return this;
+    }
+
+    /**
+     * Appends a single character.
+     *
+     * @param c the character to append.
+     * @return this buffer.
+     */
+    public TextBuffer append(char c) {
+        ensureFree(1);
+        chars[length++] = c;
+        return this;
+    }
+
+    /**
+     * Appends an integer value.
+     *
+     * @param value the value to append.
+     * @return this buffer.
+     */
+    public TextBuffer append(long value) {
+        ensureFree(20);
+        length = FixedDecimal.formatLong(value, chars, length);
+        return this;
+    }
+
+    /**
+     * Appends a value with a fixed number of decimals, like {@code String.format("%.Nf")}.
+     *
+     * @param value    the value to append.
+     * @param decimals the number of decimals.
+     * @return this buffer.
+     */
+    public TextBuffer append(double value, int decimals) {
+        ensureFree(FixedDecimal.maxLength(value, decimals));
+        length = FixedDecimal.format(value, decimals, chars, length);
+        return this;
+    }
+
+    /** @return the backing array; only the first {@link #length()} chars are valid. */
+    public char[] chars() {
+        return chars;
+    }
+
+    /** @return the number of valid chars. */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Allocates a new String with the content. Meant for tests and rare paths only.
+     *
+     * @return the buffer content.
+     */
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Grows the backing array so that {@code count} more chars fit.
+     *
+     * @param count the number of chars about to be appended.
+     */
+    private void ensureFree(int count) {
+        if (length + count > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + count));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.runtracker.export;
+
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * GpxExporter writes a session as a GPX 1.1 track with one segment.
+ * <p>
+ * Each fix becomes a {@code trkpt} with its latitude, longitude and UTC time. A point is
+ * built in a reused {@link TextBuffer} and written with a single
+ * {@code Writer.write(char[], int, int)} call, so exporting does not allocate per point.
+ * </p>
+ */
+public final class GpxExporter implements TrackExporter {
+    /** Decimals of the exported coordinates, matching the 1e-7 degree track precision. */
+    static final int COORDINATE_DECIMALS = 7;
+
+    /** Start of the document up to the metadata time. */
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx version=\"1.1\" creator=\"Run Tracker\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+            + "  <metadata><time>";
+
+    /** Between the metadata time and the track name. */
+    private static final String TRACK_START = "</time></metadata>\n  <trk>\n    <name>Run ";
+
+    /** Between the track name and the first point. */
+    private static final String SEGMENT_START = "</name>\n    <trkseg>\n";
+
+    /** End of the document. */
+    private static final String FOOTER = "    </trkseg>\n  </trk>\n</gpx>\n";
+
+    /** Reused buffer for the text of one point. */
+    private final TextBuffer text = new TextBuffer(128);
+
+    /** Reused holder for the fix being exported. */
+    private final FixSample sample = new FixSample();
+
+    @Override
+    public long export(File trackFile, Writer out) throws IOException {
+        try (TrackReader reader = TrackReader.open(trackFile)) {
+            long startEpochMillis = reader.startEpochMillis();
+            long startElapsedNanos = reader.startElapsedNanos();
+
+            out.write(HEADER);
+            write(out, IsoTime.append(text.clear(), startEpochMillis));
+            out.write(TRACK_START);
+            write(out, IsoTime.append(text.clear(), startEpochMillis));
+            out.write(SEGMENT_START);
+
+            long count = 0;
+            while (reader.next(sample)) {
+                text.clear()
+                        .append("      <trkpt lat=\"").append(sample.latitude, COORDINATE_DECIMALS)
+                        .append("\" lon=\"").append(sample.longitude, COORDINATE_DECIMALS)
+                        .append("\"><time>");
+                IsoTime.append(text, epochMillis(startEpochMillis, startElapsedNanos, sample))
+                        .append("</time></trkpt>\n");
+                write(out, text);
+                count++;
+            }
+            out.write(FOOTER);
+            return count;
+        }
+    }
+
+    @Override
+    public String fileExtension() {
+        return "gpx";
+    }
+
+    /**
+     * Converts the elapsed realtime timestamp of a fix to wall-clock time.
+     *
+     * @param startEpochMillis  session start as wall-clock time, in epoch milliseconds.
+     * @param startElapsedNanos session start in elapsed realtime nanoseconds.
+     * @param sample            the fix.
+     * @return the time of the fix, in epoch milliseconds.
+     */
+    static long epochMillis(long startEpochMillis, long startElapsedNanos, FixSample sample) {
+        return startEpochMillis + (sample.elapsedRealtimeNanos - startElapsedNanos) / 1_000_000;
+    }
+
+    /**
+     * Writes the content of a text buffer.
+     *
+     * @param out  the destination.
+     * @param text the text to write.
+     * @throws IOException if the output cannot be written.
+     */
+    static void write(Writer out, TextBuffer text) throws IOException {
+        out.write(text.chars(), 0, text.length());
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.runtracker.export;
+
+import com.example.runtracker.display.TextBuffer;
+
+/**
+ * IsoTime writes UTC timestamps in the ISO 8601 form used by GPX and TCX,
+ * {@code 2024-05-17T06:30:01.250Z}, without allocating.
+ * <p>
+ * The calendar date is computed with the days-from-civil inverse on the proleptic
+ * Gregorian calendar, so no {@code Calendar} or {@code java.time} objects are created
+ * per point. {@link #parse(CharSequence)} reads timestamps back, e.g. from GPX files,
+ * without {@code java.time}, which needs API 26.
+ * </p>
+ */
+public final class IsoTime {
+    /** Length of a formatted timestamp. */
+    public static final int LENGTH = 24;
+
+    /** Milliseconds per day. */
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    /** Days from 0000-03-01 to 1970-01-01. */
+    private static final long DAYS_0000_TO_1970 = 719_468L;
+
+    /** Days in a 400 year Gregorian cycle. */
+    private static final long DAYS_PER_ERA = 146_097L;
+
+    private IsoTime() { }
+
+    /**
+     * Appends a timestamp.
+     *
+     * @param buffer      the destination.
+     * @param epochMillis the time in milliseconds since 1970-01-01T00:00:00Z.
+     * @return the buffer.
+     */
+    public static TextBuffer append(TextBuffer buffer, long epochMillis) {
+        long days = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+
+        long z = days + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(z, DAYS_PER_ERA);
+        long dayOfEra = z - era * DAYS_PER_ERA;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        appendDigits(buffer, year, 4).append('-');
+        appendDigits(buffer, month, 2).append('-');
+        appendDigits(buffer, day, 2).append('T');
+        appendDigits(buffer, millisOfDay / 3_600_000, 2).append(':');
+        appendDigits(buffer, millisOfDay / 60_000 % 60, 2).append(':');
+        appendDigits(buffer, millisOfDay / 1000 % 60, 2).append('.');
+        return appendDigits(buffer, millisOfDay % 1000, 3).append('Z');
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp such as {@code 2024-05-17T06:30:01.250Z} or
+     * {@code 2024-05-17T08:30:01+02:00}. Fractions of a second beyond milliseconds are
+     * truncated; a timestamp without a zone is taken as UTC.
+     *
+     * @param text the timestamp.
+     * @return the time in milliseconds since 1970-01-01T00:00:00Z.
+     * @throws IllegalArgumentException if the text is not a timestamp in this form.
+     */
+    public static long parse(CharSequence text) {
+        int length = text.length();
+        if (length < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            throw new IllegalArgumentException("not an ISO 8601 timestamp: " + text);
+        }
+        long year = digits(text, 0, 4);
+        int month = (int) digits(text, 5, 7);
+        int day = (int) digits(text, 8, 10);
+        int hour = (int) digits(text, 11, 13);
+        int minute = (int) digits(text, 14, 16);
+        int second = (int) digits(text, 17, 19);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new IllegalArgumentException("not an ISO 8601 timestamp: " + text);
+        }
+
+        int position = 19;
+        int millis = 0;
+        if (position < length && text.charAt(position) == '.') {
+            int scale = 100;
+            for (position++; position < length && Character.isDigit(text.charAt(position)); position++) {
+                millis += (text.charAt(position) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        int offsetMinutes = 0;
+        if (position < length && text.charAt(position) == 'Z') {
+            position++;
+        } else if (position < length && (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+            int sign = text.charAt(position) == '-' ? -1 : 1;
+            int hoursEnd = position + 3;
+            int minutesStart = hoursEnd < length && text.charAt(hoursEnd) == ':' ? hoursEnd + 1 : hoursEnd;
+            if (minutesStart + 2 > length) {
+                throw new IllegalArgumentException("not an ISO 8601 timestamp: " + text);
+            }
+            offsetMinutes = sign * (int) (digits(text, position + 1, hoursEnd) * 60
+                    + digits(text, minutesStart, minutesStart + 2));
+            position = minutesStart + 2;
+        }
+        if (position != length) {
+            throw new IllegalArgumentException("not an ISO 8601 timestamp: " + text);
+        }
+
+        // Days from civil, with March as the first month of the year.
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+        return days * MILLIS_PER_DAY + (hour * 3600L + minute * 60L + second - offsetMinutes * 60L) * 1000L
+                + millis;
+    }
+
+    /**
+     * Reads a run of decimal digits.
+     *
+     * @param text  the text.
+     * @param start the index of the first digit.
+     * @param end   the index after the last digit.
+     * @return the value of the digits.
+     * @throws IllegalArgumentException if a character is not a digit.
+     */
+    private static long digits(CharSequence text, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("not an ISO 8601 timestamp: " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Appends a non-negative value padded with leading zeros.
+     *
+     * @param buffer the destination.
+     * @param value  the value.
+     * @param width  the minimum number of digits.
+     * @return the buffer.
+     */
+    private static TextBuffer appendDigits(TextBuffer buffer, long value, int width) {
+        for (long limit = 10; width > 1; width--, limit *= 10) {
+            if (value < limit) {
+                buffer.append('0');
+            }
+        }
+        return buffer.append(value);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.runtracker.export;
+
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * TcxExporter writes a session as a Training Center (TCX) running activity with one lap.
+ * <p>
+ * TCX puts the lap totals before the track points, so the track file is read twice:
+ * a first pass computes the total time and distance with {@link RunMetrics}, and the
+ * second pass streams the points with their cumulative distance. Neither pass keeps the
+ * fixes in memory, and points are written from a reused {@link TextBuffer}.
+ * </p>
+ */
+public final class TcxExporter implements TrackExporter {
+    /** Decimals of the exported distances and durations. */
+    private static final int DISTANCE_DECIMALS = 2;
+
+    /** Start of the document up to the activity id. */
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\">\n"
+            + "  <Activities>\n    <Activity Sport=\"Running\">\n      <Id>";
+
+    /** End of the document. */
+    private static final String FOOTER = "        </Track>\n      </Lap>\n    </Activity>\n"
+            + "  </Activities>\n</TrainingCenterDatabase>\n";
+
+    /** Reused buffer for the text of one point. */
+    private final TextBuffer text = new TextBuffer(256);
+
+    /** Reused holder for the fix being exported. */
+    private final FixSample sample = new FixSample();
+
+    /** Distance and time accumulated over the session. */
+    private final RunMetrics metrics = new RunMetrics();
+
+    @Override
+    public long export(File trackFile, Writer out) throws IOException {
+        metrics.reset();
+        try (TrackReader reader = TrackReader.open(trackFile)) {
+            while (reader.next(sample)) {
+                metrics.update(sample.latitude, sample.longitude, sample.elapsedRealtimeNanos);
+            }
+        }
+        double totalDistance = metrics.distanceMeters();
+        double totalSeconds = metrics.elapsedNanos() / 1e9;
+
+        metrics.reset();
+        try (TrackReader reader = TrackReader.open(trackFile)) {
+            long startEpochMillis = reader.startEpochMillis();
+            long startElapsedNanos = reader.startElapsedNanos();
+
+            out.write(HEADER);
+            text.clear();
+            IsoTime.append(text, startEpochMillis).append("</Id>\n      <Lap StartTime=\"");
+            IsoTime.append(text, startEpochMillis)
+                    .append("\">\n        <TotalTimeSeconds>").append(totalSeconds, DISTANCE_DECIMALS)
+                    .append("</TotalTimeSeconds>\n        <DistanceMeters>").append(totalDistance, DISTANCE_DECIMALS)
+                    .append("</DistanceMeters>\n        <Calories>0</Calories>\n"
+                            + "        <Intensity>Active</Intensity>\n"
+                            + "        <TriggerMethod>Manual</TriggerMethod>\n        <Track>\n");
+            GpxExporter.write(out, text);
+
+            long count = 0;
+            while (reader.next(sample)) {
+                metrics.update(sample.latitude, sample.longitude, sample.elapsedRealtimeNanos);
+                text.clear().append("          <Trackpoint><Time>");
+                IsoTime.append(text, GpxExporter.epochMillis(startEpochMillis, startElapsedNanos, sample))
+                        .append("</Time><Position><LatitudeDegrees>")
+                        .append(sample.latitude, GpxExporter.COORDINATE_DECIMALS)
+                        .append("</LatitudeDegrees><LongitudeDegrees>")
+                        .append(sample.longitude, GpxExporter.COORDINATE_DECIMALS)
+                        .append("</LongitudeDegrees></Position><DistanceMeters>")
+                        .append(metrics.distanceMeters(), DISTANCE_DECIMALS)
+                        .append("</DistanceMeters></Trackpoint>\n");
+                GpxExporter.write(out, text);
+                count++;
+            }
+            out.write(FOOTER);
+            return count;
+        }
+    }
+
+    @Override
+    public String fileExtension() {
+        return "tcx";
+    }
+}
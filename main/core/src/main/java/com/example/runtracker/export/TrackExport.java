@@ -0,0 +1,68 @@
+package com.example.runtracker.export;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TrackExport writes a track file to an export file, optionally gzip compressed.
+ * <p>
+ * The exporter writes through a {@link BufferedWriter} over a UTF-8 encoder, so the
+ * file receives large writes regardless of how small each point is.
+ * </p>
+ */
+public final class TrackExport {
+    /** Size of the character and compression buffers, in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private TrackExport() { }
+
+    /**
+     * Exports a track file.
+     *
+     * @param exporter    the output format.
+     * @param trackFile   the binary track file.
+     * @param destination the export file; {@code .gz} is not appended automatically.
+     * @param gzip        true to gzip compress the output.
+     * @return the number of exported fixes.
+     * @throws IOException if the track cannot be read or the export cannot be written.
+     */
+    public static long writeFile(TrackExporter exporter, File trackFile, File destination, boolean gzip)
+            throws IOException {
+        OutputStream stream = new FileOutputStream(destination);
+        if (gzip) {
+            try {
+                stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+        }
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return exporter.export(trackFile, out);
+        }
+    }
+
+    /**
+     * Returns the conventional export file name for a track file.
+     *
+     * @param exporter  the output format.
+     * @param trackFile the binary track file.
+     * @param gzip      true if the output is gzip compressed.
+     * @return the file name, e.g. {@code session-1700000000000.gpx.gz}.
+     */
+    public static String fileName(TrackExporter exporter, File trackFile, boolean gzip) {
+        String name = trackFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return name + "." + exporter.fileExtension() + (gzip ? ".gz" : "");
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.runtracker.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * TrackExporter converts a binary track file into a text format for other tools.
+ * <p>
+ * Implementations stream the fixes from the file with a
+ * {@link com.example.runtracker.track.TrackReader} straight into the writer, so memory
+ * use does not depend on the length of the session.
+ * </p>
+ */
+public interface TrackExporter {
+    /**
+     * Writes the session of a track file.
+     *
+     * @param trackFile the binary track file.
+     * @param out       the destination; it is not closed.
+     * @return the number of exported fixes.
+     * @throws IOException if the track cannot be read or the output cannot be written.
+     */
+    long export(File trackFile, Writer out) throws IOException;
+
+    /** @return the file name extension of the format, without the dot. */
+    String fileExtension();
+}
@@ -0,0 +1,31 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.track.FixSample;
+
+/**
+ * AccuracyGate drops fixes whose reported horizontal accuracy is too poor to use.
+ * <p>
+ * Fixes without an accuracy estimate (0) are kept.
+ * </p>
+ */
+public final class AccuracyGate implements FixFilter {
+    /** Largest accepted accuracy radius, in meters. */
+    private final float maxAccuracyMeters;
+
+    /**
+     * Creates a gate.
+     *
+     * @param maxAccuracyMeters largest accepted accuracy radius, in meters.
+     */
+    public AccuracyGate(float maxAccuracyMeters) {
+        this.maxAccuracyMeters = maxAccuracyMeters;
+    }
+
+    @Override
+    public boolean filter(FixSample sample) {
+        return sample.accuracy <= maxAccuracyMeters;
+    }
+
+    @Override
+    public void reset() { }
+}
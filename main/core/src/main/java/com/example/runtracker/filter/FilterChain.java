@@ -0,0 +1,62 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.track.FixSample;
+
+/**
+ * FilterChain runs several filters in order and stops at the first one that drops the fix.
+ */
+public final class FilterChain implements FixFilter {
+    /** Fixes with a worse accuracy than this, in meters, are dropped by the standard chain. */
+    public static final float MAX_ACCURACY_M = 50;
+
+    /**
+     * Largest plausible speed for the standard chain, in meters per second.
+     * Generous enough for cycling and driving, which the speed colors also cover.
+     */
+    public static final double MAX_SPEED_MPS = 70;
+
+    /** Drops in a row after which the standard chain accepts a relocation. */
+    public static final int MAX_CONSECUTIVE_REJECTS = 5;
+
+    /** Unmodeled acceleration of the standard chain's Kalman filter, in m/s^2. */
+    public static final double ACCELERATION_NOISE = 0.5;
+
+    /** The filters, in the order they run. */
+    private final FixFilter[] filters;
+
+    /**
+     * Creates a chain.
+     *
+     * @param filters the filters, in the order they run.
+     */
+    public FilterChain(FixFilter... filters) {
+        this.filters = filters.clone();
+    }
+
+    /**
+     * @return the standard chain: accuracy gate, outlier rejection, then Kalman smoothing.
+     */
+    public static FilterChain standard() {
+        return new FilterChain(
+                new AccuracyGate(MAX_ACCURACY_M),
+                new OutlierRejector(MAX_SPEED_MPS, MAX_CONSECUTIVE_REJECTS),
+                new KalmanFilter(ACCELERATION_NOISE));
+    }
+
+    @Override
+    public boolean filter(FixSample sample) {
+        for (FixFilter filter : filters) {
+            if (!filter.filter(sample)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (FixFilter filter : filters) {
+            filter.reset();
+        }
+    }
+}
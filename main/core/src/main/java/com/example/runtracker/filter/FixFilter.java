@@ -0,0 +1,25 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.track.FixSample;
+
+/**
+ * FixFilter is one stage of the location filter pipeline.
+ * <p>
+ * A filter either drops a fix or lets it through, possibly after correcting its fields
+ * in place. Filters keep their state in primitive fields and must not allocate per fix.
+ * </p>
+ */
+public interface FixFilter {
+    /**
+     * Filters one fix.
+     *
+     * @param sample the fix; may be modified in place.
+     * @return true to keep the fix, false to drop it.
+     */
+    boolean filter(FixSample sample);
+
+    /**
+     * Forgets all history, e.g. at the start of a session or after a pause.
+     */
+    void reset();
+}
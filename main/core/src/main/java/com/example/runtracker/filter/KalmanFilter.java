@@ -0,0 +1,166 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+
+/**
+ * KalmanFilter smooths position and speed with a constant-velocity model.
+ * <p>
+ * Each horizontal axis has a position/velocity state in meters, driven by white-noise
+ * acceleration and corrected by the measured position, weighted by the fix accuracy.
+ * Both axes share the same noise and timing, so their 2x2 covariance is identical and
+ * kept once, as three doubles. The local frame is re-centered on the estimate after every
+ * fix, which keeps the flat-earth approximation exact enough at any distance traveled.
+ * All state is primitive fields; an update allocates nothing.
+ * </p>
+ * <p>
+ * When the fix reports a Doppler speed, it is fused as a measurement of the velocity
+ * magnitude: the direction comes from the position track and the length is pulled
+ * toward the measured speed by a scalar Kalman gain. This is an approximation of the
+ * nonlinear speed update that keeps the shared-covariance form.
+ * </p>
+ * <p>
+ * The filtered position replaces the measured one, and the speed becomes the magnitude
+ * of the estimated velocity, which no longer jumps with the GPS jitter.
+ * </p>
+ */
+public final class KalmanFilter implements FixFilter {
+    /** Accuracy assumed for fixes that do not report one, in meters. */
+    private static final double DEFAULT_ACCURACY_M = 10;
+
+    /** Smallest accuracy trusted, in meters. */
+    private static final double MIN_ACCURACY_M = 1;
+
+    /** Variance of a reported Doppler speed, in (m/s)^2. */
+    private static final double SPEED_MEASUREMENT_VARIANCE = 0.5 * 0.5;
+
+    /** Initial velocity variance, in (m/s)^2. */
+    private static final double INITIAL_VELOCITY_VARIANCE = 100;
+
+    /** Gaps longer than this, in seconds, restart the filter. */
+    private static final double MAX_GAP_SECONDS = 10;
+
+    /** Acceleration noise spectral density, in (m/s^2)^2. */
+    private final double accelerationVariance;
+
+    /** True once the first fix has been seen. */
+    private boolean initialized;
+
+    /** Latitude of the local frame origin (the last estimate), in degrees. */
+    private double originLatitude;
+
+    /** Longitude of the local frame origin (the last estimate), in degrees. */
+    private double originLongitude;
+
+    /** Timestamp of the last estimate, in nanoseconds. */
+    private long lastTimeNanos;
+
+    /** East velocity, in meters per second. */
+    private double velocityEast;
+
+    /** North velocity, in meters per second. */
+    private double velocityNorth;
+
+    /** Position variance, in m^2. */
+    private double positionVariance;
+
+    /** Position/velocity covariance, in m^2/s. */
+    private double covariance;
+
+    /** Velocity variance, in (m/s)^2. */
+    private double velocityVariance;
+
+    /**
+     * Creates a filter.
+     *
+     * @param accelerationNoise standard deviation of the unmodeled acceleration, in m/s^2.
+     */
+    public KalmanFilter(double accelerationNoise) {
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    @Override
+    public boolean filter(FixSample sample) {
+        double accuracy = sample.accuracy > 0 ? Math.max(MIN_ACCURACY_M, sample.accuracy) : DEFAULT_ACCURACY_M;
+        double measurementVariance = accuracy * accuracy;
+        double dt = (sample.elapsedRealtimeNanos - lastTimeNanos) / 1e9;
+
+        if (!initialized || dt > MAX_GAP_SECONDS) {
+            initialized = true;
+            originLatitude = sample.latitude;
+            originLongitude = sample.longitude;
+            lastTimeNanos = sample.elapsedRealtimeNanos;
+            velocityEast = 0;
+            velocityNorth = 0;
+            positionVariance = measurementVariance;
+            covariance = 0;
+            velocityVariance = INITIAL_VELOCITY_VARIANCE;
+            return true;
+        }
+        if (dt < 0) {
+            dt = 0;
+        }
+
+        // Predict: the local frame is centered on the last estimate, so positions start at 0.
+        double east = velocityEast * dt;
+        double north = velocityNorth * dt;
+        double dt2 = dt * dt;
+        positionVariance += 2 * dt * covariance + dt2 * velocityVariance + accelerationVariance * dt2 * dt2 / 4;
+        covariance += dt * velocityVariance + accelerationVariance * dt2 * dt / 2;
+        velocityVariance += accelerationVariance * dt2;
+
+        // Update with the measured position, identical gains on both axes.
+        double metersPerDegreeLon = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+        double measuredEast = (sample.longitude - originLongitude) * metersPerDegreeLon;
+        double measuredNorth = (sample.latitude - originLatitude) * RunMetrics.METERS_PER_DEGREE;
+        double innovationVariance = positionVariance + measurementVariance;
+        double positionGain = positionVariance / innovationVariance;
+        double velocityGain = covariance / innovationVariance;
+        double residualEast = measuredEast - east;
+        double residualNorth = measuredNorth - north;
+        east += positionGain * residualEast;
+        north += positionGain * residualNorth;
+        velocityEast += velocityGain * residualEast;
+        velocityNorth += velocityGain * residualNorth;
+        velocityVariance -= velocityGain * covariance;
+        covariance *= 1 - positionGain;
+        positionVariance *= 1 - positionGain;
+
+        // Fuse the Doppler speed into the velocity magnitude.
+        double speed = Math.sqrt(velocityEast * velocityEast + velocityNorth * velocityNorth);
+        if (sample.speedMps > 0) {
+            double speedInnovationVariance = velocityVariance + SPEED_MEASUREMENT_VARIANCE;
+            double speedGain = velocityVariance / speedInnovationVariance;
+            double alongTrackGain = covariance / speedInnovationVariance;
+            double residual = sample.speedMps - speed;
+            if (speed > 1e-6) {
+                double unitEast = velocityEast / speed;
+                double unitNorth = velocityNorth / speed;
+                east += alongTrackGain * residual * unitEast;
+                north += alongTrackGain * residual * unitNorth;
+                velocityEast += speedGain * residual * unitEast;
+                velocityNorth += speedGain * residual * unitNorth;
+            }
+            speed += speedGain * residual;
+            positionVariance -= alongTrackGain * covariance;
+            covariance *= 1 - speedGain;
+            velocityVariance *= 1 - speedGain;
+        }
+
+        // Re-center the frame on the new estimate and write it back.
+        originLatitude += north / RunMetrics.METERS_PER_DEGREE;
+        originLongitude += east / metersPerDegreeLon;
+        lastTimeNanos = sample.elapsedRealtimeNanos;
+
+        sample.latitude = originLatitude;
+        sample.longitude = originLongitude;
+        sample.speedMps = (float) speed;
+        sample.accuracy = (float) Math.sqrt(positionVariance);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+
+/**
+ * OutlierRejector drops fixes that would require an implausible jump in velocity.
+ * <p>
+ * The speed needed to get from the last accepted fix to the new one is computed, after
+ * subtracting the accuracy radius of both fixes. If it exceeds the maximum speed the fix
+ * is dropped. After {@code maxConsecutiveRejects} drops in a row the new position is
+ * accepted anyway, so a genuine relocation (e.g. leaving a tunnel) cannot lock the
+ * filter out forever.
+ * </p>
+ */
+public final class OutlierRejector implements FixFilter {
+    /** Largest plausible speed, in meters per second. */
+    private final double maxSpeedMps;
+
+    /** Number of drops in a row after which the next fix is accepted. */
+    private final int maxConsecutiveRejects;
+
+    /** True once a fix has been accepted. */
+    private boolean hasLast;
+
+    /** Latitude of the last accepted fix, in degrees. */
+    private double lastLatitude;
+
+    /** Longitude of the last accepted fix, in degrees. */
+    private double lastLongitude;
+
+    /** Accuracy of the last accepted fix, in meters. */
+    private float lastAccuracy;
+
+    /** Timestamp of the last accepted fix, in nanoseconds. */
+    private long lastTimeNanos;
+
+    /** Number of fixes dropped since the last accepted one. */
+    private int consecutiveRejects;
+
+    /**
+     * Creates a rejector.
+     *
+     * @param maxSpeedMps           largest plausible speed, in meters per second.
+     * @param maxConsecutiveRejects number of drops in a row after which a fix is accepted.
+     */
+    public OutlierRejector(double maxSpeedMps, int maxConsecutiveRejects) {
+        this.maxSpeedMps = maxSpeedMps;
+        this.maxConsecutiveRejects = maxConsecutiveRejects;
+    }
+
+    @Override
+    public boolean filter(FixSample sample) {
+        if (hasLast && consecutiveRejects < maxConsecutiveRejects) {
+            double dt = (sample.elapsedRealtimeNanos - lastTimeNanos) / 1e9;
+            double dy = (sample.latitude - lastLatitude) * RunMetrics.METERS_PER_DEGREE;
+            double dx = (sample.longitude - lastLongitude) * RunMetrics.METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians(lastLatitude));
+            double distance = Math.sqrt(dx * dx + dy * dy) - sample.accuracy - lastAccuracy;
+            if (distance > 0 && (dt <= 0 || distance > maxSpeedMps * dt)) {
+                consecutiveRejects++;
+                return false;
+            }
+        }
+        hasLast = true;
+        lastLatitude = sample.latitude;
+        lastLongitude = sample.longitude;
+        lastAccuracy = sample.accuracy;
+        lastTimeNanos = sample.elapsedRealtimeNanos;
+        consecutiveRejects = 0;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        hasLast = false;
+        consecutiveRejects = 0;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.runtracker.heatmap;
+
+import com.example.runtracker.replay.TraceSource;
+import com.example.runtracker.replay.TrackFileTrace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * HeatmapAggregator keeps the heatmap of all recorded sessions: the
+ * {@link HeatmapCounts} of the sessions added so far, with the keys of those sessions.
+ * <p>
+ * Sessions are independent, so a batch is marked in parallel with fork-join: the batch
+ * is split in halves down to a few sessions, each read and marked on a worker into
+ * counts of its own, and the counts of the halves are merged on the way back. Adding is
+ * incremental: the aggregator remembers the keys of the added sessions, so adding the
+ * whole history again only reads the new sessions, and only the tiles they passed
+ * through change. Those tiles are returned, so that a cache of drawn tiles can drop
+ * them and keep the rest.
+ * </p>
+ * <p>
+ * The aggregator is saved to a file with {@link #write(File)}, so the heatmap is
+ * recomputed over the whole history only once, when there is no file yet.
+ * </p>
+ * <p>
+ * Batches are added by one thread at a time. The counts are only locked to merge a
+ * batch, not while it is read, so tiles can be drawn from any thread with
+ * {@link #copyBins} during a full recompute.
+ * </p>
+ */
+public final class HeatmapAggregator {
+    /** Largest number of sessions marked by a task without splitting it. */
+    static final int LEAF_SESSIONS = 4;
+
+    /**
+     * Session to add, read by the worker that marks it.
+     */
+    public interface TrackSource {
+        /** @return the key of the session, the same every time it is added. */
+        String key();
+
+        /**
+         * @return the fixes of the session, closed after reading.
+         * @throws IOException if the session cannot be read; it is skipped and tried again
+         *                     when added next.
+         */
+        TraceSource open() throws IOException;
+    }
+
+    /** Pool marking the sessions. */
+    private final ForkJoinPool pool;
+
+    /** Serializes the batches. */
+    private final Object adding = new Object();
+
+    /** Counts of the added sessions; guarded by this aggregator. */
+    private final HeatmapCounts counts;
+
+    /** Keys of the added sessions; guarded by this aggregator. */
+    private final Set<String> added;
+
+    /**
+     * Creates an empty aggregator on the common pool.
+     */
+    public HeatmapAggregator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool marking the sessions.
+     */
+    public HeatmapAggregator(ForkJoinPool pool) {
+        this(pool, new HeatmapCounts(), new HashSet<>());
+    }
+
+    /**
+     * @param pool   pool marking the sessions.
+     * @param counts counts of the added sessions.
+     * @param added  keys of the added sessions.
+     */
+    private HeatmapAggregator(ForkJoinPool pool, HeatmapCounts counts, Set<String> added) {
+        this.pool = pool;
+        this.counts = counts;
+        this.added = added;
+    }
+
+    /**
+     * Returns a source that reads a track file when it is added, keyed by the file name.
+     *
+     * @param file the track file.
+     * @return the source.
+     */
+    public static TrackSource trackFile(File file) {
+        return new TrackSource() {
+            @Override
+            public String key() {
+                return file.getName();
+            }
+
+            @Override
+            public TraceSource open() throws IOException {
+                return new TrackFileTrace(file);
+            }
+        };
+    }
+
+    /**
+     * Marks the sessions not added yet, in parallel, and merges them into the heatmap.
+     *
+     * @param sessions the sessions, e.g. the whole history; those already added are
+     *                 skipped.
+     * @return the keys of the tiles that changed, at every zoom level; empty if no
+     *         session was added.
+     */
+    public long[] add(List<? extends TrackSource> sessions) {
+        synchronized (adding) {
+            List<TrackSource> fresh = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            synchronized (this) {
+                for (TrackSource session : sessions) {
+                    if (!added.contains(session.key()) && keys.add(session.key())) {
+                        fresh.add(session);
+                    }
+                }
+            }
+            if (fresh.isEmpty()) {
+                return new long[0];
+            }
+            Layer found = pool.invoke(new MarkTask(fresh, 0, fresh.size()));
+            long[] changed = new long[found.counts.tileCount()];
+            for (int t = 0; t < changed.length; t++) {
+                changed[t] = found.counts.tileKey(t);
+            }
+            synchronized (this) {
+                counts.merge(found.counts);
+                added.addAll(found.keys);
+            }
+            return changed;
+        }
+    }
+
+    /** @return the number of sessions added so far. */
+    public synchronized int sessionCount() {
+        return added.size();
+    }
+
+    /** @return the number of tiles of the heatmap over all zoom levels. */
+    public synchronized int tileCount() {
+        return counts.tileCount();
+    }
+
+    /**
+     * Copies the counters of a tile.
+     *
+     * @param key  the tile key.
+     * @param bins receives the counters, as laid out by {@link HeatmapCounts#bins}; at
+     *             least {@link HeatmapCounts#BINS} squared.
+     * @return the largest counter of the zoom level of the tile, or 0 if no session
+     *         passed through the tile, in which case {@code bins} is left as it was.
+     */
+    public synchronized int copyBins(long key, int[] bins) {
+        int[] tile = counts.bins(key);
+        if (tile == null) {
+            return 0;
+        }
+        System.arraycopy(tile, 0, bins, 0, tile.length);
+        return counts.maxCount(HeatmapCounts.zoom(key));
+    }
+
+    /**
+     * Finds the area of the map covered by the heatmap.
+     *
+     * @param bounds receives the west, north, east and south edges of the covered tiles
+     *               of the highest zoom level, as projected by {@link HeatmapCounts#worldX}
+     *               and {@link HeatmapCounts#worldY}.
+     * @return false if the heatmap is empty, in which case {@code bounds} is unchanged.
+     */
+    public synchronized boolean bounds(double[] bounds) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        for (int t = 0; t < counts.tileCount(); t++) {
+            long key = counts.tileKey(t);
+            if (HeatmapCounts.zoom(key) == HeatmapCounts.MAX_ZOOM) {
+                minX = Math.min(minX, HeatmapCounts.tileX(key));
+                maxX = Math.max(maxX, HeatmapCounts.tileX(key));
+                minY = Math.min(minY, HeatmapCounts.tileY(key));
+                maxY = Math.max(maxY, HeatmapCounts.tileY(key));
+            }
+        }
+        if (maxX < 0) {
+            return false;
+        }
+        double tiles = 1 << HeatmapCounts.MAX_ZOOM;
+        bounds[0] = minX / tiles;
+        bounds[1] = minY / tiles;
+        bounds[2] = (maxX + 1) / tiles;
+        bounds[3] = (maxY + 1) / tiles;
+        return true;
+    }
+
+    /**
+     * Saves the heatmap and the keys of its sessions. The file is replaced at once, so a
+     * crash while saving leaves the previous one.
+     *
+     * @param file the destination.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary)))) {
+            out.writeInt(added.size());
+            for (String key : added) {
+                out.writeUTF(key);
+            }
+            counts.write(out);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * Reads a heatmap saved by {@link #write(File)}.
+     *
+     * @param file the saved heatmap.
+     * @param pool pool marking the sessions added next.
+     * @return the aggregator.
+     * @throws IOException if the file cannot be read or holds no heatmap.
+     */
+    public static HeatmapAggregator read(File file, ForkJoinPool pool) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            int sessions = in.readInt();
+            if (sessions < 0) {
+                throw new IOException("not a heatmap file");
+            }
+            Set<String> added = new HashSet<>();
+            for (int i = 0; i < sessions; i++) {
+                added.add(in.readUTF());
+            }
+            return new HeatmapAggregator(pool, HeatmapCounts.read(in), added);
+        }
+    }
+
+    /**
+     * Counts of some sessions, with the keys of those sessions.
+     */
+    private static final class Layer {
+        /** The counts. */
+        final HeatmapCounts counts = new HeatmapCounts();
+
+        /** Keys of the sessions marked into the counts. */
+        final List<String> keys = new ArrayList<>();
+
+        /**
+         * Adds other counts to these.
+         *
+         * @param other the other counts.
+         */
+        void merge(Layer other) {
+            counts.merge(other.counts);
+            keys.addAll(other.keys);
+        }
+    }
+
+    /**
+     * Fork-join task marking a range of the sessions.
+     */
+    private static final class MarkTask extends RecursiveTask<Layer> {
+        /** The sessions of the batch. */
+        private final List<TrackSource> sessions;
+
+        /** First session of the range. */
+        private final int from;
+
+        /** End of the range, exclusive. */
+        private final int to;
+
+        /**
+         * @param sessions the sessions of the batch.
+         * @param from     first session of the range.
+         * @param to       end of the range, exclusive.
+         */
+        MarkTask(List<TrackSource> sessions, int from, int to) {
+            this.sessions = sessions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Layer compute() {
+            if (to - from > LEAF_SESSIONS) {
+                int middle = (from + to) >>> 1;
+                MarkTask left = new MarkTask(sessions, from, middle);
+                left.fork();
+                Layer right = new MarkTask(sessions, middle, to).compute();
+                Layer layer = left.join();
+                layer.merge(right);
+                return layer;
+            }
+            Layer layer = new Layer();
+            for (int i = from; i < to; i++) {
+                TrackSource source = sessions.get(i);
+                HeatmapCounts session = new HeatmapCounts();
+                try (TraceSource trace = source.open()) {
+                    session.markSession(trace);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                layer.counts.merge(session);
+                layer.keys.add(source.key());
+            }
+            return layer;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.example.runtracker.heatmap;
+
+import com.example.runtracker.replay.TraceSource;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.Varint;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HeatmapCounts is a pyramid of counters over the map tiles, counting the sessions that
+ * passed through each small square of the map.
+ * <p>
+ * The map is the Web Mercator projection, cut into 2<sup>z</sup> by 2<sup>z</sup> tiles at
+ * zoom level z, from {@link #MIN_ZOOM} to {@link #MAX_ZOOM}. Each tile holds
+ * {@link #BINS} by {@link #BINS} counters, one per bin of the tile, in one {@code int}
+ * array; at the highest zoom a bin is about 10 m wide at the equator. Tiles are kept in
+ * an open-addressing hash map from the {@link #tileKey tile key}, a {@code long} packing
+ * z, x and y, to the index of the tile, and only the tiles a session passed through are
+ * allocated. Every zoom level holds its own counters, so a tile of any level is drawn
+ * from its own 4,096 counters, however much of the map it covers.
+ * </p>
+ * <p>
+ * A session is first marked on counts of its own with {@link #markSession}, every bin it
+ * passed through set to one, and then {@link #merge merged} into the total, so a bin
+ * counts sessions rather than fixes, and a runner waiting at a crossing does not light it
+ * up. The positions between two fixes are marked too, so a fast session draws a line
+ * rather than dots.
+ * </p>
+ * <p>
+ * Instances are not thread-safe; the {@link HeatmapAggregator} guards the total.
+ * </p>
+ */
+public final class HeatmapCounts {
+    /** Lowest zoom level counted. */
+    public static final int MIN_ZOOM = 10;
+
+    /** Highest zoom level counted. */
+    public static final int MAX_ZOOM = 16;
+
+    /** Number of bins per tile side, as a power of two. */
+    public static final int BINS_SHIFT = 6;
+
+    /** Number of bins per tile side. */
+    public static final int BINS = 1 << BINS_SHIFT;
+
+    /** Marker of a free slot of the map. */
+    static final int NONE = -1;
+
+    /** Largest latitude of the projection, in degrees. */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /** Mask extracting the position of a bin inside its tile. */
+    private static final int BIN_MASK = BINS - 1;
+
+    /** Largest number of steps marked between two fixes; farther fixes are not joined. */
+    static final int MAX_GAP_STEPS = 128;
+
+    /** Number of steps per highest-zoom bin when marking between two fixes. */
+    private static final int STEPS_PER_BIN = 2;
+
+    /** File magic, {@code "RTHM"} in ASCII. */
+    private static final int MAGIC = 0x5254484D;
+
+    /** Current version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Tile keys of the map slots. */
+    private long[] slotKeys = new long[64];
+
+    /** Index of the tile of each map slot, or {@link #NONE} for a free slot. */
+    private int[] slotTiles = new int[64];
+
+    /** Key of each tile, in the order they were added. */
+    private long[] tileKeys = new long[32];
+
+    /** Counters of each tile, {@link #BINS} rows of {@link #BINS} bins. */
+    private int[][] tileBins = new int[32][];
+
+    /** Number of tiles. */
+    private int tileCount;
+
+    /** Largest counter of each zoom level. */
+    private final int[] maxCounts = new int[MAX_ZOOM + 1];
+
+    /** Key of the tile marked last at each zoom level, or {@link #NONE}. */
+    private final long[] lastKeys = new long[MAX_ZOOM + 1];
+
+    /** Counters of the tile marked last at each zoom level. */
+    private final int[][] lastBins = new int[MAX_ZOOM + 1][];
+
+    /**
+     * Creates empty counts.
+     */
+    public HeatmapCounts() {
+        Arrays.fill(slotTiles, NONE);
+        Arrays.fill(lastKeys, NONE);
+    }
+
+    /**
+     * @param zoom the zoom level, at most 31.
+     * @param x    the tile column, below 2<sup>zoom</sup>.
+     * @param y    the tile row, below 2<sup>zoom</sup>.
+     * @return the key of the tile.
+     */
+    public static long tileKey(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * @param key a tile key.
+     * @return the zoom level of the tile.
+     */
+    public static int zoom(long key) {
+        return (int) (key >>> 58);
+    }
+
+    /**
+     * @param key a tile key.
+     * @return the column of the tile.
+     */
+    public static int tileX(long key) {
+        return (int) (key >>> 29) & 0x1FFFFFFF;
+    }
+
+    /**
+     * @param key a tile key.
+     * @return the row of the tile.
+     */
+    public static int tileY(long key) {
+        return (int) key & 0x1FFFFFFF;
+    }
+
+    /**
+     * @param longitude longitude in degrees.
+     * @return the projected position, from 0 at 180° west to 1 at 180° east.
+     */
+    public static double worldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * @param latitude latitude in degrees.
+     * @return the projected position, from 0 at the top of the map to 1 at the bottom.
+     */
+    public static double worldY(double latitude) {
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+    }
+
+    /** @return the number of allocated tiles over all zoom levels. */
+    public int tileCount() {
+        return tileCount;
+    }
+
+    /**
+     * @param index the tile, below {@link #tileCount()}.
+     * @return the key of the tile.
+     */
+    public long tileKey(int index) {
+        return tileKeys[index];
+    }
+
+    /**
+     * Returns the counters of a tile, row by row, {@link #BINS} bins per row from west to
+     * east and rows from north to south. The array is owned by the counts and must not be
+     * changed.
+     *
+     * @param key the tile key.
+     * @return the counters, or null if no session passed through the tile.
+     */
+    public int[] bins(long key) {
+        int tile = find(key);
+        return tile != NONE ? tileBins[tile] : null;
+    }
+
+    /**
+     * @param zoom the zoom level.
+     * @return the largest counter of the zoom level, 0 if nothing was counted.
+     */
+    public int maxCount(int zoom) {
+        return maxCounts[zoom];
+    }
+
+    /**
+     * Marks the bins of every zoom level that a session passed through, the positions
+     * between fixes included. Marked bins are set to one, however often they are passed.
+     *
+     * @param trace the fixes of the session; read to its end, not closed.
+     * @throws IOException if the trace cannot be read.
+     */
+    public void markSession(TraceSource trace) throws IOException {
+        FixSample sample = new FixSample();
+        double step = 1.0 / STEPS_PER_BIN / (1L << (MAX_ZOOM + BINS_SHIFT));
+        double lastX = Double.NaN;
+        double lastY = Double.NaN;
+        while (trace.next(sample)) {
+            double x = worldX(sample.longitude);
+            double y = worldY(sample.latitude);
+            int steps = Double.isNaN(lastX) ? 1
+                    : (int) Math.ceil(Math.max(Math.abs(x - lastX), Math.abs(y - lastY)) / step);
+            if (steps > MAX_GAP_STEPS) {
+                // A gap in the recording; drawing across it would invent a route.
+                steps = 1;
+            }
+            for (int i = 1; i < steps; i++) {
+                mark(lastX + (x - lastX) * i / steps, lastY + (y - lastY) * i / steps);
+            }
+            mark(x, y);
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    /**
+     * Adds the counters of other counts to these.
+     *
+     * @param other the counts to add, e.g. of a session.
+     */
+    public void merge(HeatmapCounts other) {
+        for (int t = 0; t < other.tileCount; t++) {
+            long key = other.tileKeys[t];
+            int[] from = other.tileBins[t];
+            int tile = findOrAdd(key);
+            int[] to = tileBins[tile];
+            int max = maxCounts[zoom(key)];
+            for (int i = 0; i < from.length; i++) {
+                if (from[i] != 0) {
+                    int count = to[i] + from[i];
+                    to[i] = count;
+                    if (count > max) {
+                        max = count;
+                    }
+                }
+            }
+            maxCounts[zoom(key)] = max;
+        }
+    }
+
+    /**
+     * Writes the counts: the non-zero counters of each tile, as varint gaps and values.
+     *
+     * @param out the destination.
+     * @throws IOException if the destination cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(tileCount);
+        ByteBuffer buffer = ByteBuffer.allocate(BINS * BINS * 2 * Varint.MAX_LONG_BYTES);
+        for (int t = 0; t < tileCount; t++) {
+            int[] bins = tileBins[t];
+            buffer.clear();
+            int last = -1;
+            for (int i = 0; i < bins.length; i++) {
+                if (bins[i] != 0) {
+                    Varint.writeUnsigned(buffer, i - last);
+                    Varint.writeUnsigned(buffer, bins[i]);
+                    last = i;
+                }
+            }
+            out.writeLong(tileKeys[t]);
+            out.writeInt(buffer.position());
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Reads counts written by {@link #write}.
+     *
+     * @param in the source.
+     * @return the counts.
+     * @throws IOException if the source cannot be read or holds no counts.
+     */
+    public static HeatmapCounts read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a heatmap file");
+        }
+        HeatmapCounts counts = new HeatmapCounts();
+        int tiles = in.readInt();
+        byte[] bytes = new byte[0];
+        for (int t = 0; t < tiles; t++) {
+            long key = in.readLong();
+            int zoom = zoom(key);
+            int length = in.readInt();
+            if (zoom < MIN_ZOOM || zoom > MAX_ZOOM || length < 0
+                    || length > BINS * BINS * 2 * Varint.MAX_LONG_BYTES) {
+                throw new IOException("corrupt heatmap tile");
+            }
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            in.readFully(bytes, 0, length);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            int tile = counts.findOrAdd(key);
+            int[] bins = counts.tileBins[tile];
+            int index = -1;
+            try {
+                while (buffer.hasRemaining()) {
+                    index += (int) Varint.readUnsigned(buffer);
+                    int count = (int) Varint.readUnsigned(buffer);
+                    bins[index] = count;
+                    counts.maxCounts[zoom] = Math.max(counts.maxCounts[zoom], count);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("corrupt heatmap tile", e);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Marks the bin of a position at every zoom level.
+     *
+     * @param x the projected position, from west to east.
+     * @param y the projected position, from north to south.
+     */
+    private void mark(double x, double y) {
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            int last = (1 << (zoom + BINS_SHIFT)) - 1;
+            int binX = Math.min(last, (int) (x * (last + 1)));
+            int binY = Math.min(last, (int) (y * (last + 1)));
+            long key = tileKey(zoom, binX >>> BINS_SHIFT, binY >>> BINS_SHIFT);
+            int[] bins;
+            if (key == lastKeys[zoom]) {
+                bins = lastBins[zoom];
+            } else {
+                int tile = findOrAdd(key);
+                bins = tileBins[tile];
+                lastKeys[zoom] = key;
+                lastBins[zoom] = bins;
+            }
+            int bin = (binY & BIN_MASK) << BINS_SHIFT | (binX & BIN_MASK);
+            if (bins[bin] == 0) {
+                bins[bin] = 1;
+                maxCounts[zoom] = Math.max(maxCounts[zoom], 1);
+            }
+        }
+    }
+
+    /**
+     * @param key the tile key.
+     * @return the index of the tile, or {@link #NONE}.
+     */
+    private int find(long key) {
+        int mask = slotTiles.length - 1;
+        for (int slot = hash(key, mask); ; slot = (slot + 1) & mask) {
+            int tile = slotTiles[slot];
+            if (tile == NONE || slotKeys[slot] == key) {
+                return tile;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of a tile, adding an empty one if there is none.
+     *
+     * @param key the tile key.
+     * @return the index of the tile.
+     */
+    private int findOrAdd(long key) {
+        int mask = slotTiles.length - 1;
+        int slot = hash(key, mask);
+        while (slotTiles[slot] != NONE) {
+            if (slotKeys[slot] == key) {
+                return slotTiles[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int tile = tileCount++;
+        if (tile == tileKeys.length) {
+            tileKeys = Arrays.copyOf(tileKeys, tile * 2);
+            tileBins = Arrays.copyOf(tileBins, tile * 2);
+        }
+        tileKeys[tile] = key;
+        tileBins[tile] = new int[BINS * BINS];
+        slotKeys[slot] = key;
+        slotTiles[slot] = tile;
+        // At most half full, so probes stay short.
+        if (tileCount * 2 > slotTiles.length) {
+            rehash(slotTiles.length * 2);
+        }
+        return tile;
+    }
+
+    /**
+     * Moves the tiles to a map of a new capacity.
+     *
+     * @param capacity the number of slots, a power of two.
+     */
+    private void rehash(int capacity) {
+        slotKeys = new long[capacity];
+        slotTiles = new int[capacity];
+        Arrays.fill(slotTiles, NONE);
+        int mask = capacity - 1;
+        for (int tile = 0; tile < tileCount; tile++) {
+            int slot = hash(tileKeys[tile], mask);
+            while (slotTiles[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = tileKeys[tile];
+            slotTiles[slot] = tile;
+        }
+    }
+
+    /**
+     * @param key  the tile key.
+     * @param mask the mask of a slot index.
+     * @return the first slot probed for the key.
+     */
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.runtracker.heatmap;
+
+/**
+ * HeatmapRenderer draws a tile of a {@link HeatmapAggregator heatmap} into ARGB pixels.
+ * <p>
+ * Each counter of the tile becomes a square of pixels, colored on a logarithmic ramp from
+ * a faint red for a bin passed once to an opaque yellow for the most passed bin of the
+ * zoom level, so a daily loop does not wash out a route run a few times. Bins no session
+ * passed through stay transparent, for the tile to be drawn over a map or a plain
+ * background.
+ * </p>
+ * <p>
+ * A renderer reuses one array of counters, so it is used by one thread at a time.
+ * </p>
+ */
+public final class HeatmapRenderer {
+    /** Size of a tile side, in pixels. */
+    public static final int TILE_PIXELS = 256;
+
+    /** Size of a bin side, in pixels. */
+    private static final int BIN_PIXELS = TILE_PIXELS / HeatmapCounts.BINS;
+
+    /** Alpha of a bin passed once. */
+    private static final int MIN_ALPHA = 96;
+
+    /** Reused counters of the drawn tile. */
+    private final int[] bins = new int[HeatmapCounts.BINS * HeatmapCounts.BINS];
+
+    /**
+     * Draws a tile.
+     *
+     * @param heatmap the heatmap.
+     * @param key     the tile key, of a zoom level counted by {@link HeatmapCounts}.
+     * @param pixels  receives the ARGB pixels, {@link #TILE_PIXELS} rows of
+     *                {@link #TILE_PIXELS}; left as it was if the tile is empty.
+     * @return false if no session passed through the tile.
+     */
+    public boolean render(HeatmapAggregator heatmap, long key, int[] pixels) {
+        int max = heatmap.copyBins(key, bins);
+        if (max == 0) {
+            return false;
+        }
+        double scale = 1 / Math.log1p(max);
+        for (int binY = 0; binY < HeatmapCounts.BINS; binY++) {
+            for (int binX = 0; binX < HeatmapCounts.BINS; binX++) {
+                int count = bins[binY * HeatmapCounts.BINS + binX];
+                int color = count == 0 ? 0 : color(Math.log1p(count) * scale);
+                int first = binY * BIN_PIXELS * TILE_PIXELS + binX * BIN_PIXELS;
+                for (int row = 0; row < BIN_PIXELS; row++) {
+                    int start = first + row * TILE_PIXELS;
+                    for (int column = 0; column < BIN_PIXELS; column++) {
+                        pixels[start + column] = color;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param heat the heat of a bin, from 0 for the least passed to 1 for the most.
+     * @return the ARGB color of the bin.
+     */
+    static int color(double heat) {
+        int alpha = MIN_ALPHA + (int) Math.round((255 - MIN_ALPHA) * heat);
+        int green = (int) Math.round(224 * heat);
+        return alpha << 24 | 0xFF << 16 | green << 8 | 0x20;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.runtracker.heatmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileCache keeps the most recently drawn tiles within a memory budget.
+ * <p>
+ * Tiles are drawn on demand by a {@link Loader} the first time they are asked for, and
+ * kept by tile key in access order. When the tiles kept take more than the budget, the
+ * least recently used ones are dropped, so panning back and forth over a route draws
+ * each tile once while the memory stays capped however much of the map is visited.
+ * Tiles changed by a new session are dropped with {@link #invalidate}, and drawn again
+ * when next asked for.
+ * </p>
+ * <p>
+ * The methods are synchronized, so tiles may be invalidated from the thread updating the
+ * heatmap while another draws them.
+ * </p>
+ *
+ * @param <T> the type of a drawn tile, e.g. an array of pixels or a bitmap.
+ */
+public final class TileCache<T> {
+    /**
+     * Draws the tiles missing from the cache.
+     *
+     * @param <T> the type of a drawn tile.
+     */
+    public interface Loader<T> {
+        /**
+         * @param key the tile key.
+         * @return the drawn tile, or null if the tile is empty; empty tiles are not kept.
+         */
+        T load(long key);
+
+        /**
+         * @param tile a tile returned by {@link #load}.
+         * @return the memory taken by the tile, in bytes.
+         */
+        long sizeBytes(T tile);
+    }
+
+    /** Draws the missing tiles. */
+    private final Loader<T> loader;
+
+    /** Largest memory taken by the kept tiles, in bytes. */
+    private final long maxBytes;
+
+    /** The kept tiles, least recently used first. */
+    private final LinkedHashMap<Long, T> tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Memory taken by the kept tiles, in bytes. */
+    private long sizeBytes;
+
+    /** Number of tiles drawn by the loader. */
+    private int loadCount;
+
+    /**
+     * @param maxBytes largest memory taken by the kept tiles, in bytes.
+     * @param loader   draws the missing tiles.
+     */
+    public TileCache(long maxBytes, Loader<T> loader) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid budget " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns a tile, drawing it if it is not kept.
+     *
+     * @param key the tile key.
+     * @return the tile, or null if it is empty.
+     */
+    public synchronized T get(long key) {
+        T tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        tile = loader.load(key);
+        loadCount++;
+        if (tile != null) {
+            tiles.put(key, tile);
+            sizeBytes += loader.sizeBytes(tile);
+            trim();
+        }
+        return tile;
+    }
+
+    /**
+     * Drops tiles, e.g. those changed by a new session.
+     *
+     * @param keys the tile keys; those not kept are ignored.
+     */
+    public synchronized void invalidate(long[] keys) {
+        for (long key : keys) {
+            T tile = tiles.remove(key);
+            if (tile != null) {
+                sizeBytes -= loader.sizeBytes(tile);
+            }
+        }
+    }
+
+    /** Drops every tile. */
+    public synchronized void clear() {
+        tiles.clear();
+        sizeBytes = 0;
+    }
+
+    /** @return the number of kept tiles. */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /** @return the memory taken by the kept tiles, in bytes. */
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /** @return the number of tiles drawn by the loader so far. */
+    public synchronized int loadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Drops the least recently used tiles until the kept ones fit the budget.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Long, T>> eldest = tiles.entrySet().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            sizeBytes -= loader.sizeBytes(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.runtracker.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BestEffortFinder keeps the personal bests over all recorded sessions: for each target
+ * distance, e.g. 1 km, 5 km and 10 km, the fastest continuous stretch of any session
+ * covering it.
+ * <p>
+ * Each session is scanned by {@link SessionProfile#scan} in one two-pointer pass per
+ * target over its primitive distance and time arrays, with the start of the window
+ * interpolated between fixes like a lap split. Sessions are independent, so a batch is
+ * scanned in parallel with fork-join: the batch is split in halves down to a few
+ * sessions, each loaded and scanned on a worker, and the bests of the halves are merged
+ * on the way back. The finder is incremental: it remembers the keys of the scanned
+ * sessions, so adding the whole history again only scans the new sessions and merges
+ * them into the cached bests.
+ * </p>
+ * <p>
+ * The finder is saved to a file with {@link #write(File)}, with the keys of the scanned
+ * sessions, so the track files of the history are scanned only once, not again on every
+ * start of the app.
+ * </p>
+ * <p>
+ * The methods are synchronized, so a batch is added by one thread at a time and the
+ * bests are read consistently from any thread.
+ * </p>
+ */
+public final class BestEffortFinder {
+    /** Time of a target that no session covered yet. */
+    public static final long NO_EFFORT = -1;
+
+    /** Default target distances: 1 km, 5 km and 10 km. */
+    private static final double[] DEFAULT_TARGETS_METERS = {1000, 5000, 10_000};
+
+    /** Largest number of sessions scanned by a task without splitting it. */
+    static final int LEAF_SESSIONS = 4;
+
+    /** Identifies a bests file, "RTBE". */
+    private static final int MAGIC = 0x52544245;
+
+    /** Current version of the file format; 2 since gaps in a session are not counted. */
+    private static final int VERSION = 2;
+
+    /**
+     * Session to scan, loaded by the worker that scans it.
+     */
+    public interface ProfileSource {
+        /** @return the key of the session, the same every time it is added. */
+        String key();
+
+        /**
+         * @return the profile of the session.
+         * @throws IOException if the session cannot be read; it is skipped and tried again
+         *                     when added next.
+         */
+        SessionProfile load() throws IOException;
+    }
+
+    /** Pool running the scans. */
+    private final ForkJoinPool pool;
+
+    /** Target distances, in meters. */
+    private final double[] targets;
+
+    /** Bests over the scanned sessions. */
+    private final Efforts bests;
+
+    /** Keys of the scanned sessions. */
+    private final Set<String> scanned;
+
+    /**
+     * Creates a finder of the 1 km, 5 km and 10 km bests on the common pool.
+     */
+    public BestEffortFinder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_TARGETS_METERS);
+    }
+
+    /**
+     * @param pool          pool running the scans.
+     * @param targetsMeters target distances, in meters, all positive.
+     */
+    public BestEffortFinder(ForkJoinPool pool, double... targetsMeters) {
+        for (double target : targetsMeters) {
+            if (!(target > 0)) {
+                throw new IllegalArgumentException("invalid target distance " + target);
+            }
+        }
+        this.pool = pool;
+        targets = targetsMeters.clone();
+        bests = new Efforts(targets.length);
+        scanned = new HashSet<>();
+    }
+
+    /**
+     * @param pool    pool running the scans.
+     * @param targets target distances, in meters.
+     * @param bests   bests over the scanned sessions.
+     * @param scanned keys of the scanned sessions.
+     */
+    private BestEffortFinder(ForkJoinPool pool, double[] targets, Efforts bests, Set<String> scanned) {
+        this.pool = pool;
+        this.targets = targets;
+        this.bests = bests;
+        this.scanned = scanned;
+    }
+
+    /**
+     * Scans the sessions not scanned yet, in parallel, and merges them into the bests.
+     *
+     * @param sessions the sessions, e.g. the whole history; those already scanned are
+     *                 skipped.
+     * @return the number of sessions scanned.
+     */
+    public synchronized int add(List<? extends ProfileSource> sessions) {
+        List<ProfileSource> fresh = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (ProfileSource session : sessions) {
+            if (!scanned.contains(session.key()) && keys.add(session.key())) {
+                fresh.add(session);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return 0;
+        }
+        Efforts found = pool.invoke(new ScanTask(targets, fresh, 0, fresh.size()));
+        bests.merge(found);
+        scanned.addAll(found.scannedKeys);
+        return found.scannedKeys.size();
+    }
+
+    /** @return the number of target distances. */
+    public int targetCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param target the index of the target.
+     * @return the target distance, in meters.
+     */
+    public double targetMeters(int target) {
+        return targets[target];
+    }
+
+    /**
+     * @param target the index of the target.
+     * @return the fastest time over the target distance, in nanoseconds, or
+     *         {@link #NO_EFFORT}.
+     */
+    public synchronized long bestNanos(int target) {
+        return bests.nanos[target];
+    }
+
+    /**
+     * @param target the index of the target.
+     * @return the key of the session of the best, or null if there is none.
+     */
+    public synchronized String bestSessionKey(int target) {
+        return bests.keys[target];
+    }
+
+    /** @return the number of sessions scanned so far. */
+    public synchronized int scannedCount() {
+        return scanned.size();
+    }
+
+    /**
+     * Saves the targets, the bests and the keys of the scanned sessions. The file is
+     * replaced at once, so a crash while saving leaves the previous one.
+     *
+     * @param file the destination.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(targets.length);
+            for (int t = 0; t < targets.length; t++) {
+                out.writeDouble(targets[t]);
+                out.writeLong(bests.nanos[t]);
+                out.writeBoolean(bests.keys[t] != null);
+                if (bests.keys[t] != null) {
+                    out.writeUTF(bests.keys[t]);
+                }
+            }
+            out.writeInt(scanned.size());
+            for (String key : scanned) {
+                out.writeUTF(key);
+            }
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * Reads a finder saved by {@link #write(File)}, with the targets it was saved with.
+     *
+     * @param file the saved finder.
+     * @param pool pool running the scans of the sessions added next.
+     * @return the finder.
+     * @throws IOException if the file cannot be read or holds no bests, e.g. of an older
+     *                     version; the history is then scanned again.
+     */
+    public static BestEffortFinder read(File file, ForkJoinPool pool) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a bests file");
+            }
+            int targetCount = in.readInt();
+            if (targetCount <= 0 || targetCount > 64) {
+                throw new IOException("not a bests file");
+            }
+            double[] targets = new double[targetCount];
+            Efforts bests = new Efforts(targetCount);
+            for (int t = 0; t < targetCount; t++) {
+                targets[t] = in.readDouble();
+                bests.nanos[t] = in.readLong();
+                bests.keys[t] = in.readBoolean() ? in.readUTF() : null;
+                if (!(targets[t] > 0)) {
+                    throw new IOException("invalid target distance " + targets[t]);
+                }
+            }
+            int sessions = in.readInt();
+            if (sessions < 0) {
+                throw new IOException("not a bests file");
+            }
+            Set<String> scanned = new HashSet<>();
+            for (int i = 0; i < sessions; i++) {
+                scanned.add(in.readUTF());
+            }
+            return new BestEffortFinder(pool, targets, bests, scanned);
+        }
+    }
+
+    /**
+     * Bests of some sessions, with the sessions they come from.
+     */
+    private static final class Efforts {
+        /** Fastest time of each target, in nanoseconds, or {@link #NO_EFFORT}. */
+        final long[] nanos;
+
+        /** Key of the session of each best, or null. */
+        final String[] keys;
+
+        /** Keys of the sessions scanned into these bests. */
+        final List<String> scannedKeys = new ArrayList<>();
+
+        /**
+         * @param targetCount the number of targets.
+         */
+        Efforts(int targetCount) {
+            nanos = new long[targetCount];
+            keys = new String[targetCount];
+            Arrays.fill(nanos, NO_EFFORT);
+        }
+
+        /**
+         * Keeps the faster of these bests and others.
+         *
+         * @param other the other bests.
+         */
+        void merge(Efforts other) {
+            for (int t = 0; t < nanos.length; t++) {
+                if (other.nanos[t] != NO_EFFORT && (nanos[t] == NO_EFFORT || other.nanos[t] < nanos[t])) {
+                    nanos[t] = other.nanos[t];
+                    keys[t] = other.keys[t];
+                }
+            }
+            scannedKeys.addAll(other.scannedKeys);
+        }
+    }
+
+    /**
+     * Fork-join task scanning a range of the sessions.
+     */
+    private static final class ScanTask extends RecursiveTask<Efforts> {
+        /** Target distances, in meters. */
+        private final double[] targets;
+
+        /** The sessions of the batch. */
+        private final List<ProfileSource> sessions;
+
+        /** First session of the range. */
+        private final int from;
+
+        /** End of the range, exclusive. */
+        private final int to;
+
+        /**
+         * @param targets  target distances, in meters.
+         * @param sessions the sessions of the batch.
+         * @param from     first session of the range.
+         * @param to       end of the range, exclusive.
+         */
+        ScanTask(double[] targets, List<ProfileSource> sessions, int from, int to) {
+            this.targets = targets;
+            this.sessions = sessions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Efforts compute() {
+            if (to - from > LEAF_SESSIONS) {
+                int middle = (from + to) >>> 1;
+                ScanTask left = new ScanTask(targets, sessions, from, middle);
+                left.fork();
+                Efforts right = new ScanTask(targets, sessions, middle, to).compute();
+                Efforts efforts = left.join();
+                efforts.merge(right);
+                return efforts;
+            }
+            Efforts efforts = new Efforts(targets.length);
+            long[] session = new long[targets.length];
+            for (int i = from; i < to; i++) {
+                ProfileSource source = sessions.get(i);
+                SessionProfile profile;
+                try {
+                    profile = source.load();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                Arrays.fill(session, NO_EFFORT);
+                profile.scan(targets, session);
+                for (int t = 0; t < targets.length; t++) {
+                    if (session[t] != NO_EFFORT
+                            && (efforts.nanos[t] == NO_EFFORT || session[t] < efforts.nanos[t])) {
+                        efforts.nanos[t] = session[t];
+                        efforts.keys[t] = source.key();
+                    }
+                }
+                efforts.scannedKeys.add(source.key());
+            }
+            return efforts;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.runtracker.history;
+
+import com.example.runtracker.display.MetricsTextFormatter;
+import com.example.runtracker.metrics.LapEngine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SessionAggregator keeps the aggregates of a session that the history stores besides
+ * its totals: the fastest kilometer and mile splits.
+ * <p>
+ * The splits are the whole kilometers and miles counted from the start, whatever unit
+ * is shown and whatever laps the user ends by hand. It is fed the same running totals as
+ * the {@link LapEngine} of the display and works incrementally, so the summary is ready
+ * the moment the session ends. It is confined to the processing thread.
+ * </p>
+ */
+public final class SessionAggregator {
+    /** Size of the state written by {@link #writeState}. */
+    public static final int STATE_BYTES = 8 + 8 + 2 * LapEngine.stateBytes(1);
+
+    /** Whole-kilometer splits. */
+    private final LapEngine kilometers = new LapEngine(MetricsTextFormatter.METERS_PER_KILOMETER);
+
+    /** Whole-mile splits. */
+    private final LapEngine miles = new LapEngine(MetricsTextFormatter.METERS_PER_MILE);
+
+    /** Fastest kilometer split, in nanoseconds, or {@link SessionSummary#NO_SPLIT}. */
+    private long bestKilometerNanos = SessionSummary.NO_SPLIT;
+
+    /** Fastest mile split, in nanoseconds, or {@link SessionSummary#NO_SPLIT}. */
+    private long bestMileNanos = SessionSummary.NO_SPLIT;
+
+    /**
+     * Advances to the current session totals.
+     *
+     * @param distanceMeters total distance of the session, in meters.
+     * @param timeNanos      total time of the session, in nanoseconds.
+     */
+    public void update(double distanceMeters, long timeNanos) {
+        int ended = kilometers.update(distanceMeters, timeNanos);
+        if (ended > 0) {
+            bestKilometerNanos = fastest(kilometers, ended, bestKilometerNanos);
+        }
+        ended = miles.update(distanceMeters, timeNanos);
+        if (ended > 0) {
+            bestMileNanos = fastest(miles, ended, bestMileNanos);
+        }
+    }
+
+    /** Clears the aggregates for a new session. */
+    public void reset() {
+        kilometers.reset();
+        miles.reset();
+        bestKilometerNanos = SessionSummary.NO_SPLIT;
+        bestMileNanos = SessionSummary.NO_SPLIT;
+    }
+
+    /**
+     * Writes the aggregates in a fixed layout of {@link #STATE_BYTES}. Only the end of
+     * the last split is needed to time the next one.
+     *
+     * @param out the destination.
+     */
+    public void writeState(ByteBuffer out) {
+        out.putLong(bestKilometerNanos).putLong(bestMileNanos);
+        kilometers.writeState(out, 1);
+        miles.writeState(out, 1);
+    }
+
+    /**
+     * Restores the aggregates written by {@link #writeState}.
+     *
+     * @param in the source, positioned at the state; left after it.
+     */
+    public void readState(ByteBuffer in) {
+        bestKilometerNanos = in.getLong();
+        bestMileNanos = in.getLong();
+        kilometers.readState(in, 1);
+        miles.readState(in, 1);
+    }
+
+    /** @return the fastest kilometer split, in nanoseconds, or {@link SessionSummary#NO_SPLIT}. */
+    public long bestKilometerNanos() {
+        return bestKilometerNanos;
+    }
+
+    /** @return the fastest mile split, in nanoseconds, or {@link SessionSummary#NO_SPLIT}. */
+    public long bestMileNanos() {
+        return bestMileNanos;
+    }
+
+    /**
+     * Returns the fastest of a best split and the splits just ended.
+     *
+     * @param splits the splits.
+     * @param ended  the number of splits just ended.
+     * @param best   the best split so far, or {@link SessionSummary#NO_SPLIT}.
+     * @return the new best split.
+     */
+    private static long fastest(LapEngine splits, int ended, long best) {
+        for (int i = splits.lapCount() - ended; i < splits.lapCount(); i++) {
+            long nanos = splits.lapNanos(i);
+            if (best == SessionSummary.NO_SPLIT || nanos < best) {
+                best = nanos;
+            }
+        }
+        return best;
+    }
+}
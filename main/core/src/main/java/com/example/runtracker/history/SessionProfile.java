@@ -0,0 +1,244 @@
+package com.example.runtracker.history;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.replay.TraceSource;
+import com.example.runtracker.replay.TrackFileTrace;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SessionProfile is the distance and time profile of a recorded session: for each fix,
+ * the distance covered since the start and the fix timestamp, in two primitive arrays.
+ * <p>
+ * It is what the {@link BestEffortFinder} scans. A profile is built once from the fixes
+ * of the session, from a track file or straight from the {@link TrackBuffer} of the
+ * recorder, and is immutable afterwards, so any thread may scan it.
+ * </p>
+ * <p>
+ * A track has no fixes while the session is paused, by the user or automatically, so
+ * the step from the last fix before a pause to the first after it may span anything,
+ * e.g. a bus ride. Like the metrics, which break their segment on a pause, the profile
+ * does not count the distance of a step longer than {@link #MAX_STEP_NANOS} or faster
+ * than {@link #MAX_SPEED_MPS}: the time of the gap stays in the profile, so a window
+ * across it is only ever slower.
+ * </p>
+ */
+public final class SessionProfile implements BestEffortFinder.ProfileSource {
+    /** Longest time between two fixes whose distance is counted, in nanoseconds. */
+    public static final long MAX_STEP_NANOS = 30_000_000_000L;
+
+    /** Largest speed between two fixes whose distance is counted, in meters per second. */
+    public static final double MAX_SPEED_MPS = 10;
+
+    /** Key of the session, e.g. the name of its track file. */
+    private final String key;
+
+    /** Distance since the first fix at each fix, in meters; never decreasing. */
+    private final double[] distances;
+
+    /** Timestamp of each fix, in nanoseconds. */
+    private final long[] nanos;
+
+    /** Number of fixes. */
+    private final int count;
+
+    /**
+     * @param key       key of the session.
+     * @param distances distance since the first fix at each fix, in meters, never
+     *                  decreasing; kept, not copied.
+     * @param nanos     timestamp of each fix, in nanoseconds; kept, not copied.
+     * @param count     number of fixes in the arrays.
+     */
+    public SessionProfile(String key, double[] distances, long[] nanos, int count) {
+        if (count < 0 || count > distances.length || count > nanos.length) {
+            throw new IllegalArgumentException("count out of range");
+        }
+        this.key = key;
+        this.distances = distances;
+        this.nanos = nanos;
+        this.count = count;
+    }
+
+    /**
+     * Builds the profile of the fixes of a track buffer.
+     *
+     * @param key   key of the session.
+     * @param track the fixes.
+     * @return the profile.
+     */
+    public static SessionProfile of(String key, TrackBuffer track) {
+        int count = track.size();
+        double[] distances = new double[count];
+        long[] nanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            nanos[i] = track.elapsedRealtimeNanos(i);
+            if (i > 0) {
+                distances[i] = distances[i - 1] + stepMeters(track.latitude(i - 1), track.longitude(i - 1),
+                        nanos[i - 1], track.latitude(i), track.longitude(i), nanos[i]);
+            }
+        }
+        return new SessionProfile(key, distances, nanos, count);
+    }
+
+    /**
+     * Builds the profile of the fixes of a trace, read to its end.
+     *
+     * @param key   key of the session.
+     * @param trace the fixes; not closed.
+     * @return the profile.
+     * @throws IOException if the trace cannot be read.
+     */
+    public static SessionProfile read(String key, TraceSource trace) throws IOException {
+        double[] distances = new double[1024];
+        long[] nanos = new long[1024];
+        int count = 0;
+        FixSample sample = new FixSample();
+        double lastLatitude = 0;
+        double lastLongitude = 0;
+        while (trace.next(sample)) {
+            if (count == nanos.length) {
+                distances = Arrays.copyOf(distances, count * 2);
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count] = sample.elapsedRealtimeNanos;
+            if (count > 0) {
+                distances[count] = distances[count - 1] + stepMeters(lastLatitude, lastLongitude,
+                        nanos[count - 1], sample.latitude, sample.longitude, nanos[count]);
+            }
+            lastLatitude = sample.latitude;
+            lastLongitude = sample.longitude;
+            count++;
+        }
+        return new SessionProfile(key, distances, nanos, count);
+    }
+
+    /**
+     * @param latitude      latitude of the previous fix, in degrees.
+     * @param longitude     longitude of the previous fix, in degrees.
+     * @param nanos         timestamp of the previous fix, in nanoseconds.
+     * @param nextLatitude  latitude of the fix, in degrees.
+     * @param nextLongitude longitude of the fix, in degrees.
+     * @param nextNanos     timestamp of the fix, in nanoseconds.
+     * @return the distance between the fixes, in meters, or 0 if the step is a gap in
+     *         the run rather than running.
+     */
+    private static double stepMeters(double latitude, double longitude, long nanos,
+                                     double nextLatitude, double nextLongitude, long nextNanos) {
+        long stepNanos = nextNanos - nanos;
+        if (stepNanos <= 0 || stepNanos > MAX_STEP_NANOS) {
+            return 0;
+        }
+        double meters = RunMetrics.haversineMeters(latitude, longitude, nextLatitude, nextLongitude);
+        return meters > MAX_SPEED_MPS * stepNanos / 1e9 ? 0 : meters;
+    }
+
+    /**
+     * Builds the profile of a track file, keyed by the file name.
+     *
+     * @param file the track file.
+     * @return the profile.
+     * @throws IOException if the file cannot be read or is not a track file.
+     */
+    public static SessionProfile read(File file) throws IOException {
+        try (TrackFileTrace trace = new TrackFileTrace(file)) {
+            return read(file.getName(), trace);
+        }
+    }
+
+    /**
+     * Returns a source that reads the profile of a track file when it is scanned, keyed
+     * by the file name.
+     *
+     * @param file the track file.
+     * @return the source.
+     */
+    public static BestEffortFinder.ProfileSource trackFile(File file) {
+        return new BestEffortFinder.ProfileSource() {
+            @Override
+            public String key() {
+                return file.getName();
+            }
+
+            @Override
+            public SessionProfile load() throws IOException {
+                return read(file);
+            }
+        };
+    }
+
+    @Override
+    public String key() {
+        return key;
+    }
+
+    /** @return this profile, already built. */
+    @Override
+    public SessionProfile load() {
+        return this;
+    }
+
+    /** @return the number of fixes. */
+    public int size() {
+        return count;
+    }
+
+    /** @return the distance of the session, in meters. */
+    public double distanceMeters() {
+        return count > 0 ? distances[count - 1] : 0;
+    }
+
+    /**
+     * @param index the fix, below {@link #size()}.
+     * @return the distance since the first fix, in meters.
+     */
+    public double distance(int index) {
+        return distances[index];
+    }
+
+    /**
+     * @param index the fix, below {@link #size()}.
+     * @return the fix timestamp, in nanoseconds.
+     */
+    public long nanos(int index) {
+        return nanos[index];
+    }
+
+    /**
+     * Finds the fastest window of the session covering each target distance, in one
+     * two-pointer pass per target over the primitive arrays.
+     *
+     * @param targets target distances, in meters, all positive.
+     * @param best    fastest time of each target so far, in nanoseconds, or
+     *                {@link BestEffortFinder#NO_EFFORT}; lowered where the session is
+     *                faster.
+     */
+    void scan(double[] targets, long[] best) {
+        for (int t = 0; t < targets.length; t++) {
+            double target = targets[t];
+            long fastest = best[t];
+            int start = 0;
+            for (int end = 1; end < count; end++) {
+                double from = distances[end] - target;
+                if (from < 0) {
+                    continue;
+                }
+                // The start of the window only moves forward as its end does.
+                while (distances[start + 1] <= from) {
+                    start++;
+                }
+                double span = distances[start + 1] - distances[start];
+                long startNanos = nanos[start]
+                        + (long) ((from - distances[start]) / span * (nanos[start + 1] - nanos[start]));
+                long time = nanos[end] - startNanos;
+                if (fastest == BestEffortFinder.NO_EFFORT || time < fastest) {
+                    fastest = time;
+                }
+            }
+            best[t] = fastest;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.runtracker.history;
+
+/**
+ * SessionSink receives the summary of every session that ends, e.g. to store it in the
+ * history.
+ */
+public interface SessionSink {
+    /**
+     * Called once a session ended, on the processing thread; must not block it.
+     *
+     * @param summary the summary of the session.
+     */
+    void onSessionEnded(SessionSummary summary);
+}
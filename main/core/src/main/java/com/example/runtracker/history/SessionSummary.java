@@ -0,0 +1,145 @@
+package com.example.runtracker.history;
+
+/**
+ * SessionSummary is the immutable record of a finished session kept in the history.
+ * <p>
+ * It holds the session metadata and the aggregates computed while the session was
+ * recorded, so that the history can be listed without reading any track file. Times
+ * exclude pauses, like the session metrics.
+ * </p>
+ */
+public final class SessionSummary {
+    /** Value of a best split that the session did not cover. */
+    public static final long NO_SPLIT = -1;
+
+    /** Row id in the history, or 0 if not stored yet. */
+    public final long id;
+
+    /** Wall clock time at which the session started, in milliseconds since the epoch. */
+    public final long startEpochMillis;
+
+    /** Name of the session track file, or null if the session was not saved to a file. */
+    public final String trackFileName;
+
+    /** Total distance, in meters. */
+    public final double distanceMeters;
+
+    /** Duration, in nanoseconds. */
+    public final long durationNanos;
+
+    /** Moving time, in nanoseconds. */
+    public final long movingNanos;
+
+    /** Number of recorded fixes. */
+    public final int fixCount;
+
+    /** Number of laps ended. */
+    public final int lapCount;
+
+    /** Time of the fastest whole-kilometer split, in nanoseconds, or {@link #NO_SPLIT}. */
+    public final long bestKilometerNanos;
+
+    /** Time of the fastest whole-mile split, in nanoseconds, or {@link #NO_SPLIT}. */
+    public final long bestMileNanos;
+
+    /** Total climb, in meters, or NaN if the fixes had no altitude. */
+    public final double elevationGainMeters;
+
+    /**
+     * Creates a summary from the values collected in a builder.
+     *
+     * @param builder the builder holding the values.
+     */
+    private SessionSummary(Builder builder) {
+        id = builder.id;
+        startEpochMillis = builder.startEpochMillis;
+        trackFileName = builder.trackFileName;
+        distanceMeters = builder.distanceMeters;
+        durationNanos = builder.durationNanos;
+        movingNanos = builder.movingNanos;
+        fixCount = builder.fixCount;
+        lapCount = builder.lapCount;
+        bestKilometerNanos = builder.bestKilometerNanos;
+        bestMileNanos = builder.bestMileNanos;
+        elevationGainMeters = builder.elevationGainMeters;
+    }
+
+    /**
+     * Builder collecting the values of a summary.
+     */
+    public static final class Builder {
+        private long id;
+        private long startEpochMillis;
+        private String trackFileName;
+        private double distanceMeters;
+        private long durationNanos;
+        private long movingNanos;
+        private int fixCount;
+        private int lapCount;
+        private long bestKilometerNanos = NO_SPLIT;
+        private long bestMileNanos = NO_SPLIT;
+        private double elevationGainMeters = Double.NaN;
+
+        /**
+         * @param id row id in the history, or 0 if not stored yet.
+         * @return this builder.
+         */
+        public Builder id(long id) {
+            this.id = id;
+            return this;
+        }
+
+        /**
+         * @param startEpochMillis start of the session, in milliseconds since the epoch.
+         * @param trackFileName    name of the track file, or null.
+         * @return this builder.
+         */
+        public Builder session(long startEpochMillis, String trackFileName) {
+            this.startEpochMillis = startEpochMillis;
+            this.trackFileName = trackFileName;
+            return this;
+        }
+
+        /**
+         * @param distanceMeters total distance, in meters.
+         * @param durationNanos  duration, in nanoseconds.
+         * @param movingNanos    moving time, in nanoseconds.
+         * @param fixCount       number of recorded fixes.
+         * @return this builder.
+         */
+        public Builder totals(double distanceMeters, long durationNanos, long movingNanos, int fixCount) {
+            this.distanceMeters = distanceMeters;
+            this.durationNanos = durationNanos;
+            this.movingNanos = movingNanos;
+            this.fixCount = fixCount;
+            return this;
+        }
+
+        /**
+         * @param lapCount           number of laps ended.
+         * @param bestKilometerNanos fastest kilometer split, in nanoseconds, or {@link #NO_SPLIT}.
+         * @param bestMileNanos      fastest mile split, in nanoseconds, or {@link #NO_SPLIT}.
+         * @return this builder.
+         */
+        public Builder splits(int lapCount, long bestKilometerNanos, long bestMileNanos) {
+            this.lapCount = lapCount;
+            this.bestKilometerNanos = bestKilometerNanos;
+            this.bestMileNanos = bestMileNanos;
+            return this;
+        }
+
+        /**
+         * @param elevationGainMeters total climb, in meters, or NaN if unknown.
+         * @return this builder.
+         */
+        public Builder elevationGain(double elevationGainMeters) {
+            this.elevationGainMeters = elevationGainMeters;
+            return this;
+        }
+
+        /** @return a new immutable summary. */
+        public SessionSummary build() {
+            return new SessionSummary(this);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.runtracker.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LapEngine splits a session into laps, ended by hand or automatically every given
+ * distance, e.g. every kilometer or mile.
+ * <p>
+ * It is fed the running totals of the session after each fix and works incrementally:
+ * an automatic lap ends where the distance crosses the next multiple of the lap length
+ * counted from the end of the previous lap, at a time interpolated between the two fixes
+ * around the crossing, so split times do not depend on the fix rate. A manual lap ends
+ * at the current totals and restarts the count of the automatic laps. The ends of the
+ * laps are kept in growing arrays, so a lap costs no allocation once they have grown.
+ * </p>
+ * <p>
+ * Distances and times are session totals, normally the distance and the elapsed time of
+ * {@link RunMetrics}, which exclude pauses. The engine is confined to one thread.
+ * </p>
+ * <p>
+ * The laps are saved with {@link #writeState} in a fixed layout that keeps the ends of
+ * the last laps only, so its size does not grow with the session.
+ * </p>
+ */
+public final class LapEngine {
+    /** Bytes of one saved lap end: distance, time and the manual flag. */
+    private static final int LAP_STATE_BYTES = 8 + 8 + 1;
+
+    /** Distance at the end of each lap, in meters. */
+    private double[] endDistances = new double[16];
+
+    /** Time at the end of each lap, in nanoseconds. */
+    private long[] endNanos = new long[16];
+
+    /** True for the laps ended by hand. */
+    private boolean[] manual = new boolean[16];
+
+    /** Number of laps ended. */
+    private int lapCount;
+
+    /** Length of the automatic laps, in meters; 0 for manual laps only. */
+    private double autoLapMeters;
+
+    /** Distance of the previous update, in meters. */
+    private double lastDistance;
+
+    /** Time of the previous update, in nanoseconds. */
+    private long lastNanos;
+
+    /**
+     * @param autoLapMeters length of the automatic laps, in meters; 0 for manual laps only.
+     */
+    public LapEngine(double autoLapMeters) {
+        setAutoLapMeters(autoLapMeters);
+    }
+
+    /**
+     * Changes the length of the automatic laps, e.g. when the display unit changes. The
+     * current lap ends at the new length.
+     *
+     * @param autoLapMeters length of the automatic laps, in meters; 0 for manual laps only.
+     */
+    public void setAutoLapMeters(double autoLapMeters) {
+        if (autoLapMeters < 0) {
+            throw new IllegalArgumentException("negative lap length: " + autoLapMeters);
+        }
+        this.autoLapMeters = autoLapMeters;
+    }
+
+    /** @return the length of the automatic laps, in meters; 0 for manual laps only. */
+    public double autoLapMeters() {
+        return autoLapMeters;
+    }
+
+    /**
+     * Advances to the current session totals, ending the automatic laps crossed since the
+     * previous update.
+     *
+     * @param distanceMeters total distance of the session, in meters.
+     * @param timeNanos      total time of the session, in nanoseconds.
+     * @return the number of automatic laps ended, normally 0 or 1.
+     */
+    public int update(double distanceMeters, long timeNanos) {
+        int ended = 0;
+        if (autoLapMeters > 0) {
+            double boundary = lapStartDistanceMeters() + autoLapMeters;
+            while (distanceMeters >= boundary) {
+                long crossingNanos = timeNanos;
+                if (distanceMeters > lastDistance && boundary > lastDistance) {
+                    double fraction = (boundary - lastDistance) / (distanceMeters - lastDistance);
+                    crossingNanos = lastNanos + Math.round((timeNanos - lastNanos) * fraction);
+                } else if (boundary <= lastDistance) {
+                    crossingNanos = lastNanos;
+                }
+                addLap(boundary, crossingNanos, false);
+                boundary += autoLapMeters;
+                ended++;
+            }
+        }
+        lastDistance = distanceMeters;
+        lastNanos = timeNanos;
+        return ended;
+    }
+
+    /**
+     * Ends the current lap by hand at the session totals of the last update.
+     */
+    public void lap() {
+        addLap(lastDistance, lastNanos, true);
+    }
+
+    /** Clears every lap for a new session. */
+    public void reset() {
+        lapCount = 0;
+        lastDistance = 0;
+        lastNanos = 0;
+    }
+
+    /**
+     * @param maxLaps the number of lap ends saved.
+     * @return the size of the state written by {@link #writeState} with that many laps.
+     */
+    public static int stateBytes(int maxLaps) {
+        return 4 + 8 + 8 + 8 + 8 + 8 + 4 + maxLaps * LAP_STATE_BYTES;
+    }
+
+    /**
+     * Writes the laps in a fixed layout of {@link #stateBytes} with the ends of the last
+     * {@code maxLaps} laps, padded when there are fewer.
+     *
+     * @param out     the destination.
+     * @param maxLaps the number of lap ends saved, at least 1.
+     */
+    public void writeState(ByteBuffer out, int maxLaps) {
+        int kept = Math.min(lapCount, maxLaps);
+        int first = lapCount - kept;
+        out.putInt(lapCount)
+                .putDouble(autoLapMeters)
+                .putDouble(lastDistance)
+                .putLong(lastNanos)
+                .putDouble(first == 0 ? 0 : endDistances[first - 1])
+                .putLong(first == 0 ? 0 : endNanos[first - 1])
+                .putInt(kept);
+        for (int i = 0; i < maxLaps; i++) {
+            boolean saved = i < kept;
+            out.putDouble(saved ? endDistances[first + i] : 0)
+                    .putLong(saved ? endNanos[first + i] : 0)
+                    .put((byte) (saved && manual[first + i] ? 1 : 0));
+        }
+    }
+
+    /**
+     * Restores the laps written by {@link #writeState}. The laps before the saved ones
+     * come back empty, ending where the first saved lap starts, so the lap count, the
+     * current lap and the saved laps are as they were.
+     *
+     * @param in      the source, positioned at the state; left after it.
+     * @param maxLaps the number of lap ends saved, as written.
+     */
+    public void readState(ByteBuffer in, int maxLaps) {
+        int count = in.getInt();
+        double autoLap = in.getDouble();
+        double distance = in.getDouble();
+        long nanos = in.getLong();
+        double baseDistance = in.getDouble();
+        long baseNanos = in.getLong();
+        int kept = in.getInt();
+        if (count < 0 || kept < 0 || kept > Math.min(count, maxLaps) || autoLap < 0) {
+            throw new IllegalArgumentException("invalid lap state");
+        }
+        reset();
+        setAutoLapMeters(autoLap);
+        for (int i = 0; i < count - kept; i++) {
+            addLap(baseDistance, baseNanos, false);
+        }
+        for (int i = 0; i < maxLaps; i++) {
+            double end = in.getDouble();
+            long endTime = in.getLong();
+            boolean isManual = in.get() != 0;
+            if (i < kept) {
+                addLap(end, endTime, isManual);
+            }
+        }
+        lastDistance = distance;
+        lastNanos = nanos;
+    }
+
+    /** @return the number of laps ended. */
+    public int lapCount() {
+        return lapCount;
+    }
+
+    /**
+     * @param index the lap, from 0 to {@link #lapCount()} - 1.
+     * @return the distance of the lap, in meters.
+     */
+    public double lapDistanceMeters(int index) {
+        checkIndex(index);
+        return endDistances[index] - (index == 0 ? 0 : endDistances[index - 1]);
+    }
+
+    /**
+     * @param index the lap, from 0 to {@link #lapCount()} - 1.
+     * @return the duration of the lap, in nanoseconds.
+     */
+    public long lapNanos(int index) {
+        checkIndex(index);
+        return endNanos[index] - (index == 0 ? 0 : endNanos[index - 1]);
+    }
+
+    /**
+     * @param index the lap, from 0 to {@link #lapCount()} - 1.
+     * @return true if the lap was ended by hand.
+     */
+    public boolean isManual(int index) {
+        checkIndex(index);
+        return manual[index];
+    }
+
+    /** @return the session distance at which the current lap started, in meters. */
+    public double lapStartDistanceMeters() {
+        return lapCount == 0 ? 0 : endDistances[lapCount - 1];
+    }
+
+    /** @return the session time at which the current lap started, in nanoseconds. */
+    public long lapStartNanos() {
+        return lapCount == 0 ? 0 : endNanos[lapCount - 1];
+    }
+
+    /** @return the distance of the current lap at the last update, in meters. */
+    public double currentLapDistanceMeters() {
+        return lastDistance - lapStartDistanceMeters();
+    }
+
+    /** @return the duration of the current lap at the last update, in nanoseconds. */
+    public long currentLapNanos() {
+        return lastNanos - lapStartNanos();
+    }
+
+    /**
+     * Appends the end of a lap.
+     *
+     * @param distanceMeters session distance at the end, in meters.
+     * @param timeNanos      session time at the end, in nanoseconds.
+     * @param isManual       true if ended by hand.
+     */
+    private void addLap(double distanceMeters, long timeNanos, boolean isManual) {
+        if (lapCount == endDistances.length) {
+            endDistances = Arrays.copyOf(endDistances, lapCount * 2);
+            endNanos = Arrays.copyOf(endNanos, lapCount * 2);
+            manual = Arrays.copyOf(manual, lapCount * 2);
+        }
+        endDistances[lapCount] = distanceMeters;
+        endNanos[lapCount] = timeNanos;
+        manual[lapCount] = isManual;
+        lapCount++;
+    }
+
+    /**
+     * @param index a lap index.
+     * @throws IndexOutOfBoundsException if there is no such lap.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= lapCount) {
+            throw new IndexOutOfBoundsException("lap " + index + " of " + lapCount);
+        }
+    }
+}
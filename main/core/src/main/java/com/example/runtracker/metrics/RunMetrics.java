@@ -0,0 +1,279 @@
+package com.example.runtracker.metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RunMetrics keeps the running totals of a session, updated in O(1) per fix.
+ * <p>
+ * Total distance is the sum of haversine distances between consecutive fixes, added with
+ * Neumaier compensated summation so hours of small steps do not accumulate rounding drift.
+ * Elapsed time sums the time between linked fixes; moving time only counts the steps
+ * faster than {@link #MOVING_SPEED_THRESHOLD_MPS}. Rolling pace covers the last
+ * {@link #ROLLING_WINDOW_NANOS} using a fixed ring of (time, distance) samples, so no
+ * summary value ever needs to rescan the recorded track.
+ * </p>
+ * <p>
+ * The totals and the previous fix are saved in a fixed layout with {@link #writeState},
+ * e.g. to a checkpoint, so a restored session goes on from the same distance and time.
+ * </p>
+ */
+public final class RunMetrics {
+    /** Mean Earth radius in meters. */
+    public static final double EARTH_RADIUS_M = 6_371_008.8;
+
+    /**
+     * Meters per degree of latitude on a sphere of {@link #EARTH_RADIUS_M}; times the
+     * cosine of the latitude, meters per degree of longitude.
+     */
+    public static final double METERS_PER_DEGREE = Math.toRadians(EARTH_RADIUS_M);
+
+    /** Steps slower than this speed, in meters per second, do not count as moving time. */
+    public static final double MOVING_SPEED_THRESHOLD_MPS = 0.5;
+
+    /** Length of the rolling pace window, in nanoseconds. */
+    public static final long ROLLING_WINDOW_NANOS = 30_000_000_000L;
+
+    /** Size of the state written by {@link #writeState}. */
+    public static final int STATE_BYTES = 4 * 8 + 1 + 4 * 8;
+
+    /** Capacity of the rolling window ring; enough for 30 seconds at 30 Hz. */
+    private static final int WINDOW_CAPACITY = 1024;
+
+    /** Sample times of the rolling window, in nanoseconds. */
+    private final long[] windowTimes = new long[WINDOW_CAPACITY];
+
+    /** Total distance at each rolling window sample, in meters. */
+    private final double[] windowDistances = new double[WINDOW_CAPACITY];
+
+    /** Index of the oldest rolling window sample. */
+    private int windowTail;
+
+    /** Number of rolling window samples. */
+    private int windowCount;
+
+    /** True if the next fix is linked to the previous one. */
+    private boolean hasLast;
+
+    /** Latitude of the previous fix, in radians. */
+    private double lastLatitudeRad;
+
+    /** Longitude of the previous fix, in radians. */
+    private double lastLongitudeRad;
+
+    /** Cosine of the previous latitude, kept to save one cos() per fix. */
+    private double lastCosLatitude;
+
+    /** Timestamp of the previous fix, in nanoseconds. */
+    private long lastTimeNanos;
+
+    /** Running sum of the step distances, in meters. */
+    private double distanceSum;
+
+    /** Neumaier compensation term of {@link #distanceSum}. */
+    private double distanceCompensation;
+
+    /** Time between linked fixes, in nanoseconds. */
+    private long elapsedNanos;
+
+    /** Time between linked fixes while moving, in nanoseconds. */
+    private long movingNanos;
+
+    /**
+     * Adds one fix.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param timeNanos fix timestamp in nanoseconds.
+     */
+    public void update(double latitude, double longitude, long timeNanos) {
+        double latitudeRad = Math.toRadians(latitude);
+        double longitudeRad = Math.toRadians(longitude);
+        double cosLatitude = Math.cos(latitudeRad);
+
+        if (hasLast) {
+            long dt = timeNanos - lastTimeNanos;
+            if (dt <= 0) {
+                // Duplicate or out of order fix: nothing to add.
+                return;
+            }
+            double step = haversine(lastLatitudeRad, lastLongitudeRad, lastCosLatitude,
+                    latitudeRad, longitudeRad, cosLatitude);
+            addDistance(step);
+            elapsedNanos += dt;
+            if (step * 1e9 >= MOVING_SPEED_THRESHOLD_MPS * dt) {
+                movingNanos += dt;
+            }
+        }
+
+        hasLast = true;
+        lastLatitudeRad = latitudeRad;
+        lastLongitudeRad = longitudeRad;
+        lastCosLatitude = cosLatitude;
+        lastTimeNanos = timeNanos;
+        pushWindowSample(timeNanos, distanceMeters());
+    }
+
+    /**
+     * Ends the current segment, e.g. on pause. The next fix starts a new segment and the
+     * gap between the two is not counted as distance or time.
+     */
+    public void breakSegment() {
+        hasLast = false;
+        windowCount = 0;
+    }
+
+    /** Clears every total for a new session. */
+    public void reset() {
+        breakSegment();
+        distanceSum = 0;
+        distanceCompensation = 0;
+        elapsedNanos = 0;
+        movingNanos = 0;
+    }
+
+    /**
+     * Writes the totals and the previous fix in a fixed layout of {@link #STATE_BYTES}.
+     * The rolling window is not saved.
+     *
+     * @param out the destination.
+     */
+    public void writeState(ByteBuffer out) {
+        out.putDouble(distanceSum)
+                .putDouble(distanceCompensation)
+                .putLong(elapsedNanos)
+                .putLong(movingNanos)
+                .put((byte) (hasLast ? 1 : 0))
+                .putDouble(lastLatitudeRad)
+                .putDouble(lastLongitudeRad)
+                .putDouble(lastCosLatitude)
+                .putLong(lastTimeNanos);
+    }
+
+    /**
+     * Restores the state written by {@link #writeState}. The rolling pace is unknown
+     * until the window fills again.
+     *
+     * @param in the source, positioned at the state; left after it.
+     */
+    public void readState(ByteBuffer in) {
+        reset();
+        distanceSum = in.getDouble();
+        distanceCompensation = in.getDouble();
+        elapsedNanos = in.getLong();
+        movingNanos = in.getLong();
+        hasLast = in.get() != 0;
+        lastLatitudeRad = in.getDouble();
+        lastLongitudeRad = in.getDouble();
+        lastCosLatitude = in.getDouble();
+        lastTimeNanos = in.getLong();
+    }
+
+    /** @return the total distance, in meters. */
+    public double distanceMeters() {
+        return distanceSum + distanceCompensation;
+    }
+
+    /** @return the time between linked fixes, in nanoseconds. */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** @return the moving time, in nanoseconds. */
+    public long movingNanos() {
+        return movingNanos;
+    }
+
+    /** @return the average pace over the moving time, in seconds per meter, or NaN before any distance. */
+    public double averagePaceSecondsPerMeter() {
+        double distance = distanceMeters();
+        return distance > 0 ? movingNanos / 1e9 / distance : Double.NaN;
+    }
+
+    /** @return the pace over the rolling window, in seconds per meter, or NaN if unknown. */
+    public double rollingPaceSecondsPerMeter() {
+        if (windowCount < 2) {
+            return Double.NaN;
+        }
+        int head = (windowTail + windowCount - 1) % WINDOW_CAPACITY;
+        double distance = windowDistances[head] - windowDistances[windowTail];
+        long time = windowTimes[head] - windowTimes[windowTail];
+        return distance > 0 ? time / 1e9 / distance : Double.NaN;
+    }
+
+    /**
+     * Great-circle distance between two points.
+     *
+     * @param latitude1  latitude of the first point, in degrees.
+     * @param longitude1 longitude of the first point, in degrees.
+     * @param latitude2  latitude of the second point, in degrees.
+     * @param longitude2 longitude of the second point, in degrees.
+     * @return the distance in meters.
+     */
+    public static double haversineMeters(double latitude1, double longitude1,
+                                         double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        return haversine(lat1, Math.toRadians(longitude1), Math.cos(lat1),
+                lat2, Math.toRadians(longitude2), Math.cos(lat2));
+    }
+
+    /**
+     * Great-circle distance between two points, with the latitude cosines precomputed.
+     *
+     * @param lat1    latitude of the first point, in radians.
+     * @param lon1    longitude of the first point, in radians.
+     * @param cosLat1 cosine of {@code lat1}.
+     * @param lat2    latitude of the second point, in radians.
+     * @param lon2    longitude of the second point, in radians.
+     * @param cosLat2 cosine of {@code lat2}.
+     * @return the distance in meters.
+     */
+    private static double haversine(double lat1, double lon1, double cosLat1,
+                                    double lat2, double lon2, double cosLat2) {
+        double sinHalfDLat = Math.sin((lat2 - lat1) * 0.5);
+        double sinHalfDLon = Math.sin((lon2 - lon1) * 0.5);
+        double a = sinHalfDLat * sinHalfDLat + cosLat1 * cosLat2 * sinHalfDLon * sinHalfDLon;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Adds a step to the total distance with Neumaier compensated summation.
+     *
+     * @param step the step distance in meters.
+     */
+    private void addDistance(double step) {
+        double sum = distanceSum + step;
+        if (Math.abs(distanceSum) >= Math.abs(step)) {
+            distanceCompensation += (distanceSum - sum) + step;
+        } else {
+            distanceCompensation += (step - sum) + distanceSum;
+        }
+        distanceSum = sum;
+    }
+
+    /**
+     * Appends a sample to the rolling window and drops samples older than the window.
+     *
+     * @param timeNanos the sample time, in nanoseconds.
+     * @param distance  the total distance at that time, in meters.
+     */
+    private void pushWindowSample(long timeNanos, double distance) {
+        if (windowCount == WINDOW_CAPACITY) {
+            windowTail = (windowTail + 1) % WINDOW_CAPACITY;
+            windowCount--;
+        }
+        int head = (windowTail + windowCount) % WINDOW_CAPACITY;
+        windowTimes[head] = timeNanos;
+        windowDistances[head] = distance;
+        windowCount++;
+        // Keep one sample at or before the window start so the window spans the full length.
+        while (windowCount > 2) {
+            int next = (windowTail + 1) % WINDOW_CAPACITY;
+            if (timeNanos - windowTimes[next] < ROLLING_WINDOW_NANOS) {
+                break;
+            }
+            windowTail = next;
+            windowCount--;
+        }
+    }
+}
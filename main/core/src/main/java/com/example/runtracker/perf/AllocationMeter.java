@@ -0,0 +1,13 @@
+package com.example.runtracker.perf;
+
+/**
+ * AllocationMeter reads how many bytes the calling thread has allocated.
+ * <p>
+ * Counting allocations slows the runtime down on Android, so a meter is only installed
+ * while the performance overlay is shown.
+ * </p>
+ */
+public interface AllocationMeter {
+    /** @return the bytes allocated by the calling thread so far. */
+    long allocatedBytes();
+}
@@ -0,0 +1,147 @@
+package com.example.runtracker.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram counts non-negative values, e.g. latencies in nanoseconds, in log-linear
+ * buckets like an HDR histogram.
+ * <p>
+ * Values below 64 get a bucket each; above that every power of two is split into 32
+ * buckets, so a percentile is within about 3% of the true value over the whole
+ * {@code long} range with a fixed table of 1888 counters. Recording is a few shifts and
+ * atomic increments: it takes no lock and allocates nothing, so it can stay on in
+ * production and be called from any thread. Reading walks the table and is meant for an
+ * overlay refreshed once a second or a dump; a percentile read while values are being
+ * recorded reflects some of them.
+ * </p>
+ */
+public final class Histogram {
+    /** Bits of the value kept below the leading one bit; sets the precision. */
+    static final int SUB_BUCKET_BITS = 5;
+
+    /** Buckets per power of two. */
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Number of buckets covering every non-negative {@code long}. */
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /** Number of values in each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Number of values recorded. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the values recorded. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values count as 0.
+     *
+     * @param value the value, e.g. a latency in nanoseconds.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /** @return the number of values recorded. */
+    public long count() {
+        return count.get();
+    }
+
+    /** @return the largest value recorded, or 0 if none. */
+    public long max() {
+        return max.get();
+    }
+
+    /** @return the mean of the values recorded, or 0 if none. */
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value at a percentile: the upper end of the bucket that holds it, capped
+     * at the largest value recorded.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     * @return the value at the percentile, or 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param index a bucket index, below {@link #BUCKET_COUNT}.
+     * @return the number of values in the bucket.
+     */
+    long bucketCount(int index) {
+        return counts.get(index);
+    }
+
+    /**
+     * Clears every count. Values recorded during the reset may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @param value a non-negative value.
+     * @return the index of the bucket holding it.
+     */
+    static int bucketIndex(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index a bucket index.
+     * @return the smallest value in the bucket.
+     */
+    static long lowestEquivalentValue(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * @param index a bucket index.
+     * @return the largest value in the bucket.
+     */
+    static long highestEquivalentValue(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
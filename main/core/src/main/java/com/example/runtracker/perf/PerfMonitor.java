@@ -0,0 +1,139 @@
+package com.example.runtracker.perf;
+
+import com.example.runtracker.clock.NanoClock;
+
+/**
+ * PerfMonitor holds the latency and allocation histograms of the hot path, from the fix
+ * timestamp of the receiver to the frame that shows it.
+ * <p>
+ * The stages record into it as they run: the {@code FixProcessor} when a fix is
+ * processed, the UI when a snapshot is rendered and when the timer ticks, and the
+ * pipeline around each batch. Every timestamp comes from the same clock as the fixes,
+ * the elapsed realtime on the device. Recording does not allocate and costs a clock read
+ * and a few atomic increments, so the monitor is on in production; only the allocation
+ * counting needs a meter, installed while the overlay is shown.
+ * </p>
+ */
+public final class PerfMonitor {
+    /** Monitor that records nothing. */
+    public static final PerfMonitor DISABLED = new PerfMonitor(null);
+
+    /** From the fix timestamp to the end of its processing, in nanoseconds. */
+    public final Histogram fixToProcess = new Histogram();
+
+    /** From the end of processing to the frame that renders the snapshot, in nanoseconds. */
+    public final Histogram processToRender = new Histogram();
+
+    /** From the fix timestamp to the frame that renders it, in nanoseconds. */
+    public final Histogram fixToRender = new Histogram();
+
+    /** Lateness of each timer tick against its schedule, in nanoseconds. */
+    public final Histogram timerDrift = new Histogram();
+
+    /** Bytes allocated on the pipeline thread per batch of fixes, while metered. */
+    public final Histogram batchAllocations = new Histogram();
+
+    /** Source of the timestamps, or null if disabled. */
+    private final NanoClock clock;
+
+    /** Meter of the allocations, or null while not metered. */
+    private volatile AllocationMeter allocationMeter;
+
+    /** Bytes allocated at the start of the current batch; pipeline thread only. */
+    private long batchStartBytes;
+
+    /** Meter read at the start of the current batch, or null; pipeline thread only. */
+    private AllocationMeter batchMeter;
+
+    /**
+     * @param clock the clock the fixes are stamped with.
+     */
+    public PerfMonitor(NanoClock clock) {
+        this.clock = clock;
+    }
+
+    /** @return true unless this is {@link #DISABLED}. */
+    public boolean isEnabled() {
+        return clock != null;
+    }
+
+    /** @return the current time on the clock of the fixes, in nanoseconds; 0 if disabled. */
+    public long now() {
+        return clock != null ? clock.nanoTime() : 0;
+    }
+
+    /**
+     * Records the end of the processing of a fix.
+     *
+     * @param fixNanos the fix timestamp, in elapsed realtime nanoseconds.
+     * @return the time processing ended, for the snapshot; 0 if disabled.
+     */
+    public long recordProcessed(long fixNanos) {
+        if (clock == null) {
+            return 0;
+        }
+        long now = clock.nanoTime();
+        fixToProcess.record(now - fixNanos);
+        return now;
+    }
+
+    /**
+     * Records the rendering of a snapshot.
+     *
+     * @param fixNanos       the fix timestamp, in elapsed realtime nanoseconds.
+     * @param processedNanos the time its processing ended, or 0 if not measured.
+     */
+    public void recordRendered(long fixNanos, long processedNanos) {
+        if (clock == null || processedNanos == 0) {
+            return;
+        }
+        long now = clock.nanoTime();
+        processToRender.record(now - processedNanos);
+        fixToRender.record(now - fixNanos);
+    }
+
+    /**
+     * Records a timer tick.
+     *
+     * @param scheduledNanos the time the tick was due, in elapsed realtime nanoseconds.
+     */
+    public void recordTimerTick(long scheduledNanos) {
+        if (clock != null) {
+            timerDrift.record(clock.nanoTime() - scheduledNanos);
+        }
+    }
+
+    /**
+     * Starts or stops counting the allocations of each batch.
+     *
+     * @param meter the meter, or null to stop counting.
+     */
+    public void setAllocationMeter(AllocationMeter meter) {
+        allocationMeter = meter;
+    }
+
+    /** Marks the start of a batch of fixes. Runs on the pipeline thread. */
+    public void beginBatch() {
+        batchMeter = allocationMeter;
+        if (batchMeter != null) {
+            batchStartBytes = batchMeter.allocatedBytes();
+        }
+    }
+
+    /** Records the allocations of the batch begun last. Runs on the pipeline thread. */
+    public void endBatch() {
+        if (batchMeter != null) {
+            batchAllocations.record(batchMeter.allocatedBytes() - batchStartBytes);
+            batchMeter = null;
+        }
+    }
+
+    /** Clears every histogram, e.g. before a measurement. */
+    public void reset() {
+        fixToProcess.reset();
+        processToRender.reset();
+        fixToRender.reset();
+        timerDrift.reset();
+        batchAllocations.reset();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.runtracker.perf;
+
+import com.example.runtracker.display.TextBuffer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * PerfReport formats the histograms of a {@link PerfMonitor}: a short summary for the
+ * overlay, built in a reusable buffer, and a full dump for a file.
+ */
+public final class PerfReport {
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Percentiles written to the dump. */
+    private static final double[] DUMP_PERCENTILES = {50, 90, 99, 99.9};
+
+    /** Labels of the histograms, in the order of {@link #histograms}. */
+    private static final String[] LABELS = {
+            "fix->process ", "process->frame", "fix->frame   ", "timer drift  ", "alloc/batch  "
+    };
+
+    /** The monitor reported on. */
+    private final PerfMonitor monitor;
+
+    /** Histograms of the monitor, in the order of {@link #LABELS}. */
+    private final Histogram[] histograms;
+
+    /** Buffer holding the summary. */
+    private final TextBuffer summary = new TextBuffer(256);
+
+    /**
+     * @param monitor the monitor to report on.
+     */
+    public PerfReport(PerfMonitor monitor) {
+        this.monitor = monitor;
+        histograms = new Histogram[] {
+                monitor.fixToProcess, monitor.processToRender, monitor.fixToRender,
+                monitor.timerDrift, monitor.batchAllocations
+        };
+    }
+
+    /**
+     * Formats the p50 and p99 of every histogram, one line each, e.g.
+     * {@code "fix->process  p50 1.2 ms p99 4.8 ms"}; the allocations are in bytes and only
+     * shown once counted.
+     *
+     * @return the buffer holding the text.
+     */
+    public TextBuffer formatSummary() {
+        summary.clear();
+        for (int i = 0; i < histograms.length; i++) {
+            Histogram histogram = histograms[i];
+            boolean bytes = histogram == monitor.batchAllocations;
+            if (bytes && histogram.count() == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append('\n');
+            }
+            summary.append(LABELS[i]).append(" p50 ");
+            appendValue(histogram.valueAtPercentile(50), bytes);
+            summary.append(" p99 ");
+            appendValue(histogram.valueAtPercentile(99), bytes);
+        }
+        return summary;
+    }
+
+    /**
+     * Writes the count, mean, percentiles and maximum of every histogram, followed by
+     * its non-empty buckets as lower bound and count, for analysis off the device.
+     *
+     * @param out the destination.
+     * @throws IOException if writing fails.
+     */
+    public void writeDump(Writer out) throws IOException {
+        for (int i = 0; i < histograms.length; i++) {
+            Histogram histogram = histograms[i];
+            boolean bytes = histogram == monitor.batchAllocations;
+            String unit = bytes ? "B" : "ms";
+            double scale = bytes ? 1 : NANOS_PER_MILLI;
+            out.write(LABELS[i].trim() + " (" + unit + ")\n");
+            out.write("  count " + histogram.count() + "\n");
+            out.write("  mean " + histogram.mean() / scale + "\n");
+            for (double percentile : DUMP_PERCENTILES) {
+                out.write("  p" + percentile + " " + histogram.valueAtPercentile(percentile) / scale + "\n");
+            }
+            out.write("  max " + histogram.max() / scale + "\n");
+            out.write(bytes ? "  buckets (B)" : "  buckets (ns)");
+            for (int b = 0; b < Histogram.BUCKET_COUNT; b++) {
+                long count = histogram.bucketCount(b);
+                if (count > 0) {
+                    out.write(" " + Histogram.lowestEquivalentValue(b) + ":" + count);
+                }
+            }
+            out.write("\n");
+        }
+    }
+
+    /**
+     * Appends a value in milliseconds with one decimal, or in bytes.
+     *
+     * @param value a latency in nanoseconds, or a number of bytes.
+     * @param bytes true if the value is in bytes.
+     */
+    private void appendValue(long value, boolean bytes) {
+        if (bytes) {
+            summary.append(value).append(" B");
+        } else {
+            summary.append(value / NANOS_PER_MILLI, 1).append(" ms");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.runtracker.perf;
+
+import com.example.runtracker.clock.NanoClock;
+import com.example.runtracker.display.TextBuffer;
+
+/**
+ * StartupTrace records when each phase of the app start is reached, from the start of
+ * the process, to show what the first frame waits for and what runs after it.
+ * <p>
+ * Each phase is marked once, the first time it is reached, in fixed arrays; marking it
+ * again or past {@link #MAX_PHASES} does nothing. The phases stay in the order they were
+ * reached, which tests check. The trace is used on the main thread only.
+ * </p>
+ */
+public final class StartupTrace {
+    /** Largest number of phases recorded. */
+    public static final int MAX_PHASES = 16;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Source of the timestamps. */
+    private final NanoClock clock;
+
+    /** Time the start is measured from, on {@link #clock}. */
+    private final long startNanos;
+
+    /** Names of the phases reached, in order. */
+    private final String[] phases = new String[MAX_PHASES];
+
+    /** Time each phase was reached, on {@link #clock}. */
+    private final long[] reachedNanos = new long[MAX_PHASES];
+
+    /** Number of phases reached. */
+    private int count;
+
+    /** Buffer holding the formatted trace. */
+    private final TextBuffer text = new TextBuffer(64 * MAX_PHASES);
+
+    /**
+     * @param clock      the source of the timestamps.
+     * @param startNanos the time the start is measured from on the clock, e.g. the start
+     *                   of the process.
+     */
+    public StartupTrace(NanoClock clock, long startNanos) {
+        this.clock = clock;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Marks a phase as reached now, unless it was already.
+     *
+     * @param phase the name of the phase.
+     */
+    public void mark(String phase) {
+        if (count == MAX_PHASES || indexOf(phase) >= 0) {
+            return;
+        }
+        reachedNanos[count] = clock.nanoTime();
+        phases[count++] = phase;
+    }
+
+    /** @return the number of phases reached. */
+    public int phaseCount() {
+        return count;
+    }
+
+    /**
+     * @param index the index of the phase, in the order reached.
+     * @return the name of the phase.
+     */
+    public String phase(int index) {
+        return phases[index];
+    }
+
+    /**
+     * @param phase the name of a phase.
+     * @return its index in the order reached, or -1 if not reached.
+     */
+    public int indexOf(String phase) {
+        for (int i = 0; i < count; i++) {
+            if (phases[i].equals(phase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the index of the phase, in the order reached.
+     * @return the time from the start to the phase, in nanoseconds.
+     */
+    public long elapsedNanos(int index) {
+        return reachedNanos[index] - startNanos;
+    }
+
+    /**
+     * @param index the index of the phase, in the order reached.
+     * @return the time from the previous phase, or from the start for the first, to the
+     * phase, in nanoseconds.
+     */
+    public long durationNanos(int index) {
+        return reachedNanos[index] - (index == 0 ? startNanos : reachedNanos[index - 1]);
+    }
+
+    /**
+     * Formats the phases in order with the time from the start and from the previous
+     * phase, e.g. {@code "startup create 120.4 ms (+120.4), content 151.0 ms (+30.6)"}.
+     *
+     * @return the buffer holding the text.
+     */
+    public TextBuffer format() {
+        text.clear().append("startup");
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? " " : ", ").append(phases[i]).append(' ')
+                    .append(elapsedNanos(i) / NANOS_PER_MILLI, 1).append(" ms (+")
+                    .append(durationNanos(i) / NANOS_PER_MILLI, 1).append(')');
+        }
+        return text;
+    }
+}
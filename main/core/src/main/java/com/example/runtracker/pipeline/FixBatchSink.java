@@ -0,0 +1,61 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.provider.LocationSink;
+
+/**
+ * FixBatchSink runs the fixes of a provider batch through the {@link FixProcessor} and
+ * hands one snapshot per batch to the next stage.
+ * <p>
+ * Every fix of the batch is filtered, recorded and counted in the metrics, but only the
+ * last accepted fix is turned into a {@link FixSnapshot}, so a batch of thirty fixes from
+ * the fused provider costs one snapshot and one UI update instead of thirty. The
+ * allocations of each batch, snapshot included, are counted by the {@code PerfMonitor}
+ * of the processor while it has a meter.
+ * </p>
+ */
+final class FixBatchSink implements LocationSink {
+    /** Processing stages run for every fix. */
+    private final FixProcessor processor;
+
+    /** Receiver of the snapshot of each batch. */
+    private final SnapshotRenderer target;
+
+    /** True if a fix of the current batch was accepted. */
+    private boolean accepted;
+
+    /** True between the first fix of a batch and its end. */
+    private boolean inBatch;
+
+    /**
+     * @param processor the processing stages run for every fix.
+     * @param target    the receiver of the snapshot of each batch.
+     */
+    FixBatchSink(FixProcessor processor, SnapshotRenderer target) {
+        this.processor = processor;
+        this.target = target;
+    }
+
+    @Override
+    public void onFix(double latitude, double longitude, float speedMps, float accuracy,
+                      long elapsedRealtimeNanos) {
+        if (!inBatch) {
+            inBatch = true;
+            processor.perfMonitor().beginBatch();
+        }
+        if (processor.accept(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos)) {
+            accepted = true;
+        }
+    }
+
+    @Override
+    public void onBatchEnd() {
+        if (accepted) {
+            accepted = false;
+            target.render(processor.snapshot());
+        }
+        if (inBatch) {
+            inBatch = false;
+            processor.perfMonitor().endBatch();
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.display.FixTextFormatter;
+import com.example.runtracker.display.LogSink;
+import com.example.runtracker.display.MetricsTextFormatter;
+import com.example.runtracker.display.SpeedBands;
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.filter.FixFilter;
+import com.example.runtracker.history.SessionAggregator;
+import com.example.runtracker.history.SessionSummary;
+import com.example.runtracker.metrics.LapEngine;
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.perf.PerfMonitor;
+import com.example.runtracker.sampling.SamplingScheduler;
+import com.example.runtracker.segment.SegmentMatcher;
+import com.example.runtracker.share.LiveShareSink;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.LiveRoute;
+import com.example.runtracker.track.TrackBuffer;
+import com.example.runtracker.track.TrackReader;
+import com.example.runtracker.track.TrackSimplifier;
+import com.example.runtracker.track.TrackWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FixProcessor runs every processing stage for a location fix.
+ * <p>
+ * For each fix it runs the {@link FixFilter} stage (which may drop it), converts the speed
+ * to the display unit, updates the {@link SamplingScheduler}, records the fix in the
+ * session {@link TrackBuffer}, in its simplified level of detail from the
+ * {@link TrackSimplifier}, in the {@link LiveRoute} drawn by the UI and, while recording,
+ * in the session {@link TrackWriter} file, updates the session {@link RunMetrics},
+ * {@link LapEngine} and {@link SessionAggregator}, times the segments run with the
+ * {@link SegmentMatcher}, hands the fix to the {@link LiveShareSink}, writes the debug
+ * log line and produces
+ * an immutable {@link FixSnapshot} for the UI. While the scheduler reports the user as
+ * stopped, the session is auto-paused: fixes are still shown but not recorded or counted.
+ * The time from the fix timestamp to the end of its processing goes to the
+ * {@link PerfMonitor}. When the session ends, its {@link #summary summary} goes to the
+ * history.
+ * </p>
+ * <p>
+ * The state of the session is saved in a fixed layout with {@link #writeState}, e.g. to a
+ * checkpoint every few seconds, and {@link #restore restored} after the app died: the
+ * totals, laps and splits come back as saved, and only the fixes recorded to the track
+ * file since then are read again. The track drawn and the segment attempts start over
+ * from the restored point.
+ * </p>
+ * <p>
+ * Processing is confined to a single thread (the location pipeline thread). The settings
+ * changed from the UI thread are volatile and take effect from the next fix.
+ * </p>
+ */
+public final class FixProcessor {
+    /** Conversion factor to convert speed from meters per second to miles per hour. */
+    public static final double MPS_TO_MPH = 2.23694;
+
+    /** Number of the last laps kept by {@link #writeState}. */
+    static final int STATE_LAPS = 128;
+
+    /** Size of the state written by {@link #writeState}. */
+    public static final int STATE_BYTES = RunMetrics.STATE_BYTES + LapEngine.stateBytes(STATE_LAPS)
+            + SessionAggregator.STATE_BYTES + 4 + 8 + 4;
+
+    /** Filter stage that smooths fixes and drops unusable ones. */
+    private final FixFilter filter;
+
+    /** Reused holder for the fix being processed. */
+    private final FixSample sample = new FixSample();
+
+    /** Every fix recorded in the current session. */
+    private final TrackBuffer track = new TrackBuffer();
+
+    /** Simplified level of detail of {@link #track}, e.g. for drawing the route. */
+    private final TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_TOLERANCE_METERS);
+
+    /** Distance, pace and moving time of the current session. */
+    private final RunMetrics metrics = new RunMetrics();
+
+    /** Manual and automatic laps of the current session. */
+    private final LapEngine laps = new LapEngine(MetricsTextFormatter.METERS_PER_MILE);
+
+    /** Best splits of the session, for its {@link #summary summary}. */
+    private final SessionAggregator aggregator = new SessionAggregator();
+
+    /** Efforts on the user's segments in the current session. */
+    private final SegmentMatcher segments = new SegmentMatcher();
+
+    /** GPS sampling mode and auto-pause detection. */
+    private final SamplingScheduler sampling = new SamplingScheduler();
+
+    /** Positions of the session track published to the UI; replaced for a new session. */
+    private volatile LiveRoute route = new LiveRoute(TrackSimplifier.DEFAULT_TOLERANCE_METERS);
+
+    /** Reused builder for the snapshots. */
+    private final FixSnapshot.Builder snapshotBuilder = new FixSnapshot.Builder();
+
+    /** Reusable buffers for the debug log line. */
+    private final FixTextFormatter logFormatter = new FixTextFormatter();
+
+    /** Track file of the current session, or null if the session is not saved. */
+    private TrackWriter trackWriter;
+
+    /** Number of fixes recorded before the session was restored, not in {@link #track}. */
+    private int restoredFixCount;
+
+    /** Speed band of the previous snapshot, or -1; kept for the band hysteresis. */
+    private int speedBand = -1;
+
+    /** True if speeds are converted to mph, false for m/s. */
+    private volatile boolean useMph = true;
+
+    /** Destination of per-fix debug logging. */
+    private volatile LogSink logSink = LogSink.DISABLED;
+
+    /** Recorder of the processing latency. */
+    private volatile PerfMonitor perfMonitor = PerfMonitor.DISABLED;
+
+    /** Receiver of the recorded fixes shared live. */
+    private volatile LiveShareSink liveShare = LiveShareSink.DISABLED;
+
+    /**
+     * Creates a processor with the standard filter chain.
+     */
+    public FixProcessor() {
+        this(FilterChain.standard());
+    }
+
+    /**
+     * Creates a processor with a custom filter stage.
+     *
+     * @param filter the filter stage run on every fix.
+     */
+    public FixProcessor(FixFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Processes one fix and builds its snapshot.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @return the snapshot to display for this fix, or null if the filter dropped it.
+     */
+    public FixSnapshot process(double latitude, double longitude, float speedMps, float accuracy,
+                               long elapsedRealtimeNanos) {
+        return accept(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos) ? snapshot() : null;
+    }
+
+    /**
+     * Processes one fix without building a snapshot, e.g. for every fix of a batch but the
+     * last. The values of the fix are kept for {@link #snapshot()}.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @return true if the fix was processed; false if the filter dropped it.
+     */
+    public boolean accept(double latitude, double longitude, float speedMps, float accuracy,
+                          long elapsedRealtimeNanos) {
+        sample.set(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+        if (!filter.filter(sample)) {
+            return false;
+        }
+        latitude = sample.latitude;
+        longitude = sample.longitude;
+        speedMps = sample.speedMps;
+        accuracy = sample.accuracy;
+
+        boolean mph = useMph;
+        double displaySpeed = mph ? (speedMps * MPS_TO_MPH) : speedMps;
+        speedBand = SpeedBands.band(displaySpeed, mph, speedBand);
+
+        boolean samplingChanged = sampling.onFix(speedMps, elapsedRealtimeNanos);
+        boolean autoPaused = sampling.isAutoPaused();
+        if (autoPaused) {
+            if (samplingChanged) {
+                // The time and distance while stopped are not part of the session.
+                metrics.breakSegment();
+            }
+        } else {
+            record(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos, mph);
+            // Fixes read again on restore are not shared again, so this is not in record().
+            liveShare.onFix(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+        }
+
+        LogSink sink = logSink;
+        if (sink.isEnabled()) {
+            TextBuffer log = logFormatter.formatLog(latitude, longitude, displaySpeed, mph ? "mph" : "m/s");
+            sink.write(log.chars(), 0, log.length());
+        }
+
+        snapshotBuilder
+                .position(latitude, longitude, accuracy)
+                .speed(speedMps, displaySpeed, mph, speedBand)
+                .elapsedRealtimeNanos(elapsedRealtimeNanos)
+                .trackSize(track.size())
+                .metrics(metrics.distanceMeters(), metrics.elapsedNanos(), metrics.movingNanos(),
+                        metrics.averagePaceSecondsPerMeter(), metrics.rollingPaceSecondsPerMeter())
+                .sampling(sampling.mode(), autoPaused)
+                .processedRealtimeNanos(perfMonitor.recordProcessed(elapsedRealtimeNanos));
+        updateSnapshotLaps();
+        return true;
+    }
+
+    /**
+     * Records a fix in the session: the tracks, the route, the track file, the metrics,
+     * laps and splits, and the segments.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @param mph                  true if the display unit is mph.
+     */
+    private void record(double latitude, double longitude, float speedMps, float accuracy,
+                        long elapsedRealtimeNanos, boolean mph) {
+        track.append(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+        simplifier.append(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+        publishRoute(latitude, longitude);
+        if (trackWriter != null) {
+            writeFix();
+        }
+        metrics.update(latitude, longitude, elapsedRealtimeNanos);
+        // Automatic laps are a mile or a kilometer long, as the display unit.
+        laps.setAutoLapMeters(mph ? MetricsTextFormatter.METERS_PER_MILE
+                : MetricsTextFormatter.METERS_PER_KILOMETER);
+        laps.update(metrics.distanceMeters(), metrics.elapsedNanos());
+        aggregator.update(metrics.distanceMeters(), metrics.elapsedNanos());
+        segments.accept(latitude, longitude, elapsedRealtimeNanos);
+    }
+
+    /**
+     * Builds the snapshot of the last accepted fix.
+     *
+     * @return a new immutable snapshot.
+     */
+    public FixSnapshot snapshot() {
+        return snapshotBuilder.build();
+    }
+
+    /**
+     * Ends the current lap by hand at the last processed fix. The next snapshot shows the
+     * new lap. Must run on the processing thread.
+     */
+    public void lap() {
+        laps.lap();
+        updateSnapshotLaps();
+    }
+
+    /**
+     * Starts a new session by clearing the recorded and simplified tracks, the metrics,
+     * the laps and aggregates, the segment attempts, the filter state and the sampling
+     * mode, and by starting a new {@link #route()}. Must run on the processing thread.
+     */
+    public void reset() {
+        restoredFixCount = 0;
+        track.clear();
+        simplifier.reset();
+        route = new LiveRoute(simplifier.toleranceMeters());
+        metrics.reset();
+        laps.reset();
+        aggregator.reset();
+        segments.reset();
+        filter.reset();
+        sampling.reset();
+    }
+
+    /**
+     * Ends the current segment so the gap until the next fix, e.g. a pause, is not counted.
+     * Sampling restarts at 1 Hz when updates resume. Must run on the processing thread.
+     */
+    public void breakSegment() {
+        metrics.breakSegment();
+        filter.reset();
+        sampling.reset();
+    }
+
+    /**
+     * Builds the summary of the session so far, e.g. when it ends, for the history.
+     * Must run on the processing thread.
+     *
+     * @param startEpochMillis wall clock time at which the session started.
+     * @param trackFileName    name of the session track file, or null.
+     * @return a new summary of the session.
+     */
+    public SessionSummary summary(long startEpochMillis, String trackFileName) {
+        return new SessionSummary.Builder()
+                .session(startEpochMillis, trackFileName)
+                .totals(metrics.distanceMeters(), metrics.elapsedNanos(), metrics.movingNanos(), fixCount())
+                .splits(laps.lapCount(), aggregator.bestKilometerNanos(), aggregator.bestMileNanos())
+                .build();
+    }
+
+    /**
+     * Writes the state of the session in a fixed layout of {@link #STATE_BYTES}: the
+     * metrics, the last {@link #STATE_LAPS} laps, the splits, and where the track file
+     * stood. Must run on the processing thread.
+     *
+     * @param out the destination.
+     */
+    public void writeState(ByteBuffer out) {
+        metrics.writeState(out);
+        laps.writeState(out, STATE_LAPS);
+        aggregator.writeState(out);
+        out.putInt(fixCount())
+                .putLong(trackWriter != null ? trackWriter.size() : -1)
+                .putInt(trackWriter != null ? trackWriter.pendingCount() : 0);
+    }
+
+    /**
+     * Starts over from a state written by {@link #writeState}, e.g. after the app died,
+     * and goes on recording to the session track file.
+     * <p>
+     * The fixes written to the track file after the state was saved are read from the
+     * block the track file had reached, skipping the fixes the state already counts, and
+     * recorded again; the rest of the file is not read. The file is then cut after its
+     * last whole block and appended to. Must run on the processing thread.
+     * </p>
+     *
+     * @param in        the source, positioned at the state; left after it.
+     * @param trackFile the track file of the session, or null if it was not saved.
+     * @return the number of fixes read again from the track file.
+     * @throws IOException if the track file cannot be read or reopened; the state is
+     *                     restored anyway and the session goes on in memory only.
+     */
+    public int restore(ByteBuffer in, File trackFile) throws IOException {
+        stopRecording();
+        reset();
+        metrics.readState(in);
+        laps.readState(in, STATE_LAPS);
+        aggregator.readState(in);
+        restoredFixCount = in.getInt();
+        long trackBytes = in.getLong();
+        int counted = in.getInt();
+        if (trackFile == null || trackBytes < 0) {
+            return 0;
+        }
+        int replayed = 0;
+        try (TrackReader reader = TrackReader.open(trackFile)) {
+            reader.seek(trackBytes);
+            boolean mph = useMph;
+            while (reader.next(sample)) {
+                if (counted > 0) {
+                    counted--;
+                } else {
+                    record(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                            sample.elapsedRealtimeNanos, mph);
+                    replayed++;
+                }
+            }
+            trackWriter = TrackWriter.resume(trackFile, reader.position(), reader.startElapsedNanos(),
+                    fixCount());
+        }
+        return replayed;
+    }
+
+    /**
+     * @return the number of fixes recorded in the session, including those before it was
+     *         restored; only to be read on the processing thread.
+     */
+    public int fixCount() {
+        return restoredFixCount + track.size();
+    }
+
+    /**
+     * Starts saving accepted fixes to a track file, closing the previous one if any.
+     * Must run on the processing thread.
+     *
+     * @param writer the track file of the session.
+     */
+    public void startRecording(TrackWriter writer) {
+        stopRecording();
+        trackWriter = writer;
+    }
+
+    /**
+     * Writes the buffered fixes to the track file and forces it to storage, e.g. when
+     * the app leaves the foreground. Must run on the processing thread.
+     */
+    public void flushRecording() {
+        if (trackWriter != null) {
+            try {
+                trackWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the track file. Must run on the processing thread.
+     */
+    public void stopRecording() {
+        TrackWriter writer = trackWriter;
+        trackWriter = null;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** @return the session track; only to be read on the processing thread. */
+    public TrackBuffer track() {
+        return track;
+    }
+
+    /**
+     * Returns the simplifier of the session track. Its simplified track ends at the last
+     * kept fix; the newest fixes of {@link #track()} may still wait in its window.
+     *
+     * @return the track simplifier; only to be used on the processing thread.
+     */
+    public TrackSimplifier simplifier() {
+        return simplifier;
+    }
+
+    /**
+     * @return the matcher of the segments, whose segments are set on the processing
+     *         thread.
+     */
+    public SegmentMatcher segments() {
+        return segments;
+    }
+
+    /**
+     * Returns the positions of the session track for drawing. A new session starts a new
+     * route, so the caller should get it again for every frame.
+     *
+     * @return the route of the current session; safe to read on any thread.
+     */
+    public LiveRoute route() {
+        return route;
+    }
+
+    /** @return the GPS sampling scheduler; only to be used on the processing thread. */
+    public SamplingScheduler sampling() {
+        return sampling;
+    }
+
+    /** @return the session metrics; only to be read on the processing thread. */
+    public RunMetrics metrics() {
+        return metrics;
+    }
+
+    /** @return the laps of the current session; only to be used on the processing thread. */
+    public LapEngine laps() {
+        return laps;
+    }
+
+    /**
+     * Copies the current and the last ended lap into the snapshot builder.
+     */
+    private void updateSnapshotLaps() {
+        int count = laps.lapCount();
+        snapshotBuilder.laps(count, laps.currentLapDistanceMeters(), laps.currentLapNanos(),
+                count > 0 ? laps.lapDistanceMeters(count - 1) : 0, count > 0 ? laps.lapNanos(count - 1) : 0);
+    }
+
+    /**
+     * Publishes a recorded fix to the route, with the fix the simplifier kept for it, if any.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     */
+    private void publishRoute(double latitude, double longitude) {
+        LiveRoute route = this.route;
+        route.append(latitude, longitude);
+        TrackBuffer simplified = simplifier.simplified();
+        int kept = simplified.size() - 1;
+        if (kept >= route.simplifiedSize()) {
+            // Only the newest fixes of the track wait in the simplifier's window.
+            route.appendSimplified(simplified.latitude(kept), simplified.longitude(kept),
+                    track.size() - 1 - simplifier.pendingCount());
+        }
+    }
+
+    /**
+     * Appends the processed fix to the track file. If the file cannot be written, saving
+     * stops and the session continues in memory only.
+     */
+    private void writeFix() {
+        try {
+            trackWriter.append(sample);
+        } catch (IOException e) {
+            e.printStackTrace();
+            stopRecording();
+        }
+    }
+
+    /** @param useMph true to convert speeds to mph, false for m/s. */
+    public void setUseMph(boolean useMph) {
+        this.useMph = useMph;
+    }
+
+    /** @param logSink the destination of per-fix debug logging. */
+    public void setLogSink(LogSink logSink) {
+        this.logSink = logSink;
+    }
+
+    /** @return the destination of per-fix debug logging. */
+    public LogSink logSink() {
+        return logSink;
+    }
+
+    /** @return the receiver of the recorded fixes shared live. */
+    public LiveShareSink liveShare() {
+        return liveShare;
+    }
+
+    /** @param liveShare the receiver of the recorded fixes shared live. */
+    public void setLiveShare(LiveShareSink liveShare) {
+        this.liveShare = liveShare;
+    }
+
+    /** @return the recorder of the processing latency. */
+    public PerfMonitor perfMonitor() {
+        return perfMonitor;
+    }
+
+    /** @param perfMonitor the recorder of the processing latency. */
+    public void setPerfMonitor(PerfMonitor perfMonitor) {
+        this.perfMonitor = perfMonitor;
+    }
+}
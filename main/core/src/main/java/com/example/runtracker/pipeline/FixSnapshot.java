@@ -0,0 +1,251 @@
+package com.example.runtracker.pipeline;
+
+/**
+ * FixSnapshot is the immutable result of processing one location fix.
+ * <p>
+ * Snapshots are built on the location pipeline thread and handed to the UI thread,
+ * which only reads them. Everything the screen shows for a fix is already converted
+ * to the display unit, so the UI never has to redo any of the processing.
+ * </p>
+ */
+public final class FixSnapshot {
+    /** Latitude in degrees. */
+    public final double latitude;
+
+    /** Longitude in degrees. */
+    public final double longitude;
+
+    /** Speed in meters per second. */
+    public final float speedMps;
+
+    /** Speed converted to the display unit. */
+    public final double displaySpeed;
+
+    /** True if {@link #displaySpeed} is in mph, false if it is in m/s. */
+    public final boolean useMph;
+
+    /** Speed band of {@link #displaySpeed}, see {@code SpeedBands}. */
+    public final int speedBand;
+
+    /** Horizontal accuracy in meters. */
+    public final float accuracy;
+
+    /** Fix timestamp in elapsed realtime nanoseconds. */
+    public final long elapsedRealtimeNanos;
+
+    /** Elapsed realtime at which processing ended, in nanoseconds, or 0 if not measured. */
+    public final long processedRealtimeNanos;
+
+    /** Number of fixes recorded in the session track after this fix. */
+    public final int trackSize;
+
+    /** Total session distance, in meters. */
+    public final double distanceMeters;
+
+    /** Time between linked fixes of the session, in nanoseconds. */
+    public final long elapsedNanos;
+
+    /** Moving time of the session, in nanoseconds. */
+    public final long movingNanos;
+
+    /** Average pace over the moving time, in seconds per meter, or NaN if unknown. */
+    public final double averagePaceSecondsPerMeter;
+
+    /** Pace over the last 30 seconds, in seconds per meter, or NaN if unknown. */
+    public final double rollingPaceSecondsPerMeter;
+
+    /** Number of laps ended in the session. */
+    public final int lapCount;
+
+    /** Distance of the current lap, in meters. */
+    public final double lapDistanceMeters;
+
+    /** Duration of the current lap, in nanoseconds. */
+    public final long lapNanos;
+
+    /** Distance of the last ended lap, in meters, or 0 if none. */
+    public final double lastLapDistanceMeters;
+
+    /** Duration of the last ended lap, in nanoseconds, or 0 if none. */
+    public final long lastLapNanos;
+
+    /** GPS sampling mode after this fix, see {@code SamplingScheduler}. */
+    public final int samplingMode;
+
+    /** True if the user is stopped and the session is auto-paused. */
+    public final boolean autoPaused;
+
+    /**
+     * Creates a snapshot from the values collected in a builder.
+     *
+     * @param builder the builder holding the values.
+     */
+    private FixSnapshot(Builder builder) {
+        latitude = builder.latitude;
+        longitude = builder.longitude;
+        speedMps = builder.speedMps;
+        displaySpeed = builder.displaySpeed;
+        useMph = builder.useMph;
+        speedBand = builder.speedBand;
+        accuracy = builder.accuracy;
+        elapsedRealtimeNanos = builder.elapsedRealtimeNanos;
+        processedRealtimeNanos = builder.processedRealtimeNanos;
+        trackSize = builder.trackSize;
+        distanceMeters = builder.distanceMeters;
+        elapsedNanos = builder.elapsedNanos;
+        movingNanos = builder.movingNanos;
+        averagePaceSecondsPerMeter = builder.averagePaceSecondsPerMeter;
+        rollingPaceSecondsPerMeter = builder.rollingPaceSecondsPerMeter;
+        lapCount = builder.lapCount;
+        lapDistanceMeters = builder.lapDistanceMeters;
+        lapNanos = builder.lapNanos;
+        lastLapDistanceMeters = builder.lastLapDistanceMeters;
+        lastLapNanos = builder.lastLapNanos;
+        samplingMode = builder.samplingMode;
+        autoPaused = builder.autoPaused;
+    }
+
+    /** @return the display unit label, "mph" or "m/s". */
+    public String speedUnit() {
+        return useMph ? "mph" : "m/s";
+    }
+
+    /**
+     * Builder collecting the values of a snapshot. A single builder is reused for every
+     * fix by the pipeline, so building a snapshot allocates only the snapshot itself.
+     */
+    public static final class Builder {
+        private double latitude;
+        private double longitude;
+        private float speedMps;
+        private double displaySpeed;
+        private boolean useMph;
+        private int speedBand;
+        private float accuracy;
+        private long elapsedRealtimeNanos;
+        private long processedRealtimeNanos;
+        private int trackSize;
+        private double distanceMeters;
+        private long elapsedNanos;
+        private long movingNanos;
+        private double averagePaceSecondsPerMeter = Double.NaN;
+        private double rollingPaceSecondsPerMeter = Double.NaN;
+        private int lapCount;
+        private double lapDistanceMeters;
+        private long lapNanos;
+        private double lastLapDistanceMeters;
+        private long lastLapNanos;
+
+        private int samplingMode;
+
+        private boolean autoPaused;
+
+        /**
+         * @param latitude  latitude in degrees.
+         * @param longitude longitude in degrees.
+         * @param accuracy  horizontal accuracy in meters.
+         * @return this builder.
+         */
+        public Builder position(double latitude, double longitude, float accuracy) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+            return this;
+        }
+
+        /**
+         * @param speedMps     speed in meters per second.
+         * @param displaySpeed speed converted to the display unit.
+         * @param useMph       true if the display unit is mph, false for m/s.
+         * @param speedBand    speed band of the display speed.
+         * @return this builder.
+         */
+        public Builder speed(float speedMps, double displaySpeed, boolean useMph, int speedBand) {
+            this.speedMps = speedMps;
+            this.displaySpeed = displaySpeed;
+            this.useMph = useMph;
+            this.speedBand = speedBand;
+            return this;
+        }
+
+        /**
+         * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+         * @return this builder.
+         */
+        public Builder elapsedRealtimeNanos(long elapsedRealtimeNanos) {
+            this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+            return this;
+        }
+
+        /**
+         * @param processedRealtimeNanos elapsed realtime at which processing ended, in
+         *                               nanoseconds, or 0 if not measured.
+         * @return this builder.
+         */
+        public Builder processedRealtimeNanos(long processedRealtimeNanos) {
+            this.processedRealtimeNanos = processedRealtimeNanos;
+            return this;
+        }
+
+        /**
+         * @param trackSize number of fixes recorded in the session track.
+         * @return this builder.
+         */
+        public Builder trackSize(int trackSize) {
+            this.trackSize = trackSize;
+            return this;
+        }
+
+        /**
+         * @param distanceMeters             total session distance, in meters.
+         * @param elapsedNanos               time between linked fixes, in nanoseconds.
+         * @param movingNanos                moving time, in nanoseconds.
+         * @param averagePaceSecondsPerMeter average pace, in seconds per meter.
+         * @param rollingPaceSecondsPerMeter recent pace, in seconds per meter.
+         * @return this builder.
+         */
+        public Builder metrics(double distanceMeters, long elapsedNanos, long movingNanos,
+                               double averagePaceSecondsPerMeter, double rollingPaceSecondsPerMeter) {
+            this.distanceMeters = distanceMeters;
+            this.elapsedNanos = elapsedNanos;
+            this.movingNanos = movingNanos;
+            this.averagePaceSecondsPerMeter = averagePaceSecondsPerMeter;
+            this.rollingPaceSecondsPerMeter = rollingPaceSecondsPerMeter;
+            return this;
+        }
+
+        /**
+         * @param lapCount              number of laps ended.
+         * @param lapDistanceMeters     distance of the current lap, in meters.
+         * @param lapNanos              duration of the current lap, in nanoseconds.
+         * @param lastLapDistanceMeters distance of the last ended lap, in meters.
+         * @param lastLapNanos          duration of the last ended lap, in nanoseconds.
+         * @return this builder.
+         */
+        public Builder laps(int lapCount, double lapDistanceMeters, long lapNanos,
+                            double lastLapDistanceMeters, long lastLapNanos) {
+            this.lapCount = lapCount;
+            this.lapDistanceMeters = lapDistanceMeters;
+            this.lapNanos = lapNanos;
+            this.lastLapDistanceMeters = lastLapDistanceMeters;
+            this.lastLapNanos = lastLapNanos;
+            return this;
+        }
+
+        /**
+         * @param samplingMode GPS sampling mode after the fix.
+         * @param autoPaused   true if the session is auto-paused.
+         * @return this builder.
+         */
+        public Builder sampling(int samplingMode, boolean autoPaused) {
+            this.samplingMode = samplingMode;
+            this.autoPaused = autoPaused;
+            return this;
+        }
+
+        /** @return a new immutable snapshot with the current values. */
+        public FixSnapshot build() {
+            return new FixSnapshot(this);
+        }
+    }
+}
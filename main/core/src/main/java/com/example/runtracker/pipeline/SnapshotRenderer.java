@@ -0,0 +1,15 @@
+package com.example.runtracker.pipeline;
+
+/**
+ * SnapshotRenderer receives processed fixes. Renderers attached to a
+ * {@link FrameCoalescingDispatcher} apply them to the screen and are always called on the
+ * main thread; the output of a {@link LocationPipeline} is called on the pipeline thread.
+ */
+public interface SnapshotRenderer {
+    /**
+     * Shows the given snapshot.
+     *
+     * @param snapshot the most recent processed fix.
+     */
+    void render(FixSnapshot snapshot);
+}
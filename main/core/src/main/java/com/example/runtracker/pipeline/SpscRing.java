@@ -0,0 +1,94 @@
+package com.example.runtracker.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpscRing is a bounded lock-free queue for exactly one producer thread and one consumer
+ * thread.
+ * <p>
+ * The slots live in a power-of-two array. The producer only writes the tail index and
+ * the consumer only writes the head index, each published with an ordered store, so
+ * neither side ever blocks, takes a lock or allocates. When the ring is full,
+ * {@link #offer} fails instead of waiting.
+ * </p>
+ *
+ * @param <E> the element type.
+ */
+public final class SpscRing<E> {
+    /** Element slots; the index of a sequence number is {@code sequence & mask}. */
+    private final Object[] slots;
+
+    /** Mask mapping a sequence number to a slot. */
+    private final int mask;
+
+    /** Sequence number of the next element to take; written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Sequence number of the next element to add; written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued elements; a power of two.
+     */
+    public SpscRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        slots = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an element. Must only be called from the producer thread.
+     *
+     * @param element the element, not null.
+     * @return true if it was added; false if the ring is full.
+     */
+    public boolean offer(E element) {
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = element;
+        // Ordered store: the slot write is visible before the new tail.
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest element. Must only be called from the consumer thread.
+     *
+     * @return the element, or null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        E element = (E) slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /**
+     * Drops every queued element. Must only be called from the consumer thread.
+     */
+    public void clear() {
+        while (poll() != null) {
+            // Keep polling until empty.
+        }
+    }
+
+    /** @return the number of queued elements; exact only when called from one of the two threads. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** @return the maximum number of queued elements. */
+    public int capacity() {
+        return slots.length;
+    }
+}
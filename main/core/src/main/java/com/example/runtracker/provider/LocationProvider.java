@@ -0,0 +1,27 @@
+package com.example.runtracker.provider;
+
+/**
+ * LocationProvider is a source of location fixes, such as the platform GPS provider or
+ * the fused location provider of Google Play services.
+ * <p>
+ * A provider delivers its fixes to a {@link LocationSink} on the thread chosen when the
+ * provider was created. Calling {@link #start} again while started replaces the previous
+ * request, which is how the sampling interval is changed.
+ * </p>
+ */
+public interface LocationProvider {
+    /**
+     * Starts or updates the delivery of fixes.
+     *
+     * @param intervalMillis    minimum time between fixes, in milliseconds.
+     * @param minDistanceMeters minimum distance between fixes, in meters.
+     * @param sink              the receiver of the fixes.
+     * @throws SecurityException if the location permission is not granted.
+     */
+    void start(long intervalMillis, float minDistanceMeters, LocationSink sink);
+
+    /**
+     * Stops the delivery of fixes. Does nothing if not started.
+     */
+    void stop();
+}
@@ -0,0 +1,28 @@
+package com.example.runtracker.provider;
+
+/**
+ * LocationSink receives the fixes delivered by a {@link LocationProvider}.
+ * <p>
+ * Fixes arrive in batches: {@link #onFix} is called once per fix, oldest first, and
+ * {@link #onBatchEnd()} once after the last fix of the batch. A provider that delivers
+ * fixes one by one ends a batch after every fix. Both are called on the thread the
+ * provider delivers on.
+ * </p>
+ */
+public interface LocationSink {
+    /**
+     * Receives one fix of the current batch.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     */
+    void onFix(double latitude, double longitude, float speedMps, float accuracy, long elapsedRealtimeNanos);
+
+    /**
+     * Called after the last fix of a batch.
+     */
+    void onBatchEnd();
+}
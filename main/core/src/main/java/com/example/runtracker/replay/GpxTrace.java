@@ -0,0 +1,246 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.export.IsoTime;
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackBuffer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * GpxTrace replays the track points of a GPX file, e.g. one exported by another app.
+ * <p>
+ * The file is read once with a SAX parser into a columnar {@link TrackBuffer}, so the
+ * whole trace costs about {@link TrackBuffer#BYTES_PER_FIX} bytes per point and replaying
+ * it does not touch the XML again. Every {@code trkpt} of every track segment is read in
+ * document order. The speed comes from a {@code speed} element (GPX 1.0 or the Garmin
+ * track point extension) if present and is derived from the previous point otherwise.
+ * The accuracy is estimated from {@code hdop}. Points without a time are taken to be one
+ * second apart.
+ * </p>
+ */
+public final class GpxTrace implements TraceSource {
+    /** Accuracy of points without {@code hdop}, in meters. */
+    public static final float DEFAULT_ACCURACY_M = 5f;
+
+    /** Range error of a GPS fix, in meters, multiplied by the hdop to estimate the accuracy. */
+    private static final float USER_RANGE_ERROR_M = 5f;
+
+    /** Time between points that have no timestamp, in nanoseconds. */
+    private static final long DEFAULT_STEP_NANOS = 1_000_000_000L;
+
+    /** Track points of the file. */
+    private final TrackBuffer track = new TrackBuffer();
+
+    /** Time of the first point, in epoch milliseconds, or 0 if the points have no time. */
+    private long startEpochMillis;
+
+    /** Index of the next point to replay. */
+    private int index;
+
+    /**
+     * Reads a GPX file.
+     *
+     * @param file the GPX file.
+     * @return the trace.
+     * @throws IOException if the file cannot be read or is not valid GPX.
+     */
+    public static GpxTrace open(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a GPX document.
+     *
+     * @param in the document; not closed.
+     * @return the trace.
+     * @throws IOException if the stream cannot be read or is not valid GPX.
+     */
+    public static GpxTrace read(InputStream in) throws IOException {
+        GpxTrace trace = new GpxTrace();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            try {
+                // Track files never need external entities.
+                factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            } catch (ParserConfigurationException | SAXException e) {
+                // Not supported by this parser, which then does not resolve them either.
+            }
+            SAXParser parser = factory.newSAXParser();
+            parser.parse(in, trace.new Handler());
+        } catch (ParserConfigurationException | SAXException | IllegalArgumentException e) {
+            throw new IOException("invalid GPX: " + e.getMessage(), e);
+        }
+        return trace;
+    }
+
+    private GpxTrace() { }
+
+    @Override
+    public boolean next(FixSample sample) {
+        if (index == track.size()) {
+            return false;
+        }
+        sample.set(track.latitude(index), track.longitude(index), track.speed(index),
+                track.accuracy(index), track.elapsedRealtimeNanos(index));
+        index++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        index = 0;
+    }
+
+    @Override
+    public void close() {
+        // Everything is in memory.
+    }
+
+    /** @return the number of track points. */
+    public int size() {
+        return track.size();
+    }
+
+    /** @return the time of the first point, in epoch milliseconds, or 0 if the points have no time. */
+    public long startEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * SAX handler that appends each {@code trkpt} to the track.
+     */
+    private final class Handler extends DefaultHandler {
+        /** Text of the current element. */
+        private final StringBuilder text = new StringBuilder();
+
+        /** True inside a {@code trkpt}. */
+        private boolean inPoint;
+
+        /** Latitude of the current point, in degrees. */
+        private double latitude;
+
+        /** Longitude of the current point, in degrees. */
+        private double longitude;
+
+        /** Time of the current point, in epoch milliseconds; valid if {@link #hasTime}. */
+        private long epochMillis;
+
+        /** True if the current point has a time. */
+        private boolean hasTime;
+
+        /** Speed of the current point in meters per second, or NaN if the file has none. */
+        private float speed;
+
+        /** Accuracy of the current point, in meters. */
+        private float accuracy;
+
+        /** True once a point was appended. */
+        private boolean hasPrevious;
+
+        /** Latitude of the previous point, in degrees. */
+        private double previousLatitude;
+
+        /** Longitude of the previous point, in degrees. */
+        private double previousLongitude;
+
+        /** Time of the previous point, in nanoseconds since the first point. */
+        private long previousNanos;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            text.setLength(0);
+            if ("trkpt".equals(name(localName, qName))) {
+                inPoint = true;
+                latitude = Double.parseDouble(attributes.getValue("lat"));
+                longitude = Double.parseDouble(attributes.getValue("lon"));
+                hasTime = false;
+                speed = Float.NaN;
+                accuracy = DEFAULT_ACCURACY_M;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inPoint) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (!inPoint) {
+                return;
+            }
+            switch (name(localName, qName)) {
+                case "time":
+                    epochMillis = IsoTime.parse(trimmed());
+                    hasTime = true;
+                    break;
+                case "speed":
+                    speed = Float.parseFloat(trimmed());
+                    break;
+                case "hdop":
+                    accuracy = Float.parseFloat(trimmed()) * USER_RANGE_ERROR_M;
+                    break;
+                case "trkpt":
+                    inPoint = false;
+                    appendPoint();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /** Appends the current point, deriving the speed if the file has none. */
+        private void appendPoint() {
+            long nanos;
+            if (track.size() == 0) {
+                startEpochMillis = hasTime ? epochMillis : 0;
+                nanos = 0;
+            } else if (hasTime) {
+                nanos = (epochMillis - startEpochMillis) * 1_000_000L;
+            } else {
+                nanos = previousNanos + DEFAULT_STEP_NANOS;
+            }
+            if (Float.isNaN(speed)) {
+                speed = 0;
+                if (hasPrevious && nanos > previousNanos) {
+                    speed = (float) (RunMetrics.haversineMeters(previousLatitude, previousLongitude,
+                            latitude, longitude) * 1e9 / (nanos - previousNanos));
+                }
+            }
+            track.append(latitude, longitude, speed, accuracy, nanos);
+            hasPrevious = true;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+            previousNanos = nanos;
+        }
+
+        /** @return the text of the current element without surrounding white space. */
+        private String trimmed() {
+            return text.toString().trim();
+        }
+
+        /** @return the local name, or the qualified name if the parser is not namespace aware. */
+        private String name(String localName, String qName) {
+            return localName == null || localName.isEmpty() ? qName : localName;
+        }
+    }
+}
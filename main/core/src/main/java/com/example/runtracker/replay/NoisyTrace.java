@@ -0,0 +1,102 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * NoisyTrace adds deterministic GPS error and signal dropouts to another trace.
+ * <p>
+ * Every position is moved by Gaussian noise with the given standard deviation in meters,
+ * the speed gets noise of a tenth of that per second, and the accuracy reports the noise
+ * level. With the given probability per fix a dropout starts, which drops between one
+ * and {@code maxDropoutFixes} fixes in a row, like a receiver losing the sky under a
+ * bridge. All of it comes from a {@link Random} with a fixed seed, so the same trace and
+ * seed always produce the same fixes, and the random state restarts on {@link #rewind()}.
+ * </p>
+ */
+public final class NoisyTrace implements TraceSource {
+    /** The trace the noise is added to. */
+    private final TraceSource source;
+
+    /** Seed of the random numbers. */
+    private final long seed;
+
+    /** Standard deviation of the position error, in meters. */
+    private final double positionSigmaMeters;
+
+    /** Probability that a dropout starts at a fix. */
+    private final double dropoutProbability;
+
+    /** Longest dropout, in fixes. */
+    private final int maxDropoutFixes;
+
+    /** Source of the noise and dropouts. */
+    private final Random random;
+
+    /** Number of fixes dropped so far. */
+    private long droppedCount;
+
+    /**
+     * @param source              the trace the noise is added to.
+     * @param seed                seed of the random numbers.
+     * @param positionSigmaMeters standard deviation of the position error, in meters.
+     * @param dropoutProbability  probability that a dropout starts at a fix, from 0 to 1.
+     * @param maxDropoutFixes     longest dropout, in fixes.
+     */
+    public NoisyTrace(TraceSource source, long seed, double positionSigmaMeters,
+                      double dropoutProbability, int maxDropoutFixes) {
+        if (positionSigmaMeters < 0 || dropoutProbability < 0 || dropoutProbability > 1
+                || maxDropoutFixes < 1) {
+            throw new IllegalArgumentException("invalid noise settings");
+        }
+        this.source = source;
+        this.seed = seed;
+        this.positionSigmaMeters = positionSigmaMeters;
+        this.dropoutProbability = dropoutProbability;
+        this.maxDropoutFixes = maxDropoutFixes;
+        random = new Random(seed);
+    }
+
+    @Override
+    public boolean next(FixSample sample) throws IOException {
+        if (!source.next(sample)) {
+            return false;
+        }
+        if (random.nextDouble() < dropoutProbability) {
+            int dropped = 1 + random.nextInt(maxDropoutFixes);
+            for (int i = 0; i < dropped; i++) {
+                droppedCount++;
+                if (!source.next(sample)) {
+                    return false;
+                }
+            }
+        }
+        double north = random.nextGaussian() * positionSigmaMeters;
+        double east = random.nextGaussian() * positionSigmaMeters;
+        sample.latitude += north / RunMetrics.METERS_PER_DEGREE;
+        sample.longitude += east / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(sample.latitude)));
+        sample.speedMps = (float) Math.max(0, sample.speedMps + random.nextGaussian() * positionSigmaMeters * 0.1);
+        sample.accuracy = (float) Math.max(sample.accuracy, positionSigmaMeters);
+        return true;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        source.rewind();
+        random.setSeed(seed);
+        droppedCount = 0;
+    }
+
+    /** @return the number of fixes dropped since the start or the last rewind. */
+    public long droppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.provider.LocationSink;
+import com.example.runtracker.track.FixSample;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * ReplayEngine plays a {@link TraceSource} into a {@link LocationSink}, the same entry
+ * point the real location providers feed.
+ * <p>
+ * Timestamps are deterministic: each fix is stamped with the replay start given to
+ * {@link #start(long)} plus its offset from the first fix of the trace, whatever the
+ * replay speed and however late the fixes are actually delivered. A trace replayed at
+ * 1000× therefore produces exactly the same fixes as at 1×, just sooner. Like a real
+ * receiver, the engine drops fixes that come sooner than the requested interval after
+ * the previous one, so the adaptive sampling of the pipeline is exercised as well.
+ * With looping on, the trace starts over when it ends and time keeps running.
+ * </p>
+ * <p>
+ * The engine is driven from outside: {@link #deliverUntil(long, LocationSink)} delivers
+ * the fixes due by a point of trace time as one batch, and the speed factor converts
+ * between trace time and real time for a paced replay. {@link #runToEnd} delivers the
+ * whole trace as fast as possible, e.g. for throughput tests on a headless JVM. It is not
+ * thread-safe and does not allocate per fix.
+ * </p>
+ */
+public final class ReplayEngine implements Closeable {
+    /** Slowest replay speed, real time. */
+    public static final double MIN_SPEED_FACTOR = 1;
+
+    /** Fastest replay speed. */
+    public static final double MAX_SPEED_FACTOR = 1000;
+
+    /** A fix is kept if it comes at most this much sooner than the requested interval. */
+    static final long INTERVAL_SLACK_NANOS = 100_000_000L;
+
+    /** Time between the last fix of a pass and the first fix of the next, when looping. */
+    static final long LOOP_GAP_NANOS = 1_000_000_000L;
+
+    /** The trace being replayed. */
+    private final TraceSource source;
+
+    /** Trace time per real time. */
+    private final double speedFactor;
+
+    /** Reused holder of the next fix. */
+    private final FixSample sample = new FixSample();
+
+    /** True to start the trace over when it ends. */
+    private boolean loop;
+
+    /** Minimum time between delivered fixes, in nanoseconds. */
+    private long minIntervalNanos;
+
+    /** Timestamp given to the first fix, in nanoseconds. */
+    private long baseNanos;
+
+    /** Trace timestamp of the first fix of the current pass, in nanoseconds. */
+    private long passStartTraceNanos;
+
+    /** Replay offset at which the current pass starts, in nanoseconds. */
+    private long passStartOffsetNanos;
+
+    /** Replay offset of the last fix read from the trace, or -1 before the first. */
+    private long lastOffsetNanos = -1;
+
+    /** Replay offset of the last delivered fix, or a negative value before the first. */
+    private long lastDeliveredOffsetNanos = Long.MIN_VALUE;
+
+    /** Replay offset of the fix in {@link #sample}; valid if {@link #hasPending}. */
+    private long pendingOffsetNanos;
+
+    /** True if {@link #sample} holds the next fix. */
+    private boolean hasPending;
+
+    /** True once {@link #start(long)} was called. */
+    private boolean started;
+
+    /** True once the trace has ended and is not looping. */
+    private boolean finished;
+
+    /** Number of fixes delivered. */
+    private long deliveredCount;
+
+    /**
+     * @param source      the trace to replay; closed with the engine.
+     * @param speedFactor trace time per real time, from {@link #MIN_SPEED_FACTOR} to
+     *                    {@link #MAX_SPEED_FACTOR}.
+     */
+    public ReplayEngine(TraceSource source, double speedFactor) {
+        if (!(speedFactor >= MIN_SPEED_FACTOR && speedFactor <= MAX_SPEED_FACTOR)) {
+            throw new IllegalArgumentException("speed factor out of range: " + speedFactor);
+        }
+        this.source = source;
+        this.speedFactor = speedFactor;
+    }
+
+    /**
+     * @param loop true to start the trace over when it ends.
+     */
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Sets the minimum time between delivered fixes, like the interval of a location
+     * request. Fixes of the trace that come sooner are skipped.
+     *
+     * @param intervalNanos the interval, in nanoseconds; 0 to deliver every fix.
+     */
+    public void setMinIntervalNanos(long intervalNanos) {
+        minIntervalNanos = intervalNanos;
+    }
+
+    /**
+     * Starts the replay. The first fix is due at offset 0.
+     *
+     * @param baseNanos the timestamp of the first fix, in nanoseconds, e.g. the elapsed
+     *                  realtime at which the replay starts.
+     * @throws IOException if the trace cannot be read.
+     */
+    public void start(long baseNanos) throws IOException {
+        this.baseNanos = baseNanos;
+        started = true;
+        readPending();
+    }
+
+    /** @return true once {@link #start(long)} was called. */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Delivers every fix due by the given offset as one batch.
+     *
+     * @param offsetNanos the replay offset from the first fix, in nanoseconds of trace time.
+     * @param sink        the receiver of the fixes.
+     * @return the number of fixes delivered; 0 if none was due.
+     * @throws IOException if the trace cannot be read.
+     */
+    public int deliverUntil(long offsetNanos, LocationSink sink) throws IOException {
+        return deliver(offsetNanos, Integer.MAX_VALUE, sink);
+    }
+
+    /**
+     * Delivers the rest of the trace as fast as possible, in batches of at most
+     * {@code batchSize} fixes. Does not return while looping.
+     *
+     * @param sink      the receiver of the fixes.
+     * @param batchSize the largest batch, e.g. 1 like the GPS provider or more like the
+     *                  batched fused provider.
+     * @return the number of fixes delivered.
+     * @throws IOException if the trace cannot be read.
+     */
+    public long runToEnd(LocationSink sink, int batchSize) throws IOException {
+        long count = 0;
+        while (hasPending) {
+            count += deliver(Long.MAX_VALUE, batchSize, sink);
+        }
+        return count;
+    }
+
+    /**
+     * @return the replay offset of the next fix in nanoseconds of trace time, or -1 if the
+     *         trace has ended.
+     */
+    public long nextOffsetNanos() {
+        return hasPending ? pendingOffsetNanos : -1;
+    }
+
+    /**
+     * Converts trace time to real time.
+     *
+     * @param offsetNanos a replay offset, in nanoseconds of trace time.
+     * @return the real time after the start at which it is due, in nanoseconds.
+     */
+    public long toRealNanos(long offsetNanos) {
+        return (long) (offsetNanos / speedFactor);
+    }
+
+    /**
+     * Converts real time to trace time.
+     *
+     * @param realNanos real time since the start, in nanoseconds.
+     * @return the replay offset due by then, in nanoseconds of trace time.
+     */
+    public long toOffsetNanos(long realNanos) {
+        return (long) (realNanos * speedFactor);
+    }
+
+    /** @return the trace time per real time. */
+    public double speedFactor() {
+        return speedFactor;
+    }
+
+    /** @return true once the trace has ended and is not looping. */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** @return the number of fixes delivered. */
+    public long deliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Closes the trace.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Delivers the fixes due by the given offset, up to a batch size.
+     *
+     * @param offsetNanos the replay offset, in nanoseconds of trace time.
+     * @param batchSize   the largest number of fixes to deliver.
+     * @param sink        the receiver of the fixes.
+     * @return the number of fixes delivered.
+     * @throws IOException if the trace cannot be read.
+     */
+    private int deliver(long offsetNanos, int batchSize, LocationSink sink) throws IOException {
+        if (!started) {
+            throw new IllegalStateException("replay not started");
+        }
+        int count = 0;
+        while (hasPending && pendingOffsetNanos <= offsetNanos && count < batchSize) {
+            if (lastDeliveredOffsetNanos < 0
+                    || pendingOffsetNanos - lastDeliveredOffsetNanos >= minIntervalNanos - INTERVAL_SLACK_NANOS) {
+                sink.onFix(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                        baseNanos + pendingOffsetNanos);
+                lastDeliveredOffsetNanos = pendingOffsetNanos;
+                count++;
+            }
+            readPending();
+        }
+        if (count > 0) {
+            deliveredCount += count;
+            sink.onBatchEnd();
+        }
+        return count;
+    }
+
+    /**
+     * Reads the next fix of the trace into {@link #sample}, starting over if looping.
+     *
+     * @throws IOException if the trace cannot be read.
+     */
+    private void readPending() throws IOException {
+        boolean read = source.next(sample);
+        boolean newPass = lastOffsetNanos < 0;
+        if (!read && loop && lastOffsetNanos >= 0) {
+            source.rewind();
+            passStartOffsetNanos = lastOffsetNanos + LOOP_GAP_NANOS;
+            newPass = true;
+            read = source.next(sample);
+        }
+        if (!read) {
+            hasPending = false;
+            finished = true;
+            return;
+        }
+        if (newPass) {
+            passStartTraceNanos = sample.elapsedRealtimeNanos;
+        }
+        pendingOffsetNanos = passStartOffsetNanos + sample.elapsedRealtimeNanos - passStartTraceNanos;
+        lastOffsetNanos = pendingOffsetNanos;
+        hasPending = true;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.FixSample;
+
+import java.util.Arrays;
+
+/**
+ * SyntheticTrace generates an exact trace from a list of straight segments.
+ * <p>
+ * Each segment moves at a constant speed along a constant heading for a number of
+ * seconds, so the true distance and moving time of the trace are known up front, which
+ * makes it the reference for regression tests. Fixes are computed on the fly at a fixed
+ * interval, so a trace of any length costs no memory per fix. Build one with
+ * {@link Builder}; {@link #devRun()} is the trace replayed in Dev Mode.
+ * </p>
+ */
+public final class SyntheticTrace implements TraceSource {
+    /** Latitude of the first fix, in degrees. */
+    private final double startLatitude;
+
+    /** Longitude of the first fix, in degrees. */
+    private final double startLongitude;
+
+    /** Time between fixes, in nanoseconds. */
+    private final long intervalNanos;
+
+    /** Accuracy reported with every fix, in meters. */
+    private final float accuracy;
+
+    /** Heading of each segment, in degrees clockwise from north. */
+    private final double[] headings;
+
+    /** Speed of each segment, in meters per second. */
+    private final float[] speeds;
+
+    /** Number of fixes of each segment. */
+    private final int[] fixCounts;
+
+    /** Segment of the next fix. */
+    private int segment;
+
+    /** Index of the next fix within its segment. */
+    private int segmentIndex;
+
+    /** Index of the next fix in the trace. */
+    private long fixIndex;
+
+    /** Latitude of the previous fix, in degrees. */
+    private double latitude;
+
+    /** Longitude of the previous fix, in degrees. */
+    private double longitude;
+
+    private SyntheticTrace(Builder builder) {
+        startLatitude = builder.startLatitude;
+        startLongitude = builder.startLongitude;
+        intervalNanos = builder.intervalNanos;
+        accuracy = builder.accuracy;
+        headings = Arrays.copyOf(builder.headings, builder.segmentCount);
+        speeds = Arrays.copyOf(builder.speeds, builder.segmentCount);
+        fixCounts = Arrays.copyOf(builder.fixCounts, builder.segmentCount);
+        rewind();
+    }
+
+    /**
+     * Returns the trace replayed in Dev Mode: an easy out-and-back run from BU Beach with
+     * a stop at the turn, about 11 minutes long, that ends where it started.
+     *
+     * @return a new trace.
+     */
+    public static SyntheticTrace devRun() {
+        return new Builder()
+                .start(42.3505, -71.1076)
+                .segment(270, 3.0f, 60)
+                .segment(270, 4.4704f, 240)
+                .segment(270, 0f, 30)
+                .segment(90, 4.0f, 253)
+                .segment(90, 2.4f, 100)
+                .build();
+    }
+
+    @Override
+    public boolean next(FixSample sample) {
+        while (segment < fixCounts.length && segmentIndex == fixCounts[segment]) {
+            segment++;
+            segmentIndex = 0;
+        }
+        if (segment == fixCounts.length) {
+            return false;
+        }
+        if (fixIndex > 0) {
+            // Move from the previous fix along the heading of this segment.
+            double step = speeds[segment] * (intervalNanos / 1e9);
+            double heading = Math.toRadians(headings[segment]);
+            latitude += step * Math.cos(heading) / RunMetrics.METERS_PER_DEGREE;
+            longitude += step * Math.sin(heading) / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        }
+        sample.set(latitude, longitude, speeds[segment], accuracy, fixIndex * intervalNanos);
+        segmentIndex++;
+        fixIndex++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        segment = 0;
+        segmentIndex = 0;
+        fixIndex = 0;
+        latitude = startLatitude;
+        longitude = startLongitude;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release.
+    }
+
+    /** @return the number of fixes in the trace. */
+    public long size() {
+        long size = 0;
+        for (int count : fixCounts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * @return the true distance covered between the first and the last fix, in meters.
+     *         The first fix of the trace does not move.
+     */
+    public double distanceMeters() {
+        double distance = 0;
+        boolean first = true;
+        for (int i = 0; i < fixCounts.length; i++) {
+            int steps = first && fixCounts[i] > 0 ? fixCounts[i] - 1 : fixCounts[i];
+            first &= fixCounts[i] == 0;
+            distance += speeds[i] * (intervalNanos / 1e9) * steps;
+        }
+        return distance;
+    }
+
+    /** @return the time between fixes, in nanoseconds. */
+    public long intervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Builder of a {@link SyntheticTrace}. Segments are appended in order; the interval
+     * must be set before the first segment.
+     */
+    public static final class Builder {
+        /** Latitude of the first fix, in degrees. */
+        private double startLatitude;
+
+        /** Longitude of the first fix, in degrees. */
+        private double startLongitude;
+
+        /** Time between fixes, in nanoseconds. */
+        private long intervalNanos = 1_000_000_000L;
+
+        /** Accuracy reported with every fix, in meters. */
+        private float accuracy = 4f;
+
+        /** Heading of each segment, in degrees clockwise from north. */
+        private double[] headings = new double[4];
+
+        /** Speed of each segment, in meters per second. */
+        private float[] speeds = new float[4];
+
+        /** Number of fixes of each segment. */
+        private int[] fixCounts = new int[4];
+
+        /** Number of segments appended. */
+        private int segmentCount;
+
+        /**
+         * @param latitude  latitude of the first fix, in degrees.
+         * @param longitude longitude of the first fix, in degrees.
+         * @return this builder.
+         */
+        public Builder start(double latitude, double longitude) {
+            startLatitude = latitude;
+            startLongitude = longitude;
+            return this;
+        }
+
+        /**
+         * @param intervalMillis time between fixes, in milliseconds; 1000 by default.
+         * @return this builder.
+         */
+        public Builder interval(long intervalMillis) {
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("interval must be positive: " + intervalMillis);
+            }
+            if (segmentCount > 0) {
+                throw new IllegalStateException("interval must be set before the segments");
+            }
+            intervalNanos = intervalMillis * 1_000_000L;
+            return this;
+        }
+
+        /**
+         * @param accuracy accuracy reported with every fix, in meters; 4 by default.
+         * @return this builder.
+         */
+        public Builder accuracy(float accuracy) {
+            this.accuracy = accuracy;
+            return this;
+        }
+
+        /**
+         * Appends a straight segment.
+         *
+         * @param headingDegrees direction of travel, in degrees clockwise from north.
+         * @param speedMps       speed, in meters per second; 0 for a stop.
+         * @param seconds        duration of the segment, in seconds.
+         * @return this builder.
+         */
+        public Builder segment(double headingDegrees, float speedMps, int seconds) {
+            if (speedMps < 0 || seconds < 0) {
+                throw new IllegalArgumentException("negative speed or duration");
+            }
+            if (segmentCount == headings.length) {
+                headings = Arrays.copyOf(headings, segmentCount * 2);
+                speeds = Arrays.copyOf(speeds, segmentCount * 2);
+                fixCounts = Arrays.copyOf(fixCounts, segmentCount * 2);
+            }
+            headings[segmentCount] = headingDegrees;
+            speeds[segmentCount] = speedMps;
+            fixCounts[segmentCount] = (int) (seconds * 1_000_000_000L / intervalNanos);
+            segmentCount++;
+            return this;
+        }
+
+        /**
+         * @return a new trace with the segments appended so far.
+         */
+        public SyntheticTrace build() {
+            return new SyntheticTrace(this);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.track.FixSample;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * TraceSource yields the fixes of a recorded or synthetic trace, oldest first.
+ * <p>
+ * Timestamps are in nanoseconds on the trace's own clock; only their differences matter,
+ * since the {@link ReplayEngine} moves them onto the replay clock. Fixes are pulled one at
+ * a time into a reused {@link FixSample}, so reading a trace does not allocate per fix.
+ * </p>
+ */
+public interface TraceSource extends Closeable {
+    /**
+     * Reads the next fix.
+     *
+     * @param sample the holder that receives the fix.
+     * @return true if a fix was read; false at the end of the trace.
+     * @throws IOException if the trace cannot be read.
+     */
+    boolean next(FixSample sample) throws IOException;
+
+    /**
+     * Goes back to the first fix, e.g. to replay the trace in a loop.
+     *
+     * @throws IOException if the trace cannot be read again.
+     */
+    void rewind() throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * TrackFileTrace replays a session saved in the binary track format.
+ * <p>
+ * Fixes are streamed from the file with a {@link TrackReader}, one block in memory at a
+ * time, so even a long session replays with flat memory. A damaged end of the file is
+ * dropped just like when the session is recovered.
+ * </p>
+ */
+public final class TrackFileTrace implements TraceSource {
+    /** The track file. */
+    private final File file;
+
+    /** Reader of the current pass over the file. */
+    private TrackReader reader;
+
+    /**
+     * Opens a track file.
+     *
+     * @param file the track file.
+     * @throws IOException if the file cannot be read or is not a track file.
+     */
+    public TrackFileTrace(File file) throws IOException {
+        this.file = file;
+        reader = TrackReader.open(file);
+    }
+
+    @Override
+    public boolean next(FixSample sample) throws IOException {
+        return reader.next(sample);
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        reader.close();
+        reader = TrackReader.open(file);
+    }
+
+    /** @return the session start as wall-clock time, in epoch milliseconds. */
+    public long startEpochMillis() {
+        return reader.startEpochMillis();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.runtracker.sampling;
+
+/**
+ * SamplingScheduler decides how often GPS fixes are requested and when the session is
+ * automatically paused.
+ * <p>
+ * It starts in {@link #MODE_ACTIVE}, requesting a fix every second. When the speed stays
+ * below {@link #SLOW_SPEED_MPS} for {@link #SLOW_DELAY_NANOS} it switches to
+ * {@link #MODE_SLOW} with a longer interval and distance. When the speed stays below
+ * {@link #STATIONARY_SPEED_MPS} for {@link #STATIONARY_DELAY_NANOS} it switches to
+ * {@link #MODE_STATIONARY}, which auto-pauses the session and asks for fixes only
+ * rarely or after a larger move. Any fix at or above {@link #RESUME_SPEED_MPS} goes
+ * straight back to {@link #MODE_ACTIVE}.
+ * </p>
+ * <p>
+ * The class is pure: it only looks at the speed and time of the fixes it is given, so it
+ * can be driven by replayed traces in tests. The caller re-registers for location updates
+ * with {@link #intervalMillis()} and {@link #minDistanceMeters()} whenever
+ * {@link #onFix(float, long)} reports a mode change.
+ * </p>
+ */
+public final class SamplingScheduler {
+    /** Mode while moving at running speed: 1 Hz updates. */
+    public static final int MODE_ACTIVE = 0;
+
+    /** Mode while moving slowly: fewer updates. */
+    public static final int MODE_SLOW = 1;
+
+    /** Mode while stopped: rare updates and the session is auto-paused. */
+    public static final int MODE_STATIONARY = 2;
+
+    /** Below this speed, in meters per second, the user is considered slow. */
+    public static final float SLOW_SPEED_MPS = 1.5f;
+
+    /** Below this speed, in meters per second, the user is considered stopped. */
+    public static final float STATIONARY_SPEED_MPS = 0.5f;
+
+    /** At or above this speed, in meters per second, updates go back to 1 Hz. */
+    public static final float RESUME_SPEED_MPS = 2.0f;
+
+    /** Time the speed must stay slow before switching to {@link #MODE_SLOW}. */
+    public static final long SLOW_DELAY_NANOS = 10_000_000_000L;
+
+    /** Time the speed must stay near zero before switching to {@link #MODE_STATIONARY}. */
+    public static final long STATIONARY_DELAY_NANOS = 15_000_000_000L;
+
+    /** Minimum time between location updates per mode, in milliseconds. */
+    private static final long[] INTERVAL_MILLIS = {1000, 3000, 10_000};
+
+    /** Minimum distance between location updates per mode, in meters. */
+    private static final float[] MIN_DISTANCE_METERS = {1, 3, 10};
+
+    /** Current mode. */
+    private int mode = MODE_ACTIVE;
+
+    /** Time since which the speed has been below {@link #SLOW_SPEED_MPS}, or -1. */
+    private long slowSinceNanos = -1;
+
+    /** Time since which the speed has been below {@link #STATIONARY_SPEED_MPS}, or -1. */
+    private long stoppedSinceNanos = -1;
+
+    /**
+     * Updates the mode with a new fix.
+     *
+     * @param speedMps             speed of the fix, in meters per second.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @return true if the mode changed, so location updates must be re-requested.
+     */
+    public boolean onFix(float speedMps, long elapsedRealtimeNanos) {
+        if (speedMps >= RESUME_SPEED_MPS) {
+            slowSinceNanos = -1;
+            stoppedSinceNanos = -1;
+            return setMode(MODE_ACTIVE);
+        }
+        if (speedMps >= SLOW_SPEED_MPS) {
+            // Between the slow and resume speeds: keep the mode, but a stop must start over.
+            slowSinceNanos = -1;
+            stoppedSinceNanos = -1;
+            return mode == MODE_STATIONARY && setMode(MODE_SLOW);
+        }
+        if (slowSinceNanos < 0) {
+            slowSinceNanos = elapsedRealtimeNanos;
+        }
+        if (speedMps >= STATIONARY_SPEED_MPS) {
+            stoppedSinceNanos = -1;
+            if (mode == MODE_STATIONARY) {
+                return setMode(MODE_SLOW);
+            }
+        } else if (stoppedSinceNanos < 0) {
+            stoppedSinceNanos = elapsedRealtimeNanos;
+        }
+
+        if (stoppedSinceNanos >= 0 && elapsedRealtimeNanos - stoppedSinceNanos >= STATIONARY_DELAY_NANOS) {
+            return setMode(MODE_STATIONARY);
+        }
+        if (mode == MODE_ACTIVE && elapsedRealtimeNanos - slowSinceNanos >= SLOW_DELAY_NANOS) {
+            return setMode(MODE_SLOW);
+        }
+        return false;
+    }
+
+    /**
+     * Returns to {@link #MODE_ACTIVE} and forgets the speed history, e.g. for a new
+     * session or after a manual pause.
+     *
+     * @return true if the mode changed.
+     */
+    public boolean reset() {
+        slowSinceNanos = -1;
+        stoppedSinceNanos = -1;
+        return setMode(MODE_ACTIVE);
+    }
+
+    /** @return {@link #MODE_ACTIVE}, {@link #MODE_SLOW} or {@link #MODE_STATIONARY}. */
+    public int mode() {
+        return mode;
+    }
+
+    /** @return true while the user is stopped and the session is auto-paused. */
+    public boolean isAutoPaused() {
+        return mode == MODE_STATIONARY;
+    }
+
+    /** @return the minimum time between location updates for the current mode, in milliseconds. */
+    public long intervalMillis() {
+        return intervalMillis(mode);
+    }
+
+    /** @return the minimum distance between location updates for the current mode, in meters. */
+    public float minDistanceMeters() {
+        return minDistanceMeters(mode);
+    }
+
+    /**
+     * @param mode a sampling mode.
+     * @return the minimum time between location updates in that mode, in milliseconds.
+     */
+    public static long intervalMillis(int mode) {
+        return INTERVAL_MILLIS[mode];
+    }
+
+    /**
+     * @param mode a sampling mode.
+     * @return the minimum distance between location updates in that mode, in meters.
+     */
+    public static float minDistanceMeters(int mode) {
+        return MIN_DISTANCE_METERS[mode];
+    }
+
+    /**
+     * @param newMode the mode to switch to.
+     * @return true if the mode changed.
+     */
+    private boolean setMode(int newMode) {
+        if (mode == newMode) {
+            return false;
+        }
+        mode = newMode;
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.track.TrackBuffer;
+
+/**
+ * Segment is a stretch of a route that the user wants timed whenever it is run, from
+ * its first to its last point along the polyline in between.
+ * <p>
+ * The polyline is kept in primitive columns and never changes, so a segment may be
+ * shared between the thread that defines it and the one matching fixes against it.
+ * </p>
+ */
+public final class Segment {
+    /** Id of the segment, e.g. its row in the database. */
+    public final long id;
+
+    /** Name shown with its efforts. */
+    public final String name;
+
+    /** Latitudes of the polyline, in degrees. */
+    private final double[] latitudes;
+
+    /** Longitudes of the polyline, in degrees. */
+    private final double[] longitudes;
+
+    /** Length of the polyline, in meters. */
+    private final double lengthMeters;
+
+    /**
+     * @param id         id of the segment.
+     * @param name       name shown with its efforts.
+     * @param latitudes  latitudes of the polyline, in degrees; copied.
+     * @param longitudes longitudes of the polyline, in degrees; copied.
+     */
+    public Segment(long id, String name, double[] latitudes, double[] longitudes) {
+        if (latitudes.length < 2 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("a segment needs at least two points");
+        }
+        this.id = id;
+        this.name = name;
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        double length = 0;
+        for (int i = 1; i < latitudes.length; i++) {
+            length += RunMetrics.haversineMeters(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        lengthMeters = length;
+    }
+
+    /**
+     * Creates a segment along the fixes of a track, e.g. the simplified track of a session.
+     *
+     * @param id    id of the segment.
+     * @param name  name shown with its efforts.
+     * @param track the fixes, at least two.
+     * @return the segment.
+     */
+    public static Segment of(long id, String name, TrackBuffer track) {
+        double[] latitudes = new double[track.size()];
+        double[] longitudes = new double[track.size()];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = track.latitude(i);
+            longitudes[i] = track.longitude(i);
+        }
+        return new Segment(id, name, latitudes, longitudes);
+    }
+
+    /** @return the number of points of the polyline. */
+    public int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * @param index the point, below {@link #size()}.
+     * @return the latitude, in degrees.
+     */
+    public double latitude(int index) {
+        return latitudes[index];
+    }
+
+    /**
+     * @param index the point, below {@link #size()}.
+     * @return the longitude, in degrees.
+     */
+    public double longitude(int index) {
+        return longitudes[index];
+    }
+
+    /** @return the length of the polyline, in meters. */
+    public double lengthMeters() {
+        return lengthMeters;
+    }
+}
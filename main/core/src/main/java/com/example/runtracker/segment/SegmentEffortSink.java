@@ -0,0 +1,21 @@
+package com.example.runtracker.segment;
+
+/**
+ * Receiver of the segment efforts found by a {@link SegmentMatcher}.
+ */
+public interface SegmentEffortSink {
+    /** Sink that drops every effort. */
+    SegmentEffortSink DISABLED = new SegmentEffortSink() {
+        @Override
+        public void onSegmentEffort(Segment segment, long startNanos, long endNanos) { }
+    };
+
+    /**
+     * Called on the matching thread when a segment was run from start to finish.
+     *
+     * @param segment    the segment.
+     * @param startNanos timestamp of the fix closest to its start, in nanoseconds.
+     * @param endNanos   timestamp of the fix that reached its finish, in nanoseconds.
+     */
+    void onSegmentEffort(Segment segment, long startNanos, long endNanos);
+}
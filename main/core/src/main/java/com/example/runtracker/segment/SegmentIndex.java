@@ -0,0 +1,174 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.metrics.RunMetrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SegmentIndex finds the segments that start near a position, in a uniform grid.
+ * <p>
+ * The start of every segment falls in a cell of a latitude and longitude grid. The cells
+ * are kept in an open-addressing hash map from the cell key, a {@code long}, to the first
+ * segment of the cell, and the segments of a cell are chained through an {@code int}
+ * array, so the index is a handful of primitive arrays and a lookup allocates nothing.
+ * A position only needs the segments of its cell and the eight around it, however many
+ * segments there are.
+ * </p>
+ * <p>
+ * Cells are as many degrees wide as they are high, so they narrow towards the poles; the
+ * neighbors of a cell still cover a radius of {@code cellMeters * cos(latitude)}, which
+ * is far more than a start radius below the polar circles. The index is immutable and
+ * built once for a set of segments.
+ * </p>
+ */
+public final class SegmentIndex {
+    /** Default size of a cell, in meters north to south. */
+    public static final double DEFAULT_CELL_METERS = 250;
+
+    /** Marker of a free slot of the map, and end of a chain. */
+    static final int NONE = -1;
+
+    /** The indexed segments. */
+    private final Segment[] segments;
+
+    /** Size of a cell, in degrees. */
+    private final double cellDegrees;
+
+    /** Cell keys of the map slots. */
+    private final long[] keys;
+
+    /** First segment of the cell of each map slot, or {@link #NONE} for a free slot. */
+    private final int[] heads;
+
+    /** Next segment of the same cell after each segment, or {@link #NONE}. */
+    private final int[] next;
+
+    /** Mask of a slot index. */
+    private final int mask;
+
+    /**
+     * Creates an index with cells of the {@link #DEFAULT_CELL_METERS default size}.
+     *
+     * @param segments the segments to index.
+     */
+    public SegmentIndex(List<Segment> segments) {
+        this(segments, DEFAULT_CELL_METERS);
+    }
+
+    /**
+     * @param segments   the segments to index.
+     * @param cellMeters size of a cell, in meters north to south; at least the radius
+     *                   that positions are looked up in.
+     */
+    public SegmentIndex(List<Segment> segments, double cellMeters) {
+        if (!(cellMeters > 0)) {
+            throw new IllegalArgumentException("invalid cell size " + cellMeters);
+        }
+        this.segments = segments.toArray(new Segment[0]);
+        cellDegrees = cellMeters / RunMetrics.METERS_PER_DEGREE;
+        // At most half full, so probes stay short.
+        int capacity = Integer.highestOneBit(Math.max(2, this.segments.length) * 2 - 1) << 1;
+        keys = new long[capacity];
+        heads = new int[capacity];
+        Arrays.fill(heads, NONE);
+        next = new int[this.segments.length];
+        mask = capacity - 1;
+        for (int i = 0; i < this.segments.length; i++) {
+            Segment segment = this.segments[i];
+            int slot = slot(cellKey(row(segment.latitude(0)), column(segment.longitude(0))));
+            next[i] = heads[slot];
+            heads[slot] = i;
+        }
+    }
+
+    /** @return the number of indexed segments. */
+    public int size() {
+        return segments.length;
+    }
+
+    /**
+     * @param index the segment, below {@link #size()}.
+     * @return the segment.
+     */
+    public Segment segment(int index) {
+        return segments[index];
+    }
+
+    /**
+     * @param latitude latitude in degrees.
+     * @return the grid row of the latitude.
+     */
+    public int row(double latitude) {
+        return (int) Math.floor(latitude / cellDegrees);
+    }
+
+    /**
+     * @param longitude longitude in degrees.
+     * @return the grid column of the longitude.
+     */
+    public int column(double longitude) {
+        return (int) Math.floor(longitude / cellDegrees);
+    }
+
+    /**
+     * Returns the first segment starting in a cell; the others follow with
+     * {@link #nextInCell(int)}.
+     *
+     * @param row    the grid row.
+     * @param column the grid column.
+     * @return the index of the segment, or {@link #NONE} if none starts in the cell.
+     */
+    public int firstInCell(int row, int column) {
+        long key = cellKey(row, column);
+        for (int slot = hash(key); ; slot = (slot + 1) & mask) {
+            if (heads[slot] == NONE) {
+                return NONE;
+            }
+            if (keys[slot] == key) {
+                return heads[slot];
+            }
+        }
+    }
+
+    /**
+     * @param index a segment returned by {@link #firstInCell} or by this method.
+     * @return the next segment starting in the same cell, or {@link #NONE}.
+     */
+    public int nextInCell(int index) {
+        return next[index];
+    }
+
+    /**
+     * Returns the slot of a cell, claiming a free one for a new cell.
+     *
+     * @param key the cell key.
+     * @return the slot.
+     */
+    private int slot(long key) {
+        int slot = hash(key);
+        while (heads[slot] != NONE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        return slot;
+    }
+
+    /**
+     * @param key the cell key.
+     * @return the first slot probed for the key.
+     */
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @param row    the grid row.
+     * @param column the grid column.
+     * @return the key of the cell.
+     */
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.metrics.RunMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SegmentMatcher times the segments run during a session, fix by fix.
+ * <p>
+ * A fix starts an attempt at each segment whose start is within
+ * {@link #START_RADIUS_METERS}; the candidates come from the cells of a
+ * {@link SegmentIndex} around the fix, so the cost of a fix does not grow with the number
+ * of segments. Each attempt is a small state machine over the polyline of its segment:
+ * while near the start it keeps the fix closest to it as the start of the effort; it
+ * follows the polyline leg by leg, moving to the next leg only once a fix reaches the end
+ * of the current one, within {@link #LEG_END_METERS}, and by one leg per fix at most; it
+ * is dropped when a fix is more than {@link #FOLLOW_RADIUS_METERS} off the current leg.
+ * On the last leg, a fix within {@link #FINISH_RADIUS_METERS} of the finish completes it
+ * and the effort goes to the {@link SegmentEffortSink}, once the distance covered along
+ * the polyline is {@link #MIN_COVERED_FRACTION} of its length. A leg is never skipped
+ * because a later one passes as close, so standing at the start of an out-and-back
+ * segment, which is also its finish, does not complete it. Distances are measured on a
+ * flat projection around the fix, which is exact to centimeters at these ranges.
+ * </p>
+ * <p>
+ * The attempt state is kept in primitive arrays, one entry per segment, and the running
+ * attempts in an array of their indexes, so matching a fix allocates nothing. The matcher
+ * is confined to the processing thread; the sink may be set from any thread.
+ * </p>
+ */
+public final class SegmentMatcher {
+    /** Largest distance of a fix from the start of a segment to start an attempt, in meters. */
+    public static final double START_RADIUS_METERS = 25;
+
+    /** Largest distance of a fix from the followed leg of a segment, in meters. */
+    public static final double FOLLOW_RADIUS_METERS = 30;
+
+    /** Largest distance of a fix from the finish of a segment to complete it, in meters. */
+    public static final double FINISH_RADIUS_METERS = 25;
+
+    /** Largest distance short of the end of a leg at which a fix moves on to the next leg, in meters. */
+    public static final double LEG_END_METERS = 10;
+
+    /** Smallest part of the length of a segment to cover along its polyline before the finish counts. */
+    public static final double MIN_COVERED_FRACTION = 0.8;
+
+    /** Index of the segments by their start. */
+    private SegmentIndex index = new SegmentIndex(Collections.<Segment>emptyList());
+
+    /** True for each segment with a running attempt. */
+    private boolean[] attempting = new boolean[0];
+
+    /** First point of the followed leg of each attempt. */
+    private int[] legs = new int[0];
+
+    /** Length of the legs each attempt has followed to their end, in meters. */
+    private double[] coveredMeters = new double[0];
+
+    /** Start of each attempt, in nanoseconds. */
+    private long[] startNanos = new long[0];
+
+    /** Squared distance of the start fix of each attempt from the segment start, in square meters. */
+    private double[] startDistancesSquared = new double[0];
+
+    /** Indexes of the segments with a running attempt, in the first {@link #activeCount} entries. */
+    private int[] active = new int[0];
+
+    /** Number of running attempts. */
+    private int activeCount;
+
+    /** Meters per degree of longitude at the current fix. */
+    private double metersPerDegreeLongitude;
+
+    /** Length of the leg last measured by {@link #legDistanceSquared}, in meters. */
+    private double legMeters;
+
+    /** Distance along that leg to the point closest to the fix, in meters. */
+    private double alongMeters;
+
+    /** Receiver of the completed efforts. */
+    private volatile SegmentEffortSink sink = SegmentEffortSink.DISABLED;
+
+    /**
+     * Replaces the segments to match, dropping the running attempts.
+     *
+     * @param segments the segments.
+     */
+    public void setSegments(List<Segment> segments) {
+        index = new SegmentIndex(segments);
+        int count = index.size();
+        attempting = new boolean[count];
+        legs = new int[count];
+        coveredMeters = new double[count];
+        startNanos = new long[count];
+        startDistancesSquared = new double[count];
+        active = new int[count];
+        activeCount = 0;
+    }
+
+    /**
+     * @param sink the receiver of the completed efforts, called on the processing thread.
+     */
+    public void setSink(SegmentEffortSink sink) {
+        this.sink = sink;
+    }
+
+    /** Drops the running attempts, e.g. for a new session. */
+    public void reset() {
+        for (int i = 0; i < activeCount; i++) {
+            attempting[active[i]] = false;
+        }
+        activeCount = 0;
+    }
+
+    /** @return the number of segments matched. */
+    public int segmentCount() {
+        return index.size();
+    }
+
+    /** @return the number of running attempts. */
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * Advances the running attempts with the next fix of the session and starts those of
+     * the segments starting near it.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param nanos     fix timestamp in nanoseconds.
+     */
+    public void accept(double latitude, double longitude, long nanos) {
+        metersPerDegreeLongitude = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        for (int i = activeCount - 1; i >= 0; i--) {
+            if (!follow(active[i], latitude, longitude, nanos)) {
+                attempting[active[i]] = false;
+                active[i] = active[--activeCount];
+            }
+        }
+        double startRadiusSquared = START_RADIUS_METERS * START_RADIUS_METERS;
+        int row = index.row(latitude);
+        int column = index.column(longitude);
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = column - 1; c <= column + 1; c++) {
+                for (int s = index.firstInCell(r, c); s != SegmentIndex.NONE; s = index.nextInCell(s)) {
+                    if (attempting[s]) {
+                        continue;
+                    }
+                    Segment segment = index.segment(s);
+                    double distanceSquared = distanceSquared(latitude, longitude,
+                            segment.latitude(0), segment.longitude(0));
+                    if (distanceSquared <= startRadiusSquared) {
+                        attempting[s] = true;
+                        legs[s] = 0;
+                        coveredMeters[s] = 0;
+                        startNanos[s] = nanos;
+                        startDistancesSquared[s] = distanceSquared;
+                        active[activeCount++] = s;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances an attempt with a fix.
+     *
+     * @param s         the index of the segment.
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param nanos     fix timestamp in nanoseconds.
+     * @return true if the attempt goes on, false if it is dropped or completed.
+     */
+    private boolean follow(int s, double latitude, double longitude, long nanos) {
+        Segment segment = index.segment(s);
+        int last = segment.size() - 1;
+        int leg = legs[s];
+        double legDistanceSquared = legDistanceSquared(segment, leg, latitude, longitude);
+        if (leg + 1 < last && alongMeters >= legMeters - LEG_END_METERS) {
+            // The fix reached the end of the leg.
+            coveredMeters[s] += legMeters;
+            legs[s] = ++leg;
+            legDistanceSquared = legDistanceSquared(segment, leg, latitude, longitude);
+        }
+        if (legDistanceSquared > FOLLOW_RADIUS_METERS * FOLLOW_RADIUS_METERS) {
+            return false;
+        }
+        if (leg == 0) {
+            double distanceSquared = distanceSquared(latitude, longitude, segment.latitude(0), segment.longitude(0));
+            if (distanceSquared < startDistancesSquared[s]) {
+                // Still at the start: the effort starts at the closest fix.
+                startNanos[s] = nanos;
+                startDistancesSquared[s] = distanceSquared;
+            }
+        }
+        if (leg == last - 1
+                && coveredMeters[s] + alongMeters >= MIN_COVERED_FRACTION * segment.lengthMeters()
+                && distanceSquared(latitude, longitude, segment.latitude(last),
+                segment.longitude(last)) <= FINISH_RADIUS_METERS * FINISH_RADIUS_METERS) {
+            sink.onSegmentEffort(segment, startNanos[s], nanos);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Measures a fix against a leg, leaving the length of the leg in {@link #legMeters} and
+     * the distance along it to the closest point in {@link #alongMeters}.
+     *
+     * @param segment   the segment.
+     * @param leg       the first point of the leg.
+     * @param latitude  latitude of the fix, in degrees.
+     * @param longitude longitude of the fix, in degrees.
+     * @return the squared distance of the fix from the leg, in square meters.
+     */
+    private double legDistanceSquared(Segment segment, int leg, double latitude, double longitude) {
+        double ax = (segment.longitude(leg) - longitude) * metersPerDegreeLongitude;
+        double ay = (segment.latitude(leg) - latitude) * RunMetrics.METERS_PER_DEGREE;
+        double bx = (segment.longitude(leg + 1) - longitude) * metersPerDegreeLongitude;
+        double by = (segment.latitude(leg + 1) - latitude) * RunMetrics.METERS_PER_DEGREE;
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? -(ax * dx + ay * dy) / lengthSquared : 0;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        legMeters = Math.sqrt(lengthSquared);
+        alongMeters = t * legMeters;
+        double x = ax + t * dx;
+        double y = ay + t * dy;
+        return x * x + y * y;
+    }
+
+    /**
+     * @param latitude       latitude of the fix, in degrees.
+     * @param longitude      longitude of the fix, in degrees.
+     * @param pointLatitude  latitude of the point, in degrees.
+     * @param pointLongitude longitude of the point, in degrees.
+     * @return the squared distance between the fix and the point, in square meters.
+     */
+    private double distanceSquared(double latitude, double longitude, double pointLatitude,
+                                   double pointLongitude) {
+        double x = (pointLongitude - longitude) * metersPerDegreeLongitude;
+        double y = (pointLatitude - latitude) * RunMetrics.METERS_PER_DEGREE;
+        return x * x + y * y;
+    }
+}
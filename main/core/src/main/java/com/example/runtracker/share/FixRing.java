@@ -0,0 +1,138 @@
+package com.example.runtracker.share;
+
+import com.example.runtracker.pipeline.SpscRing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FixRing is a bounded lock-free queue of fixes for exactly one producer thread and one
+ * consumer thread, with the fields of the fixes in primitive arrays.
+ * <p>
+ * It works as {@link SpscRing} does, without an object per fix: the producer writes the
+ * fields of a slot, then publishes the tail with an ordered store; the consumer reads
+ * the fields of the head slot, then publishes the head. When the ring is full,
+ * {@link #offer} drops the oldest fix instead of waiting or dropping the new one, so the
+ * newest fixes always get through.
+ * </p>
+ * <p>
+ * Dropping the oldest fix moves the head from the producer side, so both threads move
+ * it with a compare-and-set. The producer claims the oldest slot before writing it
+ * again; the consumer reads a slot, then claims it, and discards what it read if the
+ * producer claimed it first, as the fields may have been overwritten meanwhile.
+ * </p>
+ */
+final class FixRing {
+    /** Session of the fixes. */
+    private final long[] sessionIds;
+
+    /** Latitudes in degrees. */
+    private final double[] latitudes;
+
+    /** Longitudes in degrees. */
+    private final double[] longitudes;
+
+    /** Speeds in meters per second. */
+    private final float[] speeds;
+
+    /** Horizontal accuracies in meters. */
+    private final float[] accuracies;
+
+    /** Times in epoch milliseconds. */
+    private final long[] epochMillis;
+
+    /** Mask mapping a sequence number to a slot. */
+    private final int mask;
+
+    /** Sequence number of the next fix to take; written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Sequence number of the next fix to add; written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued fixes; a power of two.
+     */
+    FixRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        sessionIds = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        speeds = new float[capacity];
+        accuracies = new float[capacity];
+        epochMillis = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds a fix. Must only be called from the producer thread.
+     *
+     * @param sessionId   session of the fix.
+     * @param latitude    latitude in degrees.
+     * @param longitude   longitude in degrees.
+     * @param speedMps    speed in meters per second.
+     * @param accuracy    horizontal accuracy in meters.
+     * @param epochMillis time of the fix in epoch milliseconds.
+     * @return true if it was added to the fixes queued; false if the oldest fix was
+     *         dropped to make room for it.
+     */
+    boolean offer(long sessionId, double latitude, double longitude, float speedMps, float accuracy,
+                  long epochMillis) {
+        long t = tail.get();
+        long h = head.get();
+        // If the consumer takes the oldest fix first, there is room anyway.
+        boolean dropped = t - h == sessionIds.length && head.compareAndSet(h, h + 1);
+        int index = (int) t & mask;
+        sessionIds[index] = sessionId;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        speeds[index] = speedMps;
+        accuracies[index] = accuracy;
+        this.epochMillis[index] = epochMillis;
+        // Ordered store: the slot writes are visible before the new tail.
+        tail.lazySet(t + 1);
+        return !dropped;
+    }
+
+    /**
+     * Returns the session of the oldest fix. Must only be called from the consumer thread.
+     *
+     * @return the session, or -1 if the ring is empty.
+     */
+    long peekSession() {
+        long h = head.get();
+        return h == tail.get() ? -1 : sessionIds[(int) h & mask];
+    }
+
+    /**
+     * Takes the oldest fix into a batch. Must only be called from the consumer thread.
+     *
+     * @param batch the batch, not full.
+     * @return false if the ring is empty or the oldest fix is of another session than the
+     *         batch.
+     */
+    boolean pollInto(ShareBatch batch) {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return false;
+            }
+            int index = (int) h & mask;
+            long sessionId = sessionIds[index];
+            double latitude = latitudes[index];
+            double longitude = longitudes[index];
+            float speed = speeds[index];
+            float accuracy = accuracies[index];
+            long millis = epochMillis[index];
+            if (sessionId != batch.sessionId) {
+                return false;
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                batch.append(latitude, longitude, speed, accuracy, millis);
+                return true;
+            }
+            // The producer dropped the fix while it was read: take the next one.
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.runtracker.share;
+
+/**
+ * LiveShareSink receives the fixes recorded in a session, to share them live.
+ * <p>
+ * Both methods are called on the processing thread, once per recorded fix, so they must
+ * return at once: a sink only queues the fix for another thread. With the
+ * {@link #DISABLED} sink, sharing costs a call to an empty method.
+ * </p>
+ */
+public interface LiveShareSink {
+    /** Sink that drops every fix; the default while nothing is shared. */
+    LiveShareSink DISABLED = new LiveShareSink() {
+        @Override
+        public void startSession(long sessionId, long epochOffsetNanos) { }
+
+        @Override
+        public void onFix(double latitude, double longitude, float speedMps, float accuracy,
+                          long elapsedRealtimeNanos) { }
+    };
+
+    /**
+     * Starts sharing a session; the next fixes belong to it.
+     *
+     * @param sessionId        the session: the wall clock time at which it started, in
+     *                         epoch milliseconds.
+     * @param epochOffsetNanos wall clock time minus elapsed realtime, in nanoseconds, to
+     *                         stamp the fixes with the wall clock time.
+     */
+    void startSession(long sessionId, long epochOffsetNanos);
+
+    /**
+     * Receives a recorded fix.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     */
+    void onFix(double latitude, double longitude, float speedMps, float accuracy,
+               long elapsedRealtimeNanos);
+}
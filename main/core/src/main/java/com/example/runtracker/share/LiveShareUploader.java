@@ -0,0 +1,379 @@
+package com.example.runtracker.share;
+
+import com.example.runtracker.clock.NanoClock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LiveShareUploader posts the fixes of the session to an HTTP endpoint in batches, so
+ * that others can follow the run live.
+ * <p>
+ * The processing thread hands each recorded fix to a lock-free {@link FixRing}, which
+ * costs no allocation and never blocks; if the upload thread falls behind until the ring
+ * is full, the oldest fixes are dropped and counted, so followers still get the newest
+ * position. Every batch interval the upload
+ * thread takes the fixes from the ring into {@link ShareBatch batches}, adds them to the
+ * on-disk {@link UploadQueue}, and posts the queued batches oldest first, each as one
+ * request with the compressed batch as its body.
+ * </p>
+ * <p>
+ * While offline or while the endpoint fails, the batches stay queued, bounded on disk by
+ * coalescing the oldest ones, and posting is tried again after an exponential backoff
+ * from {@link #INITIAL_BACKOFF_NANOS} up to {@link #MAX_BACKOFF_NANOS}, not on every
+ * interval. The first success posts the whole backlog and resets the backoff. A batch
+ * the endpoint rejects as a client error is dropped, as posting it again would fail
+ * again.
+ * </p>
+ * <p>
+ * Opening the queue reads its directory, so an uploader given a directory opens it on
+ * the upload thread, on the first interval, and not on the thread that creates it. While
+ * the queue cannot be opened, the ring is still emptied every interval into one batch
+ * held in memory, {@link ShareBatch#thin thinned} to every other fix when full, which is
+ * queued first once the queue opens.
+ * </p>
+ */
+public final class LiveShareUploader implements LiveShareSink, Closeable {
+    /** Default interval between two batches, in milliseconds. */
+    public static final long BATCH_INTERVAL_MILLIS = 5_000;
+
+    /** Content type of the posted batches. */
+    public static final String CONTENT_TYPE = "application/x-runtracker-batch";
+
+    /** Number of fixes the ring holds between two batches. */
+    static final int RING_CAPACITY = 1024;
+
+    /** Backoff after the first failed post, in nanoseconds. */
+    static final long INITIAL_BACKOFF_NANOS = 1_000_000_000L;
+
+    /** Longest backoff, in nanoseconds. */
+    static final long MAX_BACKOFF_NANOS = 300_000_000_000L;
+
+    /** Connect and read timeout of a post, in milliseconds. */
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    /** Endpoint the batches are posted to. */
+    private volatile URL endpoint;
+
+    /** Directory of the queue opened on the upload thread, or null if given open. */
+    private final File queueDirectory;
+
+    /** Largest total size of the queue opened on the upload thread, in bytes. */
+    private final long queueMaxBytes;
+
+    /** Batches waiting to be posted, or null until opened; only used on the upload thread. */
+    private UploadQueue queue;
+
+    /** Time source of the backoff. */
+    private final NanoClock clock;
+
+    /** Interval between two batches, in milliseconds. */
+    private final long batchIntervalMillis;
+
+    /** Fixes handed from the processing thread to the upload thread. */
+    private final FixRing ring = new FixRing(RING_CAPACITY);
+
+    /** Reused batch taken from the ring; only used on the upload thread. */
+    private final ShareBatch batch = new ShareBatch();
+
+    /** Fixes taken from the ring while the queue cannot be opened; only used on the upload thread. */
+    private final ShareBatch held = new ShareBatch();
+
+    /** Session of the next fixes, or -1 before the first; only used on the processing thread. */
+    private long sessionId = -1;
+
+    /** Wall clock time minus elapsed realtime; only used on the processing thread. */
+    private long epochOffsetNanos;
+
+    /** Number of oldest fixes dropped because the ring was full; written on the processing thread. */
+    private volatile long droppedFixes;
+
+    /** Number of consecutive failed posts; only used on the upload thread. */
+    private int failures;
+
+    /** Time before which no post is tried, in {@link #clock} nanoseconds. */
+    private long retryAtNanos;
+
+    /** Number of batches posted; written on the upload thread. */
+    private volatile long postedBatches;
+
+    /** Number of batches the endpoint rejected; written on the upload thread. */
+    private volatile long rejectedBatches;
+
+    /** Thread of the uploads, or null until started. */
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param endpoint            the endpoint the batches are posted to.
+     * @param queue               the queue of the batches not posted yet.
+     * @param clock               the time source of the backoff.
+     * @param batchIntervalMillis interval between two batches, e.g.
+     *                            {@link #BATCH_INTERVAL_MILLIS}.
+     */
+    public LiveShareUploader(URL endpoint, UploadQueue queue, NanoClock clock, long batchIntervalMillis) {
+        this(endpoint, queue, null, 0, clock, batchIntervalMillis);
+    }
+
+    /**
+     * Creates an uploader that opens its queue on the upload thread.
+     *
+     * @param endpoint            the endpoint the batches are posted to.
+     * @param queueDirectory      the directory of the queue of the batches not posted yet.
+     * @param queueMaxBytes       largest total size of the queued batches, in bytes.
+     * @param clock               the time source of the backoff.
+     * @param batchIntervalMillis interval between two batches, e.g.
+     *                            {@link #BATCH_INTERVAL_MILLIS}.
+     */
+    public LiveShareUploader(URL endpoint, File queueDirectory, long queueMaxBytes, NanoClock clock,
+                             long batchIntervalMillis) {
+        this(endpoint, null, queueDirectory, queueMaxBytes, clock, batchIntervalMillis);
+    }
+
+    /**
+     * @param endpoint            the endpoint the batches are posted to.
+     * @param queue               the open queue, or null to open one on the upload thread.
+     * @param queueDirectory      the directory of the queue to open, if not given open.
+     * @param queueMaxBytes       largest total size of the queue to open, in bytes.
+     * @param clock               the time source of the backoff.
+     * @param batchIntervalMillis interval between two batches.
+     */
+    private LiveShareUploader(URL endpoint, UploadQueue queue, File queueDirectory, long queueMaxBytes,
+                              NanoClock clock, long batchIntervalMillis) {
+        this.endpoint = endpoint;
+        this.queue = queue;
+        this.queueDirectory = queueDirectory;
+        this.queueMaxBytes = queueMaxBytes;
+        this.clock = clock;
+        this.batchIntervalMillis = batchIntervalMillis;
+    }
+
+    /**
+     * Posts the next batches, including those already queued, to another endpoint.
+     *
+     * @param endpoint the endpoint.
+     */
+    public void setEndpoint(URL endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /** @return the endpoint the batches are posted to. */
+    public URL endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Starts the upload thread, which first posts the batches left queued, e.g. from
+     * before the app was killed.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-share");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, 0, batchIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the fixes taken so far, tries to post them a last time, and stops the upload
+     * thread without waiting. The batches not posted stay queued on disk.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.execute(this::tick);
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void startSession(long sessionId, long epochOffsetNanos) {
+        this.sessionId = sessionId;
+        this.epochOffsetNanos = epochOffsetNanos;
+    }
+
+    @Override
+    public void onFix(double latitude, double longitude, float speedMps, float accuracy,
+                      long elapsedRealtimeNanos) {
+        if (sessionId < 0) {
+            return;
+        }
+        long epochMillis = (elapsedRealtimeNanos + epochOffsetNanos) / 1_000_000L;
+        if (!ring.offer(sessionId, latitude, longitude, speedMps, accuracy, epochMillis)) {
+            droppedFixes++;
+        }
+    }
+
+    /** @return the number of oldest fixes dropped because the upload thread fell behind. */
+    public long droppedFixes() {
+        return droppedFixes;
+    }
+
+    /** @return the number of batches posted. */
+    public long postedBatches() {
+        return postedBatches;
+    }
+
+    /** @return the number of batches the endpoint rejected. */
+    public long rejectedBatches() {
+        return rejectedBatches;
+    }
+
+    /**
+     * Opens the queue if not open yet, queues the fixes taken from the ring, then posts
+     * the queued batches unless backing off. Runs on the upload thread.
+     */
+    void tick() {
+        if (queue == null) {
+            try {
+                queue = new UploadQueue(queueDirectory, queueMaxBytes);
+            } catch (IOException e) {
+                // Opening is tried again on the next interval; the fixes wait in memory.
+                e.printStackTrace();
+                holdRing();
+                return;
+            }
+        }
+        try {
+            if (held.count > 0) {
+                queue.add(held);
+                held.clear(held.sessionId);
+            }
+            drainRing();
+        } catch (IOException e) {
+            // The fixes taken stay lost; the next ones are queued again.
+            e.printStackTrace();
+        }
+        if (clock.nanoTime() - retryAtNanos >= 0) {
+            postQueued();
+        }
+    }
+
+    /**
+     * Takes every fix from the ring into batches of one session each, and queues them.
+     *
+     * @throws IOException if a batch cannot be queued.
+     */
+    private void drainRing() throws IOException {
+        long session;
+        while ((session = ring.peekSession()) >= 0) {
+            batch.clear(session);
+            while (!batch.isFull() && ring.pollInto(batch)) {
+                // Taken into the batch.
+            }
+            if (batch.count > 0) {
+                queue.add(batch);
+            }
+        }
+    }
+
+    /**
+     * Takes every fix from the ring into the batch held in memory, thinning it when full.
+     * The fixes held of an older session are replaced, as followers only see the newest.
+     */
+    private void holdRing() {
+        long session;
+        while ((session = ring.peekSession()) >= 0) {
+            if (held.sessionId != session) {
+                held.clear(session);
+            }
+            if (held.isFull()) {
+                held.thin();
+            }
+            ring.pollInto(held);
+        }
+    }
+
+    /**
+     * Posts the queued batches oldest first, until the queue is empty or a post fails.
+     */
+    private void postQueued() {
+        while (!queue.isEmpty()) {
+            byte[] body;
+            try {
+                body = queue.peek();
+            } catch (IOException e) {
+                // An unreadable batch would block the queue for good.
+                e.printStackTrace();
+                queue.remove();
+                continue;
+            }
+            int status;
+            try {
+                status = post(body);
+            } catch (IOException e) {
+                status = -1;
+            }
+            if (status >= 200 && status < 300) {
+                queue.remove();
+                postedBatches++;
+                failures = 0;
+            } else if (status >= 400 && status < 500 && status != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    && status != 429) {
+                queue.remove();
+                rejectedBatches++;
+            } else {
+                failures++;
+                retryAtNanos = clock.nanoTime() + backoffNanos(failures);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param failures the number of consecutive failed posts, at least 1.
+     * @return the time to wait before posting again, doubling with each failure.
+     */
+    static long backoffNanos(int failures) {
+        int doublings = Math.min(failures - 1, 30);
+        return Math.min(INITIAL_BACKOFF_NANOS << doublings, MAX_BACKOFF_NANOS);
+    }
+
+    /**
+     * Posts one batch.
+     *
+     * @param body the encoded batch.
+     * @return the HTTP status of the response.
+     * @throws IOException if the endpoint cannot be reached.
+     */
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            // Reading the response to its end lets the connection be reused for the next post.
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] skip = new byte[256];
+                    while (in.read(skip) >= 0) {
+                        // Drop the response body.
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
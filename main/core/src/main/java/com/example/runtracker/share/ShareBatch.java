@@ -0,0 +1,288 @@
+package com.example.runtracker.share;
+
+import com.example.runtracker.track.Varint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ShareBatch is a mutable holder for the fixes of one live-share upload, with their
+ * compressed wire format.
+ * <p>
+ * A batch holds up to {@link #MAX_FIXES} fixes of one session in primitive arrays. It is
+ * encoded as a gzip stream of a big-endian header, the magic {@code "RTLS"}, the format
+ * version, the session id and the batch sequence number, followed by the fix count as a
+ * varint and the fixes. Like the blocks of the track file, the first fix holds absolute
+ * values and the following fixes zig-zag varint deltas against the previous fix:
+ * </p>
+ * <ul>
+ *     <li>latitude and longitude in 1e-7 degrees (about 1 cm), signed;</li>
+ *     <li>time in epoch milliseconds, signed;</li>
+ *     <li>speed in centimeters per second, unsigned, not delta encoded;</li>
+ *     <li>horizontal accuracy in decimeters, unsigned, not delta encoded.</li>
+ * </ul>
+ * <p>
+ * Batches that wait too long are {@link #coalesce coalesced}: two batches of a session
+ * become one with every other fix, so a backlog keeps the whole route at a lower
+ * resolution instead of growing.
+ * </p>
+ */
+public final class ShareBatch {
+    /** Maximum number of fixes in a batch. */
+    public static final int MAX_FIXES = 256;
+
+    /** Magic number at the start of a batch: "RTLS". */
+    static final int MAGIC = 0x52544C53;
+
+    /** Version of the batch format. */
+    static final byte VERSION = 1;
+
+    /** Bytes of the header: magic, version, session id and sequence. */
+    static final int HEADER_BYTES = 4 + 1 + 8 + 8;
+
+    /** Maximum encoded size of a batch before compression. */
+    public static final int MAX_PAYLOAD_BYTES = HEADER_BYTES + Varint.MAX_LONG_BYTES
+            + MAX_FIXES * 5 * Varint.MAX_LONG_BYTES;
+
+    /** Scale of the fixed-point latitude and longitude, in units per degree. */
+    private static final double DEGREES_SCALE = 1e7;
+
+    /** Scale of the speed, in units (cm/s) per meter per second. */
+    private static final float SPEED_SCALE = 100f;
+
+    /** Scale of the accuracy, in units (dm) per meter. */
+    private static final float ACCURACY_SCALE = 10f;
+
+    /** Session of the fixes: the wall clock time at which it started, in epoch milliseconds. */
+    public long sessionId;
+
+    /** Sequence number of the batch, increasing over every batch of the uploader. */
+    public long sequence;
+
+    /** Number of fixes in the batch. */
+    public int count;
+
+    /** Latitudes of the fixes, in 1e-7 degrees. */
+    public final long[] latitudes = new long[MAX_FIXES];
+
+    /** Longitudes of the fixes, in 1e-7 degrees. */
+    public final long[] longitudes = new long[MAX_FIXES];
+
+    /** Times of the fixes, in epoch milliseconds. */
+    public final long[] epochMillis = new long[MAX_FIXES];
+
+    /** Speeds of the fixes, in centimeters per second. */
+    public final int[] speeds = new int[MAX_FIXES];
+
+    /** Horizontal accuracies of the fixes, in decimeters. */
+    public final int[] accuracies = new int[MAX_FIXES];
+
+    /**
+     * Empties the batch and starts it for a session.
+     *
+     * @param sessionId the session of the fixes.
+     */
+    public void clear(long sessionId) {
+        this.sessionId = sessionId;
+        sequence = 0;
+        count = 0;
+    }
+
+    /** @return true if no more fixes fit in the batch. */
+    public boolean isFull() {
+        return count == MAX_FIXES;
+    }
+
+    /**
+     * Appends a fix.
+     *
+     * @param latitude    latitude in degrees.
+     * @param longitude   longitude in degrees.
+     * @param speedMps    speed in meters per second.
+     * @param accuracy    horizontal accuracy in meters.
+     * @param epochMillis time of the fix in epoch milliseconds.
+     * @throws IllegalStateException if the batch is full.
+     */
+    public void append(double latitude, double longitude, float speedMps, float accuracy,
+                       long epochMillis) {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        latitudes[count] = Math.round(latitude * DEGREES_SCALE);
+        longitudes[count] = Math.round(longitude * DEGREES_SCALE);
+        this.epochMillis[count] = epochMillis;
+        speeds[count] = toScaled(speedMps, SPEED_SCALE);
+        accuracies[count] = toScaled(accuracy, ACCURACY_SCALE);
+        count++;
+    }
+
+    /**
+     * @param index the index of a fix.
+     * @return its latitude in degrees.
+     */
+    public double latitude(int index) {
+        return latitudes[index] / DEGREES_SCALE;
+    }
+
+    /**
+     * @param index the index of a fix.
+     * @return its longitude in degrees.
+     */
+    public double longitude(int index) {
+        return longitudes[index] / DEGREES_SCALE;
+    }
+
+    /**
+     * @param index the index of a fix.
+     * @return its speed in meters per second.
+     */
+    public float speedMps(int index) {
+        return speeds[index] / SPEED_SCALE;
+    }
+
+    /**
+     * @param index the index of a fix.
+     * @return its horizontal accuracy in meters.
+     */
+    public float accuracy(int index) {
+        return accuracies[index] / ACCURACY_SCALE;
+    }
+
+    /**
+     * Keeps every other fix of the batch and always the last, halving it, e.g. to make
+     * room for newer fixes.
+     */
+    public void thin() {
+        int kept = 0;
+        // Counting back from the last fix keeps it, and the first one of every pair.
+        for (int i = (count + 1) % 2; i < count; i += 2) {
+            latitudes[kept] = latitudes[i];
+            longitudes[kept] = longitudes[i];
+            epochMillis[kept] = epochMillis[i];
+            speeds[kept] = speeds[i];
+            accuracies[kept] = accuracies[i];
+            kept++;
+        }
+        count = kept;
+    }
+
+    /**
+     * Replaces this batch with the fixes of this batch followed by those of a newer batch
+     * of the same session, keeping every other fix and always the last. The result holds
+     * at most as many fixes as the larger of the two batches, and keeps the sequence of
+     * this one.
+     *
+     * @param newer the newer batch, left unchanged.
+     * @throws IllegalArgumentException if the batches are of different sessions.
+     */
+    public void coalesce(ShareBatch newer) {
+        if (newer.sessionId != sessionId) {
+            throw new IllegalArgumentException("batches of sessions " + sessionId + " and " + newer.sessionId);
+        }
+        int total = count + newer.count;
+        int kept = 0;
+        // Counting back from the last fix keeps it, and the first one of every pair.
+        for (int i = (total - 1) % 2; i < total; i += 2) {
+            ShareBatch source = i < count ? this : newer;
+            int index = i < count ? i : i - count;
+            latitudes[kept] = source.latitudes[index];
+            longitudes[kept] = source.longitudes[index];
+            epochMillis[kept] = source.epochMillis[index];
+            speeds[kept] = source.speeds[index];
+            accuracies[kept] = source.accuracies[index];
+            kept++;
+        }
+        count = kept;
+    }
+
+    /**
+     * Encodes the batch in its compressed wire format.
+     *
+     * @param payload reusable buffer of at least {@link #MAX_PAYLOAD_BYTES} for the
+     *                uncompressed payload.
+     * @return the gzip stream of the batch.
+     */
+    public byte[] encode(ByteBuffer payload) {
+        payload.clear();
+        payload.putInt(MAGIC).put(VERSION).putLong(sessionId).putLong(sequence);
+        Varint.writeUnsigned(payload, count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                Varint.writeSigned(payload, latitudes[i]);
+                Varint.writeSigned(payload, longitudes[i]);
+                Varint.writeSigned(payload, epochMillis[i]);
+            } else {
+                Varint.writeSigned(payload, latitudes[i] - latitudes[i - 1]);
+                Varint.writeSigned(payload, longitudes[i] - longitudes[i - 1]);
+                Varint.writeSigned(payload, epochMillis[i] - epochMillis[i - 1]);
+            }
+            Varint.writeUnsigned(payload, speeds[i]);
+            Varint.writeUnsigned(payload, accuracies[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.position() / 2 + 32);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(payload.array(), payload.arrayOffset(), payload.position());
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a batch encoded by {@link #encode} into this holder.
+     *
+     * @param encoded the gzip stream of the batch.
+     * @param payload reusable buffer of at least {@link #MAX_PAYLOAD_BYTES} for the
+     *                uncompressed payload.
+     * @throws IOException if the bytes are not a batch.
+     */
+    public void decode(byte[] encoded, ByteBuffer payload) throws IOException {
+        payload.clear();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            int read;
+            while (payload.hasRemaining()
+                    && (read = in.read(payload.array(), payload.arrayOffset() + payload.position(),
+                    payload.remaining())) > 0) {
+                payload.position(payload.position() + read);
+            }
+        }
+        payload.flip();
+        try {
+            if (payload.getInt() != MAGIC || payload.get() != VERSION) {
+                throw new IOException("not a live-share batch");
+            }
+            sessionId = payload.getLong();
+            sequence = payload.getLong();
+            long fixCount = Varint.readUnsigned(payload);
+            if (fixCount < 0 || fixCount > MAX_FIXES) {
+                throw new IOException("batch of " + fixCount + " fixes");
+            }
+            count = (int) fixCount;
+            for (int i = 0; i < count; i++) {
+                latitudes[i] = Varint.readSigned(payload) + (i > 0 ? latitudes[i - 1] : 0);
+                longitudes[i] = Varint.readSigned(payload) + (i > 0 ? longitudes[i - 1] : 0);
+                epochMillis[i] = Varint.readSigned(payload) + (i > 0 ? epochMillis[i - 1] : 0);
+                speeds[i] = (int) Varint.readUnsigned(payload);
+                accuracies[i] = (int) Varint.readUnsigned(payload);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("malformed live-share batch", e);
+        }
+    }
+
+    /**
+     * @param value a non-negative quantity; negative or NaN values become 0.
+     * @param scale the units per unit of the value.
+     * @return the value in scaled units.
+     */
+    private static int toScaled(float value, float scale) {
+        return value > 0 ? (int) Math.min(Math.round((double) value * scale), Integer.MAX_VALUE) : 0;
+    }
+}
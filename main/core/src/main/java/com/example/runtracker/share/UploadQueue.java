@@ -0,0 +1,269 @@
+package com.example.runtracker.share;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * UploadQueue keeps the encoded {@link ShareBatch batches} waiting to be uploaded in a
+ * directory, one file per batch named after its sequence number, oldest first.
+ * <p>
+ * A batch file is written to a temporary file and renamed, so a crash never leaves half
+ * a batch, and the queue is read back from the directory when the app starts again. The
+ * files are bounded to a number of bytes: past the bound, the two oldest batches of a
+ * session are {@link ShareBatch#coalesce coalesced} into one at half the resolution,
+ * and the oldest batch is dropped when that is not possible. A long outage thus costs
+ * resolution of the oldest part of the route first, and never more storage.
+ * </p>
+ * <p>
+ * A queue is not thread-safe; it is used by the upload thread only.
+ * </p>
+ */
+public final class UploadQueue {
+    /** Suffix of the batch files. */
+    static final String SUFFIX = ".lsb";
+
+    /** Suffix of a batch file being written. */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Directory of the batch files. */
+    private final File directory;
+
+    /** Largest total size of the batch files, in bytes. */
+    private final long maxBytes;
+
+    /** The queued batches, oldest first. */
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    /** Reused holder of the older batch coalesced. */
+    private final ShareBatch older = new ShareBatch();
+
+    /** Reused holder of the newer batch coalesced. */
+    private final ShareBatch newer = new ShareBatch();
+
+    /** Reused buffer for encoding and decoding batches. */
+    private final ByteBuffer payload = ByteBuffer.allocate(ShareBatch.MAX_PAYLOAD_BYTES);
+
+    /** Total size of the batch files, in bytes. */
+    private long totalBytes;
+
+    /** Sequence number of the next batch added. */
+    private long nextSequence = 1;
+
+    /** Number of batches dropped to keep to the bound. */
+    private long droppedBatches;
+
+    /**
+     * Opens the queue in a directory, creating it if needed, with the batches left in it.
+     *
+     * @param directory the directory of the batch files.
+     * @param maxBytes  largest total size of the batch files.
+     * @throws IOException if the directory cannot be created.
+     */
+    public UploadQueue(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("cannot list " + directory);
+        }
+        long[] found = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                // Left by a crash while writing; its batch was never queued.
+                file.delete();
+            } else if (name.endsWith(SUFFIX)) {
+                try {
+                    found[count] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // Not a batch file.
+                }
+            }
+        }
+        Arrays.sort(found, 0, count);
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(found[i], file(found[i]).length());
+            entries.addLast(entry);
+            totalBytes += entry.bytes;
+            nextSequence = found[i] + 1;
+        }
+    }
+
+    /**
+     * Gives a batch the next sequence number and queues it, then coalesces or drops the
+     * oldest batches if the queue is over its bound.
+     *
+     * @param batch the batch; its {@link ShareBatch#sequence sequence} is set.
+     * @throws IOException if the batch cannot be written.
+     */
+    public void add(ShareBatch batch) throws IOException {
+        batch.sequence = nextSequence++;
+        byte[] encoded = batch.encode(payload);
+        write(batch.sequence, encoded);
+        entries.addLast(new Entry(batch.sequence, encoded.length));
+        totalBytes += encoded.length;
+        trim();
+    }
+
+    /** @return true if no batch is queued. */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** @return the number of queued batches. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return the total size of the batch files, in bytes. */
+    public long sizeBytes() {
+        return totalBytes;
+    }
+
+    /** @return the number of batches dropped to keep to the bound. */
+    public long droppedBatches() {
+        return droppedBatches;
+    }
+
+    /**
+     * Reads the oldest batch.
+     *
+     * @return its encoded bytes.
+     * @throws IOException if the file cannot be read.
+     * @throws java.util.NoSuchElementException if the queue is empty.
+     */
+    public byte[] peek() throws IOException {
+        return read(entries.element().sequence);
+    }
+
+    /**
+     * Removes the oldest batch, e.g. once it is uploaded.
+     *
+     * @throws java.util.NoSuchElementException if the queue is empty.
+     */
+    public void remove() {
+        Entry entry = entries.remove();
+        totalBytes -= entry.bytes;
+        file(entry.sequence).delete();
+    }
+
+    /**
+     * Coalesces the two oldest batches, or drops the oldest, until the queue is within its
+     * bound.
+     */
+    private void trim() {
+        while (totalBytes > maxBytes && !entries.isEmpty()) {
+            if (entries.size() == 1 || !coalesceOldest()) {
+                remove();
+                droppedBatches++;
+            }
+        }
+    }
+
+    /**
+     * Replaces the two oldest batches with their coalesced batch, under the sequence of the
+     * oldest.
+     *
+     * @return false if they cannot be coalesced: they are of different sessions, the result
+     *         would be no smaller, or a file cannot be read or written.
+     */
+    private boolean coalesceOldest() {
+        Entry first = entries.removeFirst();
+        Entry second = entries.peekFirst();
+        entries.addFirst(first);
+        try {
+            older.decode(read(first.sequence), payload);
+            newer.decode(read(second.sequence), payload);
+            if (older.sessionId != newer.sessionId) {
+                return false;
+            }
+            older.coalesce(newer);
+            byte[] encoded = older.encode(payload);
+            if (encoded.length >= first.bytes + second.bytes) {
+                return false;
+            }
+            write(first.sequence, encoded);
+            totalBytes += encoded.length - first.bytes;
+            first.bytes = encoded.length;
+            // Take the second batch out from behind the first.
+            entries.removeFirst();
+            remove();
+            entries.addFirst(first);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Writes a batch file, replacing it at once.
+     *
+     * @param sequence the sequence number of the batch.
+     * @param encoded  the encoded batch.
+     * @throws IOException if the file cannot be written.
+     */
+    private void write(long sequence, byte[] encoded) throws IOException {
+        File file = file(sequence);
+        File temporary = new File(directory, file.getName() + TEMPORARY_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(encoded);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * @param sequence the sequence number of a queued batch.
+     * @return its encoded bytes.
+     * @throws IOException if the file cannot be read.
+     */
+    private byte[] read(long sequence) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(file(sequence), "r")) {
+            byte[] encoded = new byte[(int) file.length()];
+            file.readFully(encoded);
+            return encoded;
+        }
+    }
+
+    /**
+     * @param sequence the sequence number of a batch.
+     * @return its file.
+     */
+    private File file(long sequence) {
+        return new File(directory, String.format(Locale.ROOT, "%019d%s", sequence, SUFFIX));
+    }
+
+    /**
+     * A queued batch file.
+     */
+    private static final class Entry {
+        /** Sequence number of the batch. */
+        final long sequence;
+
+        /** Size of the file, in bytes. */
+        long bytes;
+
+        /**
+         * @param sequence the sequence number of the batch.
+         * @param bytes    the size of the file.
+         */
+        Entry(long sequence, long bytes) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.runtracker.track;
+
+/**
+ * FixSample is a mutable holder for the fields of one location fix.
+ * <p>
+ * A single instance is reused for every fix so that passing a fix between stages does
+ * not allocate. Stages may modify the fields in place.
+ * </p>
+ */
+public final class FixSample {
+    /** Latitude in degrees. */
+    public double latitude;
+
+    /** Longitude in degrees. */
+    public double longitude;
+
+    /** Speed in meters per second. */
+    public float speedMps;
+
+    /** Horizontal accuracy in meters; 0 if unknown. */
+    public float accuracy;
+
+    /** Fix timestamp in elapsed realtime nanoseconds. */
+    public long elapsedRealtimeNanos;
+
+    /**
+     * Sets every field.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speedMps             speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @return this sample.
+     */
+    public FixSample set(double latitude, double longitude, float speedMps, float accuracy,
+                         long elapsedRealtimeNanos) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speedMps = speedMps;
+        this.accuracy = accuracy;
+        this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+        return this;
+    }
+}
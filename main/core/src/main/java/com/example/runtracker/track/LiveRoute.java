@@ -0,0 +1,165 @@
+package com.example.runtracker.track;
+
+import java.util.Arrays;
+
+/**
+ * LiveRoute publishes the positions of a session track and of its simplified level of
+ * detail to another thread, e.g. for drawing the route while it is recorded.
+ * <p>
+ * One thread appends, normally the processing thread, and any thread reads. The positions
+ * are kept in chunks of primitive columns like the {@link TrackBuffer}, which never move
+ * once allocated; each size is volatile and written after the positions below it, so a
+ * reader that reads a size first sees every position below it, without locking. Positions
+ * are only appended: a new session starts a new route, so a reader holding the old one is
+ * never shown a half-cleared track.
+ * </p>
+ * <p>
+ * Each simplified position also records the index of the same fix in the full route, so
+ * that a reader can follow the simplified route with the newest full-resolution fixes
+ * that the {@link TrackSimplifier} has not decided on yet.
+ * </p>
+ */
+public final class LiveRoute {
+    /** Number of positions per chunk, as a power of two. */
+    private static final int CHUNK_SHIFT = 10;
+
+    /** Number of positions stored in a single chunk. */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /** Mask extracting the index inside a chunk. */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Largest distance of the simplified route from the full one, in meters. */
+    private final double toleranceMeters;
+
+    /** Latitude chunks of the full route, in degrees. */
+    private double[][] latitudes = new double[4][];
+
+    /** Longitude chunks of the full route, in degrees. */
+    private double[][] longitudes = new double[4][];
+
+    /** Latitude chunks of the simplified route, in degrees. */
+    private double[][] simplifiedLatitudes = new double[4][];
+
+    /** Longitude chunks of the simplified route, in degrees. */
+    private double[][] simplifiedLongitudes = new double[4][];
+
+    /** Index in the full route of each simplified position, in chunks. */
+    private int[][] sourceIndexes = new int[4][];
+
+    /** Number of published positions of the full route. */
+    private volatile int size;
+
+    /** Number of published positions of the simplified route. */
+    private volatile int simplifiedSize;
+
+    /**
+     * @param toleranceMeters largest distance of the simplified route from the full one.
+     */
+    public LiveRoute(double toleranceMeters) {
+        this.toleranceMeters = toleranceMeters;
+    }
+
+    /**
+     * Appends a position to the full route. Only called by the appending thread.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     */
+    public void append(double latitude, double longitude) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        if ((index & CHUNK_MASK) == 0) {
+            if (chunk == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, chunk * 2);
+                longitudes = Arrays.copyOf(longitudes, chunk * 2);
+            }
+            latitudes[chunk] = new double[CHUNK_SIZE];
+            longitudes[chunk] = new double[CHUNK_SIZE];
+        }
+        latitudes[chunk][index & CHUNK_MASK] = latitude;
+        longitudes[chunk][index & CHUNK_MASK] = longitude;
+        size = index + 1;
+    }
+
+    /**
+     * Appends a position to the simplified route. Only called by the appending thread.
+     *
+     * @param latitude    latitude in degrees.
+     * @param longitude   longitude in degrees.
+     * @param sourceIndex index of the same fix in the full route.
+     */
+    public void appendSimplified(double latitude, double longitude, int sourceIndex) {
+        int index = simplifiedSize;
+        int chunk = index >>> CHUNK_SHIFT;
+        if ((index & CHUNK_MASK) == 0) {
+            if (chunk == simplifiedLatitudes.length) {
+                simplifiedLatitudes = Arrays.copyOf(simplifiedLatitudes, chunk * 2);
+                simplifiedLongitudes = Arrays.copyOf(simplifiedLongitudes, chunk * 2);
+                sourceIndexes = Arrays.copyOf(sourceIndexes, chunk * 2);
+            }
+            simplifiedLatitudes[chunk] = new double[CHUNK_SIZE];
+            simplifiedLongitudes[chunk] = new double[CHUNK_SIZE];
+            sourceIndexes[chunk] = new int[CHUNK_SIZE];
+        }
+        simplifiedLatitudes[chunk][index & CHUNK_MASK] = latitude;
+        simplifiedLongitudes[chunk][index & CHUNK_MASK] = longitude;
+        sourceIndexes[chunk][index & CHUNK_MASK] = sourceIndex;
+        simplifiedSize = index + 1;
+    }
+
+    /** @return the largest distance of the simplified route from the full one, in meters. */
+    public double toleranceMeters() {
+        return toleranceMeters;
+    }
+
+    /** @return the number of published positions of the full route. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the position, below a {@link #size()} read before.
+     * @return the latitude, in degrees.
+     */
+    public double latitude(int index) {
+        return latitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the position, below a {@link #size()} read before.
+     * @return the longitude, in degrees.
+     */
+    public double longitude(int index) {
+        return longitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /** @return the number of published positions of the simplified route. */
+    public int simplifiedSize() {
+        return simplifiedSize;
+    }
+
+    /**
+     * @param index the position, below a {@link #simplifiedSize()} read before.
+     * @return the latitude, in degrees.
+     */
+    public double simplifiedLatitude(int index) {
+        return simplifiedLatitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the position, below a {@link #simplifiedSize()} read before.
+     * @return the longitude, in degrees.
+     */
+    public double simplifiedLongitude(int index) {
+        return simplifiedLongitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the position, below a {@link #simplifiedSize()} read before.
+     * @return the index of the same fix in the full route.
+     */
+    public int simplifiedSourceIndex(int index) {
+        return sourceIndexes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+}
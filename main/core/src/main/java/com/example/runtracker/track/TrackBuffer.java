@@ -0,0 +1,183 @@
+package com.example.runtracker.track;
+
+import java.util.Arrays;
+
+/**
+ * TrackBuffer stores every fix of a recording session in parallel primitive columns.
+ * <p>
+ * Latitude, longitude, speed, accuracy and the fix timestamp
+ * ({@code Location.getElapsedRealtimeNanos()}) are kept in fixed-size chunks of
+ * {@code double[]}, {@code float[]} and {@code long[]} arrays instead of a
+ * {@code List<Location>}. Appending a fix only writes five array slots; a new chunk
+ * is allocated once every {@link #CHUNK_SIZE} fixes, so there is no per-fix object churn.
+ * A six hour session at 1 Hz (21,600 fixes) takes well under 1 MB.
+ * </p>
+ */
+public final class TrackBuffer {
+    /** Number of fixes per chunk, as a power of two. */
+    private static final int CHUNK_SHIFT = 12;
+
+    /** Number of fixes stored in a single chunk. */
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /** Mask extracting the index inside a chunk. */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Bytes used by one fix across all columns. */
+    public static final int BYTES_PER_FIX = 8 + 8 + 4 + 4 + 8;
+
+    /** Latitude chunks, in degrees. */
+    private double[][] latitudes = new double[0][];
+
+    /** Longitude chunks, in degrees. */
+    private double[][] longitudes = new double[0][];
+
+    /** Speed chunks, in meters per second. */
+    private float[][] speeds = new float[0][];
+
+    /** Horizontal accuracy chunks, in meters. */
+    private float[][] accuracies = new float[0][];
+
+    /** Timestamp chunks, in elapsed realtime nanoseconds. */
+    private long[][] elapsedRealtimeNanos = new long[0][];
+
+    /** Number of allocated chunks. */
+    private int chunkCount;
+
+    /** Number of fixes currently stored. */
+    private int size;
+
+    /**
+     * Appends one fix to the end of the track.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speed                speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     */
+    public void append(double latitude, double longitude, float speed, float accuracy,
+                       long elapsedRealtimeNanos) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunk == chunkCount) {
+            addChunk();
+        }
+        int offset = index & CHUNK_MASK;
+        latitudes[chunk][offset] = latitude;
+        longitudes[chunk][offset] = longitude;
+        speeds[chunk][offset] = speed;
+        accuracies[chunk][offset] = accuracy;
+        this.elapsedRealtimeNanos[chunk][offset] = elapsedRealtimeNanos;
+        size = index + 1;
+    }
+
+    /**
+     * Makes sure the buffer can hold at least {@code capacity} fixes without allocating.
+     *
+     * @param capacity the number of fixes to reserve room for.
+     */
+    public void ensureCapacity(int capacity) {
+        while (chunkCount * CHUNK_SIZE < capacity) {
+            addChunk();
+        }
+    }
+
+    /**
+     * Removes all fixes. Allocated chunks are kept so the next session can reuse them.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /** @return the number of recorded fixes. */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of fixes that fit in the already allocated chunks. */
+    public int capacity() {
+        return chunkCount * CHUNK_SIZE;
+    }
+
+    /** @return the number of bytes held by the allocated column chunks. */
+    public long memoryFootprintBytes() {
+        return (long) capacity() * BYTES_PER_FIX;
+    }
+
+    /**
+     * @param index the fix index, from 0 to {@link #size()} - 1.
+     * @return the latitude of the fix, in degrees.
+     */
+    public double latitude(int index) {
+        checkIndex(index);
+        return latitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the fix index, from 0 to {@link #size()} - 1.
+     * @return the longitude of the fix, in degrees.
+     */
+    public double longitude(int index) {
+        checkIndex(index);
+        return longitudes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the fix index, from 0 to {@link #size()} - 1.
+     * @return the speed of the fix, in meters per second.
+     */
+    public float speed(int index) {
+        checkIndex(index);
+        return speeds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the fix index, from 0 to {@link #size()} - 1.
+     * @return the horizontal accuracy of the fix, in meters.
+     */
+    public float accuracy(int index) {
+        checkIndex(index);
+        return accuracies[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index the fix index, from 0 to {@link #size()} - 1.
+     * @return the timestamp of the fix, in elapsed realtime nanoseconds.
+     */
+    public long elapsedRealtimeNanos(int index) {
+        checkIndex(index);
+        return elapsedRealtimeNanos[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Allocates one more chunk for every column, growing the chunk directories by doubling.
+     */
+    private void addChunk() {
+        if (chunkCount == latitudes.length) {
+            int newLength = Math.max(4, chunkCount * 2);
+            latitudes = Arrays.copyOf(latitudes, newLength);
+            longitudes = Arrays.copyOf(longitudes, newLength);
+            speeds = Arrays.copyOf(speeds, newLength);
+            accuracies = Arrays.copyOf(accuracies, newLength);
+            elapsedRealtimeNanos = Arrays.copyOf(elapsedRealtimeNanos, newLength);
+        }
+        latitudes[chunkCount] = new double[CHUNK_SIZE];
+        longitudes[chunkCount] = new double[CHUNK_SIZE];
+        speeds[chunkCount] = new float[CHUNK_SIZE];
+        accuracies[chunkCount] = new float[CHUNK_SIZE];
+        elapsedRealtimeNanos[chunkCount] = new long[CHUNK_SIZE];
+        chunkCount++;
+    }
+
+    /**
+     * Throws if the index is outside the recorded fixes.
+     *
+     * @param index the fix index to check.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.runtracker.track;
+
+/**
+ * TrackFormat holds the layout constants of the binary track file shared by
+ * {@link TrackWriter} and {@link TrackReader}.
+ * <p>
+ * A file starts with a {@link #HEADER_BYTES} byte header: the magic {@code "RTRK"}, the
+ * format version, a reserved short, the session start wall-clock time in epoch
+ * milliseconds and the session start in elapsed realtime nanoseconds. All multi-byte
+ * header and framing fields are big-endian.
+ * </p>
+ * <p>
+ * The header is followed by blocks. Each block is a 4 byte payload length, the payload
+ * and the CRC32 of the payload. The payload is the fix count as a varint followed by the
+ * fixes. The first fix of a block is a keyframe holding absolute values; the following
+ * fixes hold zig-zag varint deltas of position and time against the previous fix:
+ * </p>
+ * <ul>
+ *     <li>latitude and longitude in 1e-7 degrees (about 1 cm), signed;</li>
+ *     <li>time in microseconds since the session start, signed;</li>
+ *     <li>speed in centimeters per second, unsigned, not delta encoded;</li>
+ *     <li>horizontal accuracy in decimeters, unsigned, not delta encoded.</li>
+ * </ul>
+ * <p>
+ * Every block decodes on its own, so a torn or corrupted block only loses the fixes
+ * inside it; the reader stops there and keeps everything before it.
+ * </p>
+ */
+final class TrackFormat {
+    /** File magic, {@code "RTRK"} in ASCII. */
+    static final int MAGIC = 0x5254524B;
+
+    /** Current format version. */
+    static final short VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_BYTES = 4 + 2 + 2 + 8 + 8;
+
+    /** Bytes of the length prefix of a block. */
+    static final int LENGTH_BYTES = 4;
+
+    /** Bytes of the CRC32 trailer of a block. */
+    static final int CRC_BYTES = 4;
+
+    /** Maximum number of fixes per block. */
+    static final int MAX_FIXES_PER_BLOCK = 256;
+
+    /** Maximum encoded size of one fix: five varints. */
+    static final int MAX_FIX_BYTES = 5 * Varint.MAX_LONG_BYTES;
+
+    /** Maximum payload size of a block. */
+    static final int MAX_PAYLOAD_BYTES = Varint.MAX_LONG_BYTES + MAX_FIXES_PER_BLOCK * MAX_FIX_BYTES;
+
+    /** Scale of the fixed-point latitude and longitude, in units per degree. */
+    static final double DEGREES_SCALE = 1e7;
+
+    /** Nanoseconds per stored time unit (microseconds). */
+    static final long NANOS_PER_TIME_UNIT = 1000;
+
+    /** Scale of the stored speed, in units (cm/s) per meter per second. */
+    static final float SPEED_SCALE = 100f;
+
+    /** Scale of the stored accuracy, in units (dm) per meter. */
+    static final float ACCURACY_SCALE = 10f;
+
+    private TrackFormat() { }
+
+    /**
+     * @param degrees an angle in degrees.
+     * @return the angle in 1e-7 degrees.
+     */
+    static long toFixedDegrees(double degrees) {
+        return Math.round(degrees * DEGREES_SCALE);
+    }
+
+    /**
+     * @param fixed an angle in 1e-7 degrees.
+     * @return the angle in degrees.
+     */
+    static double fromFixedDegrees(long fixed) {
+        return fixed / DEGREES_SCALE;
+    }
+
+    /**
+     * Converts a non-negative float to its scaled integer, clamping negative values to 0.
+     *
+     * @param value the value.
+     * @param scale the units per value unit.
+     * @return the scaled, rounded value.
+     */
+    static long toScaled(float value, float scale) {
+        return value > 0 ? Math.round((double) value * scale) : 0;
+    }
+}
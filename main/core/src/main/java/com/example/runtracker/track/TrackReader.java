@@ -0,0 +1,325 @@
+package com.example.runtracker.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * TrackReader reads the fixes of a binary track file written by {@link TrackWriter}.
+ * <p>
+ * Fixes are pulled one at a time with {@link #next(FixSample)}, decoding one block at a
+ * time into a reused buffer. Each block is checked against its CRC before any of its
+ * fixes are returned. Reading stops at the first block that is cut short, fails its CRC
+ * or does not decode; everything before it is returned and {@link #isDamaged()} reports
+ * that the rest of the file was dropped. That is what recovers a session after a crash.
+ * </p>
+ * <p>
+ * Every block starts with a whole fix, so reading can {@link #seek} to a block boundary,
+ * e.g. to read only the tail of a file written since a known {@link TrackWriter#size()}.
+ * </p>
+ */
+public final class TrackReader implements Closeable {
+    /** Channel of the track file. */
+    private final FileChannel channel;
+
+    /** Session start as wall-clock time, in epoch milliseconds. */
+    private final long startEpochMillis;
+
+    /** Session start in elapsed realtime nanoseconds. */
+    private final long startElapsedNanos;
+
+    /** Payload and CRC of the current block. */
+    private final ByteBuffer block = ByteBuffer.allocate(TrackFormat.MAX_PAYLOAD_BYTES + TrackFormat.CRC_BYTES);
+
+    /** Length prefix of the next block. */
+    private final ByteBuffer length = ByteBuffer.allocate(TrackFormat.LENGTH_BYTES);
+
+    /** Checksum of the block payload. */
+    private final CRC32 crc = new CRC32();
+
+    /** Fixes left in the current block. */
+    private int blockRemaining;
+
+    /** True if the current fix is the first of its block. */
+    private boolean keyframe;
+
+    /** Latitude of the previous fix, in 1e-7 degrees. */
+    private long lastLatitude;
+
+    /** Longitude of the previous fix, in 1e-7 degrees. */
+    private long lastLongitude;
+
+    /** Time of the previous fix, in microseconds since the session start. */
+    private long lastTime;
+
+    /** End of the last whole block read, in bytes from the start of the file. */
+    private long blockEnd = TrackFormat.HEADER_BYTES;
+
+    /** True once the end of the readable data is reached. */
+    private boolean finished;
+
+    /** True if reading stopped at a damaged block rather than at the end of the file. */
+    private boolean damaged;
+
+    /**
+     * Opens a track file and reads its header.
+     *
+     * @param file the track file.
+     * @return the reader.
+     * @throws IOException if the file cannot be read or is not a track file.
+     */
+    public static TrackReader open(File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            return new TrackReader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a reader on a channel and reads the header.
+     *
+     * @param channel the channel, positioned at the start of the file.
+     * @throws IOException if the channel cannot be read or does not start with a track header.
+     */
+    public TrackReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(TrackFormat.HEADER_BYTES);
+        if (!readFully(header)) {
+            throw new IOException("track file header is truncated");
+        }
+        header.flip();
+        if (header.getInt() != TrackFormat.MAGIC) {
+            throw new IOException("not a track file");
+        }
+        short version = header.getShort();
+        if (version != TrackFormat.VERSION) {
+            throw new IOException("unsupported track file version " + version);
+        }
+        header.getShort();
+        startEpochMillis = header.getLong();
+        startElapsedNanos = header.getLong();
+    }
+
+    /** @return the session start as wall-clock time, in epoch milliseconds. */
+    public long startEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /** @return the session start in elapsed realtime nanoseconds. */
+    public long startElapsedNanos() {
+        return startElapsedNanos;
+    }
+
+    /**
+     * Goes on reading from a block boundary.
+     *
+     * @param position the start of a block, in bytes from the start of the file, e.g. a
+     *                 {@link TrackWriter#size()} of the writer of the file.
+     * @throws IOException if the channel cannot be positioned.
+     */
+    public void seek(long position) throws IOException {
+        if (position < TrackFormat.HEADER_BYTES) {
+            throw new IOException("position " + position + " is in the header");
+        }
+        channel.position(position);
+        blockEnd = position;
+        blockRemaining = 0;
+        finished = false;
+        damaged = false;
+    }
+
+    /**
+     * @return the end of the last whole block read, in bytes from the start of the file;
+     *         once reading stopped, the size of the readable part of the file.
+     */
+    public long position() {
+        return blockEnd;
+    }
+
+    /**
+     * Reads the next fix.
+     *
+     * @param sample the holder that receives the fix.
+     * @return true if a fix was read; false at the end of the readable data.
+     * @throws IOException if the channel cannot be read.
+     */
+    public boolean next(FixSample sample) throws IOException {
+        if (blockRemaining == 0 && !readBlock()) {
+            return false;
+        }
+        long lat = Varint.readSigned(block);
+        long lon = Varint.readSigned(block);
+        long time = Varint.readSigned(block);
+        if (!keyframe) {
+            lat += lastLatitude;
+            lon += lastLongitude;
+            time += lastTime;
+        }
+        long speed = Varint.readUnsigned(block);
+        long accuracy = Varint.readUnsigned(block);
+        keyframe = false;
+        lastLatitude = lat;
+        lastLongitude = lon;
+        lastTime = time;
+        blockRemaining--;
+        sample.set(TrackFormat.fromFixedDegrees(lat), TrackFormat.fromFixedDegrees(lon),
+                speed / TrackFormat.SPEED_SCALE, accuracy / TrackFormat.ACCURACY_SCALE,
+                startElapsedNanos + time * TrackFormat.NANOS_PER_TIME_UNIT);
+        return true;
+    }
+
+    /**
+     * Reads every remaining fix into a track buffer.
+     *
+     * @param track  the buffer the fixes are appended to.
+     * @param sample a holder reused for each fix.
+     * @return the number of fixes read.
+     * @throws IOException if the channel cannot be read.
+     */
+    public int readInto(TrackBuffer track, FixSample sample) throws IOException {
+        int count = 0;
+        while (next(sample)) {
+            track.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if reading stopped at a truncated or corrupted block, so the end of the
+     *         file was dropped.
+     */
+    public boolean isDamaged() {
+        return damaged;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads and verifies the next block. Blocks are fully decoded once here so a block
+     * that passes the CRC but does not decode is rejected as a whole.
+     *
+     * @return true if a block with at least one fix is ready.
+     * @throws IOException if the channel cannot be read.
+     */
+    private boolean readBlock() throws IOException {
+        while (!finished) {
+            length.clear();
+            int read = readUpTo(length);
+            if (read == 0) {
+                finished = true;
+                return false;
+            }
+            if (read < TrackFormat.LENGTH_BYTES) {
+                return stopDamaged();
+            }
+            int payloadLength = length.getInt(0);
+            if (payloadLength < 1 || payloadLength > TrackFormat.MAX_PAYLOAD_BYTES) {
+                return stopDamaged();
+            }
+            block.clear().limit(payloadLength + TrackFormat.CRC_BYTES);
+            if (!readFully(block)) {
+                return stopDamaged();
+            }
+            crc.reset();
+            crc.update(block.array(), 0, payloadLength);
+            if ((int) crc.getValue() != block.getInt(payloadLength)) {
+                return stopDamaged();
+            }
+            block.position(0).limit(payloadLength);
+            int count;
+            try {
+                count = (int) Varint.readUnsigned(block);
+                if (count < 0 || count > TrackFormat.MAX_FIXES_PER_BLOCK || !decodes(count)) {
+                    return stopDamaged();
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return stopDamaged();
+            }
+            blockEnd += TrackFormat.LENGTH_BYTES + payloadLength + TrackFormat.CRC_BYTES;
+            if (count > 0) {
+                blockRemaining = count;
+                keyframe = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the rest of the block holds exactly {@code count} fixes, leaving the
+     * position at the first fix.
+     *
+     * @param count the fix count from the block.
+     * @return true if the block decodes.
+     */
+    private boolean decodes(int count) {
+        int start = block.position();
+        for (int i = 0; i < count * 5; i++) {
+            Varint.readUnsigned(block);
+        }
+        boolean exact = !block.hasRemaining();
+        block.position(start);
+        return exact;
+    }
+
+    /**
+     * Marks the file as damaged and ends reading.
+     *
+     * @return false, for use as the result of {@link #readBlock()}.
+     */
+    private boolean stopDamaged() {
+        damaged = true;
+        finished = true;
+        blockRemaining = 0;
+        return false;
+    }
+
+    /**
+     * Fills a buffer from the channel.
+     *
+     * @param buffer the buffer to fill up to its limit.
+     * @return true if the buffer was filled; false if the file ended first.
+     * @throws IOException if the channel cannot be read.
+     */
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        int expected = buffer.remaining();
+        return readUpTo(buffer) == expected;
+    }
+
+    /**
+     * Reads into a buffer until it is full or the file ends.
+     *
+     * @param buffer the buffer to fill up to its limit.
+     * @return the number of bytes read.
+     * @throws IOException if the channel cannot be read.
+     */
+    private int readUpTo(ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.runtracker.track;
+
+import com.example.runtracker.metrics.RunMetrics;
+
+/**
+ * TrackSimplifier keeps a simplified level of detail of a track as its fixes arrive.
+ * <p>
+ * It runs the sliding-window form of Douglas-Peucker: the last kept fix is the anchor and
+ * the fixes after it wait in a window. A new fix extends the window as long as every
+ * waiting fix lies within the tolerance of the straight line from the anchor to the new
+ * fix. Once one does not, or the window is full, the newest waiting fix is kept and
+ * becomes the anchor. Every dropped fix is therefore within the tolerance of the
+ * simplified line between the kept fixes around it, whatever the length of the session,
+ * and a fix costs at most one pass over the bounded window. Distances are measured on a
+ * local flat projection around the anchor, which is exact to well under a centimeter over
+ * the length of a window.
+ * </p>
+ * <p>
+ * The kept fixes go to a {@link TrackBuffer} with all their columns, so the simplified
+ * track is read like the full one. The newest fixes wait in the window until the next
+ * fix decides on them; {@link #flush()} keeps the last one, e.g. at the end of a session.
+ * The window has fixed-size columns and the output grows by chunks, so appending
+ * allocates nothing per fix. The simplifier is confined to one thread.
+ * </p>
+ */
+public final class TrackSimplifier {
+    /** Default tolerance, in meters; about the accuracy of a good fix. */
+    public static final double DEFAULT_TOLERANCE_METERS = 4.0;
+
+    /** Default number of fixes that may wait in the window. */
+    public static final int DEFAULT_WINDOW_SIZE = 128;
+
+    /** The kept fixes. */
+    private final TrackBuffer simplified = new TrackBuffer();
+
+    /** Largest distance of a dropped fix from the simplified line, in meters. */
+    private final double toleranceMeters;
+
+    /** Square of {@link #toleranceMeters}. */
+    private final double toleranceSquared;
+
+    /** Latitudes of the waiting fixes, in degrees. */
+    private final double[] latitudes;
+
+    /** Longitudes of the waiting fixes, in degrees. */
+    private final double[] longitudes;
+
+    /** Speeds of the waiting fixes, in meters per second. */
+    private final float[] speeds;
+
+    /** Accuracies of the waiting fixes, in meters. */
+    private final float[] accuracies;
+
+    /** Timestamps of the waiting fixes, in elapsed realtime nanoseconds. */
+    private final long[] nanos;
+
+    /** East offsets of the waiting fixes from the anchor, in meters. */
+    private final double[] xs;
+
+    /** North offsets of the waiting fixes from the anchor, in meters. */
+    private final double[] ys;
+
+    /** Number of waiting fixes. */
+    private int windowCount;
+
+    /** True once a fix was kept as the anchor. */
+    private boolean hasAnchor;
+
+    /** Latitude of the anchor, in degrees. */
+    private double anchorLatitude;
+
+    /** Longitude of the anchor, in degrees. */
+    private double anchorLongitude;
+
+    /** Meters per degree of longitude at the anchor. */
+    private double metersPerDegreeLongitude;
+
+    /**
+     * Creates a simplifier with the {@link #DEFAULT_WINDOW_SIZE default window}.
+     *
+     * @param toleranceMeters largest distance of a dropped fix from the simplified line.
+     */
+    public TrackSimplifier(double toleranceMeters) {
+        this(toleranceMeters, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param toleranceMeters largest distance of a dropped fix from the simplified line.
+     * @param windowSize      number of fixes that may wait in the window, at least 1; a
+     *                        straight run keeps one fix per window.
+     */
+    public TrackSimplifier(double toleranceMeters, int windowSize) {
+        if (!(toleranceMeters >= 0) || windowSize < 1) {
+            throw new IllegalArgumentException("invalid simplification settings");
+        }
+        this.toleranceMeters = toleranceMeters;
+        toleranceSquared = toleranceMeters * toleranceMeters;
+        latitudes = new double[windowSize];
+        longitudes = new double[windowSize];
+        speeds = new float[windowSize];
+        accuracies = new float[windowSize];
+        nanos = new long[windowSize];
+        xs = new double[windowSize];
+        ys = new double[windowSize];
+    }
+
+    /**
+     * Adds the next fix of the track.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speed                speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     */
+    public void append(double latitude, double longitude, float speed, float accuracy,
+                       long elapsedRealtimeNanos) {
+        if (!hasAnchor) {
+            keep(latitude, longitude, speed, accuracy, elapsedRealtimeNanos);
+            return;
+        }
+        double x = (longitude - anchorLongitude) * metersPerDegreeLongitude;
+        double y = (latitude - anchorLatitude) * RunMetrics.METERS_PER_DEGREE;
+        if (windowCount == latitudes.length || !windowFits(x, y)) {
+            keepNewestWaiting();
+            x = (longitude - anchorLongitude) * metersPerDegreeLongitude;
+            y = (latitude - anchorLatitude) * RunMetrics.METERS_PER_DEGREE;
+        }
+        int i = windowCount++;
+        latitudes[i] = latitude;
+        longitudes[i] = longitude;
+        speeds[i] = speed;
+        accuracies[i] = accuracy;
+        nanos[i] = elapsedRealtimeNanos;
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    /**
+     * Keeps the newest waiting fix, so the simplified track reaches the end of the full
+     * one, e.g. when the session ends.
+     */
+    public void flush() {
+        if (windowCount > 0) {
+            keepNewestWaiting();
+        }
+    }
+
+    /** Clears the simplified track and the window for a new session. */
+    public void reset() {
+        simplified.clear();
+        windowCount = 0;
+        hasAnchor = false;
+    }
+
+    /** @return the kept fixes; only to be read on the thread that appends. */
+    public TrackBuffer simplified() {
+        return simplified;
+    }
+
+    /** @return the number of fixes waiting in the window. */
+    public int pendingCount() {
+        return windowCount;
+    }
+
+    /** @return the largest distance of a dropped fix from the simplified line, in meters. */
+    public double toleranceMeters() {
+        return toleranceMeters;
+    }
+
+    /**
+     * Returns whether every waiting fix lies within the tolerance of the segment from the
+     * anchor to a new fix.
+     *
+     * @param x east offset of the new fix from the anchor, in meters.
+     * @param y north offset of the new fix from the anchor, in meters.
+     * @return true if the new fix can extend the window.
+     */
+    private boolean windowFits(double x, double y) {
+        double lengthSquared = x * x + y * y;
+        for (int i = 0; i < windowCount; i++) {
+            double px = xs[i];
+            double py = ys[i];
+            double t = lengthSquared > 0 ? (px * x + py * y) / lengthSquared : 0;
+            if (t < 0) {
+                t = 0;
+            } else if (t > 1) {
+                t = 1;
+            }
+            double dx = px - t * x;
+            double dy = py - t * y;
+            if (dx * dx + dy * dy > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the newest waiting fix as the new anchor and empties the window.
+     */
+    private void keepNewestWaiting() {
+        int i = windowCount - 1;
+        windowCount = 0;
+        keep(latitudes[i], longitudes[i], speeds[i], accuracies[i], nanos[i]);
+    }
+
+    /**
+     * Appends a fix to the simplified track and makes it the anchor.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speed                speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     */
+    private void keep(double latitude, double longitude, float speed, float accuracy,
+                      long elapsedRealtimeNanos) {
+        simplified.append(latitude, longitude, speed, accuracy, elapsedRealtimeNanos);
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        metersPerDegreeLongitude = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+}
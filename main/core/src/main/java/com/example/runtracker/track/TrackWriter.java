@@ -0,0 +1,317 @@
+package com.example.runtracker.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * TrackWriter appends fixes to a binary track file in the {@link TrackFormat} layout.
+ * <p>
+ * Fixes are encoded into a preallocated block buffer. A block is sealed, checksummed and
+ * written to the {@link FileChannel} in a single write once it holds
+ * {@link TrackFormat#MAX_FIXES_PER_BLOCK} fixes, once it spans {@link #MAX_BLOCK_SPAN_NANOS},
+ * or when {@link #flush()} is called. Only whole blocks reach the file, so if the app dies
+ * between writes the file ends on a complete block and at most one block of fixes is lost.
+ * {@link #flush()} and {@link #close()} also force the file to the storage device.
+ * </p>
+ * <p>
+ * Since a block starts with a whole fix, a file can be read from any block boundary. A
+ * session restored after the app died goes on in the same file with {@link #resume},
+ * from the end of its last whole block.
+ * </p>
+ * <p>
+ * Appending does not allocate. A writer is not thread-safe; it is used on the location
+ * pipeline thread.
+ * </p>
+ */
+public final class TrackWriter implements Closeable {
+    /** Longest time span of the fixes in one block before it is written out. */
+    public static final long MAX_BLOCK_SPAN_NANOS = 30_000_000_000L;
+
+    /** Channel of the track file. */
+    private final FileChannel channel;
+
+    /** Session start in elapsed realtime nanoseconds; the origin of the stored times. */
+    private final long startElapsedNanos;
+
+    /** Block being filled: length prefix, payload and room for the CRC. */
+    private final ByteBuffer block = ByteBuffer.allocate(
+            TrackFormat.LENGTH_BYTES + TrackFormat.MAX_PAYLOAD_BYTES + TrackFormat.CRC_BYTES);
+
+    /** Checksum of the block payload. */
+    private final CRC32 crc = new CRC32();
+
+    /** Number of fixes in the current block. */
+    private int blockFixCount;
+
+    /** Timestamp of the first fix of the current block, in elapsed realtime nanoseconds. */
+    private long blockStartNanos;
+
+    /** Latitude of the previous fix of the block, in 1e-7 degrees. */
+    private long lastLatitude;
+
+    /** Longitude of the previous fix of the block, in 1e-7 degrees. */
+    private long lastLongitude;
+
+    /** Time of the previous fix of the block, in microseconds since the session start. */
+    private long lastTime;
+
+    /** Number of fixes appended to this file. */
+    private long fixCount;
+
+    /** Size of the header and the blocks written to the file, in bytes. */
+    private long size;
+
+    /** True once the writer is closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new track file, replacing any existing file, and writes its header.
+     *
+     * @param file              the track file.
+     * @param startEpochMillis  session start as wall-clock time, in epoch milliseconds.
+     * @param startElapsedNanos session start in elapsed realtime nanoseconds.
+     * @return the writer.
+     * @throws IOException if the file cannot be created or written.
+     */
+    public static TrackWriter create(File file, long startEpochMillis, long startElapsedNanos)
+            throws IOException {
+        // FileOutputStream rather than FileChannel.open(Path), which needs API 26.
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            return new TrackWriter(channel, startEpochMillis, startElapsedNanos);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing track file to append to it, e.g. to go on with a session restored
+     * after the app died. The file is cut after its last whole block, dropping a block
+     * that was being written when the app died.
+     *
+     * @param file              the track file.
+     * @param validBytes        size of the header and the whole blocks of the file, in
+     *                          bytes, e.g. from {@link TrackReader#position()}.
+     * @param startElapsedNanos session start in elapsed realtime nanoseconds, from the
+     *                          header.
+     * @param fixCount          number of fixes already in the file.
+     * @return the writer.
+     * @throws IOException if the file cannot be opened or is shorter than
+     *                     {@code validBytes}.
+     */
+    public static TrackWriter resume(File file, long validBytes, long startElapsedNanos, long fixCount)
+            throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            if (validBytes < TrackFormat.HEADER_BYTES || validBytes > channel.size()) {
+                throw new IOException("cannot resume " + file + " at " + validBytes);
+            }
+            channel.truncate(validBytes);
+            channel.position(validBytes);
+            return new TrackWriter(channel, startElapsedNanos, validBytes, fixCount);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a writer on an empty channel and writes the header.
+     *
+     * @param channel           the channel, positioned at the start of an empty file.
+     * @param startEpochMillis  session start as wall-clock time, in epoch milliseconds.
+     * @param startElapsedNanos session start in elapsed realtime nanoseconds.
+     * @throws IOException if the header cannot be written.
+     */
+    public TrackWriter(FileChannel channel, long startEpochMillis, long startElapsedNanos)
+            throws IOException {
+        this.channel = channel;
+        this.startElapsedNanos = startElapsedNanos;
+        ByteBuffer header = ByteBuffer.allocate(TrackFormat.HEADER_BYTES);
+        header.putInt(TrackFormat.MAGIC)
+                .putShort(TrackFormat.VERSION)
+                .putShort((short) 0)
+                .putLong(startEpochMillis)
+                .putLong(startElapsedNanos)
+                .flip();
+        writeFully(header);
+        size = TrackFormat.HEADER_BYTES;
+        startBlock();
+    }
+
+    /**
+     * Creates a writer appending to a channel positioned after the last whole block.
+     *
+     * @param channel           the channel.
+     * @param startElapsedNanos session start in elapsed realtime nanoseconds.
+     * @param size              size of the header and the blocks in the file, in bytes.
+     * @param fixCount          number of fixes already in the file.
+     */
+    private TrackWriter(FileChannel channel, long startElapsedNanos, long size, long fixCount) {
+        this.channel = channel;
+        this.startElapsedNanos = startElapsedNanos;
+        this.size = size;
+        this.fixCount = fixCount;
+        startBlock();
+    }
+
+    /**
+     * Appends one fix.
+     *
+     * @param sample the fix.
+     * @throws IOException if a sealed block cannot be written.
+     */
+    public void append(FixSample sample) throws IOException {
+        append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                sample.elapsedRealtimeNanos);
+    }
+
+    /**
+     * Appends one fix.
+     *
+     * @param latitude             latitude in degrees.
+     * @param longitude            longitude in degrees.
+     * @param speed                speed in meters per second.
+     * @param accuracy             horizontal accuracy in meters.
+     * @param elapsedRealtimeNanos fix timestamp in elapsed realtime nanoseconds.
+     * @throws IOException if a sealed block cannot be written.
+     */
+    public void append(double latitude, double longitude, float speed, float accuracy,
+                       long elapsedRealtimeNanos) throws IOException {
+        if (closed) {
+            throw new IOException("writer is closed");
+        }
+        if (blockFixCount > 0 && elapsedRealtimeNanos - blockStartNanos > MAX_BLOCK_SPAN_NANOS) {
+            writeBlock();
+        }
+        long lat = TrackFormat.toFixedDegrees(latitude);
+        long lon = TrackFormat.toFixedDegrees(longitude);
+        long time = (elapsedRealtimeNanos - startElapsedNanos) / TrackFormat.NANOS_PER_TIME_UNIT;
+        if (blockFixCount == 0) {
+            blockStartNanos = elapsedRealtimeNanos;
+            Varint.writeSigned(block, lat);
+            Varint.writeSigned(block, lon);
+            Varint.writeSigned(block, time);
+        } else {
+            Varint.writeSigned(block, lat - lastLatitude);
+            Varint.writeSigned(block, lon - lastLongitude);
+            Varint.writeSigned(block, time - lastTime);
+        }
+        Varint.writeUnsigned(block, TrackFormat.toScaled(speed, TrackFormat.SPEED_SCALE));
+        Varint.writeUnsigned(block, TrackFormat.toScaled(accuracy, TrackFormat.ACCURACY_SCALE));
+        lastLatitude = lat;
+        lastLongitude = lon;
+        lastTime = time;
+        fixCount++;
+        if (++blockFixCount == TrackFormat.MAX_FIXES_PER_BLOCK) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the fixes appended so far as a block and forces the file to storage.
+     *
+     * @throws IOException if the block cannot be written.
+     */
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (blockFixCount > 0) {
+            writeBlock();
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Flushes the remaining fixes and closes the file.
+     *
+     * @throws IOException if the last block cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /** @return the number of fixes appended to this file. */
+    public long fixCount() {
+        return fixCount;
+    }
+
+    /**
+     * @return the size of the header and the blocks written so far, in bytes; the block
+     *         being filled starts there.
+     */
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of fixes in the block being filled, not written yet. */
+    public int pendingCount() {
+        return blockFixCount;
+    }
+
+    /**
+     * Seals the current block with its length, fix count and CRC, writes it and starts
+     * the next block.
+     *
+     * @throws IOException if the block cannot be written.
+     */
+    private void writeBlock() throws IOException {
+        // The payload was encoded after a fix count placeholder; move it behind the real count.
+        int payloadStart = TrackFormat.LENGTH_BYTES + Varint.MAX_LONG_BYTES;
+        int encodedEnd = block.position();
+        block.position(TrackFormat.LENGTH_BYTES);
+        Varint.writeUnsigned(block, blockFixCount);
+        int countEnd = block.position();
+        System.arraycopy(block.array(), payloadStart, block.array(), countEnd, encodedEnd - payloadStart);
+        int payloadEnd = countEnd + encodedEnd - payloadStart;
+        int payloadLength = payloadEnd - TrackFormat.LENGTH_BYTES;
+
+        crc.reset();
+        crc.update(block.array(), TrackFormat.LENGTH_BYTES, payloadLength);
+        block.putInt(0, payloadLength);
+        block.position(payloadEnd);
+        block.putInt((int) crc.getValue());
+        block.flip();
+        writeFully(block);
+        size += block.limit();
+        startBlock();
+    }
+
+    /**
+     * Clears the block buffer, leaving room for the length prefix and the fix count.
+     */
+    private void startBlock() {
+        block.clear();
+        block.position(TrackFormat.LENGTH_BYTES + Varint.MAX_LONG_BYTES);
+        blockFixCount = 0;
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the channel.
+     *
+     * @param buffer the bytes to write.
+     * @throws IOException if the write fails.
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.runtracker.track;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Varint reads and writes variable-length integers, as used by the binary track format.
+ * <p>
+ * Each byte carries 7 bits of the value, least significant group first, with the high bit
+ * set when more bytes follow. Signed deltas are zig-zag encoded first, so small negative
+ * values stay short: 0, -1, 1, -2, 2 become 0, 1, 2, 3, 4.
+ * </p>
+ */
+public final class Varint {
+    /** Maximum number of bytes of an encoded 64 bit value. */
+    public static final int MAX_LONG_BYTES = 10;
+
+    private Varint() { }
+
+    /**
+     * Maps a signed value to an unsigned one with small magnitudes first.
+     *
+     * @param value the signed value.
+     * @return the zig-zag encoded value.
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigZag(long)}.
+     *
+     * @param value the zig-zag encoded value.
+     * @return the signed value.
+     */
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param buffer the destination, with at least {@link #MAX_LONG_BYTES} bytes remaining.
+     * @param value  the value, treated as unsigned.
+     */
+    public static void writeUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a signed varint, zig-zag encoded.
+     *
+     * @param buffer the destination, with at least {@link #MAX_LONG_BYTES} bytes remaining.
+     * @param value  the signed value.
+     */
+    public static void writeSigned(ByteBuffer buffer, long value) {
+        writeUnsigned(buffer, zigZag(value));
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param buffer the source.
+     * @return the value.
+     * @throws BufferUnderflowException if the buffer ends inside the value.
+     * @throws IllegalArgumentException if the value is longer than {@link #MAX_LONG_BYTES} bytes.
+     */
+    public static long readUnsigned(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_LONG_BYTES; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_LONG_BYTES + " bytes");
+    }
+
+    /**
+     * Reads a signed, zig-zag encoded varint.
+     *
+     * @param buffer the source.
+     * @return the signed value.
+     */
+    public static long readSigned(ByteBuffer buffer) {
+        return unZigZag(readUnsigned(buffer));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.runtracker.checkpoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CheckpointFile} and {@link SessionCheckpoint}, with crashes
+ * simulated in the middle of a write, and for {@link LastFix}.
+ */
+public class CheckpointFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_newFileHasNoCheckpoint() throws IOException {
+        try (CheckpointFile checkpoint = CheckpointFile.open(new File(folder.getRoot(), "state"))) {
+            ByteBuffer payload = ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES);
+            assertFalse(checkpoint.read(payload));
+            assertEquals(0, payload.position());
+        }
+    }
+
+    @Test
+    public void write_readsBackTheNewestAfterReopening() throws IOException {
+        File file = new File(folder.getRoot(), "state");
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            for (int i = 1; i <= 5; i++) {
+                checkpoint.write(payload(i, 100));
+            }
+            assertPayload(checkpoint, 5, 100);
+        }
+        assertEquals(2 * CheckpointFile.SLOT_BYTES, file.length());
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertPayload(checkpoint, 5, 100);
+            checkpoint.write(payload(6, CheckpointFile.MAX_PAYLOAD_BYTES));
+        }
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertPayload(checkpoint, 6, CheckpointFile.MAX_PAYLOAD_BYTES);
+        }
+    }
+
+    @Test
+    public void tornWrite_atEveryByteKeepsThePreviousOrTheNewCheckpoint() throws IOException {
+        int length = 200;
+        for (int limit = 0; limit <= CheckpointFile.HEADER_BYTES + length; limit++) {
+            File file = new File(folder.getRoot(), "torn-" + limit);
+            try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+                checkpoint.write(payload(1, length));
+                checkpoint.write(payload(2, length));
+                // The third write goes over the first, and the process dies after limit bytes.
+                checkpoint.writeSlot(payload(3, length), 3, limit);
+            }
+            try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+                ByteBuffer read = ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES);
+                assertTrue(checkpoint.read(read));
+                if (limit == CheckpointFile.HEADER_BYTES + length) {
+                    assertEquals(payload(3, length), read);
+                } else {
+                    assertTrue("limit " + limit, read.equals(payload(2, length)) || read.equals(payload(3, length)));
+                }
+                // The next checkpoint goes on from the one read, over the other slot.
+                checkpoint.write(payload(4, length));
+            }
+            try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+                assertPayload(checkpoint, 4, length);
+            }
+        }
+    }
+
+    @Test
+    public void tornFirstWrite_leavesNoCheckpoint() throws IOException {
+        File file = new File(folder.getRoot(), "state");
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            checkpoint.writeSlot(payload(1, 50), 1, CheckpointFile.HEADER_BYTES + 49);
+        }
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertFalse(checkpoint.read(ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES)));
+        }
+    }
+
+    @Test
+    public void corruptedNewestSlot_fallsBackToThePrevious() throws IOException {
+        File file = new File(folder.getRoot(), "state");
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            checkpoint.write(payload(1, 64));
+            checkpoint.write(payload(2, 64));
+        }
+        // The second checkpoint is in the first slot.
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.seek(CheckpointFile.HEADER_BYTES + 10);
+            int value = access.read();
+            access.seek(CheckpointFile.HEADER_BYTES + 10);
+            access.write(value ^ 0x10);
+        }
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertPayload(checkpoint, 1, 64);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_rejectsAnOversizedPayload() throws IOException {
+        try (CheckpointFile checkpoint = CheckpointFile.open(new File(folder.getRoot(), "state"))) {
+            checkpoint.write(ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES + 1));
+        }
+    }
+
+    @Test
+    public void sessionCheckpoint_roundTripsInItsFixedLayout() {
+        SessionCheckpoint state = new SessionCheckpoint();
+        state.tracking = true;
+        state.running = true;
+        state.useFusedLocation = true;
+        state.clockElapsedNanos = 1_234_000_000_000L;
+        state.realtimeNanos = 98_765_000_000_000L;
+        state.startEpochMillis = 1_700_000_000_000L;
+        state.trackFileName = "session-1700000000000.rtrk";
+        ByteBuffer buffer = ByteBuffer.allocate(2 * SessionCheckpoint.BYTES);
+        state.write(buffer);
+        assertEquals(SessionCheckpoint.BYTES, buffer.position());
+        state.trackFileName = null;
+        state.paused = true;
+        state.write(buffer);
+        buffer.flip();
+
+        SessionCheckpoint read = SessionCheckpoint.read(buffer);
+        assertTrue(read.tracking);
+        assertFalse(read.paused);
+        assertTrue(read.running);
+        assertFalse(read.useMph);
+        assertFalse(read.devMode);
+        assertTrue(read.useFusedLocation);
+        assertEquals(1_234_000_000_000L, read.clockElapsedNanos);
+        assertEquals(98_765_000_000_000L, read.realtimeNanos);
+        assertEquals(1_700_000_000_000L, read.startEpochMillis);
+        assertEquals("session-1700000000000.rtrk", read.trackFileName);
+        assertEquals(SessionCheckpoint.BYTES, buffer.position());
+
+        read = SessionCheckpoint.read(buffer);
+        assertTrue(read.paused);
+        assertNull(read.trackFileName);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    /**
+     * @param seed   the seed of the bytes.
+     * @param length the length.
+     * @return a payload of random bytes, ready to be written.
+     */
+    private static ByteBuffer payload(int seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void assertPayload(CheckpointFile checkpoint, int seed, int length) {
+        ByteBuffer read = ByteBuffer.allocate(CheckpointFile.MAX_PAYLOAD_BYTES);
+        assertTrue(checkpoint.read(read));
+        assertEquals(payload(seed, length), read);
+    }
+
+    @Test
+    public void lastFix_readsBackTheNewest() throws IOException {
+        File file = new File(folder.getRoot(), "last-fix");
+        assertNull(LastFix.read(file));
+
+        new LastFix(42.3505, -71.1076, 4.5f, 1_700_000_000_000L).write(file);
+        new LastFix(42.3601, -71.0589, 3f, 1_700_000_060_000L).write(file);
+        LastFix fix = LastFix.read(file);
+        assertEquals(42.3601, fix.latitude, 0);
+        assertEquals(-71.0589, fix.longitude, 0);
+        assertEquals(3f, fix.accuracy, 0);
+        assertEquals(1_700_000_060_000L, fix.epochMillis);
+        assertArrayEquals(new String[] {"last-fix"}, folder.getRoot().list());
+    }
+
+    @Test(expected = IOException.class)
+    public void lastFix_rejectsAnotherFile() throws IOException {
+        File file = new File(folder.getRoot(), "last-fix");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(new byte[32]);
+        }
+        LastFix.read(file);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.runtracker.clock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SessionClock}, on a clock moved by hand.
+ */
+public class SessionClockTest {
+    /** Clock that only moves when told to. */
+    private static final class FakeNanoClock implements NanoClock {
+        long now = 123_456_789_000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private final FakeNanoClock time = new FakeNanoClock();
+
+    private final SessionClock clock = new SessionClock(time);
+
+    @Test
+    public void elapsed_countsOnlyWhileStarted() {
+        time.now += 5_000_000_000L;
+        assertEquals(0, clock.elapsedNanos());
+        clock.start();
+        time.now += 3_000_000_000L;
+        assertEquals(3_000_000_000L, clock.elapsedNanos());
+        clock.stop();
+        time.now += 3_000_000_000L;
+        assertEquals(3_000_000_000L, clock.elapsedNanos());
+        assertFalse(clock.isStarted());
+    }
+
+    @Test
+    public void pause_excludesThePausedTime() {
+        clock.start();
+        time.now += 2_000_000_000L;
+        clock.pause();
+        time.now += 60_000_000_000L;
+        assertEquals(2_000_000_000L, clock.elapsedNanos());
+        clock.resume();
+        time.now += 1_500_000_000L;
+        assertEquals(3_500_000_000L, clock.elapsedNanos());
+    }
+
+    @Test
+    public void autoPause_excludesTheStoppedTime() {
+        clock.start();
+        time.now += 2_000_000_000L;
+        clock.setAutoPaused(true);
+        assertTrue(clock.isAutoPaused());
+        assertFalse(clock.isRunning());
+        time.now += 10_000_000_000L;
+        clock.setAutoPaused(false);
+        time.now += 1_000_000_000L;
+        assertEquals(3_000_000_000L, clock.elapsedNanos());
+    }
+
+    @Test
+    public void pause_endsAnAutoPause() {
+        clock.start();
+        clock.setAutoPaused(true);
+        clock.pause();
+        assertFalse(clock.isAutoPaused());
+        // An auto-pause cannot start during a pause by the user.
+        clock.setAutoPaused(true);
+        assertFalse(clock.isAutoPaused());
+        clock.resume();
+        assertTrue(clock.isRunning());
+    }
+
+    @Test
+    public void autoPause_isIgnoredBeforeStart() {
+        clock.setAutoPaused(true);
+        assertFalse(clock.isAutoPaused());
+    }
+
+    @Test
+    public void start_restartsFromZero() {
+        clock.start();
+        time.now += 7_000_000_000L;
+        clock.pause();
+        clock.start();
+        assertFalse(clock.isPaused());
+        assertEquals(0, clock.elapsedNanos());
+    }
+
+    @Test
+    public void restore_goesOnFromTheRestoredDuration() {
+        clock.restore(90_000_000_000L, false);
+        assertTrue(clock.isStarted());
+        assertTrue(clock.isRunning());
+        time.now += 2_000_000_000L;
+        assertEquals(92_000_000_000L, clock.elapsedNanos());
+
+        clock.restore(30_000_000_000L, true);
+        assertTrue(clock.isPaused());
+        time.now += 2_000_000_000L;
+        assertEquals(30_000_000_000L, clock.elapsedNanos());
+        clock.resume();
+        time.now += 1_000_000_000L;
+        assertEquals(31_000_000_000L, clock.elapsedNanos());
+    }
+
+    @Test
+    public void nextTick_fallsOnTheWholeSecondsOfTheSession() {
+        clock.start();
+        assertEquals(SessionClock.TICK_NANOS, clock.nanosUntilNextTick());
+        time.now += 1_250_000_000L;
+        assertEquals(750_000_000L, clock.nanosUntilNextTick());
+
+        // A pause mid-second shifts the ticks with the session time.
+        clock.pause();
+        time.now += 400_000_000L;
+        clock.resume();
+        assertEquals(750_000_000L, clock.nanosUntilNextTick());
+        time.now += 750_000_000L;
+        assertEquals(2_000_000_000L, clock.elapsedNanos());
+        assertEquals(SessionClock.TICK_NANOS, clock.nanosUntilNextTick());
+    }
+
+    @Test
+    public void nextTick_isNoneWhileStandingStill() {
+        assertEquals(-1, clock.nanosUntilNextTick());
+        clock.start();
+        clock.pause();
+        assertEquals(-1, clock.nanosUntilNextTick());
+        clock.resume();
+        clock.setAutoPaused(true);
+        assertEquals(-1, clock.nanosUntilNextTick());
+    }
+
+    @Test
+    public void listener_hearsEveryChange() {
+        int[] calls = new int[1];
+        clock.setListener(c -> {
+            assertSame(clock, c);
+            calls[0]++;
+        });
+        clock.start();
+        clock.pause();
+        clock.pause();
+        clock.resume();
+        clock.setAutoPaused(true);
+        clock.setAutoPaused(true);
+        clock.stop();
+        assertEquals(5, calls[0]);
+    }
+}
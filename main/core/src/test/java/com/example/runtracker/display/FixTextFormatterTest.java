@@ -0,0 +1,97 @@
+package com.example.runtracker.display;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FixTextFormatter} and {@link SpeedBands}.
+ */
+public class FixTextFormatterTest {
+    private static final int FIX_COUNT = 100_000;
+
+    @Test
+    public void formatLocation_matchesOriginalText() {
+        FixTextFormatter formatter = new FixTextFormatter();
+        assertEquals("Latitude: 42.35050000°\nLongitude: -71.10760000°",
+                formatter.formatLocation(42.3505, -71.1076).toString());
+    }
+
+    @Test
+    public void formatStaleLocation_showsTheAgeInItsLargestUnit() {
+        FixTextFormatter formatter = new FixTextFormatter();
+        assertEquals("Latitude: 42.35050000°\nLongitude: -71.10760000°\nLast known 12 s ago, waiting for GPS",
+                formatter.formatStaleLocation(42.3505, -71.1076, 12_500).toString());
+        assertTrue(formatter.formatStaleLocation(0, 0, -3_000).toString().endsWith("Last known 0 s ago, waiting for GPS"));
+        assertTrue(formatter.formatStaleLocation(0, 0, 5 * 60_000 + 59_999).toString().endsWith(" 5 min ago, waiting for GPS"));
+        assertTrue(formatter.formatStaleLocation(0, 0, 47 * 3_600_000L).toString().endsWith(" 47 h ago, waiting for GPS"));
+        assertTrue(formatter.formatStaleLocation(0, 0, 72 * 3_600_000L).toString().endsWith(" 3 d ago, waiting for GPS"));
+    }
+
+    @Test
+    public void formatSpeed_matchesOriginalText() {
+        FixTextFormatter formatter = new FixTextFormatter();
+        assertEquals("Speed: 10.000 mph", formatter.formatSpeed(4.4704 * 2.23694, "mph").toString());
+        assertEquals("Speed: 4.470 m/s", formatter.formatSpeed(4.4704, "m/s").toString());
+    }
+
+    @Test
+    public void formatLog_listsEveryField() {
+        FixTextFormatter formatter = new FixTextFormatter();
+        assertEquals("Latitude: 1.00000000\nLongitude: 2.00000000\nSpeed: 3.000\nSpeed Unit: m/s",
+                formatter.formatLog(1, 2, 3, "m/s").toString());
+    }
+
+    @Test
+    public void displayPath_allocatesNothingPerFixAfterWarmUp() {
+        FixTextFormatter formatter = new FixTextFormatter();
+        int[] bandCounts = new int[SpeedBands.COUNT];
+        long checksum = runDisplayPath(formatter, bandCounts);
+
+        long before = AllocationCounter.allocatedBytes();
+        checksum += runDisplayPath(formatter, bandCounts);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+
+        assertTrue(checksum > 0);
+        assertTrue("allocated " + allocated + " bytes for " + FIX_COUNT + " fixes", allocated < 1024);
+    }
+
+    @Test
+    public void band_keepsOriginalThresholds() {
+        assertEquals(SpeedBands.SLOW, SpeedBands.band(32.9, true));
+        assertEquals(SpeedBands.MEDIUM, SpeedBands.band(33, true));
+        assertEquals(SpeedBands.FAST, SpeedBands.band(66, true));
+        assertEquals(SpeedBands.SLOW, SpeedBands.band(14.75, false));
+        assertEquals(SpeedBands.MEDIUM, SpeedBands.band(14.7523, false));
+        assertEquals(SpeedBands.FAST, SpeedBands.band(29.5046, false));
+    }
+
+    @Test
+    public void band_withHysteresisChangesOnlyPastTheMargin() {
+        int band = SpeedBands.band(14.7, false, -1);
+        assertEquals(SpeedBands.SLOW, band);
+        assertEquals(SpeedBands.SLOW, SpeedBands.band(14.9, false, band));
+        assertEquals(SpeedBands.MEDIUM, SpeedBands.band(15.3, false, band));
+        assertEquals(SpeedBands.MEDIUM, SpeedBands.band(14.6, false, SpeedBands.MEDIUM));
+        assertEquals(SpeedBands.SLOW, SpeedBands.band(14.2, false, SpeedBands.MEDIUM));
+        assertEquals(SpeedBands.FAST, SpeedBands.band(70, true, SpeedBands.SLOW));
+        assertEquals(SpeedBands.SLOW, SpeedBands.band(10, true, SpeedBands.FAST));
+    }
+
+    /** Formats every field of FIX_COUNT fixes, like the location listener does. */
+    private static long runDisplayPath(FixTextFormatter formatter, int[] bandCounts) {
+        long checksum = 0;
+        for (int i = 0; i < FIX_COUNT; i++) {
+            double latitude = 42.35 + i * 1e-7;
+            double longitude = -71.1 - i * 1e-7;
+            double speed = (i % 400) * 0.25;
+            checksum += formatter.formatLocation(latitude, longitude).length();
+            checksum += formatter.formatSpeed(speed, "mph").length();
+            checksum += formatter.formatLog(latitude, longitude, speed, "mph").length();
+            bandCounts[SpeedBands.band(speed, true)]++;
+        }
+        return checksum;
+    }
+}
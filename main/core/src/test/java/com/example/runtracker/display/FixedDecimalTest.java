@@ -0,0 +1,104 @@
+package com.example.runtracker.display;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FixedDecimal}.
+ */
+public class FixedDecimalTest {
+    private final char[] buffer = new char[400];
+
+    @Test
+    public void format_matchesStringFormatForCoordinates() {
+        Random random = new Random(531);
+        for (int i = 0; i < 100_000; i++) {
+            double value = (random.nextDouble() * 2 - 1) * 180;
+            assertFormat(value, 8);
+        }
+    }
+
+    @Test
+    public void format_matchesStringFormatForSpeeds() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double value = random.nextDouble() * 150;
+            assertFormat(value, 3);
+        }
+    }
+
+    @Test
+    public void format_handlesEdgeValues() {
+        double[] values = {0.0, -0.0, 0.0005, 0.0015, 1.9995, 9.9999, -0.0001, 42.3505, -71.1076,
+                123456789.123, 1e12, -1e12};
+        for (double value : values) {
+            for (int decimals = 0; decimals <= FixedDecimal.MAX_DECIMALS; decimals++) {
+                assertFormat(value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void format_roundsDecimalTiesUpLikeStringFormat() {
+        assertEquals("1.01", format(1.005, 2));
+        assertEquals("0.29", format(0.285, 2));
+        assertEquals("2.68", format(2.675, 2));
+        assertEquals("0.501", format(0.5005, 3));
+        assertEquals("-1.01", format(-1.005, 2));
+        assertEquals("3", format(2.5, 0));
+        double[] values = {1.005, 0.285, 2.675, 0.5005, 1.0005, 0.125, 2.5, -1.005, 42.35055, 179.999999995};
+        for (double value : values) {
+            for (int decimals = 0; decimals <= FixedDecimal.MAX_DECIMALS; decimals++) {
+                assertFormat(value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void format_matchesStringFormatOnEveryTie() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            int decimals = random.nextInt(FixedDecimal.MAX_DECIMALS);
+            // A decimal ending in 5 one digit past the last shown.
+            long digits = random.nextInt(1_000_000) * 10L + 5;
+            double value = Double.parseDouble(digits + "e-" + (decimals + 1));
+            assertFormat(value, decimals);
+        }
+    }
+
+    @Test
+    public void format_writesSpecialValues() {
+        assertEquals("NaN", format(Double.NaN, 3));
+        assertEquals("Infinity", format(Double.POSITIVE_INFINITY, 3));
+        assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY, 3));
+    }
+
+    @Test
+    public void formatLong_writesIntegers() {
+        int end = FixedDecimal.formatLong(Long.MIN_VALUE, buffer, 0);
+        assertEquals(Long.toString(Long.MIN_VALUE), new String(buffer, 0, end));
+        end = FixedDecimal.formatLong(0, buffer, 0);
+        assertEquals("0", new String(buffer, 0, end));
+        end = FixedDecimal.formatLong(-12345, buffer, 0);
+        assertEquals("-12345", new String(buffer, 0, end));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void format_rejectsTooManyDecimals() {
+        FixedDecimal.format(1.0, FixedDecimal.MAX_DECIMALS + 1, buffer, 0);
+    }
+
+    private void assertFormat(double value, int decimals) {
+        String expected = String.format(Locale.ROOT, "%." + decimals + "f", value);
+        assertEquals("value " + value, expected, format(value, decimals));
+    }
+
+    private String format(double value, int decimals) {
+        int end = FixedDecimal.format(value, decimals, buffer, 0);
+        return new String(buffer, 0, end);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.runtracker.display;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link MetricsTextFormatter}.
+ */
+public class MetricsTextFormatterTest {
+    @Test
+    public void formatMetrics_usesMilesWithMph() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        double distance = 5 * MetricsTextFormatter.METERS_PER_MILE;
+        double pace = 483 / MetricsTextFormatter.METERS_PER_MILE;
+        assertEquals("Distance: 5.00 mi\nPace: 8:03 /mi (avg 8:03)\nMoving Time: 0:40:15",
+                formatter.formatMetrics(distance, pace, pace, 2415_000_000_000L, true).toString());
+    }
+
+    @Test
+    public void formatMetrics_usesKilometersWithMetersPerSecond() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("Distance: 12.35 km\nPace: 5:00 /km (avg 4:05)\nMoving Time: 1:01:01",
+                formatter.formatMetrics(12_345, 0.3, 0.245, 3661_000_000_000L, false).toString());
+    }
+
+    @Test
+    public void formatMetrics_showsUnknownPace() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("Distance: 0.00 km\nPace: --:-- /km (avg --:--)\nMoving Time: 0:00:00",
+                formatter.formatMetrics(0, Double.NaN, Double.POSITIVE_INFINITY, 0, false).toString());
+    }
+
+    @Test
+    public void formatLap_showsTheCurrentLap() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("Lap 1: 0.42 mi in 0:03:21",
+                formatter.formatLap(0, 0.42 * MetricsTextFormatter.METERS_PER_MILE, 201_000_000_000L,
+                        0, 0, true).toString());
+    }
+
+    @Test
+    public void formatLap_showsThePaceOfTheLastLap() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("Lap 4: 0.25 km in 0:01:10 (last 4:05 /km)",
+                formatter.formatLap(3, 250, 70_000_000_000L, 1000, 245_000_000_000L, false).toString());
+    }
+
+    @Test
+    public void formatMetrics_allocatesNothingAfterWarmUp() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        long checksum = run(formatter);
+        long before = AllocationCounter.allocatedBytes();
+        checksum += run(formatter);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue(checksum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long run(MetricsTextFormatter formatter) {
+        long checksum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            checksum += formatter.formatMetrics(i * 3.0, 0.3, 0.31, i * 1_000_000_000L, (i & 1) == 0).length();
+        }
+        return checksum;
+    }
+
+    @Test
+    public void formatSession_showsTheBestSplit() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("3.11 mi in 0:26:26, best mile 8:03",
+                formatter.formatSession(3.11 * MetricsTextFormatter.METERS_PER_MILE, 1586_000_000_000L,
+                        483_000_000_000L, true).toString());
+        assertEquals("0.80 km in 0:05:00",
+                formatter.formatSession(800, 300_000_000_000L, -1, false).toString());
+    }
+
+    @Test
+    public void formatEffort_showsTheTimeOfTheDistance() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("5 km in 0:22:10", formatter.formatEffort(5000, 1330_000_000_000L).toString());
+        assertEquals("1.61 km in 0:06:05", formatter.formatEffort(1609.344, 365_000_000_000L).toString());
+        assertEquals("10 km: --", formatter.formatEffort(10_000, -1).toString());
+    }
+
+    @Test
+    public void formatSegmentEffort_showsTheNameAndTime() {
+        MetricsTextFormatter formatter = new MetricsTextFormatter();
+        assertEquals("River loop in 0:12:41",
+                formatter.formatSegmentEffort("River loop", 761_000_000_000L).toString());
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.runtracker.export;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.track.TrackWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GpxExporter}, {@link TcxExporter}, {@link TrackExport}
+ * and {@link IsoTime}.
+ */
+public class TrackExportTest {
+    private static final long START_EPOCH_MILLIS = 1_715_927_401_250L;
+    private static final long START_NANOS = 7_000_000_000L;
+
+    /** A ten hour session at 1 Hz. */
+    private static final int SESSION_FIXES = 36_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void isoTime_matchesJavaTime() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'")
+                .withZone(ZoneOffset.UTC);
+        TextBuffer text = new TextBuffer(32);
+        Random random = new Random(3);
+        long[] fixed = {0, 1, -1, 951_782_400_000L, 4_102_444_799_999L, START_EPOCH_MILLIS};
+        for (long millis : fixed) {
+            assertEquals(formatter.format(Instant.ofEpochMilli(millis)), IsoTime.append(text.clear(), millis).toString());
+        }
+        for (int i = 0; i < 10_000; i++) {
+            long millis = (long) (random.nextDouble() * 8_000_000_000_000L) - 2_000_000_000_000L;
+            assertEquals(formatter.format(Instant.ofEpochMilli(millis)), IsoTime.append(text.clear(), millis).toString());
+        }
+    }
+
+    @Test
+    public void isoTime_parseReadsFormattedAndOffsetTimes() {
+        TextBuffer text = new TextBuffer(32);
+        Random random = new Random(5);
+        for (int i = 0; i < 10_000; i++) {
+            long millis = (long) (random.nextDouble() * 8_000_000_000_000L) - 2_000_000_000_000L;
+            assertEquals(millis, IsoTime.parse(IsoTime.append(text.clear(), millis).toString()));
+        }
+        assertEquals(START_EPOCH_MILLIS, IsoTime.parse("2024-05-17T08:30:01.25+02:00"));
+        assertEquals(START_EPOCH_MILLIS - 250, IsoTime.parse("2024-05-17T01:30:01-0500"));
+        assertEquals(START_EPOCH_MILLIS - 250, IsoTime.parse("2024-05-17T06:30:01"));
+        assertEquals(START_EPOCH_MILLIS, IsoTime.parse("2024-05-17T06:30:01.250999Z"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void isoTime_parseRejectsOtherText() {
+        IsoTime.parse("2024-05-17 06:30:01Z");
+    }
+
+    @Test
+    public void gpx_validatesAgainstSchemaAndKeepsEveryPoint() throws Exception {
+        File track = writeSession(SESSION_FIXES);
+        StringWriter out = new StringWriter();
+        assertEquals(SESSION_FIXES, new GpxExporter().export(track, out));
+        String gpx = out.toString();
+
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        try (InputStream xsd = getClass().getResourceAsStream("/export/gpx-1.1-subset.xsd")) {
+            factory.newSchema(new StreamSource(xsd)).newValidator().validate(new StreamSource(new StringReader(gpx)));
+        }
+
+        Document document = parse(gpx);
+        NodeList points = document.getElementsByTagName("trkpt");
+        assertEquals(SESSION_FIXES, points.getLength());
+        assertEquals("42.3505000", points.item(0).getAttributes().getNamedItem("lat").getNodeValue());
+        assertEquals("2024-05-17T06:30:02.250Z", points.item(0).getFirstChild().getTextContent());
+    }
+
+    @Test
+    public void tcx_lapTotalsMatchTheLastPoint() throws Exception {
+        File track = writeSession(1000);
+        StringWriter out = new StringWriter();
+        assertEquals(1000, new TcxExporter().export(track, out));
+
+        Document document = parse(out.toString());
+        NodeList points = document.getElementsByTagName("Trackpoint");
+        assertEquals(1000, points.getLength());
+        NodeList distances = document.getElementsByTagName("DistanceMeters");
+        String lapDistance = distances.item(0).getTextContent();
+        assertEquals(lapDistance, distances.item(distances.getLength() - 1).getTextContent());
+        assertTrue(Double.parseDouble(lapDistance) > 2500);
+        assertEquals("999.00", document.getElementsByTagName("TotalTimeSeconds").item(0).getTextContent());
+    }
+
+    @Test
+    public void writeFile_gzipMatchesPlainOutput() throws IOException {
+        File track = writeSession(500);
+        File plain = folder.newFile("plain.gpx");
+        File compressed = folder.newFile("compressed.gpx.gz");
+        TrackExport.writeFile(new GpxExporter(), track, plain, false);
+        TrackExport.writeFile(new GpxExporter(), track, compressed, true);
+
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(compressed))) {
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) > 0; ) {
+                unzipped.write(chunk, 0, n);
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(plain.toPath()), unzipped.toByteArray());
+        assertTrue(compressed.length() * 4 < plain.length());
+        assertEquals("session.gpx.gz", TrackExport.fileName(new GpxExporter(), new File("session.rtrk"), true));
+    }
+
+    @Test
+    public void export_tenHourSessionIsFastWithFlatMemory() throws IOException {
+        File track = writeSession(SESSION_FIXES);
+        File destination = folder.newFile("session.gpx");
+        GpxExporter exporter = new GpxExporter();
+        // Warm up so the JIT compiles the export path.
+        for (int i = 0; i < 3; i++) {
+            TrackExport.writeFile(exporter, track, destination, false);
+        }
+
+        long start = System.nanoTime();
+        TrackExport.writeFile(exporter, track, destination, false);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 500);
+
+        // Only the reader and its buffers are allocated, whatever the session length.
+        Writer discard = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) { }
+
+            @Override
+            public void write(String text) { }
+
+            @Override
+            public void flush() { }
+
+            @Override
+            public void close() { }
+        };
+        long before = AllocationCounter.allocatedBytes();
+        exporter.export(track, discard);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+    }
+
+    /** Writes a session of {@code count} fixes at 1 Hz, moving about 3 m per fix. */
+    private File writeSession(int count) throws IOException {
+        File file = folder.newFile();
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(42.3505 + i * 2.0e-5, -71.1076 - i * 2.5e-5, 3.2f, 5f,
+                        START_NANOS + (i + 1) * 1_000_000_000L);
+            }
+        }
+        return file;
+    }
+
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}
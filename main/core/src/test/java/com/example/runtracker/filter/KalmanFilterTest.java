@@ -0,0 +1,133 @@
+package com.example.runtracker.filter;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.display.SpeedBands;
+import com.example.runtracker.track.FixSample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link KalmanFilter} and the standard {@link FilterChain}.
+ */
+public class KalmanFilterTest {
+    private static final double METERS_PER_DEGREE = 111_195.0;
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void filter_reducesPositionJitter() {
+        Random random = new Random(7);
+        KalmanFilter filter = new KalmanFilter(FilterChain.ACCELERATION_NOISE);
+        FixSample sample = new FixSample();
+        double rawError = 0;
+        double filteredError = 0;
+        int count = 3_600;
+        for (int i = 0; i < count; i++) {
+            double trueNorth = i * 3.0;
+            double noiseNorth = random.nextGaussian() * 5;
+            double noiseEast = random.nextGaussian() * 5;
+            sample.set(42 + (trueNorth + noiseNorth) / METERS_PER_DEGREE,
+                    -71 + noiseEast / (METERS_PER_DEGREE * Math.cos(Math.toRadians(42))),
+                    3f, 5f, i * SECOND);
+            assertTrue(filter.filter(sample));
+            if (i >= 60) {
+                double errorNorth = (sample.latitude - 42) * METERS_PER_DEGREE - trueNorth;
+                double errorEast = (sample.longitude + 71) * METERS_PER_DEGREE * Math.cos(Math.toRadians(42));
+                filteredError += errorNorth * errorNorth + errorEast * errorEast;
+                rawError += noiseNorth * noiseNorth + noiseEast * noiseEast;
+            }
+        }
+        assertTrue("filtered " + filteredError + " raw " + rawError, filteredError < 0.5 * rawError);
+    }
+
+    @Test
+    public void filter_stabilizesSpeedAndColor() {
+        Random random = new Random(11);
+        FilterChain chain = FilterChain.standard();
+        FixSample sample = new FixSample();
+        // Cruising at 14.5 m/s, just below the green/orange threshold, with noisy fixes.
+        double speed = 14.5;
+        int rawBandChanges = 0;
+        int filteredBandChanges = 0;
+        int lastRawBand = -1;
+        int lastFilteredBand = -1;
+        double rawSquaredError = 0;
+        double filteredSquaredError = 0;
+        for (int i = 0; i < 600; i++) {
+            float rawSpeed = (float) (speed + random.nextGaussian() * 0.3);
+            sample.set(42 + (i * speed + random.nextGaussian() * 3) / METERS_PER_DEGREE, -71,
+                    rawSpeed, 3f, i * SECOND);
+            assertTrue(chain.filter(sample));
+            int rawBand = SpeedBands.band(rawSpeed, false);
+            int filteredBand = SpeedBands.band(sample.speedMps, false, lastFilteredBand);
+            if (i >= 30) {
+                rawBandChanges += rawBand != lastRawBand ? 1 : 0;
+                filteredBandChanges += filteredBand != lastFilteredBand ? 1 : 0;
+                rawSquaredError += (rawSpeed - speed) * (rawSpeed - speed);
+                filteredSquaredError += (sample.speedMps - speed) * (sample.speedMps - speed);
+            }
+            lastRawBand = rawBand;
+            lastFilteredBand = filteredBand;
+        }
+        assertTrue("filtered " + filteredSquaredError + " raw " + rawSquaredError,
+                filteredSquaredError < 0.5 * rawSquaredError);
+        assertTrue("raw " + rawBandChanges, rawBandChanges > 50);
+        assertEquals(0, filteredBandChanges);
+    }
+
+    @Test
+    public void chain_rejectsJumpAndPoorAccuracy() {
+        FilterChain chain = FilterChain.standard();
+        FixSample sample = new FixSample();
+        assertTrue(chain.filter(sample.set(42, -71, 3f, 5f, 0)));
+        assertTrue(chain.filter(sample.set(42.00003, -71, 3f, 5f, SECOND)));
+        // One kilometer in one second.
+        assertFalse(chain.filter(sample.set(42.009, -71, 3f, 5f, 2 * SECOND)));
+        // Accuracy too poor.
+        assertFalse(chain.filter(sample.set(42.00006, -71, 3f, 80f, 3 * SECOND)));
+        assertTrue(chain.filter(sample.set(42.00009, -71, 3f, 5f, 3 * SECOND)));
+    }
+
+    @Test
+    public void outlierRejector_acceptsRelocationAfterRepeatedRejects() {
+        OutlierRejector rejector = new OutlierRejector(10, 3);
+        FixSample sample = new FixSample();
+        assertTrue(rejector.filter(sample.set(0, 0, 0f, 5f, 0)));
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(rejector.filter(sample.set(1, 1, 0f, 5f, i * SECOND)));
+        }
+        assertTrue(rejector.filter(sample.set(1, 1, 0f, 5f, 4 * SECOND)));
+        assertTrue(rejector.filter(sample.set(1.00001, 1, 0f, 5f, 5 * SECOND)));
+    }
+
+    @Test
+    public void filter_fullSessionAt10HzIsCheapAndAllocationFree() {
+        FilterChain chain = FilterChain.standard();
+        FixSample sample = new FixSample();
+        int count = 6 * 3600 * 10;
+        runSession(chain, sample, count);
+        chain.reset();
+
+        long allocatedBefore = AllocationCounter.allocatedBytes();
+        long start = System.nanoTime();
+        runSession(chain, sample, count);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long allocated = AllocationCounter.allocatedBytes() - allocatedBefore;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        // A six hour session at 10 Hz must filter in well under a second.
+        assertTrue(elapsedMillis + " ms", elapsedMillis < 1_000);
+    }
+
+    private static void runSession(FilterChain chain, FixSample sample, int count) {
+        for (int i = 0; i < count; i++) {
+            double t = i / 10.0;
+            chain.filter(sample.set(42 + 0.01 * Math.sin(t / 600), -71 + 0.01 * Math.cos(t / 600),
+                    3f, 4f + (i & 3), i * (SECOND / 10)));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.runtracker.heatmap;
+
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.replay.TraceSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HeatmapAggregator} and {@link HeatmapRenderer}.
+ */
+public class HeatmapAggregatorTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void add_onlyMarksTheNewSessions() {
+        HeatmapAggregator heatmap = new HeatmapAggregator(new ForkJoinPool(2));
+        List<HeatmapAggregator.TrackSource> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sessions.add(run("north-" + i, 0));
+        }
+        assertTrue(heatmap.add(sessions).length > 0);
+        int tiles = heatmap.tileCount();
+
+        assertEquals(0, heatmap.add(sessions).length);
+        // A run going east only changes the tiles it passed through.
+        HeatmapAggregator.TrackSource east = run("east", 90);
+        sessions.add(east);
+        long[] changed = heatmap.add(sessions);
+        HeatmapCounts alone = new HeatmapCounts();
+        try (TraceSource trace = east.open()) {
+            alone.markSession(trace);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        assertEquals(alone.tileCount(), changed.length);
+        assertEquals(4, heatmap.sessionCount());
+        assertTrue(heatmap.tileCount() < tiles + changed.length);
+    }
+
+    @Test
+    public void add_inParallelMatchesOneWorker() {
+        List<HeatmapAggregator.TrackSource> sessions = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            sessions.add(run("session-" + i, i * 12));
+        }
+        HeatmapAggregator sequential = new HeatmapAggregator(new ForkJoinPool(1));
+        HeatmapAggregator parallel = new HeatmapAggregator(new ForkJoinPool(4));
+        long[] tiles = sequential.add(sessions);
+        parallel.add(sessions);
+
+        assertEquals(sequential.tileCount(), parallel.tileCount());
+        int[] expected = new int[HeatmapCounts.BINS * HeatmapCounts.BINS];
+        int[] actual = new int[expected.length];
+        for (long key : tiles) {
+            assertEquals(sequential.copyBins(key, expected), parallel.copyBins(key, actual));
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void add_retriesSessionsThatCannotBeRead() {
+        HeatmapAggregator heatmap = new HeatmapAggregator(new ForkJoinPool(1));
+        File missing = new File(folder.getRoot(), "missing.rtrk");
+        heatmap.add(List.of(HeatmapAggregator.trackFile(missing), run("read", 0)));
+        assertEquals(1, heatmap.sessionCount());
+
+        heatmap.add(List.of(HeatmapAggregator.trackFile(missing), run("read", 0)));
+        assertEquals(1, heatmap.sessionCount());
+    }
+
+    @Test
+    public void write_roundTripsTheHeatmap() throws IOException {
+        HeatmapAggregator heatmap = new HeatmapAggregator(new ForkJoinPool(1));
+        heatmap.add(List.of(run("a", 0), run("b", 30)));
+        File file = new File(folder.getRoot(), "heatmap.bin");
+        heatmap.write(file);
+        HeatmapAggregator read = HeatmapAggregator.read(file, new ForkJoinPool(1));
+
+        assertEquals(2, read.sessionCount());
+        assertEquals(heatmap.tileCount(), read.tileCount());
+        // The sessions already in the file are not marked again.
+        assertEquals(0, read.add(List.of(run("a", 0))).length);
+        double[] bounds = new double[4];
+        double[] readBounds = new double[4];
+        assertTrue(heatmap.bounds(bounds));
+        assertTrue(read.bounds(readBounds));
+        assertArrayEquals(bounds, readBounds, 0);
+    }
+
+    @Test
+    public void bounds_coverTheRuns() {
+        HeatmapAggregator heatmap = new HeatmapAggregator(new ForkJoinPool(1));
+        double[] bounds = new double[4];
+        assertFalse(heatmap.bounds(bounds));
+
+        heatmap.add(List.of(run("north", 0)));
+        assertTrue(heatmap.bounds(bounds));
+        assertTrue(bounds[0] <= HeatmapCounts.worldX(-71.1) && HeatmapCounts.worldX(-71.1) < bounds[2]);
+        assertTrue(bounds[1] <= HeatmapCounts.worldY(42.36) && HeatmapCounts.worldY(42.35) < bounds[3]);
+    }
+
+    @Test
+    public void render_colorsThePassedBins() {
+        HeatmapAggregator heatmap = new HeatmapAggregator(new ForkJoinPool(1));
+        heatmap.add(List.of(run("once", 90), run("twice-1", 0), run("twice-2", 0)));
+        long key = HeatmapCounts.tileKey(HeatmapCounts.MAX_ZOOM,
+                (int) (HeatmapCounts.worldX(-71.1) * (1 << HeatmapCounts.MAX_ZOOM)),
+                (int) (HeatmapCounts.worldY(42.35) * (1 << HeatmapCounts.MAX_ZOOM)));
+        int[] pixels = new int[HeatmapRenderer.TILE_PIXELS * HeatmapRenderer.TILE_PIXELS];
+        HeatmapRenderer renderer = new HeatmapRenderer();
+
+        assertTrue(renderer.render(heatmap, key, pixels));
+        Set<Integer> colors = new HashSet<>();
+        for (int pixel : pixels) {
+            colors.add(pixel);
+        }
+        // Transparent, passed by every run at the start, twice to the north, once to the east.
+        assertTrue(colors.contains(0));
+        assertTrue(colors.contains(HeatmapRenderer.color(1)));
+        assertTrue(colors.contains(HeatmapRenderer.color(Math.log(3) / Math.log(4))));
+        assertTrue(colors.contains(HeatmapRenderer.color(Math.log(2) / Math.log(4))));
+        assertEquals(4, colors.size());
+
+        int[] untouched = new int[pixels.length];
+        Arrays.fill(untouched, 7);
+        assertFalse(renderer.render(heatmap, HeatmapCounts.tileKey(HeatmapCounts.MAX_ZOOM, 0, 0), untouched));
+        assertEquals(7, untouched[0]);
+    }
+
+    /**
+     * @return a 20 minute run from the same start along a heading.
+     */
+    private static HeatmapAggregator.TrackSource run(String key, double heading) {
+        return new HeatmapAggregator.TrackSource() {
+            @Override
+            public String key() {
+                return key;
+            }
+
+            @Override
+            public TraceSource open() {
+                return new SyntheticTrace.Builder().start(42.35, -71.1)
+                        .segment(heading, 3f, 1200).build();
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.runtracker.heatmap;
+
+import com.example.runtracker.replay.SyntheticTrace;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HeatmapCounts}.
+ */
+public class HeatmapCountsTest {
+    @Test
+    public void tileKey_packsZoomColumnAndRow() {
+        long key = HeatmapCounts.tileKey(16, 19_830, 24_241);
+        assertEquals(16, HeatmapCounts.zoom(key));
+        assertEquals(19_830, HeatmapCounts.tileX(key));
+        assertEquals(24_241, HeatmapCounts.tileY(key));
+    }
+
+    @Test
+    public void world_projectsWebMercator() {
+        assertEquals(0.5, HeatmapCounts.worldX(0), 1e-12);
+        assertEquals(0.5, HeatmapCounts.worldY(0), 1e-12);
+        assertEquals(0, HeatmapCounts.worldY(89), 1e-9);
+        assertEquals(1, HeatmapCounts.worldY(-89), 1e-9);
+    }
+
+    @Test
+    public void markSession_marksEveryBinOfTheRouteOnce() throws IOException {
+        HeatmapCounts counts = new HeatmapCounts();
+        // 1080 m due north; a bin is 9.55 m * cos(42.35°) = 7.06 m high.
+        counts.markSession(new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 3f, 360).build());
+
+        assertEquals(153, markedBins(counts, HeatmapCounts.MAX_ZOOM), 2);
+        assertEquals(1, counts.maxCount(HeatmapCounts.MAX_ZOOM));
+        // Each zoom level out halves the bins.
+        assertEquals(77, markedBins(counts, HeatmapCounts.MAX_ZOOM - 1), 2);
+        assertEquals(1, counts.maxCount(HeatmapCounts.MIN_ZOOM));
+    }
+
+    @Test
+    public void markSession_joinsFixesFarApart() throws IOException {
+        HeatmapCounts dense = new HeatmapCounts();
+        dense.markSession(new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(45, 3f, 360).build());
+        HeatmapCounts sparse = new HeatmapCounts();
+        sparse.markSession(new SyntheticTrace.Builder().start(42.35, -71.1).interval(15_000)
+                .segment(45, 3f, 360).build());
+
+        // 24 fixes, joined across the 108 bins between them in each direction.
+        int marked = markedBins(sparse, HeatmapCounts.MAX_ZOOM);
+        assertTrue(marked >= 108);
+        assertTrue(marked >= 0.8 * markedBins(dense, HeatmapCounts.MAX_ZOOM));
+    }
+
+    @Test
+    public void markSession_doesNotJoinAGap() throws IOException {
+        HeatmapCounts counts = new HeatmapCounts();
+        // Fixes 2 km apart.
+        SyntheticTrace trace = new SyntheticTrace.Builder().start(42.35, -71.1).interval(10_000)
+                .segment(0, 200f, 30).build();
+        counts.markSession(trace);
+
+        assertEquals(trace.size(), markedBins(counts, HeatmapCounts.MAX_ZOOM));
+    }
+
+    @Test
+    public void markSession_countsAStopOnce() throws IOException {
+        HeatmapCounts counts = new HeatmapCounts();
+        counts.markSession(new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 0f, 600).build());
+
+        assertEquals(1, markedBins(counts, HeatmapCounts.MAX_ZOOM));
+        assertEquals(HeatmapCounts.MAX_ZOOM - HeatmapCounts.MIN_ZOOM + 1, counts.tileCount());
+    }
+
+    @Test
+    public void merge_addsTheSessions() throws IOException {
+        HeatmapCounts total = new HeatmapCounts();
+        for (int i = 0; i < 3; i++) {
+            HeatmapCounts session = new HeatmapCounts();
+            session.markSession(new SyntheticTrace.Builder().start(42.35, -71.1)
+                    .segment(i == 2 ? 90 : 0, 3f, 300).build());
+            total.merge(session);
+        }
+
+        assertEquals(3, total.maxCount(HeatmapCounts.MAX_ZOOM));
+        long start = tileAt(42.35, -71.1, HeatmapCounts.MAX_ZOOM);
+        assertEquals(3, bin(total, 42.35, -71.1));
+        assertNotNull(total.bins(start));
+    }
+
+    @Test
+    public void write_roundTripsTheCounts() throws IOException {
+        HeatmapCounts counts = new HeatmapCounts();
+        for (int i = 0; i < 2; i++) {
+            HeatmapCounts session = new HeatmapCounts();
+            session.markSession(new SyntheticTrace.Builder().start(42.35, -71.1)
+                    .segment(i * 60, 3f, 1200).build());
+            counts.merge(session);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        counts.write(new DataOutputStream(bytes));
+        HeatmapCounts read = HeatmapCounts.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(counts.tileCount(), read.tileCount());
+        for (int t = 0; t < counts.tileCount(); t++) {
+            long key = counts.tileKey(t);
+            assertArrayEquals(counts.bins(key), read.bins(key));
+        }
+        assertEquals(2, read.maxCount(HeatmapCounts.MAX_ZOOM));
+        // Sparse: far less than the 16 KB of counters per tile.
+        assertTrue(bytes.size() < counts.tileCount() * 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws IOException {
+        HeatmapCounts.read(new DataInputStream(new ByteArrayInputStream(new byte[16])));
+    }
+
+    /**
+     * @return the number of non-zero counters of a zoom level.
+     */
+    private static int markedBins(HeatmapCounts counts, int zoom) {
+        int marked = 0;
+        for (int t = 0; t < counts.tileCount(); t++) {
+            if (HeatmapCounts.zoom(counts.tileKey(t)) == zoom) {
+                for (int count : counts.bins(counts.tileKey(t))) {
+                    if (count != 0) {
+                        marked++;
+                    }
+                }
+            }
+        }
+        return marked;
+    }
+
+    private static long tileAt(double latitude, double longitude, int zoom) {
+        return HeatmapCounts.tileKey(zoom, (int) (HeatmapCounts.worldX(longitude) * (1 << zoom)),
+                (int) (HeatmapCounts.worldY(latitude) * (1 << zoom)));
+    }
+
+    /**
+     * @return the counter of the highest-zoom bin of a position.
+     */
+    private static int bin(HeatmapCounts counts, double latitude, double longitude) {
+        int bins = 1 << (HeatmapCounts.MAX_ZOOM + HeatmapCounts.BINS_SHIFT);
+        int binX = (int) (HeatmapCounts.worldX(longitude) * bins);
+        int binY = (int) (HeatmapCounts.worldY(latitude) * bins);
+        int[] tile = counts.bins(tileAt(latitude, longitude, HeatmapCounts.MAX_ZOOM));
+        return tile[(binY % HeatmapCounts.BINS) * HeatmapCounts.BINS + binX % HeatmapCounts.BINS];
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.runtracker.heatmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TileCache}.
+ */
+public class TileCacheTest {
+    /** Loader of 100 byte tiles holding their key; odd keys are empty. */
+    private static final TileCache.Loader<long[]> LOADER = new TileCache.Loader<long[]>() {
+        @Override
+        public long[] load(long key) {
+            return key % 2 == 0 ? new long[]{key} : null;
+        }
+
+        @Override
+        public long sizeBytes(long[] tile) {
+            return 100;
+        }
+    };
+
+    @Test
+    public void get_drawsATileOnce() {
+        TileCache<long[]> cache = new TileCache<>(1000, LOADER);
+        long[] tile = cache.get(4);
+
+        assertSame(tile, cache.get(4));
+        assertEquals(1, cache.loadCount());
+        assertEquals(100, cache.sizeBytes());
+    }
+
+    @Test
+    public void get_doesNotKeepEmptyTiles() {
+        TileCache<long[]> cache = new TileCache<>(1000, LOADER);
+        assertNull(cache.get(3));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void get_dropsTheLeastRecentlyUsedTilesOverBudget() {
+        TileCache<long[]> cache = new TileCache<>(300, LOADER);
+        cache.get(0);
+        cache.get(2);
+        cache.get(4);
+        cache.get(0);
+        cache.get(6);
+
+        // 2 was used least recently.
+        assertEquals(3, cache.size());
+        assertEquals(300, cache.sizeBytes());
+        int loads = cache.loadCount();
+        cache.get(0);
+        cache.get(4);
+        cache.get(6);
+        assertEquals(loads, cache.loadCount());
+        cache.get(2);
+        assertEquals(loads + 1, cache.loadCount());
+    }
+
+    @Test
+    public void invalidate_redrawsOnlyTheChangedTiles() {
+        TileCache<long[]> cache = new TileCache<>(1000, LOADER);
+        long[] kept = cache.get(0);
+        long[] changed = cache.get(2);
+        cache.invalidate(new long[]{2, 8});
+
+        assertEquals(100, cache.sizeBytes());
+        assertSame(kept, cache.get(0));
+        assertNotSame(changed, cache.get(2));
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.runtracker.history;
+
+import com.example.runtracker.replay.NoisyTrace;
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.replay.TraceSource;
+import com.example.runtracker.track.TrackBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BestEffortFinder} and the scan of {@link SessionProfile}.
+ */
+public class BestEffortFinderTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scan_findsTheFastestStretch() throws IOException {
+        // 1800 m at 3 m/s, 2000 m at 5 m/s, 1800 m at 3 m/s.
+        SessionProfile profile = profile("tempo", new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 3f, 600).segment(0, 5f, 400).segment(0, 3f, 600).build());
+        BestEffortFinder finder = finder(1);
+        finder.add(List.of(profile));
+
+        assertEquals(200, finder.bestNanos(0) / 1e9, 0.5);
+        // All of the fast 2000 m and 3000 m at 3 m/s.
+        assertEquals(1400, finder.bestNanos(1) / 1e9, 0.5);
+        assertEquals(BestEffortFinder.NO_EFFORT, finder.bestNanos(2));
+        assertEquals("tempo", finder.bestSessionKey(1));
+        assertNull(finder.bestSessionKey(2));
+    }
+
+    @Test
+    public void scan_interpolatesTheStartOfTheWindow() {
+        // Fixes every 100 m, 20 s apart, with a 50 m stretch in the middle taking 5 s.
+        double[] distances = {0, 100, 200, 250, 350, 450};
+        long[] nanos = {0, 20 * SECOND, 40 * SECOND, 45 * SECOND, 65 * SECOND, 85 * SECOND};
+        BestEffortFinder finder = finder(1, 150);
+        finder.add(List.of(new SessionProfile("fixes", distances, nanos, distances.length)));
+
+        // The window from 200 m to 350 m, or from 100 m to 250 m: 25 s.
+        assertEquals(25 * SECOND, finder.bestNanos(0));
+    }
+
+    @Test
+    public void profile_doesNotCountTheDistanceOfAPause() {
+        // 600 s at 3 m/s, a pause of 20 min spent 5 km further north, 600 s at 3 m/s.
+        TrackBuffer track = new TrackBuffer();
+        double latitude = 42.35;
+        for (int i = 0; i <= 600; i++) {
+            track.append(latitude + i * 3 / 111_195.0, -71.1, 3f, 4f, i * SECOND);
+        }
+        latitude += 5000 / 111_195.0;
+        for (int i = 600; i <= 1200; i++) {
+            track.append(latitude + i * 3 / 111_195.0, -71.1, 3f, 4f, (i + 1200) * SECOND);
+        }
+        SessionProfile profile = SessionProfile.of("bus", track);
+        BestEffortFinder finder = finder(1);
+        finder.add(List.of(profile));
+
+        assertEquals(3600, profile.distanceMeters(), 1);
+        assertEquals(1000 / 3.0, finder.bestNanos(0) / 1e9, 0.5);
+        assertEquals(BestEffortFinder.NO_EFFORT, finder.bestNanos(1));
+    }
+
+    @Test
+    public void add_keepsTheBestOfEverySession() throws IOException {
+        List<SessionProfile> sessions = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            float speed = 2.5f + (i * 7 % 40) * 0.05f;
+            sessions.add(profile("session-" + i, new SyntheticTrace.Builder().start(42.35, -71.1)
+                    .segment(i * 9, speed, 2400).build()));
+        }
+        // The fastest session, 2.5 + 39 * 0.05 m/s, is i * 7 % 40 == 39, so i == 17.
+        BestEffortFinder finder = finder(4);
+        assertEquals(40, finder.add(sessions));
+
+        assertEquals("session-17", finder.bestSessionKey(0));
+        assertEquals(1000 / 4.45, finder.bestNanos(0) / 1e9, 0.5);
+    }
+
+    @Test
+    public void add_inParallelMatchesOneWorker() throws IOException {
+        List<SessionProfile> sessions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            SyntheticTrace run = new SyntheticTrace.Builder().start(42.35, -71.1)
+                    .segment(i * 7, 2.5f + (i % 9) * 0.2f, 900)
+                    .segment(i * 7 + 90, 3f + (i % 5) * 0.3f, 900)
+                    .build();
+            try (TraceSource trace = new NoisyTrace(run, i, 3, 0.01, 5)) {
+                sessions.add(SessionProfile.read("session-" + i, trace));
+            }
+        }
+        BestEffortFinder sequential = finder(1);
+        BestEffortFinder parallel = finder(4);
+        sequential.add(sessions);
+        parallel.add(sessions);
+
+        for (int t = 0; t < sequential.targetCount(); t++) {
+            assertEquals(sequential.bestNanos(t), parallel.bestNanos(t));
+            assertEquals(sequential.bestSessionKey(t), parallel.bestSessionKey(t));
+        }
+    }
+
+    @Test
+    public void add_scansEachSessionOnce() throws IOException {
+        SessionProfile slow = profile("slow", new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 3f, 600).build());
+        SessionProfile fast = profile("fast", new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 4f, 600).build());
+        BestEffortFinder finder = finder(2);
+        assertEquals(1, finder.add(List.of(slow)));
+        assertEquals(0, finder.add(List.of(slow)));
+        assertEquals(1, finder.add(List.of(slow, fast)));
+
+        assertEquals(2, finder.scannedCount());
+        assertEquals("fast", finder.bestSessionKey(0));
+        assertEquals(250, finder.bestNanos(0) / 1e9, 0.5);
+    }
+
+    @Test
+    public void add_retriesSessionsThatFailedToLoad() {
+        int[] attempts = new int[1];
+        BestEffortFinder.ProfileSource broken = new BestEffortFinder.ProfileSource() {
+            @Override
+            public String key() {
+                return "broken";
+            }
+
+            @Override
+            public SessionProfile load() throws IOException {
+                attempts[0]++;
+                throw new IOException("unreadable");
+            }
+        };
+        BestEffortFinder finder = finder(2);
+        assertEquals(0, finder.add(List.of(broken)));
+        assertEquals(0, finder.add(List.of(broken)));
+
+        assertEquals(2, attempts[0]);
+        assertEquals(0, finder.scannedCount());
+    }
+
+    @Test
+    public void write_roundTripsTheBestsAndTheScannedSessions() throws IOException {
+        SessionProfile slow = profile("slow", new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 3f, 600).build());
+        SessionProfile fast = profile("fast", new SyntheticTrace.Builder().start(42.35, -71.1)
+                .segment(0, 4f, 600).build());
+        BestEffortFinder finder = finder(1, 1000, 5000);
+        finder.add(List.of(slow, fast));
+        File file = new File(folder.getRoot(), "best-efforts.bin");
+        finder.write(file);
+        BestEffortFinder read = BestEffortFinder.read(file, new ForkJoinPool(1));
+
+        assertEquals(2, read.targetCount());
+        assertEquals(5000, read.targetMeters(1), 0);
+        assertEquals(2, read.scannedCount());
+        assertEquals(finder.bestNanos(0), read.bestNanos(0));
+        assertEquals("fast", read.bestSessionKey(0));
+        assertEquals(BestEffortFinder.NO_EFFORT, read.bestNanos(1));
+        assertNull(read.bestSessionKey(1));
+        // The sessions already in the file are not scanned again.
+        assertEquals(0, read.add(List.of(slow, fast)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveTargets() {
+        new BestEffortFinder(ForkJoinPool.commonPool(), 1000, 0);
+    }
+
+    private static BestEffortFinder finder(int workers, double... targets) {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        return targets.length > 0 ? new BestEffortFinder(pool, targets)
+                : new BestEffortFinder(pool, 1000, 5000, 10_000);
+    }
+
+    private static SessionProfile profile(String key, SyntheticTrace trace) throws IOException {
+        try (trace) {
+            return SessionProfile.read(key, trace);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.runtracker.history;
+
+import com.example.runtracker.display.MetricsTextFormatter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SessionAggregator}.
+ */
+public class SessionAggregatorTest {
+    @Test
+    public void update_keepsTheFastestSplits() {
+        SessionAggregator aggregator = new SessionAggregator();
+        // 1 km in 300 s, then 1 km in 240 s, then 1 km in 280 s.
+        aggregator.update(1000, 300_000_000_000L);
+        aggregator.update(2000, 540_000_000_000L);
+        aggregator.update(3000, 820_000_000_000L);
+
+        assertEquals(240_000_000_000L, aggregator.bestKilometerNanos());
+        // The first mile ends at 1609 m: 300 s plus 609 m at 240 s per km.
+        assertEquals(300 + (MetricsTextFormatter.METERS_PER_MILE - 1000) * 0.24,
+                aggregator.bestMileNanos() / 1e9, 1e-6);
+    }
+
+    @Test
+    public void update_hasNoSplitBeforeTheFirstUnit() {
+        SessionAggregator aggregator = new SessionAggregator();
+        aggregator.update(999, 300_000_000_000L);
+
+        assertEquals(SessionSummary.NO_SPLIT, aggregator.bestKilometerNanos());
+        assertEquals(SessionSummary.NO_SPLIT, aggregator.bestMileNanos());
+    }
+
+    @Test
+    public void reset_clearsTheSplits() {
+        SessionAggregator aggregator = new SessionAggregator();
+        aggregator.update(2000, 500_000_000_000L);
+        aggregator.reset();
+        assertEquals(SessionSummary.NO_SPLIT, aggregator.bestKilometerNanos());
+
+        aggregator.update(1000, 400_000_000_000L);
+        assertEquals(400_000_000_000L, aggregator.bestKilometerNanos());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.runtracker.metrics;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LapEngine}.
+ */
+public class LapEngineTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void update_interpolatesTheAutomaticSplit() {
+        LapEngine laps = new LapEngine(1000);
+        assertEquals(0, laps.update(990, 300 * SECOND));
+        assertEquals(1, laps.update(1010, 304 * SECOND));
+
+        assertEquals(1, laps.lapCount());
+        assertEquals(1000, laps.lapDistanceMeters(0), 1e-9);
+        assertEquals(302 * SECOND, laps.lapNanos(0));
+        assertFalse(laps.isManual(0));
+        assertEquals(10, laps.currentLapDistanceMeters(), 1e-9);
+        assertEquals(2 * SECOND, laps.currentLapNanos());
+    }
+
+    @Test
+    public void update_endsEveryLapCrossedByOneFix() {
+        LapEngine laps = new LapEngine(1000);
+        laps.update(500, 100 * SECOND);
+        assertEquals(2, laps.update(2500, 500 * SECOND));
+
+        assertEquals(2, laps.lapCount());
+        assertEquals(200 * SECOND, laps.lapNanos(0));
+        assertEquals(200 * SECOND, laps.lapNanos(1));
+        assertEquals(500, laps.currentLapDistanceMeters(), 1e-9);
+    }
+
+    @Test
+    public void update_endsALapExactlyOnTheBoundary() {
+        LapEngine laps = new LapEngine(1000);
+        laps.update(1000, 250 * SECOND);
+        assertEquals(1, laps.lapCount());
+        assertEquals(250 * SECOND, laps.lapNanos(0));
+        assertEquals(0, laps.currentLapDistanceMeters(), 1e-9);
+    }
+
+    @Test
+    public void lap_restartsTheAutomaticCount() {
+        LapEngine laps = new LapEngine(1000);
+        laps.update(400, 120 * SECOND);
+        laps.lap();
+        assertTrue(laps.isManual(0));
+        assertEquals(400, laps.lapDistanceMeters(0), 1e-9);
+        assertEquals(120 * SECOND, laps.lapNanos(0));
+
+        assertEquals(0, laps.update(1300, 400 * SECOND));
+        assertEquals(1, laps.update(1500, 460 * SECOND));
+        assertEquals(1000, laps.lapDistanceMeters(1), 1e-9);
+    }
+
+    @Test
+    public void setAutoLapMeters_appliesToTheCurrentLap() {
+        LapEngine laps = new LapEngine(1609.344);
+        laps.update(1200, 360 * SECOND);
+        laps.setAutoLapMeters(1000);
+        assertEquals(1, laps.update(1300, 390 * SECOND));
+        assertEquals(1000, laps.lapDistanceMeters(0), 1e-9);
+    }
+
+    @Test
+    public void manualOnly_neverEndsALapByItself() {
+        LapEngine laps = new LapEngine(0);
+        assertEquals(0, laps.update(50_000, 10_000 * SECOND));
+        assertEquals(0, laps.lapCount());
+    }
+
+    @Test
+    public void laps_growPastTheInitialCapacity() {
+        LapEngine laps = new LapEngine(100);
+        laps.update(10_000, 3000 * SECOND);
+        assertEquals(100, laps.lapCount());
+        assertEquals(100, laps.lapDistanceMeters(99), 1e-9);
+        assertEquals(30 * SECOND, laps.lapNanos(99));
+    }
+
+    @Test
+    public void reset_clearsTheLaps() {
+        LapEngine laps = new LapEngine(1000);
+        laps.update(2500, 600 * SECOND);
+        laps.reset();
+        assertEquals(0, laps.lapCount());
+        assertEquals(0, laps.currentLapDistanceMeters(), 1e-9);
+        assertEquals(0, laps.currentLapNanos());
+    }
+
+    @Test
+    public void readState_keepsTheLastLapsAndTheCount() {
+        LapEngine laps = new LapEngine(100);
+        laps.update(550, 160 * SECOND);
+        laps.lap();
+        laps.update(600, 180 * SECOND);
+        ByteBuffer state = ByteBuffer.allocate(LapEngine.stateBytes(3));
+        laps.writeState(state, 3);
+        assertFalse(state.hasRemaining());
+        state.flip();
+
+        LapEngine restored = new LapEngine(0);
+        restored.readState(state, 3);
+        assertEquals(6, restored.lapCount());
+        assertEquals(100, restored.autoLapMeters(), 0.0);
+        // The laps before the last three come back empty.
+        assertEquals(0, restored.lapDistanceMeters(2), 0.0);
+        assertEquals(100, restored.lapDistanceMeters(3), 1e-9);
+        assertEquals(50, restored.lapDistanceMeters(5), 1e-9);
+        assertTrue(restored.isManual(5));
+        assertEquals(laps.lapNanos(5), restored.lapNanos(5));
+        assertEquals(50, restored.currentLapDistanceMeters(), 1e-9);
+
+        // Both go on alike.
+        assertEquals(laps.update(800, 240 * SECOND), restored.update(800, 240 * SECOND));
+        assertEquals(laps.lapNanos(7), restored.lapNanos(7));
+        assertEquals(laps.currentLapNanos(), restored.currentLapNanos());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void lapDistance_rejectsAMissingLap() {
+        new LapEngine(1000).lapDistanceMeters(0);
+    }
+}
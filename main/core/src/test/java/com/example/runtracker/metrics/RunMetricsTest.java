@@ -0,0 +1,172 @@
+package com.example.runtracker.metrics;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RunMetrics}, replaying a 50k-point synthetic track.
+ */
+public class RunMetricsTest {
+    private static final int POINT_COUNT = 50_000;
+
+    private static final long SECOND = 1_000_000_000L;
+
+    /** Meters per degree of latitude on the RunMetrics sphere. */
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * RunMetrics.EARTH_RADIUS_M;
+
+    @Test
+    public void distance_matchesMeridianArcOver50kPoints() {
+        RunMetrics metrics = new RunMetrics();
+        double stepDegrees = 3.0 / METERS_PER_DEGREE;
+        for (int i = 0; i < POINT_COUNT; i++) {
+            metrics.update(10 + i * stepDegrees, 20, i * SECOND);
+        }
+
+        double expected = Math.toRadians((POINT_COUNT - 1) * stepDegrees) * RunMetrics.EARTH_RADIUS_M;
+        assertEquals(expected, metrics.distanceMeters(), 1e-6);
+        assertEquals((POINT_COUNT - 1) * SECOND, metrics.elapsedNanos());
+        assertEquals((POINT_COUNT - 1) * SECOND, metrics.movingNanos());
+    }
+
+    @Test
+    public void distance_hasNoSummationDriftOnWindingTrack() {
+        RunMetrics metrics = new RunMetrics();
+        BigDecimal exact = BigDecimal.ZERO;
+        RunMetrics single = new RunMetrics();
+        double previousLatitude = 0;
+        double previousLongitude = 0;
+        for (int i = 0; i < POINT_COUNT; i++) {
+            double latitude = 42.35 + 0.01 * Math.sin(i / 500.0);
+            double longitude = -71.1 + 0.01 * Math.cos(i / 700.0);
+            metrics.update(latitude, longitude, i * SECOND);
+            if (i > 0) {
+                // Exact sum of the very same double step values.
+                single.reset();
+                single.update(previousLatitude, previousLongitude, 0);
+                single.update(latitude, longitude, SECOND);
+                exact = exact.add(new BigDecimal(single.distanceMeters()));
+            }
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+        assertEquals(exact.doubleValue(), metrics.distanceMeters(), 1e-9);
+    }
+
+    @Test
+    public void movingTime_excludesStops() {
+        RunMetrics metrics = new RunMetrics();
+        double stepDegrees = 3.0 / METERS_PER_DEGREE;
+        double latitude = 0;
+        long stoppedSeconds = 0;
+        for (int i = 0; i < POINT_COUNT; i++) {
+            // Stand still for 10 seconds out of every 100.
+            boolean stopped = i % 100 >= 90;
+            if (stopped) {
+                stoppedSeconds++;
+            } else {
+                latitude += stepDegrees;
+            }
+            metrics.update(latitude, 0, i * SECOND);
+        }
+        long expectedMoving = (POINT_COUNT - 1 - stoppedSeconds) * SECOND;
+        assertEquals(expectedMoving, metrics.movingNanos());
+        assertEquals((POINT_COUNT - 1) * SECOND, metrics.elapsedNanos());
+    }
+
+    @Test
+    public void pace_averageAndRollingAtConstantSpeed() {
+        RunMetrics metrics = new RunMetrics();
+        double speed = 3.5;
+        double stepDegrees = speed / METERS_PER_DEGREE;
+        assertTrue(Double.isNaN(metrics.averagePaceSecondsPerMeter()));
+        for (int i = 0; i < 600; i++) {
+            metrics.update(i * stepDegrees, 0, i * SECOND);
+        }
+        assertEquals(1 / speed, metrics.averagePaceSecondsPerMeter(), 1e-9);
+        assertEquals(1 / speed, metrics.rollingPaceSecondsPerMeter(), 1e-9);
+    }
+
+    @Test
+    public void rollingPace_followsRecentSpeedOnly() {
+        RunMetrics metrics = new RunMetrics();
+        double latitude = 0;
+        for (int i = 0; i < 600; i++) {
+            double speed = i < 300 ? 2.0 : 4.0;
+            latitude += speed / METERS_PER_DEGREE;
+            metrics.update(latitude, 0, i * SECOND);
+        }
+        assertEquals(1 / 4.0, metrics.rollingPaceSecondsPerMeter(), 1e-9);
+        assertTrue(metrics.averagePaceSecondsPerMeter() > 1 / 4.0);
+    }
+
+    @Test
+    public void breakSegment_skipsTheGap() {
+        RunMetrics metrics = new RunMetrics();
+        metrics.update(0, 0, 0);
+        metrics.update(0.001, 0, SECOND);
+        double before = metrics.distanceMeters();
+        metrics.breakSegment();
+        metrics.update(1, 1, 100 * SECOND);
+        assertEquals(before, metrics.distanceMeters(), 0.0);
+        assertEquals(SECOND, metrics.elapsedNanos());
+    }
+
+    @Test
+    public void readState_goesOnFromTheSavedFix() {
+        RunMetrics metrics = new RunMetrics();
+        RunMetrics saved = new RunMetrics();
+        ByteBuffer state = ByteBuffer.allocate(RunMetrics.STATE_BYTES);
+        for (int i = 0; i < 200; i++) {
+            metrics.update(i * 3 / METERS_PER_DEGREE, 0, i * SECOND);
+            if (i == 99) {
+                metrics.writeState(state);
+                assertFalse(state.hasRemaining());
+                state.flip();
+                saved.readState(state);
+                assertEquals(metrics.distanceMeters(), saved.distanceMeters(), 0.0);
+            } else if (i > 99) {
+                saved.update(i * 3 / METERS_PER_DEGREE, 0, i * SECOND);
+            }
+        }
+        assertEquals(metrics.distanceMeters(), saved.distanceMeters(), 1e-9);
+        assertEquals(metrics.elapsedNanos(), saved.elapsedNanos());
+        assertEquals(metrics.movingNanos(), saved.movingNanos());
+        assertEquals(metrics.rollingPaceSecondsPerMeter(), saved.rollingPaceSecondsPerMeter(), 1e-9);
+    }
+
+    @Test
+    public void update_ignoresDuplicateTimestamps() {
+        RunMetrics metrics = new RunMetrics();
+        metrics.update(0, 0, SECOND);
+        metrics.update(0.001, 0, SECOND);
+        assertEquals(0, metrics.distanceMeters(), 0.0);
+    }
+
+    @Test
+    public void update_isCheapAndAllocationFree() {
+        RunMetrics metrics = new RunMetrics();
+        replayWindingTrack(metrics);
+
+        metrics.reset();
+        long allocatedBefore = AllocationCounter.allocatedBytes();
+        long start = System.nanoTime();
+        replayWindingTrack(metrics);
+        long nanosPerUpdate = (System.nanoTime() - start) / POINT_COUNT;
+        long allocated = AllocationCounter.allocatedBytes() - allocatedBefore;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        assertTrue(nanosPerUpdate + " ns per update", nanosPerUpdate < 5_000);
+    }
+
+    private static void replayWindingTrack(RunMetrics metrics) {
+        for (int i = 0; i < POINT_COUNT; i++) {
+            metrics.update(42.35 + 0.01 * Math.sin(i / 500.0), -71.1 + 0.01 * Math.cos(i / 700.0), i * SECOND);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.runtracker.perf;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.display.TextBuffer;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.pipeline.FixProcessor;
+import com.example.runtracker.pipeline.FixSnapshot;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Histogram}, {@link PerfMonitor} and {@link PerfReport}.
+ */
+public class HistogramTest {
+    private static final long MILLI = 1_000_000L;
+
+    /** Clock advanced by hand. */
+    private long nowNanos;
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        long[] values = {0, 1, 63, 64, 66, 1000, 123_456_789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        int previous = -1;
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(index > previous || value == 0);
+            assertTrue(index < Histogram.BUCKET_COUNT);
+            assertTrue(Histogram.lowestEquivalentValue(index) <= value);
+            assertTrue(Histogram.highestEquivalentValue(index) >= value);
+            previous = index;
+        }
+        for (int i = 1; i < Histogram.BUCKET_COUNT; i++) {
+            assertEquals(Histogram.highestEquivalentValue(i - 1) + 1, Histogram.lowestEquivalentValue(i));
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinThePrecision() {
+        Histogram histogram = new Histogram();
+        long[] sorted = new long[10_000];
+        Random random = new Random(7);
+        for (int i = 0; i < sorted.length; i++) {
+            // Log-normal around 5 ms, like a latency.
+            sorted[i] = (long) (5 * MILLI * Math.exp(random.nextGaussian()));
+            histogram.record(sorted[i]);
+        }
+        java.util.Arrays.sort(sorted);
+
+        assertEquals(sorted.length, histogram.count());
+        assertEquals(sorted[sorted.length - 1], histogram.max());
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            long exact = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+            assertEquals(exact, histogram.valueAtPercentile(percentile), exact * 0.035);
+        }
+        assertEquals(histogram.max(), histogram.valueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(50));
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 20_000; i++) {
+            histogram.record(i * 997L);
+        }
+        long before = AllocationCounter.allocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(i * 997L);
+        }
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes for 100000 values", allocated < 1024);
+    }
+
+    @Test
+    public void record_isSafeFromManyThreads() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200_000, histogram.count());
+        assertEquals(49_999, histogram.max());
+    }
+
+    @Test
+    public void monitor_measuresEachStageFromTheFixTimestamp() {
+        PerfMonitor monitor = new PerfMonitor(() -> nowNanos);
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.setPerfMonitor(monitor);
+
+        nowNanos = 1000 * MILLI;
+        FixSnapshot snapshot = processor.process(42.35, -71.1, 3f, 5f, 990 * MILLI);
+        assertEquals(nowNanos, snapshot.processedRealtimeNanos);
+        nowNanos += 4 * MILLI;
+        monitor.recordRendered(snapshot.elapsedRealtimeNanos, snapshot.processedRealtimeNanos);
+        monitor.recordTimerTick(nowNanos - 2 * MILLI);
+
+        assertEquals(10 * MILLI, monitor.fixToProcess.max());
+        assertEquals(4 * MILLI, monitor.processToRender.max());
+        assertEquals(14 * MILLI, monitor.fixToRender.max());
+        assertEquals(2 * MILLI, monitor.timerDrift.max());
+    }
+
+    @Test
+    public void disabledMonitor_recordsNothing() {
+        FixSnapshot snapshot = new FixProcessor(new FilterChain()).process(42.35, -71.1, 3f, 5f, MILLI);
+        assertEquals(0, snapshot.processedRealtimeNanos);
+        PerfMonitor.DISABLED.recordRendered(snapshot.elapsedRealtimeNanos, snapshot.processedRealtimeNanos);
+        PerfMonitor.DISABLED.recordTimerTick(0);
+        assertEquals(0, PerfMonitor.DISABLED.fixToRender.count());
+        assertEquals(0, PerfMonitor.DISABLED.timerDrift.count());
+    }
+
+    @Test
+    public void batchAllocations_areOnlyCountedWithAMeter() {
+        PerfMonitor monitor = new PerfMonitor(() -> nowNanos);
+        monitor.beginBatch();
+        monitor.endBatch();
+        assertEquals(0, monitor.batchAllocations.count());
+
+        monitor.setAllocationMeter(AllocationCounter::allocatedBytes);
+        monitor.beginBatch();
+        byte[] garbage = new byte[4096];
+        monitor.endBatch();
+        assertEquals(1, monitor.batchAllocations.count());
+        assertTrue(monitor.batchAllocations.max() >= garbage.length);
+    }
+
+    @Test
+    public void report_summarizesAndDumps() throws IOException {
+        PerfMonitor monitor = new PerfMonitor(() -> nowNanos);
+        for (int i = 1; i <= 100; i++) {
+            monitor.fixToProcess.record(i * MILLI);
+        }
+        PerfReport report = new PerfReport(monitor);
+
+        TextBuffer summary = report.formatSummary();
+        String[] lines = summary.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].matches("fix->process +p50 (49|50)\\.\\d ms p99 (99|100)\\.\\d ms"));
+        assertEquals("timer drift   p50 0.0 ms p99 0.0 ms", lines[3]);
+        long before = AllocationCounter.allocatedBytes();
+        report.formatSummary();
+        assertTrue(AllocationCounter.allocatedBytes() - before < 1024);
+
+        StringWriter dump = new StringWriter();
+        report.writeDump(dump);
+        assertTrue(dump.toString().startsWith("fix->process (ms)\n  count 100\n"));
+        assertTrue(dump.toString().contains("alloc/batch (B)\n  count 0\n"));
+    }
+}
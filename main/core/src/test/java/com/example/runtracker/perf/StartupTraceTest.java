@@ -0,0 +1,58 @@
+package com.example.runtracker.perf;
+
+import com.example.runtracker.clock.NanoClock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StartupTrace}.
+ */
+public class StartupTraceTest {
+    private static final long MILLI = 1_000_000L;
+
+    /** Clock that only moves when told to. */
+    private static final class FakeNanoClock implements NanoClock {
+        long now = 5_000 * MILLI;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private final FakeNanoClock clock = new FakeNanoClock();
+
+    @Test
+    public void mark_keepsTheFirstTimeOfEachPhaseInOrder() {
+        StartupTrace trace = new StartupTrace(clock, clock.now - 100 * MILLI);
+        trace.mark("create");
+        clock.now += 30 * MILLI;
+        trace.mark("content");
+        clock.now += 20 * MILLI;
+        trace.mark("create");
+        trace.mark("first-frame");
+
+        assertEquals(3, trace.phaseCount());
+        assertEquals("content", trace.phase(1));
+        assertEquals(2, trace.indexOf("first-frame"));
+        assertEquals(-1, trace.indexOf("first-fix"));
+        assertEquals(100 * MILLI, trace.elapsedNanos(0));
+        assertEquals(100 * MILLI, trace.durationNanos(0));
+        assertEquals(150 * MILLI, trace.elapsedNanos(2));
+        assertEquals(20 * MILLI, trace.durationNanos(2));
+        assertEquals("startup create 100.0 ms (+100.0), content 130.0 ms (+30.0), first-frame 150.0 ms (+20.0)",
+                trace.format().toString());
+    }
+
+    @Test
+    public void mark_ignoresPhasesPastTheLimit() {
+        StartupTrace trace = new StartupTrace(clock, clock.now);
+        for (int i = 0; i < StartupTrace.MAX_PHASES + 4; i++) {
+            trace.mark("phase-" + i);
+        }
+        assertEquals(StartupTrace.MAX_PHASES, trace.phaseCount());
+        assertEquals(-1, trace.indexOf("phase-" + StartupTrace.MAX_PHASES));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.filter.AccuracyGate;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.provider.FakeLocationProvider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FixBatchSink}.
+ */
+public class FixBatchSinkTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final List<FixSnapshot> rendered = new ArrayList<>();
+
+    @Test
+    public void batch_isRecordedFullyAndRenderedOnce() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        FakeLocationProvider provider = new FakeLocationProvider();
+        provider.start(1000, 1, new FixBatchSink(processor, rendered::add));
+
+        provider.deliverBatch(30, 42.35, 3f, 5f, SECOND);
+
+        assertEquals(1, rendered.size());
+        FixSnapshot snapshot = rendered.get(0);
+        assertEquals(30, snapshot.trackSize);
+        assertEquals(30, processor.track().size());
+        assertEquals(30 * SECOND, snapshot.elapsedRealtimeNanos);
+        assertEquals(29 * SECOND, snapshot.elapsedNanos);
+        assertEquals(87, snapshot.distanceMeters, 0.5);
+    }
+
+    @Test
+    public void batchesOfOne_areRenderedEach() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        FakeLocationProvider provider = new FakeLocationProvider();
+        provider.start(1000, 1, new FixBatchSink(processor, rendered::add));
+
+        for (int i = 0; i < 5; i++) {
+            provider.deliverBatch(1, 42.35 + i * 3e-5, 3f, 5f, (i + 1) * SECOND);
+        }
+
+        assertEquals(5, rendered.size());
+        assertEquals(5, rendered.get(4).trackSize);
+    }
+
+    @Test
+    public void batchWithoutAcceptedFixes_rendersNothing() {
+        FixProcessor processor = new FixProcessor(new FilterChain(new AccuracyGate(20)));
+        FakeLocationProvider provider = new FakeLocationProvider();
+        provider.start(1000, 1, new FixBatchSink(processor, rendered::add));
+
+        provider.deliverBatch(10, 42.35, 3f, 80f, SECOND);
+        assertTrue(rendered.isEmpty());
+
+        provider.deliverBatch(10, 42.35, 3f, 5f, 20 * SECOND);
+        assertEquals(1, rendered.size());
+        assertEquals(10, rendered.get(0).trackSize);
+    }
+}
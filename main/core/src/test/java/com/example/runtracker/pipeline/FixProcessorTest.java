@@ -0,0 +1,350 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.display.SpeedBands;
+import com.example.runtracker.filter.AccuracyGate;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.history.SessionSummary;
+import com.example.runtracker.sampling.SamplingScheduler;
+import com.example.runtracker.segment.Segment;
+import com.example.runtracker.share.LiveShareSink;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.LiveRoute;
+import com.example.runtracker.track.TrackReader;
+import com.example.runtracker.track.TrackWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FixProcessor}.
+ */
+public class FixProcessorTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void process_convertsSpeedAndRecordsFix() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        FixSnapshot snapshot = processor.process(42.0, -71.0, 10f, 4f, 5_000_000_000L);
+
+        assertEquals(42.0, snapshot.latitude, 0.0);
+        assertEquals(-71.0, snapshot.longitude, 0.0);
+        assertEquals(10 * FixProcessor.MPS_TO_MPH, snapshot.displaySpeed, 1e-9);
+        assertEquals("mph", snapshot.speedUnit());
+        assertEquals(SpeedBands.SLOW, snapshot.speedBand);
+        assertEquals(1, snapshot.trackSize);
+        assertEquals(5_000_000_000L, processor.track().elapsedRealtimeNanos(0));
+    }
+
+    @Test
+    public void process_usesMetersPerSecondWhenMphIsOff() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.setUseMph(false);
+        FixSnapshot snapshot = processor.process(0, 0, 20f, 4f, 0);
+
+        assertEquals(20, snapshot.displaySpeed, 1e-9);
+        assertEquals("m/s", snapshot.speedUnit());
+        assertEquals(SpeedBands.MEDIUM, snapshot.speedBand);
+    }
+
+    @Test
+    public void process_updatesMetrics() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.process(0, 0, 3f, 4f, 0);
+        FixSnapshot snapshot = processor.process(0.001, 0, 3f, 4f, 30_000_000_000L);
+
+        assertEquals(111.2, snapshot.distanceMeters, 0.1);
+        assertEquals(30_000_000_000L, snapshot.elapsedNanos);
+        assertEquals(30_000_000_000L, snapshot.movingNanos);
+        assertEquals(30 / snapshot.distanceMeters, snapshot.averagePaceSecondsPerMeter, 1e-9);
+    }
+
+    @Test
+    public void process_endsAutomaticLapsInTheDisplayUnit() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.setUseMph(false);
+        processor.process(0, 0, 3f, 4f, 0);
+        processor.process(0.005, 0, 3f, 4f, 150_000_000_000L);
+        FixSnapshot snapshot = processor.process(0.01, 0, 3f, 4f, 300_000_000_000L);
+
+        // 1112 m in 300 s at a steady pace: the first kilometer ends at 269.8 s.
+        assertEquals(1, snapshot.lapCount);
+        assertEquals(1000, snapshot.lastLapDistanceMeters, 1e-6);
+        assertEquals(269.8, snapshot.lastLapNanos / 1e9, 0.1);
+        assertEquals(111.9, snapshot.lapDistanceMeters, 0.1);
+    }
+
+    @Test
+    public void lap_endsTheLapAtTheLastFix() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.process(0, 0, 3f, 4f, 0);
+        processor.process(0.001, 0, 3f, 4f, 30_000_000_000L);
+        processor.lap();
+        FixSnapshot snapshot = processor.snapshot();
+
+        assertEquals(1, snapshot.lapCount);
+        assertEquals(111.2, snapshot.lastLapDistanceMeters, 0.1);
+        assertEquals(30_000_000_000L, snapshot.lastLapNanos);
+        assertEquals(0, snapshot.lapDistanceMeters, 0.0);
+        assertEquals(0, snapshot.lapNanos);
+    }
+
+    @Test
+    public void process_publishesTheRoute() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        for (int i = 0; i < 10; i++) {
+            processor.process(i * 0.0001, 0, 3f, 4f, i * 1_000_000_000L);
+        }
+        LiveRoute route = processor.route();
+        assertEquals(10, route.size());
+        assertEquals(0.0009, route.latitude(9), 1e-12);
+        // A straight run: only the first fix is kept, the rest wait in the simplifier.
+        assertEquals(1, route.simplifiedSize());
+        assertEquals(0, route.simplifiedSourceIndex(0));
+
+        processor.process(0.0009, 0.001, 3f, 4f, 10_000_000_000L);
+        assertEquals(2, route.simplifiedSize());
+        assertEquals(9, route.simplifiedSourceIndex(1));
+
+        processor.reset();
+        assertNotSame(route, processor.route());
+        assertEquals(0, processor.route().size());
+    }
+
+    @Test
+    public void summary_holdsTheTotalsAndBestSplits() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.process(0, 0, 3f, 4f, 0);
+        processor.process(0.005, 0, 3f, 4f, 150_000_000_000L);
+        processor.process(0.01, 0, 3f, 4f, 300_000_000_000L);
+        SessionSummary summary = processor.summary(1_700_000_000_000L, "session.rtrk");
+
+        assertEquals(1_700_000_000_000L, summary.startEpochMillis);
+        assertEquals("session.rtrk", summary.trackFileName);
+        assertEquals(1111.9, summary.distanceMeters, 0.1);
+        assertEquals(300_000_000_000L, summary.durationNanos);
+        assertEquals(3, summary.fixCount);
+        assertEquals(269.8, summary.bestKilometerNanos / 1e9, 0.1);
+        assertEquals(SessionSummary.NO_SPLIT, summary.bestMileNanos);
+        assertTrue(Double.isNaN(summary.elevationGainMeters));
+
+        processor.reset();
+        assertEquals(SessionSummary.NO_SPLIT, processor.summary(0, null).bestKilometerNanos);
+    }
+
+    @Test
+    public void process_timesTheSegmentsRun() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.segments().setSegments(List.of(new Segment(1, "north", new double[]{0, 0.004},
+                new double[]{0, 0})));
+        List<Long> efforts = new ArrayList<>();
+        processor.segments().setSink((segment, startNanos, endNanos) -> efforts.add(endNanos - startNanos));
+        // 3.7 m north every second.
+        for (int i = 0; i <= 130; i++) {
+            processor.process(i * 0.0000333, 0, 3.7f, 4f, i * 1_000_000_000L);
+        }
+
+        assertEquals(1, efforts.size());
+        // From the start to within 25 m of the finish, 445 m north.
+        assertEquals(114, efforts.get(0) / 1_000_000_000L);
+    }
+
+    @Test
+    public void breakSegment_doesNotCountTheGap() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.process(0, 0, 3f, 4f, 0);
+        processor.breakSegment();
+        FixSnapshot snapshot = processor.process(0.001, 0, 3f, 4f, 30_000_000_000L);
+
+        assertEquals(0, snapshot.distanceMeters, 0.0);
+        assertEquals(2, snapshot.trackSize);
+    }
+
+    @Test
+    public void process_dropsFixesRejectedByTheFilter() {
+        FixProcessor processor = new FixProcessor(new AccuracyGate(20));
+        assertNull(processor.process(1, 2, 3f, 50f, 0));
+        assertEquals(0, processor.track().size());
+        assertNotNull(processor.process(1, 2, 3f, 5f, 1));
+        assertEquals(1, processor.track().size());
+    }
+
+    @Test
+    public void process_smoothsWithStandardChain() {
+        FixProcessor processor = new FixProcessor();
+        processor.process(42.0, -71.0, 0f, 5f, 0);
+        FixSnapshot snapshot = processor.process(42.0001, -71.0, 0f, 5f, 1_000_000_000L);
+
+        // Between prediction and measurement, with a speed below the raw 11 m jump.
+        assertTrue(snapshot.latitude > 42.0 && snapshot.latitude < 42.0001);
+        assertTrue(snapshot.speedMps > 0f && snapshot.speedMps < 11f);
+    }
+
+    @Test
+    public void reset_clearsTrack() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.process(1, 2, 3f, 4f, 0);
+        processor.reset();
+        assertEquals(0, processor.track().size());
+        assertEquals(0, processor.metrics().distanceMeters(), 0.0);
+        assertEquals(1, processor.process(1, 2, 3f, 4f, 1).trackSize);
+    }
+
+    @Test
+    public void process_autoPausesRecordingWhileStopped() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        long second = 1_000_000_000L;
+        int t = 0;
+        for (; t < 60; t++) {
+            processor.process(42 + t * 3e-5, -71, 3f, 4f, t * second);
+        }
+        FixSnapshot snapshot = null;
+        for (; t < 120; t++) {
+            snapshot = processor.process(42 + 60 * 3e-5, -71, 0f, 4f, t * second);
+        }
+        assertTrue(snapshot.autoPaused);
+        assertEquals(SamplingScheduler.MODE_STATIONARY, snapshot.samplingMode);
+        int pausedSize = snapshot.trackSize;
+        long pausedElapsed = snapshot.elapsedNanos;
+        assertTrue(pausedSize < 80);
+
+        // Moving again resumes recording, and the stop is not counted as session time.
+        snapshot = processor.process(42 + 61 * 3e-5, -71, 3f, 4f, t++ * second);
+        assertFalse(snapshot.autoPaused);
+        assertEquals(pausedSize + 1, snapshot.trackSize);
+        snapshot = processor.process(42 + 62 * 3e-5, -71, 3f, 4f, t * second);
+        assertEquals(pausedElapsed + second, snapshot.elapsedNanos);
+    }
+
+    @Test
+    public void process_sharesOnlyTheRecordedFixes() {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        List<Long> shared = new ArrayList<>();
+        processor.setLiveShare(new LiveShareSink() {
+            @Override
+            public void startSession(long sessionId, long epochOffsetNanos) { }
+
+            @Override
+            public void onFix(double latitude, double longitude, float speedMps, float accuracy,
+                              long elapsedRealtimeNanos) {
+                shared.add(elapsedRealtimeNanos);
+            }
+        });
+        int t = 0;
+        for (; t < 60; t++) {
+            processor.process(42 + t * 3e-5, -71, 3f, 4f, t * SECOND);
+        }
+        for (; t < 120; t++) {
+            processor.process(42 + 60 * 3e-5, -71, 0f, 4f, t * SECOND);
+        }
+        assertEquals(processor.track().size(), shared.size());
+        for (int i = 0; i < shared.size(); i++) {
+            assertEquals(processor.track().elapsedRealtimeNanos(i), shared.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void restore_readsOnlyTheTailOfTheTrackFile() throws IOException {
+        File file = folder.newFile();
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        processor.startRecording(TrackWriter.create(file, 1_700_000_000_000L, 0));
+        ByteBuffer state = ByteBuffer.allocate(FixProcessor.STATE_BYTES);
+        for (int i = 0; i < 3600; i++) {
+            processor.process(north(i), 0, 3f, 4f, i * SECOND);
+            if (i == 999) {
+                processor.lap();
+            }
+            if (i == 3399) {
+                processor.writeState(state);
+                assertFalse(state.hasRemaining());
+            }
+        }
+        // The process dies: the fixes of the block being filled are lost, and a block was
+        // being written.
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        }
+        int onDisk = countFixes(file);
+        assertTrue(onDisk > 3400 && onDisk < 3600);
+
+        FixProcessor restored = new FixProcessor(new FilterChain());
+        state.flip();
+        assertEquals(onDisk - 3400, restored.restore(state, file));
+
+        FixProcessor expected = new FixProcessor(new FilterChain());
+        for (int i = 0; i < onDisk; i++) {
+            expected.process(north(i), 0, 3f, 4f, i * SECOND);
+            if (i == 999) {
+                expected.lap();
+            }
+        }
+        SessionSummary summary = restored.summary(0, null);
+        SessionSummary reference = expected.summary(0, null);
+        // The fixes read again are rounded to the precision of the file.
+        assertEquals(reference.distanceMeters, summary.distanceMeters, 0.01);
+        assertEquals(reference.durationNanos, summary.durationNanos);
+        assertEquals(onDisk, summary.fixCount);
+        assertEquals(reference.lapCount, summary.lapCount);
+        assertEquals(reference.bestKilometerNanos, summary.bestKilometerNanos);
+        assertEquals(reference.bestMileNanos, summary.bestMileNanos);
+        assertEquals(onDisk - 3400, restored.track().size());
+
+        // Recording goes on in the same file, after its last whole block.
+        for (int i = onDisk; i < onDisk + 100; i++) {
+            restored.process(north(i), 0, 3f, 4f, i * SECOND);
+        }
+        restored.stopRecording();
+        assertEquals(onDisk + 100, countFixes(file));
+        assertEquals(onDisk + 100, restored.summary(0, null).fixCount);
+    }
+
+    @Test
+    public void restore_withoutTrackFileKeepsTheTotals() throws IOException {
+        FixProcessor processor = new FixProcessor(new FilterChain());
+        for (int i = 0; i < 10; i++) {
+            processor.process(north(i), 0, 3f, 4f, i * SECOND);
+        }
+        ByteBuffer state = ByteBuffer.allocate(FixProcessor.STATE_BYTES);
+        processor.writeState(state);
+        state.flip();
+
+        FixProcessor restored = new FixProcessor(new FilterChain());
+        assertEquals(0, restored.restore(state, null));
+        assertEquals(processor.metrics().distanceMeters(), restored.metrics().distanceMeters(), 0.0);
+        assertEquals(10, restored.fixCount());
+        FixSnapshot snapshot = restored.process(north(10), 0, 3f, 4f, 10 * SECOND);
+        assertEquals(30, snapshot.distanceMeters, 0.01);
+        assertEquals(10 * SECOND, snapshot.elapsedNanos);
+    }
+
+    /**
+     * @param i the index of a fix.
+     * @return the latitude of the fix, 3 m north of the previous one.
+     */
+    private static double north(int i) {
+        return i * 3 / (Math.toRadians(1) * 6_371_008.8);
+    }
+
+    private static int countFixes(File file) throws IOException {
+        FixSample sample = new FixSample();
+        int count = 0;
+        try (TrackReader reader = TrackReader.open(file)) {
+            while (reader.next(sample)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.runtracker.pipeline;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SpscRing}.
+ */
+public class SpscRingTest {
+    @Test
+    public void offerAndPoll_keepOrderAndRejectWhenFull() {
+        SpscRing<Integer> ring = new SpscRing<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+
+        ring.offer(5);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertNull(ring.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBeAPowerOfTwo() {
+        new SpscRing<Integer>(48);
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer_loseNothingAndKeepOrder() throws InterruptedException {
+        int count = 1_000_000;
+        Integer[] values = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        SpscRing<Integer> ring = new SpscRing<>(64);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!ring.offer(values[i])) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        int expected = 0;
+        while (expected < count) {
+            Integer value = ring.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            assertSame(values[expected], value);
+            expected++;
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void offerAndPoll_doNotAllocate() {
+        SpscRing<Object> ring = new SpscRing<>(64);
+        Object element = new Object();
+        // Warm up so the JIT compiles both paths.
+        for (int i = 0; i < 100_000; i++) {
+            ring.offer(element);
+            ring.poll();
+        }
+
+        long before = AllocationCounter.allocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            ring.offer(element);
+            ring.poll();
+        }
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.filter.FilterChain;
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.pipeline.FixProcessor;
+import com.example.runtracker.provider.LocationSink;
+import com.example.runtracker.provider.RecordingSink;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackBuffer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReplayEngine}, {@link SyntheticTrace} and {@link NoisyTrace},
+ * including a headless throughput and accuracy run of the processing stages.
+ */
+public class ReplayEngineTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private static final long BASE_NANOS = 5 * SECOND;
+
+    /** Fixes per batch in the processing run, as from the batched fused provider. */
+    private static final int BATCH_SIZE = 30;
+
+    @Test
+    public void syntheticTrace_coversTheExactDistance() throws IOException {
+        SyntheticTrace trace = new SyntheticTrace.Builder()
+                .start(42.35, -71.1)
+                .segment(0, 3f, 100)
+                .segment(90, 0f, 20)
+                .segment(180, 4f, 50)
+                .build();
+        assertEquals(170, trace.size());
+        assertEquals(3 * 99 + 4 * 50, trace.distanceMeters(), 1e-9);
+
+        RecordingSink sink = new RecordingSink();
+        ReplayEngine engine = new ReplayEngine(trace, 1);
+        engine.start(BASE_NANOS);
+        assertEquals(170, engine.runToEnd(sink, 1));
+        assertEquals(170, sink.batchCount);
+        assertEquals(trace.distanceMeters(), pathLength(sink.fixes), 0.01);
+        // North, then back south: ends 97 m north of the start.
+        assertEquals(97 / 111_195.0, sink.fixes.latitude(169) - 42.35, 1e-6);
+    }
+
+    @Test
+    public void timestamps_areDeterministicWhateverTheDeliveryPace() throws IOException {
+        RecordingSink fast = new RecordingSink();
+        ReplayEngine engine = new ReplayEngine(SyntheticTrace.devRun(), 1000);
+        engine.start(BASE_NANOS);
+        engine.runToEnd(fast, 64);
+
+        RecordingSink paced = new RecordingSink();
+        ReplayEngine pacedEngine = new ReplayEngine(SyntheticTrace.devRun(), 1);
+        pacedEngine.start(BASE_NANOS);
+        for (long realNanos = 0; !pacedEngine.isFinished(); realNanos += 2_500_000_000L) {
+            pacedEngine.deliverUntil(pacedEngine.toOffsetNanos(realNanos), paced);
+        }
+
+        assertEquals(fast.fixes.size(), paced.fixes.size());
+        for (int i = 0; i < fast.fixes.size(); i++) {
+            assertEquals(BASE_NANOS + i * SECOND, fast.fixes.elapsedRealtimeNanos(i));
+            assertEquals(fast.fixes.elapsedRealtimeNanos(i), paced.fixes.elapsedRealtimeNanos(i));
+            assertEquals(fast.fixes.latitude(i), paced.fixes.latitude(i), 0.0);
+        }
+        // Fixes due between two wakeups arrive as one batch.
+        assertTrue(paced.batchCount < paced.fixes.size() / 2);
+    }
+
+    @Test
+    public void deliverUntil_onlyDeliversDueFixes() throws IOException {
+        RecordingSink sink = new RecordingSink();
+        ReplayEngine engine = new ReplayEngine(constantRun(60), 100);
+        engine.start(BASE_NANOS);
+
+        assertEquals(1, engine.deliverUntil(0, sink));
+        assertEquals(SECOND, engine.nextOffsetNanos());
+        assertEquals(0, engine.deliverUntil(SECOND - 1, sink));
+        assertEquals(11, engine.deliverUntil(engine.toOffsetNanos(110_000_000L), sink));
+        assertEquals(10_000_000L, engine.toRealNanos(SECOND));
+        assertEquals(2, sink.batchCount);
+    }
+
+    @Test
+    public void minInterval_skipsFixesLikeAReceiver() throws IOException {
+        RecordingSink sink = new RecordingSink();
+        ReplayEngine engine = new ReplayEngine(constantRun(30), 1);
+        engine.setMinIntervalNanos(3 * SECOND);
+        engine.start(BASE_NANOS);
+        engine.runToEnd(sink, 1);
+
+        assertEquals(10, sink.fixes.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(BASE_NANOS + 3 * i * SECOND, sink.fixes.elapsedRealtimeNanos(i));
+        }
+    }
+
+    @Test
+    public void loop_startsOverWithTimeRunningOn() throws IOException {
+        RecordingSink sink = new RecordingSink();
+        ReplayEngine engine = new ReplayEngine(constantRun(10), 1);
+        engine.setLoop(true);
+        engine.start(BASE_NANOS);
+        engine.deliverUntil(25 * SECOND, sink);
+
+        assertEquals(26, sink.fixes.size());
+        assertFalse(engine.isFinished());
+        assertEquals(sink.fixes.latitude(0), sink.fixes.latitude(10), 0.0);
+        for (int i = 0; i < 26; i++) {
+            assertEquals(BASE_NANOS + i * SECOND, sink.fixes.elapsedRealtimeNanos(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void speedFactor_isLimited() {
+        new ReplayEngine(constantRun(1), 1001);
+    }
+
+    @Test
+    public void noisyTrace_isDeterministicAndMatchesItsSettings() throws IOException {
+        SyntheticTrace exact = constantRun(20_000);
+        NoisyTrace noisy = new NoisyTrace(constantRun(20_000), 7, 4, 0.02, 5);
+        TrackBuffer first = readAll(noisy);
+        long dropped = noisy.droppedCount();
+
+        noisy.rewind();
+        TrackBuffer second = readAll(noisy);
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.latitude(i), second.latitude(i), 0.0);
+            assertEquals(first.elapsedRealtimeNanos(i), second.elapsedRealtimeNanos(i));
+        }
+
+        // About 2% of the fixes start a dropout of 3 fixes on average.
+        assertEquals(20_000, first.size() + dropped);
+        assertEquals(20_000 * 0.02 * 3, dropped, 300);
+
+        // The position error has the requested spread.
+        FixSample truth = new FixSample();
+        double sumSquares = 0;
+        for (int i = 0; i < first.size(); i++) {
+            do {
+                exact.next(truth);
+            } while (truth.elapsedRealtimeNanos != first.elapsedRealtimeNanos(i));
+            double north = (first.latitude(i) - truth.latitude) * 111_195.0;
+            sumSquares += north * north;
+        }
+        assertEquals(4, Math.sqrt(sumSquares / first.size()), 0.2);
+    }
+
+    @Test
+    public void processing_tenHourNoisyRunIsFastAndAccurate() throws IOException {
+        // Ten hours at 1 Hz: laps of a 1.2 km out-and-back with a stop at each end.
+        SyntheticTrace.Builder builder = new SyntheticTrace.Builder().start(42.35, -71.1);
+        for (int lap = 0; lap < 100; lap++) {
+            builder.segment(0, 3.5f, 160).segment(0, 0f, 40).segment(180, 3.2f, 175).segment(0, 0f, 25);
+        }
+        SyntheticTrace exact = builder.build();
+        double movingDistance = exact.distanceMeters();
+
+        FixProcessor processor = new FixProcessor();
+        ProcessorSink sink = new ProcessorSink(processor);
+        // Warm up so the JIT compiles the processing path.
+        replay(new NoisyTrace(exact, 11, 3, 0.01, 4), sink);
+        processor.reset();
+        exact.rewind();
+
+        long allocatedBefore = AllocationCounter.allocatedBytes();
+        long start = System.nanoTime();
+        long delivered = replay(new NoisyTrace(exact, 11, 3, 0.01, 4), sink);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long allocated = AllocationCounter.allocatedBytes() - allocatedBefore;
+
+        assertTrue(delivered > 35_000);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 1_000);
+        // Only the replay objects, the growing track and one snapshot per batch are allocated.
+        long budget = processor.track().memoryFootprintBytes() + 64 * 1024 + delivered / BATCH_SIZE * 256;
+        assertTrue("allocated " + allocated + " bytes", allocated < budget);
+        // Filtering keeps most of the noise from inflating the distance.
+        double error = processor.metrics().distanceMeters() - movingDistance;
+        FixProcessor unfiltered = new FixProcessor(new FilterChain());
+        exact.rewind();
+        replay(new NoisyTrace(exact, 11, 3, 0.01, 4), new ProcessorSink(unfiltered));
+        double unfilteredError = unfiltered.metrics().distanceMeters() - movingDistance;
+        assertTrue("error " + error + " m", Math.abs(error) < movingDistance * 0.08);
+        assertTrue("error " + error + " m, unfiltered " + unfilteredError + " m", unfilteredError > 10 * Math.abs(error));
+    }
+
+    /** Replays a trace through a sink as fast as possible, in batches like the fused provider. */
+    private static long replay(TraceSource trace, LocationSink sink) throws IOException {
+        ReplayEngine engine = new ReplayEngine(trace, ReplayEngine.MAX_SPEED_FACTOR);
+        engine.start(BASE_NANOS);
+        return engine.runToEnd(sink, BATCH_SIZE);
+    }
+
+    /** Steady running north at 3 m/s, one fix per second. */
+    private static SyntheticTrace constantRun(int seconds) {
+        return new SyntheticTrace.Builder().start(42.35, -71.1).segment(0, 3f, seconds).build();
+    }
+
+    private static TrackBuffer readAll(TraceSource trace) throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        FixSample sample = new FixSample();
+        while (trace.next(sample)) {
+            track.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+        }
+        return track;
+    }
+
+    private static double pathLength(TrackBuffer track) {
+        double length = 0;
+        for (int i = 1; i < track.size(); i++) {
+            length += RunMetrics.haversineMeters(track.latitude(i - 1),
+                    track.longitude(i - 1), track.latitude(i), track.longitude(i));
+        }
+        return length;
+    }
+
+    /** Feeds every fix to a processor, like the pipeline does. */
+    private static final class ProcessorSink implements LocationSink {
+        private final FixProcessor processor;
+
+        ProcessorSink(FixProcessor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void onFix(double latitude, double longitude, float speedMps, float accuracy,
+                          long elapsedRealtimeNanos) {
+            processor.accept(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+        }
+
+        @Override
+        public void onBatchEnd() {
+            processor.snapshot();
+        }
+    }
+}
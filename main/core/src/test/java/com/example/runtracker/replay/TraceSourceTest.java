@@ -0,0 +1,118 @@
+package com.example.runtracker.replay;
+
+import com.example.runtracker.export.GpxExporter;
+import com.example.runtracker.export.TrackExport;
+import com.example.runtracker.track.FixSample;
+import com.example.runtracker.track.TrackWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GpxTrace} and {@link TrackFileTrace}.
+ */
+public class TraceSourceTest {
+    private static final long START_EPOCH_MILLIS = 1_715_927_401_000L;
+    private static final long START_NANOS = 7_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void gpxTrace_readsExportedSessionBack() throws IOException {
+        File track = writeSession(600);
+        File gpx = folder.newFile("session.gpx");
+        TrackExport.writeFile(new GpxExporter(), track, gpx, false);
+
+        GpxTrace trace = GpxTrace.open(gpx);
+        assertEquals(600, trace.size());
+        assertEquals(START_EPOCH_MILLIS + 1000, trace.startEpochMillis());
+
+        try (TrackFileTrace binary = new TrackFileTrace(track)) {
+            FixSample expected = new FixSample();
+            FixSample actual = new FixSample();
+            for (int i = 0; i < 600; i++) {
+                assertTrue(binary.next(expected));
+                assertTrue(trace.next(actual));
+                assertEquals(expected.latitude, actual.latitude, 1e-7);
+                assertEquals(expected.longitude, actual.longitude, 1e-7);
+                assertEquals(expected.elapsedRealtimeNanos - START_NANOS - 1_000_000_000L,
+                        actual.elapsedRealtimeNanos);
+                if (i > 0) {
+                    // GPX has no speed here, so it is derived from the previous point.
+                    assertEquals(3.0, actual.speedMps, 0.05);
+                }
+            }
+            assertFalse(trace.next(actual));
+            assertFalse(binary.next(expected));
+
+            binary.rewind();
+            trace.rewind();
+            assertTrue(binary.next(expected));
+            assertTrue(trace.next(actual));
+            assertEquals(expected.latitude, actual.latitude, 1e-7);
+        }
+    }
+
+    @Test
+    public void gpxTrace_readsSpeedHdopAndTimeZones() throws IOException {
+        String gpx = "<?xml version=\"1.0\"?>\n"
+                + "<gpx version=\"1.1\" creator=\"test\" xmlns=\"http://www.topografix.com/GPX/1/1\"\n"
+                + "     xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v2\">\n"
+                + "  <metadata><time>2020-01-01T00:00:00Z</time></metadata>\n"
+                + "  <trk><trkseg>\n"
+                + "    <trkpt lat=\"42.35\" lon=\"-71.1\"><ele>5</ele><time>2024-05-17T08:30:00+02:00</time>"
+                + "<hdop>1.5</hdop></trkpt>\n"
+                + "    <trkpt lat=\"42.35003\" lon=\"-71.1\"><time>2024-05-17T06:30:01.5Z</time>\n"
+                + "      <extensions><gpxtpx:TrackPointExtension><gpxtpx:speed>2.75</gpxtpx:speed>"
+                + "</gpxtpx:TrackPointExtension></extensions></trkpt>\n"
+                + "  </trkseg><trkseg>\n"
+                + "    <trkpt lat=\"42.35006\" lon=\"-71.1\"><time>2024-05-17T06:30:03Z</time></trkpt>\n"
+                + "  </trkseg></trk>\n"
+                + "</gpx>\n";
+        GpxTrace trace = GpxTrace.read(new ByteArrayInputStream(gpx.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, trace.size());
+        assertEquals(1_715_927_400_000L, trace.startEpochMillis());
+
+        FixSample sample = new FixSample();
+        assertTrue(trace.next(sample));
+        assertEquals(0, sample.elapsedRealtimeNanos);
+        assertEquals(7.5f, sample.accuracy, 0f);
+        assertEquals(0f, sample.speedMps, 0f);
+
+        assertTrue(trace.next(sample));
+        assertEquals(1_500_000_000L, sample.elapsedRealtimeNanos);
+        assertEquals(2.75f, sample.speedMps, 0f);
+        assertEquals(GpxTrace.DEFAULT_ACCURACY_M, sample.accuracy, 0f);
+
+        assertTrue(trace.next(sample));
+        assertEquals(3_000_000_000L, sample.elapsedRealtimeNanos);
+        assertEquals(3.336 / 1.5, sample.speedMps, 0.01);
+    }
+
+    @Test(expected = IOException.class)
+    public void gpxTrace_rejectsMalformedTime() throws IOException {
+        String gpx = "<gpx><trk><trkseg><trkpt lat=\"1\" lon=\"2\"><time>yesterday</time></trkpt></trkseg></trk></gpx>";
+        GpxTrace.read(new ByteArrayInputStream(gpx.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Writes a session of {@code count} fixes at 1 Hz, moving 3 m north per fix. */
+    private File writeSession(int count) throws IOException {
+        File file = folder.newFile();
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(42.3505 + i * 3 / 111_195.0, -71.1076, 3f, 5f,
+                        START_NANOS + (i + 1) * 1_000_000_000L);
+            }
+        }
+        return file;
+    }
+}
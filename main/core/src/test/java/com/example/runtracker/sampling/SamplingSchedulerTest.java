@@ -0,0 +1,119 @@
+package com.example.runtracker.sampling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SamplingScheduler}, driven by replayed speed traces.
+ */
+public class SamplingSchedulerTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void onFix_staysActiveWhileRunning() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        for (int i = 0; i < 3600; i++) {
+            assertFalse(scheduler.onFix(3f + (i % 5) * 0.1f, i * SECOND));
+        }
+        assertEquals(SamplingScheduler.MODE_ACTIVE, scheduler.mode());
+        assertEquals(1000, scheduler.intervalMillis());
+        assertEquals(1f, scheduler.minDistanceMeters(), 0f);
+    }
+
+    @Test
+    public void onFix_slowsDownThenAutoPausesWhenStopped() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        long t = 0;
+        for (; t < 60 * SECOND; t += SECOND) {
+            scheduler.onFix(3f, t);
+        }
+        // Stopped at a traffic light: GPS keeps reporting a small drift speed.
+        long stoppedAt = t;
+        int changes = 0;
+        for (; t < stoppedAt + 60 * SECOND; t += SECOND) {
+            if (scheduler.onFix(0.2f, t)) {
+                changes++;
+            }
+            if (t - stoppedAt < SamplingScheduler.SLOW_DELAY_NANOS) {
+                assertEquals(SamplingScheduler.MODE_ACTIVE, scheduler.mode());
+            } else if (t - stoppedAt < SamplingScheduler.STATIONARY_DELAY_NANOS) {
+                assertEquals(SamplingScheduler.MODE_SLOW, scheduler.mode());
+            } else {
+                assertEquals(SamplingScheduler.MODE_STATIONARY, scheduler.mode());
+                assertTrue(scheduler.isAutoPaused());
+            }
+        }
+        assertEquals(2, changes);
+        assertTrue(scheduler.intervalMillis() >= 10_000);
+
+        // Moving again ramps straight back to 1 Hz.
+        assertTrue(scheduler.onFix(2.5f, t));
+        assertEquals(SamplingScheduler.MODE_ACTIVE, scheduler.mode());
+        assertFalse(scheduler.isAutoPaused());
+    }
+
+    @Test
+    public void onFix_walkingIsSlowButNotPaused() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        for (int i = 0; i < 600; i++) {
+            scheduler.onFix(1.1f + (i % 3) * 0.1f, i * SECOND);
+        }
+        assertEquals(SamplingScheduler.MODE_SLOW, scheduler.mode());
+        assertFalse(scheduler.isAutoPaused());
+
+        // A slow fix after a stop leaves the auto-pause without going to 1 Hz.
+        for (int i = 600; i < 700; i++) {
+            scheduler.onFix(0f, i * SECOND);
+        }
+        assertTrue(scheduler.isAutoPaused());
+        assertTrue(scheduler.onFix(1.0f, 700 * SECOND));
+        assertEquals(SamplingScheduler.MODE_SLOW, scheduler.mode());
+    }
+
+    @Test
+    public void onFix_ignoresShortStops() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        long t = 0;
+        for (int lap = 0; lap < 20; lap++) {
+            for (int i = 0; i < 30; i++, t += SECOND) {
+                scheduler.onFix(3f, t);
+            }
+            for (int i = 0; i < 8; i++, t += SECOND) {
+                assertFalse(scheduler.onFix(0f, t));
+            }
+        }
+        assertEquals(SamplingScheduler.MODE_ACTIVE, scheduler.mode());
+    }
+
+    @Test
+    public void replay_stoppedHalfOfTheSessionCutsFixesByMoreThanAThird() {
+        // An hour alternating 10 minutes running and 10 minutes stopped. The simulated
+        // receiver delivers a fix whenever the interval of the current mode has passed.
+        SamplingScheduler scheduler = new SamplingScheduler();
+        int fixes = 0;
+        long next = 0;
+        for (long t = 0; t < 3600 * SECOND; t += SECOND) {
+            if (t < next) {
+                continue;
+            }
+            boolean running = (t / (600 * SECOND)) % 2 == 0;
+            scheduler.onFix(running ? 3f : 0.1f, t);
+            fixes++;
+            next = t + scheduler.intervalMillis() * 1_000_000L;
+        }
+        assertTrue("fixes " + fixes, fixes < 3600 * 2 / 3);
+    }
+
+    @Test
+    public void reset_returnsToActive() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        for (int i = 0; i < 30; i++) {
+            scheduler.onFix(0f, i * SECOND);
+        }
+        assertTrue(scheduler.isAutoPaused());
+        assertTrue(scheduler.reset());
+        assertEquals(SamplingScheduler.MODE_ACTIVE, scheduler.mode());
+        assertFalse(scheduler.reset());
+    }
+}
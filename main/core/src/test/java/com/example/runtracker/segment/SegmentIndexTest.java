@@ -0,0 +1,64 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.metrics.RunMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SegmentIndex}.
+ */
+public class SegmentIndexTest {
+    @Test
+    public void cell_holdsEverySegmentStartingInIt() {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // A grid of starts 100 m apart, 40 by 25.
+            double latitude = 42.35 + (i / 40) * 100 / RunMetrics.METERS_PER_DEGREE;
+            double longitude = -71.1 + (i % 40) * 100 / RunMetrics.METERS_PER_DEGREE;
+            segments.add(segment(i, latitude, longitude));
+        }
+        SegmentIndex index = new SegmentIndex(segments);
+
+        Set<Integer> found = new HashSet<>();
+        for (Segment segment : segments) {
+            int row = index.row(segment.latitude(0));
+            int column = index.column(segment.longitude(0));
+            boolean inCell = false;
+            for (int s = index.firstInCell(row, column); s != SegmentIndex.NONE; s = index.nextInCell(s)) {
+                assertEquals(row, index.row(index.segment(s).latitude(0)));
+                assertEquals(column, index.column(index.segment(s).longitude(0)));
+                inCell |= index.segment(s) == segment;
+                found.add(s);
+            }
+            assertTrue(inCell);
+        }
+        assertEquals(1000, found.size());
+    }
+
+    @Test
+    public void emptyCell_hasNoSegment() {
+        SegmentIndex index = new SegmentIndex(List.of(segment(1, 42.35, -71.1)));
+        assertEquals(SegmentIndex.NONE, index.firstInCell(index.row(-33.9), index.column(151.2)));
+        assertEquals(SegmentIndex.NONE, new SegmentIndex(List.of()).firstInCell(0, 0));
+    }
+
+    @Test
+    public void cells_areSplitAcrossTheEquatorAndMeridian() {
+        SegmentIndex index = new SegmentIndex(List.of(segment(1, 0.0001, 0.0001), segment(2, -0.0001, -0.0001)));
+        assertNotEquals(index.row(0.0001), index.row(-0.0001));
+        assertEquals(0, index.firstInCell(index.row(0.0001), index.column(0.0001)));
+        assertEquals(1, index.firstInCell(index.row(-0.0001), index.column(-0.0001)));
+    }
+
+    private static Segment segment(long id, double latitude, double longitude) {
+        return new Segment(id, "segment " + id, new double[]{latitude, latitude + 0.001},
+                new double[]{longitude, longitude});
+    }
+}
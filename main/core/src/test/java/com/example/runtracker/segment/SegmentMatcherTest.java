@@ -0,0 +1,191 @@
+package com.example.runtracker.segment;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.metrics.RunMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SegmentMatcher}.
+ */
+public class SegmentMatcherTest {
+    private static final double LATITUDE = 42.35;
+
+    private static final double LONGITUDE = -71.1;
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final List<long[]> efforts = new ArrayList<>();
+
+    /** An L of 400 m north, then 300 m east. */
+    private final Segment corner = new Segment(7, "corner",
+            new double[]{LATITUDE, north(400), north(400)},
+            new double[]{LONGITUDE, LONGITUDE, east(300)});
+
+    @Test
+    public void run_alongTheSegmentIsTimedFromStartToFinish() {
+        SegmentMatcher matcher = matcher(corner);
+        // Approach from 50 m south, then run the L at 4 m/s, a fix every second.
+        long time = 0;
+        for (int m = -50; m <= 400; m += 4) {
+            matcher.accept(north(m), LONGITUDE, time++ * SECOND);
+        }
+        for (int m = 0; m <= 320; m += 4) {
+            matcher.accept(north(400), east(m), time++ * SECOND);
+        }
+
+        assertEquals(1, efforts.size());
+        assertEquals(7, efforts.get(0)[0]);
+        // The first fix 2 m from the start is 12 s in; the finish is reached at 276 m east.
+        assertEquals(12 * SECOND, efforts.get(0)[1]);
+        assertEquals(113 + 69, efforts.get(0)[2] / SECOND);
+        assertEquals(0, matcher.activeCount());
+    }
+
+    @Test
+    public void leavingTheSegment_dropsTheAttempt() {
+        SegmentMatcher matcher = matcher(corner);
+        long time = 0;
+        for (int m = 0; m <= 200; m += 4) {
+            matcher.accept(north(m), LONGITUDE, time++ * SECOND);
+        }
+        assertEquals(1, matcher.activeCount());
+        // Turn west at 200 m instead of going on north.
+        for (int m = 4; m <= 100; m += 4) {
+            matcher.accept(north(200), east(-m), time++ * SECOND);
+        }
+
+        assertEquals(0, matcher.activeCount());
+        assertTrue(efforts.isEmpty());
+    }
+
+    @Test
+    public void shortcut_isNotAnEffort() {
+        SegmentMatcher matcher = matcher(corner);
+        // Straight from the start to the finish, cutting the corner.
+        long time = 0;
+        for (int i = 0; i <= 100; i++) {
+            matcher.accept(LATITUDE + (north(400) - LATITUDE) * i / 100,
+                    LONGITUDE + (east(300) - LONGITUDE) * i / 100, time++ * SECOND);
+        }
+        assertTrue(efforts.isEmpty());
+    }
+
+    @Test
+    public void loop_isTimedOnEveryLap() {
+        // A square of 200 m starting and ending at the same point.
+        Segment loop = new Segment(3, "loop",
+                new double[]{LATITUDE, north(200), north(200), LATITUDE, LATITUDE},
+                new double[]{LONGITUDE, LONGITUDE, east(200), east(200), LONGITUDE});
+        SegmentMatcher matcher = matcher(loop);
+        long time = 0;
+        for (int lap = 0; lap < 3; lap++) {
+            for (int m = 0; m < 200; m += 5) {
+                matcher.accept(north(m), LONGITUDE, time++ * SECOND);
+            }
+            for (int m = 0; m < 200; m += 5) {
+                matcher.accept(north(200), east(m), time++ * SECOND);
+            }
+            for (int m = 200; m > 0; m -= 5) {
+                matcher.accept(north(m), east(200), time++ * SECOND);
+            }
+            for (int m = 200; m > 0; m -= 5) {
+                matcher.accept(LATITUDE, east(m), time++ * SECOND);
+            }
+        }
+        matcher.accept(LATITUDE, LONGITUDE, time * SECOND);
+
+        assertEquals(3, efforts.size());
+        for (long[] effort : efforts) {
+            assertEquals(160, (effort[2] - effort[1]) / SECOND, 5);
+        }
+    }
+
+    @Test
+    public void outAndBack_isTimedOnceFromTheTurn() {
+        // 500 m north and back to the start, as saved from a simplified track.
+        Segment outAndBack = new Segment(5, "out and back",
+                new double[]{LATITUDE, north(500), LATITUDE},
+                new double[]{LONGITUDE, LONGITUDE, LONGITUDE});
+        SegmentMatcher matcher = matcher(outAndBack);
+        // Waiting at the start, which is also the finish, with a few meters of GPS noise.
+        double[][] noise = {{3, -4}, {-2, 5}, {4, 1}, {-5, -3}, {1, 2}, {-3, -1}};
+        long time = 0;
+        for (double[] offset : noise) {
+            matcher.accept(north(offset[0]), east(offset[1]), time++ * SECOND);
+        }
+        assertTrue(efforts.isEmpty());
+        for (int m = 4; m <= 500; m += 4) {
+            matcher.accept(north(m), LONGITUDE, time++ * SECOND);
+        }
+        for (int m = 496; m >= 0; m -= 4) {
+            matcher.accept(north(m), LONGITUDE, time++ * SECOND);
+        }
+        for (double[] offset : noise) {
+            matcher.accept(north(offset[0]), east(offset[1]), time++ * SECOND);
+        }
+
+        assertEquals(1, efforts.size());
+        assertEquals(5, efforts.get(0)[0]);
+        // From the fix 2 m from the start to the one 24 m short of the finish.
+        assertEquals(4 * SECOND, efforts.get(0)[1]);
+        assertEquals(6 + 125 + 118, efforts.get(0)[2] / SECOND);
+    }
+
+    @Test
+    public void reset_dropsTheRunningAttempts() {
+        SegmentMatcher matcher = matcher(corner);
+        matcher.accept(LATITUDE, LONGITUDE, 0);
+        assertEquals(1, matcher.activeCount());
+        matcher.reset();
+        assertEquals(0, matcher.activeCount());
+    }
+
+    @Test
+    public void accept_allocatesNothing() {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double latitude = north((i % 30) * 50);
+            double longitude = east((i / 30) * 50);
+            segments.add(new Segment(i, "grid", new double[]{latitude, latitude + 0.002},
+                    new double[]{longitude, longitude}));
+        }
+        SegmentMatcher matcher = new SegmentMatcher();
+        matcher.setSegments(segments);
+        long checksum = wander(matcher);
+        long before = AllocationCounter.allocatedBytes();
+        checksum += wander(matcher);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue(checksum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long wander(SegmentMatcher matcher) {
+        long checksum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            matcher.accept(north(i % 1500), east(i / 1500 * 40), i * SECOND);
+            checksum += matcher.activeCount();
+        }
+        return checksum;
+    }
+
+    private SegmentMatcher matcher(Segment... segments) {
+        SegmentMatcher matcher = new SegmentMatcher();
+        matcher.setSegments(List.of(segments));
+        matcher.setSink((segment, startNanos, endNanos) -> efforts.add(new long[]{segment.id, startNanos, endNanos}));
+        return matcher;
+    }
+
+    private static double north(double meters) {
+        return LATITUDE + meters / RunMetrics.METERS_PER_DEGREE;
+    }
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.runtracker.share;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.clock.NanoClock;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LiveShareUploader}, posting to an HTTP server in the test
+ * process that can be told to fail. The upload thread is not started; the tests run its
+ * work with {@link LiveShareUploader#tick()} on a clock moved by hand.
+ */
+public class LiveShareUploaderTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private static final long SESSION = 1_700_000_000_000L;
+
+    /** Clock that only moves when told to. */
+    private static final class FakeNanoClock implements NanoClock {
+        long now = 123_456_789_000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    /** Stand-in for the live-share endpoint, decoding the batches it accepts. */
+    private static final class ShareServer {
+        final HttpServer server;
+
+        final AtomicInteger requests = new AtomicInteger();
+
+        /** Status of the next responses. */
+        volatile int status = 200;
+
+        /** Times of the accepted fixes, in the order received. */
+        final List<Long> fixTimes = new ArrayList<>();
+
+        /** Sequence numbers of the accepted batches, in the order received. */
+        final List<Long> sequences = new ArrayList<>();
+
+        private final ShareBatch batch = new ShareBatch();
+
+        private final ByteBuffer payload = ByteBuffer.allocate(ShareBatch.MAX_PAYLOAD_BYTES);
+
+        ShareServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/share", this::handle);
+            server.start();
+        }
+
+        URL url() throws IOException {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/share");
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = in.read(chunk)) > 0) {
+                    body.write(chunk, 0, read);
+                }
+            }
+            int status = this.status;
+            if (status == 200) {
+                assertEquals(LiveShareUploader.CONTENT_TYPE, exchange.getRequestHeaders().getFirst("Content-Type"));
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                synchronized (this) {
+                    batch.decode(body.toByteArray(), payload);
+                    sequences.add(batch.sequence);
+                    for (int i = 0; i < batch.count; i++) {
+                        fixTimes.add(batch.epochMillis[i]);
+                    }
+                }
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeNanoClock clock = new FakeNanoClock();
+
+    private ShareServer server;
+
+    private UploadQueue queue;
+
+    private LiveShareUploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ShareServer();
+        queue = new UploadQueue(folder.newFolder("share"), 1 << 20);
+        uploader = new LiveShareUploader(server.url(), queue, clock, LiveShareUploader.BATCH_INTERVAL_MILLIS);
+        // Elapsed realtime 0 is the start of the session.
+        uploader.startSession(SESSION, SESSION * 1_000_000L);
+    }
+
+    @After
+    public void tearDown() {
+        server.server.stop(0);
+    }
+
+    @Test
+    public void throughput_postsEveryFixInOrder() {
+        int rounds = 100;
+        int fixesPerRound = LiveShareUploader.RING_CAPACITY;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            feed(round * fixesPerRound, fixesPerRound);
+            uploader.tick();
+        }
+        long nanos = System.nanoTime() - start;
+        int fixes = rounds * fixesPerRound;
+
+        assertEquals(0, uploader.droppedFixes());
+        assertTrue(queue.isEmpty());
+        assertEquals(fixes, server.fixTimes.size());
+        for (int i = 0; i < fixes; i++) {
+            assertEquals(SESSION + i * 1000L, server.fixTimes.get(i).longValue());
+        }
+        assertEquals(rounds * fixesPerRound / ShareBatch.MAX_FIXES, uploader.postedBatches());
+        for (int i = 1; i < server.sequences.size(); i++) {
+            assertEquals(server.sequences.get(i - 1) + 1, server.sequences.get(i).longValue());
+        }
+        // A run records a fix a second; the uploader keeps up with thousands.
+        assertTrue(fixes * SECOND / nanos + " fixes/s", fixes * SECOND / nanos > 2_000);
+    }
+
+    @Test
+    public void outage_backsOffThenPostsTheBacklogInOrder() {
+        server.status = 503;
+        feed(0, 10);
+        uploader.tick();
+        assertEquals(1, server.requests.get());
+        assertEquals(1, queue.size());
+
+        // Backing off: the batches are queued but not posted.
+        feed(10, 10);
+        uploader.tick();
+        assertEquals(1, server.requests.get());
+        assertEquals(2, queue.size());
+
+        clock.now += LiveShareUploader.INITIAL_BACKOFF_NANOS;
+        uploader.tick();
+        assertEquals(2, server.requests.get());
+
+        // The backoff doubles with every failure.
+        clock.now += 2 * LiveShareUploader.INITIAL_BACKOFF_NANOS - 1;
+        feed(20, 10);
+        uploader.tick();
+        assertEquals(2, server.requests.get());
+        clock.now += 1;
+        uploader.tick();
+        assertEquals(3, server.requests.get());
+        assertEquals(3, queue.size());
+
+        server.status = 200;
+        clock.now += 4 * LiveShareUploader.INITIAL_BACKOFF_NANOS;
+        uploader.tick();
+        assertEquals(6, server.requests.get());
+        assertTrue(queue.isEmpty());
+        assertEquals(3, uploader.postedBatches());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(SESSION + i * 1000L, server.fixTimes.get(i).longValue());
+        }
+
+        // Posting works again, so the next batch goes right away.
+        feed(30, 10);
+        uploader.tick();
+        assertEquals(7, server.requests.get());
+        assertEquals(40, server.fixTimes.size());
+    }
+
+    @Test
+    public void backoff_isCapped() {
+        assertEquals(LiveShareUploader.INITIAL_BACKOFF_NANOS, LiveShareUploader.backoffNanos(1));
+        assertEquals(8 * LiveShareUploader.INITIAL_BACKOFF_NANOS, LiveShareUploader.backoffNanos(4));
+        assertEquals(LiveShareUploader.MAX_BACKOFF_NANOS, LiveShareUploader.backoffNanos(20));
+        assertEquals(LiveShareUploader.MAX_BACKOFF_NANOS, LiveShareUploader.backoffNanos(1000));
+    }
+
+    @Test
+    public void unreachableEndpoint_keepsTheBatchesQueued() {
+        server.server.stop(0);
+        feed(0, 10);
+        uploader.tick();
+        assertEquals(1, queue.size());
+        assertEquals(0, uploader.postedBatches());
+    }
+
+    @Test
+    public void longOutage_staysWithinTheQueueBoundAndKeepsTheNewestFixes() throws IOException {
+        long maxBytes = 4 * 1024;
+        queue = new UploadQueue(folder.newFolder("bounded"), maxBytes);
+        uploader = new LiveShareUploader(server.url(), queue, clock, LiveShareUploader.BATCH_INTERVAL_MILLIS);
+        uploader.startSession(SESSION, SESSION * 1_000_000L);
+        server.status = 503;
+        // Two hours at a fix a second, a batch every five minutes.
+        int fixes = 0;
+        for (int round = 0; round < 24; round++) {
+            feed(fixes, 300);
+            fixes += 300;
+            clock.now += 300 * SECOND;
+            uploader.tick();
+            assertTrue(queue.sizeBytes() + " bytes", queue.sizeBytes() <= maxBytes);
+        }
+
+        server.status = 200;
+        clock.now += LiveShareUploader.MAX_BACKOFF_NANOS;
+        uploader.tick();
+        assertTrue(queue.isEmpty());
+        assertTrue(server.fixTimes.size() < fixes);
+        assertEquals(SESSION + (fixes - 1) * 1000L, server.fixTimes.get(server.fixTimes.size() - 1).longValue());
+        for (int i = 1; i < server.fixTimes.size(); i++) {
+            assertTrue(server.fixTimes.get(i) > server.fixTimes.get(i - 1));
+        }
+    }
+
+    @Test
+    public void queueDirectory_isOpenedOnTheFirstTick() throws IOException {
+        File directory = new File(folder.getRoot(), "lazy");
+        uploader = new LiveShareUploader(server.url(), directory, 1 << 20, clock,
+                LiveShareUploader.BATCH_INTERVAL_MILLIS);
+        uploader.startSession(SESSION, SESSION * 1_000_000L);
+        feed(0, 10);
+        assertFalse(directory.exists());
+
+        uploader.tick();
+        assertTrue(directory.isDirectory());
+        assertEquals(1, uploader.postedBatches());
+        assertEquals(10, server.fixTimes.size());
+    }
+
+    @Test
+    public void unopenableQueue_holdsTheNewestFixesInMemory() throws IOException {
+        File blocker = folder.newFile("blocker");
+        uploader = new LiveShareUploader(server.url(), new File(blocker, "share"), 1 << 20, clock,
+                LiveShareUploader.BATCH_INTERVAL_MILLIS);
+        uploader.startSession(SESSION, SESSION * 1_000_000L);
+        int rounds = 3;
+        for (int round = 0; round < rounds; round++) {
+            feed(round * LiveShareUploader.RING_CAPACITY, LiveShareUploader.RING_CAPACITY);
+            uploader.tick();
+        }
+        assertEquals(0, server.requests.get());
+
+        assertTrue(blocker.delete());
+        uploader.tick();
+        assertEquals(0, uploader.droppedFixes());
+        assertEquals(1, uploader.postedBatches());
+        // Thinned to fit one batch, ending with the newest fix.
+        assertTrue(server.fixTimes.size() <= ShareBatch.MAX_FIXES);
+        assertEquals(SESSION + (rounds * LiveShareUploader.RING_CAPACITY - 1) * 1000L,
+                server.fixTimes.get(server.fixTimes.size() - 1).longValue());
+        for (int i = 1; i < server.fixTimes.size(); i++) {
+            assertTrue(server.fixTimes.get(i) > server.fixTimes.get(i - 1));
+        }
+    }
+
+    @Test
+    public void fullRing_dropsTheOldestFixes() {
+        feed(0, 2 * LiveShareUploader.RING_CAPACITY);
+        uploader.tick();
+
+        assertEquals(LiveShareUploader.RING_CAPACITY, uploader.droppedFixes());
+        assertEquals(LiveShareUploader.RING_CAPACITY, server.fixTimes.size());
+        assertEquals(SESSION + LiveShareUploader.RING_CAPACITY * 1000L, server.fixTimes.get(0).longValue());
+        assertEquals(SESSION + (2 * LiveShareUploader.RING_CAPACITY - 1) * 1000L,
+                server.fixTimes.get(LiveShareUploader.RING_CAPACITY - 1).longValue());
+    }
+
+    @Test
+    public void rejectedBatch_isDropped() {
+        server.status = 400;
+        feed(0, 10);
+        uploader.tick();
+        assertTrue(queue.isEmpty());
+        assertEquals(1, uploader.rejectedBatches());
+
+        server.status = 200;
+        feed(10, 10);
+        uploader.tick();
+        assertEquals(SESSION + 10_000L, server.fixTimes.get(0).longValue());
+    }
+
+    @Test
+    public void onFix_isAllocationFreeAndCountsTheDropsWhenTheRingIsFull() {
+        LiveShareUploader fresh = new LiveShareUploader(null, queue, clock, LiveShareUploader.BATCH_INTERVAL_MILLIS);
+        // Not sharing yet.
+        fresh.onFix(42.35, -71.1, 3f, 5f, 0);
+        fresh.startSession(SESSION, SESSION * 1_000_000L);
+
+        long before = AllocationCounter.allocatedBytes();
+        for (int i = 0; i < 2 * LiveShareUploader.RING_CAPACITY; i++) {
+            fresh.onFix(42.35 + i * 3e-5, -71.1, 3f, 5f, i * SECOND);
+        }
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals(LiveShareUploader.RING_CAPACITY, fresh.droppedFixes());
+    }
+
+    /**
+     * Hands a run of a fix a second to the uploader.
+     *
+     * @param first index of the first fix in the session.
+     * @param count the number of fixes.
+     */
+    private void feed(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            uploader.onFix(ShareBatchTest.latitude(i), ShareBatchTest.longitude(i), 3.25f, 4.5f, i * SECOND);
+        }
+    }
+}
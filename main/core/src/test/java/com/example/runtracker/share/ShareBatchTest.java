@@ -0,0 +1,124 @@
+package com.example.runtracker.share;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ShareBatch}.
+ */
+public class ShareBatchTest {
+    private static final long SESSION = 1_700_000_000_000L;
+
+    private final ByteBuffer payload = ByteBuffer.allocate(ShareBatch.MAX_PAYLOAD_BYTES);
+
+    @Test
+    public void encode_roundTripsAndCompressesARunningTrack() throws IOException {
+        ShareBatch batch = runningBatch(SESSION, 0, ShareBatch.MAX_FIXES);
+        batch.sequence = 42;
+        byte[] encoded = batch.encode(payload);
+
+        ShareBatch read = new ShareBatch();
+        read.decode(encoded, payload);
+        assertEquals(SESSION, read.sessionId);
+        assertEquals(42, read.sequence);
+        assertEquals(ShareBatch.MAX_FIXES, read.count);
+        for (int i = 0; i < read.count; i++) {
+            assertEquals(latitude(i), read.latitude(i), 1e-7);
+            assertEquals(longitude(i), read.longitude(i), 1e-7);
+            assertEquals(SESSION + i * 1000L, read.epochMillis[i]);
+            assertEquals(3.25f, read.speedMps(i), 0.005f);
+            assertEquals(4.5f, read.accuracy(i), 0.05f);
+        }
+        // A fix takes 40 bytes in doubles, floats and a long; a few bytes here.
+        assertTrue(encoded.length + " bytes", encoded.length < ShareBatch.MAX_FIXES * 4);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherBytes() throws IOException {
+        ShareBatch batch = runningBatch(SESSION, 0, 10);
+        byte[] encoded = batch.encode(payload);
+        encoded[encoded.length / 2] ^= 0x55;
+        new ShareBatch().decode(encoded, payload);
+    }
+
+    @Test
+    public void coalesce_keepsEveryOtherFixAndTheLast() {
+        ShareBatch older = runningBatch(SESSION, 0, 5);
+        older.sequence = 3;
+        older.coalesce(runningBatch(SESSION, 5, 4));
+        assertEquals(3, older.sequence);
+        assertEquals(5, older.count);
+        long[] times = {0, 2, 4, 6, 8};
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(SESSION + times[i] * 1000L, older.epochMillis[i]);
+        }
+
+        ShareBatch full = runningBatch(SESSION, 0, ShareBatch.MAX_FIXES);
+        full.coalesce(runningBatch(SESSION, ShareBatch.MAX_FIXES, ShareBatch.MAX_FIXES));
+        assertEquals(ShareBatch.MAX_FIXES, full.count);
+        assertEquals(SESSION + (2 * ShareBatch.MAX_FIXES - 1) * 1000L, full.epochMillis[full.count - 1]);
+    }
+
+    @Test
+    public void thin_keepsEveryOtherFixAndTheLast() {
+        ShareBatch batch = runningBatch(SESSION, 0, 5);
+        batch.thin();
+        long[] times = {0, 2, 4};
+        assertEquals(times.length, batch.count);
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(SESSION + times[i] * 1000L, batch.epochMillis[i]);
+        }
+
+        batch.thin();
+        assertEquals(2, batch.count);
+        assertEquals(SESSION + 4000L, batch.epochMillis[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void coalesce_rejectsAnotherSession() {
+        runningBatch(SESSION, 0, 5).coalesce(runningBatch(SESSION + 1, 0, 5));
+    }
+
+    /**
+     * @param session the session of the batch.
+     * @param first   index of the first fix in the session.
+     * @param count   the number of fixes.
+     * @return a batch of a run of a fix per second.
+     */
+    static ShareBatch runningBatch(long session, int first, int count) {
+        ShareBatch batch = new ShareBatch();
+        batch.clear(session);
+        for (int i = first; i < first + count; i++) {
+            batch.append(latitude(i), longitude(i), 3.25f, 4.5f, session + i * 1000L);
+        }
+        return batch;
+    }
+
+    /**
+     * @param index the index of a fix in the session.
+     * @return the latitude of a run going north with GPS noise of a few decimeters.
+     */
+    static double latitude(int index) {
+        return 42.35 + index * 3e-5 + noise(index) * 1e-7;
+    }
+
+    /**
+     * @param index the index of a fix in the session.
+     * @return the longitude of a run going west with GPS noise of a few decimeters.
+     */
+    static double longitude(int index) {
+        return -71.1 - index * 1e-5 + noise(~index) * 1e-7;
+    }
+
+    /**
+     * @param index any number.
+     * @return a number from 0 to 99 that looks random.
+     */
+    private static int noise(int index) {
+        return (int) (((index * 0x9E3779B97F4A7C15L) >>> 40) % 100);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.runtracker.share;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link UploadQueue}.
+ */
+public class UploadQueueTest {
+    private static final long SESSION = 1_700_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteBuffer payload = ByteBuffer.allocate(ShareBatch.MAX_PAYLOAD_BYTES);
+
+    @Test
+    public void add_keepsTheBatchesInOrderAcrossReopening() throws IOException {
+        File directory = new File(folder.getRoot(), "share");
+        UploadQueue queue = new UploadQueue(directory, 1 << 20);
+        for (int i = 0; i < 3; i++) {
+            queue.add(ShareBatchTest.runningBatch(SESSION, i * 10, 10));
+        }
+        queue.remove();
+        // A crash while writing the next batch.
+        assertTrue(new File(directory, "0000000000000000004.lsb.tmp").createNewFile());
+
+        UploadQueue reopened = new UploadQueue(directory, 1 << 20);
+        assertEquals(2, reopened.size());
+        assertEquals(queue.sizeBytes(), reopened.sizeBytes());
+        ShareBatch batch = new ShareBatch();
+        batch.decode(reopened.peek(), payload);
+        assertEquals(2, batch.sequence);
+        assertEquals(SESSION + 10_000, batch.epochMillis[0]);
+
+        ShareBatch next = ShareBatchTest.runningBatch(SESSION, 30, 10);
+        reopened.add(next);
+        assertEquals(4, next.sequence);
+        assertEquals(3, directory.list().length);
+    }
+
+    @Test
+    public void add_overTheBoundCoalescesTheOldestBatches() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.getRoot(), 16 * 1024);
+        int batches = 200;
+        for (int i = 0; i < batches; i++) {
+            queue.add(ShareBatchTest.runningBatch(SESSION, i * 60, 60));
+            assertTrue(queue.sizeBytes() + " bytes", queue.sizeBytes() <= 16 * 1024);
+        }
+        assertEquals(0, queue.droppedBatches());
+
+        // The whole run is still there, the oldest part at a lower resolution.
+        ShareBatch batch = new ShareBatch();
+        long lastTime = Long.MIN_VALUE;
+        int fixes = 0;
+        while (!queue.isEmpty()) {
+            batch.decode(queue.peek(), payload);
+            queue.remove();
+            for (int i = 0; i < batch.count; i++) {
+                assertTrue(batch.epochMillis[i] > lastTime);
+                lastTime = batch.epochMillis[i];
+            }
+            fixes += batch.count;
+        }
+        assertEquals(SESSION + (batches * 60 - 1) * 1000L, lastTime);
+        assertTrue(fixes + " fixes", fixes < batches * 60);
+        assertEquals(0, queue.sizeBytes());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void add_overTheBoundDropsAnEndedSession() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.getRoot(), 300);
+        queue.add(ShareBatchTest.runningBatch(SESSION, 0, 100));
+        queue.add(ShareBatchTest.runningBatch(SESSION + 1, 0, 100));
+        assertEquals(1, queue.droppedBatches());
+        assertEquals(1, queue.size());
+        ShareBatch batch = new ShareBatch();
+        batch.decode(queue.peek(), payload);
+        assertEquals(SESSION + 1, batch.sessionId);
+    }
+}
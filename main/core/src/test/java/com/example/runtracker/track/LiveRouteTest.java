@@ -0,0 +1,60 @@
+package com.example.runtracker.track;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LiveRoute}.
+ */
+public class LiveRouteTest {
+    private static final int COUNT = 200_000;
+
+    @Test
+    public void append_storesPositionsAcrossChunks() {
+        LiveRoute route = new LiveRoute(4);
+        for (int i = 0; i < 5000; i++) {
+            route.append(i, -i);
+            if (i % 7 == 0) {
+                route.appendSimplified(i, -i, i);
+            }
+        }
+
+        assertEquals(5000, route.size());
+        assertEquals(4999, route.latitude(4999), 0.0);
+        assertEquals(-1024, route.longitude(1024), 0.0);
+        assertEquals(715, route.simplifiedSize());
+        assertEquals(7 * 700, route.simplifiedSourceIndex(700));
+        assertEquals(7 * 700, route.simplifiedLatitude(700), 0.0);
+        assertEquals(-7 * 700, route.simplifiedLongitude(700), 0.0);
+        assertEquals(4, route.toleranceMeters(), 0.0);
+    }
+
+    @Test
+    public void reader_seesEveryPublishedPosition() throws InterruptedException {
+        LiveRoute route = new LiveRoute(4);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int checked = 0;
+            while (checked < COUNT) {
+                int size = route.size();
+                for (; checked < size; checked++) {
+                    if (route.latitude(checked) != checked || route.longitude(checked) != 2.0 * checked) {
+                        failure.set("wrong position " + checked);
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < COUNT; i++) {
+            route.append(i, 2.0 * i);
+        }
+        reader.join(10_000);
+
+        assertFalse(reader.isAlive());
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.runtracker.track;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrackBuffer}.
+ */
+public class TrackBufferTest {
+    private static final int FIX_COUNT = 100_000;
+
+    @Test
+    public void append_storesEveryColumn() {
+        TrackBuffer track = new TrackBuffer();
+        fill(track, FIX_COUNT);
+
+        assertEquals(FIX_COUNT, track.size());
+        for (int i = 0; i < FIX_COUNT; i += 997) {
+            assertEquals(42.0 + i * 1e-6, track.latitude(i), 0.0);
+            assertEquals(-71.0 - i * 1e-6, track.longitude(i), 0.0);
+            assertEquals(i % 7, track.speed(i), 0.0f);
+            assertEquals(3.5f, track.accuracy(i), 0.0f);
+            assertEquals(i * 1_000_000_000L, track.elapsedRealtimeNanos(i));
+        }
+    }
+
+    @Test
+    public void append_allocatesNothingPerFixAfterWarmUp() {
+        TrackBuffer track = new TrackBuffer();
+        // Warm up: let the JIT compile append() and reserve the chunks for the session.
+        fill(track, FIX_COUNT);
+        track.clear();
+
+        long before = AllocationCounter.allocatedBytes();
+        fill(track, FIX_COUNT);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+
+        assertEquals(FIX_COUNT, track.size());
+        assertTrue("allocated " + allocated + " bytes for " + FIX_COUNT + " fixes", allocated < 1024);
+    }
+
+    @Test
+    public void append_growsOnlyByPrimitiveChunks() {
+        TrackBuffer warmUp = new TrackBuffer();
+        fill(warmUp, FIX_COUNT);
+
+        TrackBuffer track = new TrackBuffer();
+        long before = AllocationCounter.allocatedBytes();
+        fill(track, FIX_COUNT);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+
+        // Only the column chunks themselves (plus small array headers) may be allocated.
+        assertTrue("allocated " + allocated + " bytes", allocated < track.memoryFootprintBytes() + 8 * 1024);
+        assertTrue(track.memoryFootprintBytes() < 4L * 1024 * 1024);
+    }
+
+    @Test
+    public void ensureCapacity_reservesWholeChunks() {
+        TrackBuffer track = new TrackBuffer();
+        track.ensureCapacity(TrackBuffer.CHUNK_SIZE + 1);
+        assertEquals(2 * TrackBuffer.CHUNK_SIZE, track.capacity());
+        assertEquals(0, track.size());
+    }
+
+    @Test
+    public void clear_keepsChunksForReuse() {
+        TrackBuffer track = new TrackBuffer();
+        fill(track, 10);
+        int capacity = track.capacity();
+        track.clear();
+        assertEquals(0, track.size());
+        assertEquals(capacity, track.capacity());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void latitude_outOfRangeThrows() {
+        TrackBuffer track = new TrackBuffer();
+        fill(track, 3);
+        track.latitude(3);
+    }
+
+    private static void fill(TrackBuffer track, int count) {
+        for (int i = 0; i < count; i++) {
+            track.append(42.0 + i * 1e-6, -71.0 - i * 1e-6, i % 7, 3.5f, i * 1_000_000_000L);
+        }
+    }
+}
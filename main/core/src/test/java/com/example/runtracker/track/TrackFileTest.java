@@ -0,0 +1,226 @@
+package com.example.runtracker.track;
+
+import com.example.runtracker.AllocationCounter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrackWriter}, {@link TrackReader} and {@link Varint}.
+ */
+public class TrackFileTest {
+    private static final long START_EPOCH_MILLIS = 1_700_000_000_000L;
+    private static final long START_NANOS = 5_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void varint_roundTripsSignedAndUnsignedValues() {
+        long[] values = {0, 1, -1, 63, -64, 64, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2 * Varint.MAX_LONG_BYTES);
+        for (long value : values) {
+            Varint.writeSigned(buffer, value);
+            Varint.writeUnsigned(buffer, value);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, Varint.readSigned(buffer));
+            assertEquals(value, Varint.readUnsigned(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+
+        buffer.clear();
+        Varint.writeSigned(buffer, -1);
+        Varint.writeSigned(buffer, 63);
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void roundTrip_preservesFixesWithinFormatPrecision() throws IOException {
+        File file = folder.newFile();
+        int count = 10_000;
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(latitude(i), longitude(i), speed(i), accuracy(i), nanos(i));
+            }
+            assertEquals(count, writer.fixCount());
+        }
+
+        FixSample sample = new FixSample();
+        try (TrackReader reader = TrackReader.open(file)) {
+            assertEquals(START_EPOCH_MILLIS, reader.startEpochMillis());
+            assertEquals(START_NANOS, reader.startElapsedNanos());
+            for (int i = 0; i < count; i++) {
+                assertTrue(reader.next(sample));
+                assertEquals(latitude(i), sample.latitude, 0.6e-7);
+                assertEquals(longitude(i), sample.longitude, 0.6e-7);
+                assertEquals(speed(i), sample.speedMps, 0.006f);
+                assertEquals(accuracy(i), sample.accuracy, 0.06f);
+                assertEquals(nanos(i) / 1000 * 1000, sample.elapsedRealtimeNanos);
+            }
+            assertFalse(reader.next(sample));
+            assertFalse(reader.isDamaged());
+        }
+    }
+
+    @Test
+    public void roundTrip_isCompact() throws IOException {
+        File file = folder.newFile();
+        int count = 21_600;
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(latitude(i), longitude(i), speed(i), accuracy(i), nanos(i));
+            }
+        }
+        // A 1 Hz run stores small deltas: well under the 32 bytes per fix kept in memory.
+        double bytesPerFix = (double) file.length() / count;
+        assertTrue("bytes per fix " + bytesPerFix, bytesPerFix < 12);
+    }
+
+    @Test
+    public void reader_recoversBlocksBeforeATruncatedTail() throws IOException {
+        File file = folder.newFile();
+        writeBlocks(file, 3);
+        long complete = file.length();
+        // Simulate a crash in the middle of writing a fourth block.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(complete);
+            raf.writeInt(500);
+            raf.write(new byte[200]);
+        }
+
+        assertEquals(3 * TrackFormat.MAX_FIXES_PER_BLOCK, readAll(file, true));
+    }
+
+    @Test
+    public void reader_stopsAtACorruptedBlock() throws IOException {
+        File file = folder.newFile();
+        writeBlocks(file, 3);
+        // Flip one byte in the middle of the last block.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = file.length() - 100;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x10);
+        }
+
+        assertEquals(2 * TrackFormat.MAX_FIXES_PER_BLOCK, readAll(file, true));
+    }
+
+    @Test
+    public void reader_keepsEveryBlockWrittenBeforeAFlush() throws IOException {
+        File file = folder.newFile();
+        TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS);
+        for (int i = 0; i < 10; i++) {
+            writer.append(latitude(i), longitude(i), speed(i), accuracy(i), nanos(i));
+        }
+        writer.flush();
+        // Fixes appended after the flush are still in memory when the app dies.
+        writer.append(latitude(10), longitude(10), speed(10), accuracy(10), nanos(10));
+
+        assertEquals(10, readAll(file, false));
+        writer.close();
+        assertEquals(11, readAll(file, false));
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsOtherFiles() throws IOException {
+        File file = folder.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[TrackFormat.HEADER_BYTES]);
+        }
+        TrackReader.open(file).close();
+    }
+
+    @Test
+    public void writeAndRead_millionFixesIsFastAndAllocationFree() throws IOException {
+        File file = folder.newFile();
+        int count = 1_000_000;
+        // Warm up so the JIT compiles the encoder and decoder.
+        writeAndRead(file, count);
+
+        long start = System.nanoTime();
+        long before = AllocationCounter.allocatedBytes();
+        int read = writeAndRead(file, count);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(count, read);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 2000);
+        // Only the writer, reader and their buffers, not anything per fix or per block.
+        assertTrue("allocated " + allocated + " bytes", allocated < 256 * 1024);
+    }
+
+    /**
+     * Writes {@code count} fixes to the file, then reads them back.
+     *
+     * @return the number of fixes read.
+     */
+    private static int writeAndRead(File file, int count) throws IOException {
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(latitude(i), longitude(i), speed(i), accuracy(i), nanos(i));
+            }
+        }
+        FixSample sample = new FixSample();
+        int read = 0;
+        try (TrackReader reader = TrackReader.open(file)) {
+            while (reader.next(sample)) {
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /** Writes exactly {@code blocks} full blocks of fixes. */
+    private static void writeBlocks(File file, int blocks) throws IOException {
+        try (TrackWriter writer = TrackWriter.create(file, START_EPOCH_MILLIS, START_NANOS)) {
+            for (int i = 0; i < blocks * TrackFormat.MAX_FIXES_PER_BLOCK; i++) {
+                writer.append(latitude(i), longitude(i), speed(i), accuracy(i), START_NANOS + i * 100_000_000L);
+            }
+        }
+    }
+
+    /** Reads every fix of the file and checks whether the reader reported damage. */
+    private static int readAll(File file, boolean expectDamaged) throws IOException {
+        FixSample sample = new FixSample();
+        try (TrackReader reader = TrackReader.open(file)) {
+            TrackBuffer track = new TrackBuffer();
+            int count = reader.readInto(track, sample);
+            assertEquals(count, track.size());
+            assertEquals(expectDamaged, reader.isDamaged());
+            return count;
+        }
+    }
+
+    private static double latitude(int i) {
+        return 42.3505 + i * 2.7e-5 + Math.sin(i * 0.01) * 1e-4;
+    }
+
+    private static double longitude(int i) {
+        return -71.1076 - i * 1.9e-5 + Math.cos(i * 0.013) * 1e-4;
+    }
+
+    private static float speed(int i) {
+        return 3f + (i % 50) * 0.037f;
+    }
+
+    private static float accuracy(int i) {
+        return 4f + (i % 9) * 0.5f;
+    }
+
+    private static long nanos(int i) {
+        return START_NANOS + i * 1_000_000_123L;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.runtracker.track;
+
+import com.example.runtracker.AllocationCounter;
+import com.example.runtracker.metrics.RunMetrics;
+import com.example.runtracker.pipeline.FixProcessor;
+import com.example.runtracker.replay.NoisyTrace;
+import com.example.runtracker.replay.SyntheticTrace;
+import com.example.runtracker.replay.TraceSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrackSimplifier} on synthetic and replayed traces.
+ */
+public class TrackSimplifierTest {
+    private static final double TOLERANCE = TrackSimplifier.DEFAULT_TOLERANCE_METERS;
+
+    @Test
+    public void straightRun_keepsOneFixPerWindow() throws IOException {
+        TrackBuffer full = new TrackBuffer();
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE, 100);
+        feed(new SyntheticTrace.Builder().start(42.35, -71.1).segment(45, 3f, 1000).build(), full, simplifier);
+        simplifier.flush();
+
+        assertEquals(1000, full.size());
+        assertEquals(11, simplifier.simplified().size());
+        assertEquals(0, simplifier.pendingCount());
+        assertWithinTolerance(full, simplifier.simplified(), TOLERANCE);
+    }
+
+    @Test
+    public void curvedRun_staysWithinTheTolerance() throws IOException {
+        SyntheticTrace.Builder builder = new SyntheticTrace.Builder().start(42.35, -71.1);
+        // A loop of about 1 km: the heading turns by 10 degrees every 10 s.
+        for (int heading = 0; heading < 360; heading += 10) {
+            builder.segment(heading, 3f, 10);
+        }
+        TrackBuffer full = new TrackBuffer();
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+        feed(builder.build(), full, simplifier);
+        simplifier.flush();
+
+        assertWithinTolerance(full, simplifier.simplified(), TOLERANCE);
+        assertReduced(full, simplifier.simplified());
+    }
+
+    @Test
+    public void replayedRun_isReducedWithBoundedError() throws IOException {
+        // The Dev Mode run with GPS noise, smoothed by the processing stages like live fixes.
+        FixProcessor processor = new FixProcessor();
+        TraceSource trace = new NoisyTrace(SyntheticTrace.devRun(), 7, 3, 0.01, 5);
+        FixSample sample = new FixSample();
+        while (trace.next(sample)) {
+            processor.accept(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+        }
+        TrackSimplifier simplifier = processor.simplifier();
+        simplifier.flush();
+
+        assertWithinTolerance(processor.track(), simplifier.simplified(), TOLERANCE);
+        assertReduced(processor.track(), simplifier.simplified());
+    }
+
+    @Test
+    public void flush_keepsTheNewestFix() {
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+        simplifier.append(42.35, -71.1, 3f, 4f, 0);
+        simplifier.append(42.3501, -71.1, 3f, 4f, 1);
+        simplifier.append(42.3502, -71.1, 3f, 4f, 2);
+        assertEquals(1, simplifier.simplified().size());
+        assertEquals(2, simplifier.pendingCount());
+
+        simplifier.flush();
+        assertEquals(2, simplifier.simplified().size());
+        assertEquals(42.3502, simplifier.simplified().latitude(1), 0.0);
+        assertEquals(2, simplifier.simplified().elapsedRealtimeNanos(1));
+    }
+
+    @Test
+    public void turn_keepsTheCorner() {
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+        double step = 10 / RunMetrics.METERS_PER_DEGREE;
+        for (int i = 0; i <= 10; i++) {
+            simplifier.append(42.35 + i * step, -71.1, 3f, 4f, i);
+        }
+        double east = 10 / (RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(42.35 + 10 * step)));
+        for (int i = 1; i <= 10; i++) {
+            simplifier.append(42.35 + 10 * step, -71.1 + i * east, 3f, 4f, 10 + i);
+        }
+        simplifier.flush();
+
+        TrackBuffer simplified = simplifier.simplified();
+        assertEquals(3, simplified.size());
+        assertEquals(10, simplified.elapsedRealtimeNanos(1));
+    }
+
+    @Test
+    public void reset_clearsTheSimplifiedTrack() {
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+        simplifier.append(42.35, -71.1, 3f, 4f, 0);
+        simplifier.append(42.3501, -71.1, 3f, 4f, 1);
+        simplifier.reset();
+        assertEquals(0, simplifier.simplified().size());
+        assertEquals(0, simplifier.pendingCount());
+
+        simplifier.append(1, 2, 3f, 4f, 5);
+        assertEquals(1, simplifier.simplified().size());
+    }
+
+    @Test
+    public void append_allocatesNothingAfterWarmUp() {
+        TrackSimplifier simplifier = new TrackSimplifier(TOLERANCE);
+        simplifier.simplified().ensureCapacity(100_000);
+        long checksum = zigzag(simplifier);
+        simplifier.reset();
+        long before = AllocationCounter.allocatedBytes();
+        checksum += zigzag(simplifier);
+        long allocated = AllocationCounter.allocatedBytes() - before;
+        assertTrue(checksum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long zigzag(TrackSimplifier simplifier) {
+        for (int i = 0; i < 100_000; i++) {
+            simplifier.append(42.35 + i * 1e-5, -71.1 + (i / 20 % 2) * 1e-4, 3f, 4f, i);
+        }
+        return simplifier.simplified().size();
+    }
+
+    /**
+     * Feeds a whole trace to a full track and a simplifier.
+     */
+    private static void feed(TraceSource trace, TrackBuffer full, TrackSimplifier simplifier) throws IOException {
+        FixSample sample = new FixSample();
+        while (trace.next(sample)) {
+            full.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+            simplifier.append(sample.latitude, sample.longitude, sample.speedMps, sample.accuracy,
+                    sample.elapsedRealtimeNanos);
+        }
+    }
+
+    /**
+     * Asserts that the simplified track keeps at most a fifth of the fixes.
+     */
+    private static void assertReduced(TrackBuffer full, TrackBuffer simplified) {
+        assertTrue(full.size() + " fixes simplified to " + simplified.size(),
+                full.size() >= 5 * simplified.size());
+    }
+
+    /**
+     * Asserts that the simplified track starts and ends with the full one and that every
+     * fix of the full track lies within the tolerance of the simplified segment around it.
+     */
+    private static void assertWithinTolerance(TrackBuffer full, TrackBuffer simplified, double tolerance) {
+        assertEquals(full.elapsedRealtimeNanos(0), simplified.elapsedRealtimeNanos(0));
+        assertEquals(full.elapsedRealtimeNanos(full.size() - 1),
+                simplified.elapsedRealtimeNanos(simplified.size() - 1));
+        int segment = 0;
+        double worst = 0;
+        for (int i = 0; i < full.size(); i++) {
+            long time = full.elapsedRealtimeNanos(i);
+            while (segment < simplified.size() - 2 && simplified.elapsedRealtimeNanos(segment + 1) < time) {
+                segment++;
+            }
+            worst = Math.max(worst, distanceToSegment(full.latitude(i), full.longitude(i),
+                    simplified.latitude(segment), simplified.longitude(segment),
+                    simplified.latitude(segment + 1), simplified.longitude(segment + 1)));
+        }
+        assertTrue("off by " + worst + " m", worst <= tolerance + 1e-6);
+    }
+
+    private static double distanceToSegment(double latitude, double longitude, double latitude1,
+                                            double longitude1, double latitude2, double longitude2) {
+        double metersPerDegreeLongitude = RunMetrics.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude1));
+        double px = (longitude - longitude1) * metersPerDegreeLongitude;
+        double py = (latitude - latitude1) * RunMetrics.METERS_PER_DEGREE;
+        double x = (longitude2 - longitude1) * metersPerDegreeLongitude;
+        double y = (latitude2 - latitude1) * RunMetrics.METERS_PER_DEGREE;
+        double lengthSquared = x * x + y * y;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * x + py * y) / lengthSquared)) : 0;
+        return Math.hypot(px - t * x, py - t * y);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.runtracker;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Test helper that reports how many heap bytes the current thread has allocated.
+ * <p>
+ * Relies on the HotSpot {@code com.sun.management.ThreadMXBean} extension, which is
+ * available on the JVM that runs the local unit tests.
+ * </p>
+ */
+public final class AllocationCounter {
+    /** HotSpot thread bean with per-thread allocation accounting. */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCounter() { }
+
+    /** @return the total number of bytes allocated so far by the calling thread. */
+    public static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.runtracker.provider;
+
+/**
+ * Test double for {@link LocationProvider} that delivers fixes on demand, on the
+ * calling thread, and records how it was started.
+ */
+public final class FakeLocationProvider implements LocationProvider {
+    /** Sink of the current registration, or null while stopped. */
+    private LocationSink sink;
+
+    /** Interval of the last start, in milliseconds. */
+    private long intervalMillis;
+
+    /** Distance of the last start, in meters. */
+    private float minDistanceMeters;
+
+    /** Number of calls to {@link #start}. */
+    private int startCount;
+
+    @Override
+    public void start(long intervalMillis, float minDistanceMeters, LocationSink sink) {
+        this.sink = sink;
+        this.intervalMillis = intervalMillis;
+        this.minDistanceMeters = minDistanceMeters;
+        startCount++;
+    }
+
+    @Override
+    public void stop() {
+        sink = null;
+    }
+
+    /**
+     * Delivers a batch of fixes with the same speed and accuracy, one second apart,
+     * moving north from the given latitude.
+     *
+     * @param count     number of fixes in the batch.
+     * @param latitude  latitude of the first fix, in degrees.
+     * @param speedMps  speed of every fix, in meters per second.
+     * @param accuracy  accuracy of every fix, in meters.
+     * @param startNanos timestamp of the first fix, in elapsed realtime nanoseconds.
+     */
+    public void deliverBatch(int count, double latitude, float speedMps, float accuracy, long startNanos) {
+        double step = speedMps / 111_195.0;
+        for (int i = 0; i < count; i++) {
+            sink.onFix(latitude + i * step, -71.1, speedMps, accuracy, startNanos + i * 1_000_000_000L);
+        }
+        sink.onBatchEnd();
+    }
+
+    /** @return true between {@link #start} and {@link #stop()}. */
+    public boolean isStarted() {
+        return sink != null;
+    }
+
+    /** @return the interval of the last start, in milliseconds. */
+    public long intervalMillis() {
+        return intervalMillis;
+    }
+
+    /** @return the distance of the last start, in meters. */
+    public float minDistanceMeters() {
+        return minDistanceMeters;
+    }
+
+    /** @return the number of calls to {@link #start}. */
+    public int startCount() {
+        return startCount;
+    }
+}
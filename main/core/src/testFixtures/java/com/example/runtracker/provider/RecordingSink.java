@@ -0,0 +1,24 @@
+package com.example.runtracker.provider;
+
+import com.example.runtracker.track.TrackBuffer;
+
+/**
+ * Test double for {@link LocationSink} that records every fix and counts the batches.
+ */
+public final class RecordingSink implements LocationSink {
+    /** Every fix received, oldest first. */
+    public final TrackBuffer fixes = new TrackBuffer();
+
+    /** Number of batches received. */
+    public int batchCount;
+
+    @Override
+    public void onFix(double latitude, double longitude, float speedMps, float accuracy, long elapsedRealtimeNanos) {
+        fixes.append(latitude, longitude, speedMps, accuracy, elapsedRealtimeNanos);
+    }
+
+    @Override
+    public void onBatchEnd() {
+        batchCount++;
+    }
+}
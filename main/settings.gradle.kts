@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "RunTracker"
 include(":app")
+include(":core")